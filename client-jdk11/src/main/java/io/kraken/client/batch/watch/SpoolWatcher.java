@@ -0,0 +1,572 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch.watch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.kraken.client.KrakenIoClient;
+import io.kraken.client.batch.OptimizationPipeline;
+import io.kraken.client.batch.ProcessedFileIndex;
+import io.kraken.client.impl.download.ResultDownloader;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.request.UploadOptions;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Optimizes images in place as they land in a spool directory, driven by a {@link WatchService} instead of polling.
+ * <p>
+ * Events of a file are coalesced: the file is picked up once it has been quiet for the quiet period and its size and
+ * modification time didn't change meanwhile, so a file still being written is not uploaded half-way. Picked up files
+ * pass a bounded queue to the upload threads. A full queue blocks the watcher thread, if the events pile up meanwhile
+ * until the watch service overflows, the spool is rescanned once.
+ * <p>
+ * Files Kraken.io made smaller are downloaded next to the original and renamed over it, the watcher ignores the
+ * events of its own writes for a short while after them. A file is optimized by one upload thread at a time, a file
+ * landing again while it is being optimized is picked up once that finished. Only files landing after the watcher was
+ * started are optimized, with a {@link ProcessedFileIndex} a rescan skips files optimized before. A file rewritten
+ * while it is optimized is not replaced by the optimized version of its old content, it is optimized again instead.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class SpoolWatcher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SpoolWatcher.class);
+
+    private static final String DOWNLOAD_SUFFIX = ".kraken";
+    private static final Path END = FileSystems.getDefault().getPath("");
+    private static final long WRITTEN_RETENTION_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long IN_FLIGHT_RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Notified on an upload thread about every file which has been processed.
+     */
+    public interface Listener {
+
+        /**
+         * The file has been uploaded and replaced by its optimized version if Kraken.io made it smaller.
+         */
+        void onOptimized(Path file, SuccessfulUploadResponse successfulUploadResponse);
+
+        /**
+         * The file failed in any step and is left as it was.
+         */
+        void onFailed(Path file, Throwable throwable);
+    }
+
+    private final KrakenIoClient krakenIoClient;
+    private final ResultDownloader resultDownloader;
+    private final Path spool;
+    private final UploadOptions uploadOptions;
+    private final FileFilter fileFilter;
+    private final ProcessedFileIndex processedFileIndex;
+    private final Listener listener;
+    private final long quietPeriodNanos;
+    private final int uploadThreads;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> registered = new HashSet<>();
+    private final Map<Path, Landing> landings = new HashMap<>();
+    // Files the watcher wrote itself, kept until the events of the write have been handled
+    private final Map<Path, Written> written = new ConcurrentHashMap<>();
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<Path> queue;
+    private final ExecutorService executorService;
+    private volatile boolean closed;
+
+    private SpoolWatcher(Builder builder) throws IOException {
+        checkNotNull(builder.krakenIoClient, "krakenIoClient must not be null");
+        checkNotNull(builder.resultDownloader, "resultDownloader must not be null");
+        checkNotNull(builder.spool, "spool must not be null");
+        checkArgument(Files.isDirectory(builder.spool), "spool must be a directory");
+        checkNotNull(builder.uploadOptions, "uploadOptions must not be null");
+        checkNotNull(builder.fileFilter, "fileFilter must not be null");
+        checkNotNull(builder.listener, "listener must not be null");
+        checkArgument(builder.quietPeriodNanos >= 0, "quietPeriod must not be negative");
+        checkArgument(builder.uploadThreads > 0, "uploadThreads must be greater than 0");
+        checkArgument(builder.queueCapacity > 0, "queueCapacity must be greater than 0");
+
+        this.krakenIoClient = builder.krakenIoClient;
+        this.resultDownloader = builder.resultDownloader;
+        this.spool = builder.spool.toAbsolutePath();
+        this.uploadOptions = builder.uploadOptions;
+        this.fileFilter = builder.fileFilter;
+        this.processedFileIndex = builder.processedFileIndex;
+        this.listener = builder.listener;
+        this.quietPeriodNanos = builder.quietPeriodNanos;
+        this.uploadThreads = builder.uploadThreads;
+        this.queue = new ArrayBlockingQueue<>(builder.queueCapacity);
+        this.watchService = spool.getFileSystem().newWatchService();
+        try {
+            register(spool, false);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+
+        this.executorService = Executors.newFixedThreadPool(
+                uploadThreads + 1,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kraken-io-spool-watcher-%d").build()
+        );
+        executorService.execute(this::watch);
+        for (int i = 0; i < uploadThreads; i++) {
+            executorService.execute(this::upload);
+        }
+    }
+
+    public static Builder builder(KrakenIoClient krakenIoClient, ResultDownloader resultDownloader, Path spool) {
+        return new Builder(krakenIoClient, resultDownloader, spool);
+    }
+
+    public Path getSpool() {
+        return spool;
+    }
+
+    /**
+     * Number of picked up files waiting for an upload thread.
+     */
+    public int getQueuedFiles() {
+        return queue.size();
+    }
+
+    /**
+     * Stops watching, files being uploaded are abandoned and left as they were.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        executorService.shutdownNow();
+        try {
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loop of the watcher thread, collects events and hands over the files which became quiet.
+     */
+    private void watch() {
+        try {
+            while (!closed) {
+                final WatchKey watchKey = landings.isEmpty() && written.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(Math.max(0, nextDeadline() - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (watchKey != null) {
+                    handle(watchKey);
+                }
+                handOver();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            log.debug("Stopped watching {}", spool);
+        } catch (RuntimeException e) {
+            log.error("Stopped watching {}", spool, e);
+        } finally {
+            for (int i = 0; i < uploadThreads; i++) {
+                queue.offer(END);
+            }
+        }
+    }
+
+    private void handle(WatchKey watchKey) {
+        final Path directory = directories.get(watchKey);
+        for (WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+            if (watchEvent.kind() == StandardWatchEventKinds.OVERFLOW) {
+                log.warn("Events of {} overflowed, rescanning", spool);
+                rescan(spool);
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+
+            final Path path = directory.resolve((Path) watchEvent.context());
+            if (watchEvent.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                landings.remove(path);
+                written.remove(path);
+            } else if (Files.isDirectory(path)) {
+                if (watchEvent.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    rescan(path);
+                }
+            } else {
+                land(path);
+            }
+        }
+
+        if (!watchKey.reset()) {
+            registered.remove(directories.remove(watchKey));
+        }
+    }
+
+    /**
+     * Registers the directory and the directories below and lands all files found, files can land in a new directory
+     * before it is registered.
+     */
+    private void rescan(Path directory) {
+        try {
+            register(directory, true);
+        } catch (IOException e) {
+            log.warn("Failed to rescan {}", directory, e);
+        }
+    }
+
+    /**
+     * Registers the directory before listing it, a file created meanwhile is either listed or reported by an event.
+     */
+    private void register(Path directory, boolean land) throws IOException {
+        if (registered.add(directory)) {
+            directories.put(directory.register(
+                    watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE
+            ), directory);
+        }
+
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+            for (Path path : directoryStream) {
+                if (Files.isDirectory(path)) {
+                    register(path, land);
+                } else if (land) {
+                    land(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts or restarts the quiet period of the file.
+     */
+    private void land(Path path) {
+        final String name = path.getFileName().toString();
+        if ((name.startsWith(".") && name.endsWith(DOWNLOAD_SUFFIX)) || !fileFilter.accept(path.toFile())) {
+            return;
+        }
+
+        final Signature signature = Signature.of(path);
+        if (signature == null || isWritten(path, signature)) {
+            return;
+        }
+        landings.put(path, new Landing(System.nanoTime() + quietPeriodNanos, signature));
+    }
+
+    private boolean isWritten(Path path, Signature signature) {
+        final Written ownWrite = written.get(path);
+        return ownWrite != null && ownWrite.signature.equals(signature);
+    }
+
+    private long nextDeadline() {
+        long nextDeadline = Long.MAX_VALUE;
+        for (Landing landing : landings.values()) {
+            nextDeadline = Math.min(nextDeadline, landing.deadline);
+        }
+        for (Written ownWrite : written.values()) {
+            nextDeadline = Math.min(nextDeadline, ownWrite.expiry);
+        }
+        return nextDeadline;
+    }
+
+    /**
+     * Queues the files whose quiet period is over, a file which changed without an event gets another quiet period, as
+     * does a file which is still being optimized. Forgets own writes whose events have been handled.
+     */
+    private void handOver() throws InterruptedException {
+        final long now = System.nanoTime();
+        written.values().removeIf(ownWrite -> ownWrite.expiry - now <= 0);
+
+        final Iterator<Map.Entry<Path, Landing>> iterator = landings.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Path, Landing> entry = iterator.next();
+            if (entry.getValue().deadline - now > 0) {
+                continue;
+            }
+
+            final Signature signature = Signature.of(entry.getKey());
+            if (signature == null || isWritten(entry.getKey(), signature)) {
+                iterator.remove();
+            } else if (!signature.equals(entry.getValue().signature)) {
+                entry.setValue(new Landing(now + quietPeriodNanos, signature));
+            } else if (inFlight.contains(entry.getKey())) {
+                entry.setValue(new Landing(now + Math.max(quietPeriodNanos, IN_FLIGHT_RECHECK_NANOS), signature));
+            } else {
+                iterator.remove();
+                written.remove(entry.getKey());
+                inFlight.add(entry.getKey());
+                queue.put(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Loop of an upload thread.
+     */
+    private void upload() {
+        try {
+            while (true) {
+                final Path file = queue.take();
+                if (file == END) {
+                    return;
+                }
+
+                try {
+                    optimize(file);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.debug("Failed to optimize {}", file, e);
+                    listener.onFailed(file, e);
+                } finally {
+                    inFlight.remove(file);
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug("Upload thread of {} interrupted", spool);
+        }
+    }
+
+    private void optimize(Path file) throws Exception {
+        if (processedFileIndex != null && processedFileIndex.isProcessed(file.toFile())) {
+            return;
+        }
+
+        final Signature uploaded = Signature.of(file);
+        if (uploaded == null) {
+            return;
+        }
+        final DirectFileUploadRequest directFileUploadRequest = DirectFileUploadRequest.builder(file.toFile())
+                .withOptionsOf(uploadOptions)
+                .build();
+        final SuccessfulUploadResponse successfulUploadResponse = krakenIoClient.directUpload(directFileUploadRequest);
+
+        final Integer savedBytes = successfulUploadResponse.getSavedBytes();
+        if (savedBytes == null || savedBytes > 0) {
+            final Path download = file.resolveSibling("." + file.getFileName() + DOWNLOAD_SUFFIX);
+            try {
+                resultDownloader.download(successfulUploadResponse, download.toFile()).get();
+                if (!uploaded.equals(Signature.of(file))) {
+                    // Rewritten meanwhile, its landing is handed over again once this upload thread let go of it
+                    log.debug("{} changed while it was optimized, discarding the download", file);
+                    return;
+                }
+                Files.move(download, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } finally {
+                Files.deleteIfExists(download);
+            }
+        }
+
+        final Signature signature = Signature.of(file);
+        if (signature != null) {
+            // The watcher only wakes up for the expiry once the events of the write arrived
+            written.put(file, new Written(signature, System.nanoTime() + quietPeriodNanos + WRITTEN_RETENTION_NANOS));
+        }
+        if (processedFileIndex != null) {
+            processedFileIndex.markProcessed(file.toFile());
+        }
+        listener.onOptimized(file, successfulUploadResponse);
+    }
+
+    public static class Builder {
+        private final KrakenIoClient krakenIoClient;
+        private final ResultDownloader resultDownloader;
+        private final Path spool;
+        private UploadOptions uploadOptions = UploadOptions.builder().build();
+        private FileFilter fileFilter = OptimizationPipeline.imageFileFilter();
+        private ProcessedFileIndex processedFileIndex;
+        private Listener listener = new Listener() {
+            @Override
+            public void onOptimized(Path file, SuccessfulUploadResponse successfulUploadResponse) {
+                log.info("Optimized {}, saved {} bytes", file, successfulUploadResponse.getSavedBytes());
+            }
+
+            @Override
+            public void onFailed(Path file, Throwable throwable) {
+                log.warn("Failed to optimize {}", file, throwable);
+            }
+        };
+        private long quietPeriodNanos = TimeUnit.SECONDS.toNanos(1);
+        private int uploadThreads = 4;
+        private int queueCapacity = 64;
+
+        private Builder(KrakenIoClient krakenIoClient, ResultDownloader resultDownloader, Path spool) {
+            this.krakenIoClient = krakenIoClient;
+            this.resultDownloader = resultDownloader;
+            this.spool = spool;
+        }
+
+        /**
+         * Options of the uploads, by default lossless optimization without resizing.
+         */
+        public Builder withUploadOptions(UploadOptions uploadOptions) {
+            this.uploadOptions = uploadOptions;
+            return this;
+        }
+
+        /**
+         * Files to optimize, {@link OptimizationPipeline#imageFileFilter()} by default.
+         */
+        public Builder withFileFilter(FileFilter fileFilter) {
+            this.fileFilter = fileFilter;
+            return this;
+        }
+
+        /**
+         * Index to skip files optimized before and to record optimized files in, none by default.
+         */
+        public Builder withIndex(ProcessedFileIndex processedFileIndex) {
+            this.processedFileIndex = processedFileIndex;
+            return this;
+        }
+
+        /**
+         * Listener of processed files, by default the outcome is logged.
+         */
+        public Builder withListener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Time without events after which a file is considered completely written, 1 second by default.
+         */
+        public Builder withQuietPeriod(long quietPeriod, TimeUnit timeUnit) {
+            checkNotNull(timeUnit, "timeUnit must not be null");
+            this.quietPeriodNanos = timeUnit.toNanos(quietPeriod);
+            return this;
+        }
+
+        public Builder withUploadThreads(int uploadThreads) {
+            this.uploadThreads = uploadThreads;
+            return this;
+        }
+
+        /**
+         * Number of picked up files waiting for an upload thread before the watcher thread blocks.
+         */
+        public Builder withQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Starts watching the spool.
+         *
+         * @throws IOException if the spool can't be watched
+         */
+        public SpoolWatcher build() throws IOException {
+            return new SpoolWatcher(this);
+        }
+    }
+
+    private static class Landing {
+        private final long deadline;
+        private final Signature signature;
+
+        private Landing(long deadline, Signature signature) {
+            this.deadline = deadline;
+            this.signature = signature;
+        }
+    }
+
+    private static class Written {
+        private final Signature signature;
+        private final long expiry;
+
+        private Written(Signature signature, long expiry) {
+            this.signature = signature;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * Size and modification time of a file, a changed signature means a changed file.
+     */
+    private static class Signature {
+        private final long size;
+        private final long lastModified;
+
+        private Signature(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Nullable
+        private static Signature of(Path path) {
+            try {
+                final BasicFileAttributes basicFileAttributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return new Signature(basicFileAttributes.size(), basicFileAttributes.lastModifiedTime().toMillis());
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                log.debug("Failed to read the attributes of {}", path, e);
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Signature signature = (Signature) o;
+            return size == signature.size && lastModified == signature.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, lastModified);
+        }
+    }
+}
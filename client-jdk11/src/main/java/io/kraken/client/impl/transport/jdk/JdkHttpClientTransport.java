@@ -0,0 +1,240 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport.jdk;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.kraken.client.impl.transport.RequestBody;
+import io.kraken.client.impl.transport.Transport;
+import io.kraken.client.impl.transport.TransportRequest;
+import io.kraken.client.impl.transport.TransportResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link Transport} backed by the JDK {@link HttpClient}. The client negotiates HTTP/2 over TLS, so concurrent uploads
+ * are multiplexed as streams over a single connection per host instead of holding one pooled connection each.
+ * Asynchronous requests use {@link HttpClient#sendAsync} and don't block a thread while waiting for the response.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class JdkHttpClientTransport implements Transport {
+
+    private static final Logger log = LoggerFactory.getLogger(JdkHttpClientTransport.class);
+
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+    private final ExecutorService executorService;
+    private final boolean ownsExecutorService;
+
+    private JdkHttpClientTransport(HttpClient.Version version,
+                                   long connectTimeoutMillis,
+                                   long requestTimeoutMillis,
+                                   @Nullable ExecutorService executorService) {
+        checkNotNull(version, "version must not be null");
+        checkArgument(connectTimeoutMillis > 0, "connectTimeout must be greater than 0");
+        checkArgument(requestTimeoutMillis >= 0, "requestTimeout must not be negative");
+
+        if (executorService != null) {
+            this.executorService = executorService;
+            this.ownsExecutorService = false;
+        } else {
+            this.executorService = Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kraken-io-jdk-transport-%d").build()
+            );
+            this.ownsExecutorService = true;
+        }
+
+        this.requestTimeout = requestTimeoutMillis > 0 ? Duration.ofMillis(requestTimeoutMillis) : null;
+        this.httpClient = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(this.executorService)
+                .build();
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest transportRequest) throws IOException {
+        log.debug("Executing {} {}", transportRequest.getMethod(), transportRequest.getUrl());
+        try {
+            final HttpResponse<InputStream> httpResponse = httpClient.send(toHttpRequest(transportRequest), HttpResponse.BodyHandlers.ofInputStream());
+            log.debug("Received {} for {} {}", httpResponse.statusCode(), transportRequest.getMethod(), transportRequest.getUrl());
+
+            return toTransportResponse(httpResponse);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final InterruptedIOException interruptedIOException = new InterruptedIOException("Request was interrupted");
+            interruptedIOException.initCause(e);
+            throw interruptedIOException;
+        }
+    }
+
+    @Override
+    public ListenableFuture<TransportResponse> executeAsync(final TransportRequest transportRequest) {
+        final SettableFuture<TransportResponse> future = SettableFuture.create();
+
+        log.debug("Executing {} {}", transportRequest.getMethod(), transportRequest.getUrl());
+        final CompletableFuture<HttpResponse<InputStream>> responseFuture;
+        try {
+            responseFuture = httpClient.sendAsync(toHttpRequest(transportRequest), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException | RuntimeException e) {
+            future.setException(e);
+            return future;
+        }
+
+        responseFuture.whenComplete((httpResponse, throwable) -> {
+            if (throwable != null) {
+                future.setException(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+                return;
+            }
+
+            log.debug("Received {} for {} {}", httpResponse.statusCode(), transportRequest.getMethod(), transportRequest.getUrl());
+            final TransportResponse transportResponse = toTransportResponse(httpResponse);
+            if (!future.set(transportResponse)) {
+                closeQuietly(transportResponse);
+            }
+        });
+        future.addListener(() -> {
+            if (future.isCancelled()) {
+                responseFuture.cancel(true);
+            }
+        }, MoreExecutors.directExecutor());
+
+        return future;
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutorService) {
+            executorService.shutdownNow();
+        }
+    }
+
+    private HttpRequest toHttpRequest(TransportRequest transportRequest) throws IOException {
+        final HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(URI.create(transportRequest.getUrl()));
+        if (requestTimeout != null) {
+            requestBuilder.timeout(requestTimeout);
+        }
+        for (Map.Entry<String, String> header : transportRequest.getHeaders().entrySet()) {
+            requestBuilder.header(header.getKey(), header.getValue());
+        }
+
+        final RequestBody body = transportRequest.getBody();
+        if (body != null) {
+            requestBuilder.header("Content-Type", body.getContentType());
+            requestBuilder.method(transportRequest.getMethod(), RequestBodyPublishers.of(body));
+        } else {
+            requestBuilder.method(transportRequest.getMethod(), HttpRequest.BodyPublishers.noBody());
+        }
+
+        return requestBuilder.build();
+    }
+
+    private static void closeQuietly(TransportResponse transportResponse) {
+        try {
+            transportResponse.close();
+        } catch (IOException e) {
+            log.warn("Failed to close response of a cancelled request", e);
+        }
+    }
+
+    private static TransportResponse toTransportResponse(HttpResponse<InputStream> httpResponse) {
+        final Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header : httpResponse.headers().map().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                headers.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+
+        return new TransportResponse(httpResponse.statusCode(), headers, httpResponse.body(), null);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private HttpClient.Version version = HttpClient.Version.HTTP_2;
+        private long connectTimeoutMillis = 3000;
+        private long requestTimeoutMillis = 0;
+        private ExecutorService executorService;
+
+        private Builder() {
+        }
+
+        /**
+         * Preferred protocol version, {@link HttpClient.Version#HTTP_2} by default. Servers which don't support HTTP/2
+         * are transparently served over HTTP/1.1.
+         */
+        public Builder withVersion(HttpClient.Version version) {
+            this.version = version;
+            return this;
+        }
+
+        public Builder withConnectTimeout(long connectTimeout, TimeUnit timeUnit) {
+            this.connectTimeoutMillis = timeUnit.toMillis(connectTimeout);
+            return this;
+        }
+
+        /**
+         * Maximum time from sending a request until its response headers arrived, including the upload of the request
+         * body. There is no timeout by default, as the {@link HttpClient} has no timeout for a single read a limit has
+         * to cover the upload of the largest image over the slowest link.
+         */
+        public Builder withRequestTimeout(long requestTimeout, TimeUnit timeUnit) {
+            this.requestTimeoutMillis = timeUnit.toMillis(requestTimeout);
+            return this;
+        }
+
+        /**
+         * Executor used by the {@link HttpClient}. The executor is owned by the caller and is never shut down by the
+         * transport, if none is set the transport uses its own cached thread pool.
+         */
+        public Builder withExecutorService(@Nullable ExecutorService executorService) {
+            this.executorService = executorService;
+            return this;
+        }
+
+        public JdkHttpClientTransport build() {
+            return new JdkHttpClientTransport(version, connectTimeoutMillis, requestTimeoutMillis, executorService);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport.jdk;
+
+import io.kraken.client.impl.transport.MultipartRequestBody;
+import io.kraken.client.impl.transport.RequestBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Adapts a {@link RequestBody} to a {@link HttpRequest.BodyPublisher} without a thread writing the body. Multipart
+ * bodies are composed from the JDK publishers, file parts are read with {@link HttpRequest.BodyPublishers#ofFile} and
+ * stream parts with {@link HttpRequest.BodyPublishers#ofInputStream}, both are pulled by the {@link java.net.http.HttpClient}
+ * as it signals demand. Any other body is small and encoded up front.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+final class RequestBodyPublishers {
+
+    private RequestBodyPublishers() {
+    }
+
+    static HttpRequest.BodyPublisher of(RequestBody requestBody) throws IOException {
+        checkNotNull(requestBody, "requestBody must not be null");
+
+        if (requestBody instanceof MultipartRequestBody) {
+            final List<HttpRequest.BodyPublisher> publishers = new ArrayList<>();
+            ((MultipartRequestBody) requestBody).accept(new MultipartRequestBody.SegmentVisitor() {
+                @Override
+                public void visitBytes(byte[] bytes) {
+                    publishers.add(HttpRequest.BodyPublishers.ofByteArray(bytes));
+                }
+
+                @Override
+                public void visitFile(File file, long length) throws IOException {
+                    publishers.add(HttpRequest.BodyPublishers.ofFile(file.toPath()));
+                }
+
+                @Override
+                public void visitStream(InputStream inputStream) {
+                    // The JDK publisher closes the stream once it reached its end
+                    publishers.add(HttpRequest.BodyPublishers.ofInputStream(() -> inputStream));
+                }
+            });
+
+            return new ConcatPublisher(publishers, requestBody.getContentLength());
+        }
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        requestBody.writeTo(outputStream);
+        return HttpRequest.BodyPublishers.ofByteArray(outputStream.toByteArray());
+    }
+
+    /**
+     * Publishes the items of the given publishers one after another. Demand signalled by the subscriber which wasn't
+     * met by one publisher is carried over to the next.
+     */
+    private static class ConcatPublisher implements HttpRequest.BodyPublisher {
+
+        private final List<HttpRequest.BodyPublisher> publishers;
+        private final long contentLength;
+
+        private ConcatPublisher(List<HttpRequest.BodyPublisher> publishers, long contentLength) {
+            this.publishers = publishers;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            final ConcatSubscription subscription = new ConcatSubscription(subscriber, publishers.iterator());
+            subscriber.onSubscribe(subscription);
+            subscription.next();
+        }
+    }
+
+    private static class ConcatSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final Iterator<HttpRequest.BodyPublisher> publishers;
+
+        // Guarded by this
+        private long demand;
+        private Flow.Subscription current;
+        private boolean cancelled;
+
+        private ConcatSubscription(Flow.Subscriber<? super ByteBuffer> subscriber, Iterator<HttpRequest.BodyPublisher> publishers) {
+            this.subscriber = subscriber;
+            this.publishers = publishers;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Requested items must be greater than 0 but was " + n));
+                return;
+            }
+
+            final Flow.Subscription subscription;
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                subscription = current;
+            }
+            if (subscription != null) {
+                subscription.request(n);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            final Flow.Subscription subscription;
+            synchronized (this) {
+                cancelled = true;
+                subscription = current;
+                current = null;
+            }
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+
+        private void next() {
+            final HttpRequest.BodyPublisher publisher;
+            synchronized (this) {
+                current = null;
+                if (cancelled) {
+                    return;
+                }
+                publisher = publishers.hasNext() ? publishers.next() : null;
+            }
+
+            if (publisher == null) {
+                subscriber.onComplete();
+            } else {
+                publisher.subscribe(new SegmentSubscriber());
+            }
+        }
+
+        private class SegmentSubscriber implements Flow.Subscriber<ByteBuffer> {
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                final boolean subscriptionCancelled;
+                final long outstanding;
+                synchronized (ConcatSubscription.this) {
+                    subscriptionCancelled = cancelled;
+                    if (!subscriptionCancelled) {
+                        current = subscription;
+                    }
+                    outstanding = demand;
+                }
+
+                if (subscriptionCancelled) {
+                    subscription.cancel();
+                } else if (outstanding > 0) {
+                    subscription.request(outstanding);
+                }
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                synchronized (ConcatSubscription.this) {
+                    if (demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                }
+                subscriber.onNext(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                next();
+            }
+        }
+    }
+}
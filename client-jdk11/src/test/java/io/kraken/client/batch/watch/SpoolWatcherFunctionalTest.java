@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch.watch;
+
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.impl.DefaultKrakenIoClient;
+import io.kraken.client.impl.download.ResultDownloader;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.Delay;
+import org.mockserver.model.Header;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class SpoolWatcherFunctionalTest extends AbstractFunctionalTest {
+
+    // Text bodies, binary ones need JAXB in the mock server which Java 11 lacks
+    private static final byte[] ORIGINAL = "original".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] OPTIMIZED = "kraked".getBytes(StandardCharsets.UTF_8);
+
+    private Path spool;
+    private DefaultKrakenIoClient krakenIoClient;
+    private ResultDownloader resultDownloader;
+    private RecordingListener listener;
+    private SpoolWatcher spoolWatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        spool = Files.createTempDirectory("spool");
+        krakenIoClient = new DefaultKrakenIoClient("somekey", "somesecret", "http://localhost:1080");
+        resultDownloader = ResultDownloader.builder(krakenIoClient.getPooledTransport()).build();
+        listener = new RecordingListener();
+
+        getMockServerClient()
+                .when(request().withPath("/dl/optimized.jpg"))
+                .respond(response().withStatusCode(200).withBody(new String(OPTIMIZED, StandardCharsets.UTF_8)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (spoolWatcher != null) {
+            spoolWatcher.close();
+        }
+        resultDownloader.close();
+        krakenIoClient.close();
+        try (Stream<Path> paths = Files.walk(spool)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testReplacesLandedFileOnce() throws Exception {
+        respondToUpload(0);
+        spoolWatcher = startWatcher(2);
+
+        final Path image = spool.resolve("1.jpg");
+        Files.write(image, ORIGINAL);
+
+        listener.await();
+        assertThat(listener.optimized, contains(image));
+        assertThat(Files.readAllBytes(image), is(OPTIMIZED));
+
+        // The events of the own write must not land the file again
+        Thread.sleep(500);
+        assertThat(listener.optimized, hasSize(1));
+        assertThat(listSpool(), contains("1.jpg"));
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testOptimizesImagesInNewDirectories() throws Exception {
+        respondToUpload(0);
+        spoolWatcher = startWatcher(2);
+
+        final Path directory = Files.createDirectories(spool.resolve("a/b"));
+        Files.write(directory.resolve("notes.txt"), ORIGINAL);
+        Files.write(directory.resolve("2.png"), ORIGINAL);
+
+        listener.await();
+        assertThat(listener.optimized, contains(directory.resolve("2.png")));
+        assertThat(Files.readAllBytes(directory.resolve("2.png")), is(OPTIMIZED));
+        assertThat(Files.readAllBytes(directory.resolve("notes.txt")), is(ORIGINAL));
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testUploadsFileRewrittenDuringUpload() throws Exception {
+        final byte[] rewritten = "original, rewritten".getBytes(StandardCharsets.UTF_8);
+        respondToUpload(1000, ORIGINAL.length - OPTIMIZED.length, Times.exactly(1));
+        respondToUpload(0, 0, Times.unlimited());
+        spoolWatcher = startWatcher(2);
+
+        final Path image = spool.resolve("1.jpg");
+        Files.write(image, ORIGINAL);
+        Thread.sleep(300);
+        // Lands again while the first upload is still waiting for its response
+        Files.write(image, rewritten);
+
+        listener.await();
+        Thread.sleep(500);
+        assertThat(listener.optimized, contains(image));
+        assertThat(listener.failed, empty());
+        assertThat(Files.readAllBytes(image), is(rewritten));
+        assertThat(listSpool(), contains("1.jpg"));
+        getMockServerClient().verify(request().withPath("/dl/optimized.jpg"), VerificationTimes.exactly(1));
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(2));
+    }
+
+    private SpoolWatcher startWatcher(int uploadThreads) throws IOException {
+        return SpoolWatcher.builder(krakenIoClient, resultDownloader, spool)
+                .withListener(listener)
+                .withQuietPeriod(50, TimeUnit.MILLISECONDS)
+                .withUploadThreads(uploadThreads)
+                .build();
+    }
+
+    private List<String> listSpool() throws IOException {
+        try (Stream<Path> paths = Files.list(spool)) {
+            return paths.map(path -> path.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+
+    private void respondToUpload(long delayMillis) {
+        respondToUpload(delayMillis, ORIGINAL.length - OPTIMIZED.length, Times.unlimited());
+    }
+
+    private void respondToUpload(long delayMillis, int savedBytes, Times times) {
+        getMockServerClient()
+                .when(request().withPath("/v1/upload"), times)
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withDelay(new Delay(TimeUnit.MILLISECONDS, delayMillis))
+                                .withBody("{\"success\":true,\"file_name\":\"optimized.jpg\",\"original_size\":" + ORIGINAL.length +
+                                        ",\"kraked_size\":" + (ORIGINAL.length - savedBytes) + ",\"saved_bytes\":" + savedBytes +
+                                        ",\"kraked_url\":\"http://localhost:1080/dl/optimized.jpg\"}")
+                );
+    }
+
+    private static class RecordingListener implements SpoolWatcher.Listener {
+        private final List<Path> optimized = new CopyOnWriteArrayList<>();
+        private final List<Path> failed = new CopyOnWriteArrayList<>();
+        private final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        @Override
+        public void onOptimized(Path file, SuccessfulUploadResponse successfulUploadResponse) {
+            optimized.add(file);
+            countDownLatch.countDown();
+        }
+
+        @Override
+        public void onFailed(Path file, Throwable throwable) {
+            failed.add(file);
+            countDownLatch.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            assertThat(countDownLatch.await(10, TimeUnit.SECONDS), is(true));
+        }
+    }
+}
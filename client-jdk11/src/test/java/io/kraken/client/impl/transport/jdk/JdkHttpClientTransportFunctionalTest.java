@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport.jdk;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.kraken.client.GeneratedInputStream;
+import io.kraken.client.KrakenIoClient;
+import io.kraken.client.impl.DefaultKrakenIoClient;
+import io.kraken.client.impl.DefaultKrakenIoClientFunctionalTest;
+import io.kraken.client.impl.transport.MultipartRequestBody;
+import io.kraken.client.impl.transport.TransportRequest;
+import io.kraken.client.impl.transport.TransportResponse;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.request.DirectUploadRequest;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Test;
+import org.mockserver.mock.Expectation;
+import org.mockserver.model.Delay;
+import org.mockserver.model.Header;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Runs the client functional tests over the JDK transport.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class JdkHttpClientTransportFunctionalTest extends DefaultKrakenIoClientFunctionalTest {
+
+    private JdkHttpClientTransport transport;
+    private DefaultKrakenIoClient krakenIoClient;
+
+    @Override
+    protected KrakenIoClient createKrakenIoClient() {
+        transport = JdkHttpClientTransport.builder().build();
+        krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withTransport(transport)
+                .build();
+        return krakenIoClient;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        krakenIoClient.close();
+    }
+
+    @Test
+    public void testDirectFileUploadAsync() throws Exception {
+        respondToUpload();
+
+        final File image = new File(Resources.getResource(DefaultKrakenIoClientFunctionalTest.class, "test.jpg").toURI());
+        final SuccessfulUploadResponse successfulUploadResponse = krakenIoClient.directUploadAsync(DirectFileUploadRequest.builder(image).build()).get(5, TimeUnit.SECONDS);
+        assertThat(successfulUploadResponse.getSuccess(), is(true));
+
+        final Expectation[] expectations = getMockServerClient().retrieveAsExpectations(request().withPath("/v1/upload"));
+        assertThat(expectations.length, is(1));
+        assertThat(expectations[0].getHttpRequest().getFirstHeader("Content-Length"), is(String.valueOf(expectations[0].getHttpRequest().getBodyAsRawBytes().length)));
+        assertThat(expectations[0].getHttpRequest().getBodyAsRawBytes().length, greaterThan((int) image.length()));
+    }
+
+    @Test
+    public void testLargeDirectUploadAsync() throws Exception {
+        respondToUpload();
+
+        final long size = 8 * 1024 * 1024;
+        final SuccessfulUploadResponse successfulUploadResponse = krakenIoClient.directUploadAsync(DirectUploadRequest.builder(new GeneratedInputStream(size)).build()).get(30, TimeUnit.SECONDS);
+        assertThat(successfulUploadResponse.getSuccess(), is(true));
+
+        final Expectation[] expectations = getMockServerClient().retrieveAsExpectations(request().withPath("/v1/upload"));
+        assertThat(expectations.length, is(1));
+        assertThat((long) expectations[0].getHttpRequest().getBodyAsRawBytes().length, greaterThan(size));
+    }
+
+    @Test
+    public void testBodyLength() throws Exception {
+        final File image = new File(Resources.getResource(DefaultKrakenIoClientFunctionalTest.class, "test.jpg").toURI());
+        final MultipartRequestBody fileBody = MultipartRequestBody.builder()
+                .withBytes("data", "application/json", "{}".getBytes(Charsets.UTF_8))
+                .withFile("upload", image)
+                .build();
+        final MultipartRequestBody streamBody = MultipartRequestBody.builder()
+                .withStream("upload", "image", new GeneratedInputStream(1024))
+                .build();
+
+        assertThat(RequestBodyPublishers.of(fileBody).contentLength(), is(fileBody.getContentLength()));
+        assertThat(RequestBodyPublishers.of(streamBody).contentLength(), is(-1L));
+    }
+
+    @Test
+    public void testCancelAsyncRequest() throws Exception {
+        respondSlowly(2000);
+
+        final ListenableFuture<TransportResponse> future = transport.executeAsync(slowRequest());
+        assertThat(future.cancel(true), is(true));
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Expected CancellationException");
+        } catch (CancellationException e) {
+            // expected
+        }
+
+        getMockServerClient().reset();
+        respondSlowly(0);
+        final TransportResponse transportResponse = transport.executeAsync(slowRequest()).get(5, TimeUnit.SECONDS);
+        try {
+            assertThat(transportResponse.getStatus(), is(200));
+        } finally {
+            transportResponse.close();
+        }
+    }
+
+    @Test
+    public void testNoRequestTimeoutByDefault() throws Exception {
+        respondSlowly(3500);
+
+        final TransportResponse transportResponse = transport.execute(slowRequest());
+        try {
+            assertThat(transportResponse.getStatus(), is(200));
+        } finally {
+            transportResponse.close();
+        }
+    }
+
+    @Test
+    public void testRequestTimeout() throws Exception {
+        respondSlowly(2000);
+
+        final JdkHttpClientTransport timingOutTransport = JdkHttpClientTransport.builder()
+                .withRequestTimeout(200, TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            timingOutTransport.executeAsync(slowRequest()).get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(HttpTimeoutException.class));
+        } finally {
+            timingOutTransport.close();
+        }
+    }
+
+    private TransportRequest slowRequest() {
+        return TransportRequest.builder(TransportRequest.GET, "http://localhost:1080/slow").build();
+    }
+
+    private void respondSlowly(long delayMillis) {
+        getMockServerClient()
+                .when(request().withPath("/slow"))
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("ok")
+                                .withDelay(new Delay(TimeUnit.MILLISECONDS, delayMillis))
+                );
+    }
+
+    private void respondToUpload() throws IOException {
+        getMockServerClient()
+                .when(
+                        request()
+                                .withPath("/v1/upload")
+                                .withHeader(new Header("Content-Type", "multipart/form-data.*"))
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withBody(Resources.toString(Resources.getResource(DefaultKrakenIoClientFunctionalTest.class, "krakenIoResponse200.json"), Charsets.UTF_8))
+                );
+    }
+}
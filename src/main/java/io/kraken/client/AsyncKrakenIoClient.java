@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.kraken.client.model.request.*;
+import io.kraken.client.model.response.SuccessfulUploadCallbackUrlResponse;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import io.kraken.client.model.response.SuccessfulUploadSetResponse;
+
+/**
+ * Non-blocking counterpart of {@link KrakenIoClient}. Failed requests complete the returned future
+ * exceptionally with the same exceptions the blocking client would throw.
+ * <p>
+ * The calling thread is never blocked, but whether a request in flight holds a thread depends on the transport of
+ * {@link io.kraken.client.impl.DefaultKrakenIoClient}: {@link io.kraken.client.impl.transport.ApacheHttpTransport} and
+ * {@link io.kraken.client.impl.transport.JerseyTransport} perform blocking I/O and occupy one executor thread per
+ * request for its whole duration, only the {@code JdkHttpClientTransport} of the {@code client-jdk11} module waits for
+ * responses without holding a thread.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public interface AsyncKrakenIoClient {
+    ListenableFuture<SuccessfulUploadResponse> directUploadAsync(DirectUploadRequest directUploadRequest);
+    ListenableFuture<SuccessfulUploadResponse> directUploadAsync(DirectFileUploadRequest directFileUploadRequest);
+    ListenableFuture<SuccessfulUploadResponse> imageUrlUploadAsync(ImageUrlUploadRequest imageUrlUploadRequest);
+
+    ListenableFuture<SuccessfulUploadCallbackUrlResponse> directUploadAsync(DirectUploadCallbackUrlRequest directUploadCallbackUrlRequest);
+    ListenableFuture<SuccessfulUploadCallbackUrlResponse> directUploadAsync(DirectFileUploadCallbackUrlRequest directFileUploadCallbackUrlRequest);
+    ListenableFuture<SuccessfulUploadCallbackUrlResponse> imageUrlUploadAsync(ImageUrlUploadCallbackUrlRequest imageUrlUploadCallbackUrlRequest);
+
+    ListenableFuture<SuccessfulUploadSetResponse> directUploadAsync(DirectUploadSetRequest directUploadSetRequest);
+    ListenableFuture<SuccessfulUploadSetResponse> directUploadAsync(DirectFileUploadSetRequest directFileUploadSetRequest);
+    ListenableFuture<SuccessfulUploadSetResponse> imageUrlUploadAsync(ImageUrlUploadSetRequest imageUrlUploadSetRequest);
+
+    ListenableFuture<SuccessfulUploadCallbackUrlResponse> directUploadAsync(DirectUploadCallbackUrlSetRequest directUploadCallbackUrlSetRequest);
+    ListenableFuture<SuccessfulUploadCallbackUrlResponse> directUploadAsync(DirectFileUploadCallbackUrlSetRequest directFileUploadCallbackUrlSetRequest);
+    ListenableFuture<SuccessfulUploadCallbackUrlResponse> imageUrlUploadAsync(ImageUrlUploadCallbackUrlSetRequest imageUrlUploadCallbackUrlSetRequest);
+}
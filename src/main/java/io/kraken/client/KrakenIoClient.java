@@ -18,6 +18,7 @@ package io.kraken.client;
 import io.kraken.client.model.request.*;
 import io.kraken.client.model.response.SuccessfulUploadCallbackUrlResponse;
 import io.kraken.client.model.response.SuccessfulUploadResponse;
+import io.kraken.client.model.response.SuccessfulUploadSetResponse;
 
 /**
  * @author Emir Dizdarevic
@@ -31,4 +32,12 @@ public interface KrakenIoClient {
     SuccessfulUploadCallbackUrlResponse directUpload(DirectUploadCallbackUrlRequest directUploadCallbackUrlRequest);
     SuccessfulUploadCallbackUrlResponse directUpload(DirectFileUploadCallbackUrlRequest directFileUploadCallbackUrlRequest);
     SuccessfulUploadCallbackUrlResponse imageUrlUpload(ImageUrlUploadCallbackUrlRequest imageUrlUploadCallbackUrlRequest);
+
+    SuccessfulUploadSetResponse directUpload(DirectUploadSetRequest directUploadSetRequest);
+    SuccessfulUploadSetResponse directUpload(DirectFileUploadSetRequest directFileUploadSetRequest);
+    SuccessfulUploadSetResponse imageUrlUpload(ImageUrlUploadSetRequest imageUrlUploadSetRequest);
+
+    SuccessfulUploadCallbackUrlResponse directUpload(DirectUploadCallbackUrlSetRequest directUploadCallbackUrlSetRequest);
+    SuccessfulUploadCallbackUrlResponse directUpload(DirectFileUploadCallbackUrlSetRequest directFileUploadCallbackUrlSetRequest);
+    SuccessfulUploadCallbackUrlResponse imageUrlUpload(ImageUrlUploadCallbackUrlSetRequest imageUrlUploadCallbackUrlSetRequest);
 }
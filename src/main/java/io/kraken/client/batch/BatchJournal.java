@@ -0,0 +1,526 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.kraken.client.exception.KrakenIoException;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Append-only journal of the progress of a batch, used to resume it after a crash without uploading finished items
+ * again.
+ * <p>
+ * Every state change of an item, identified by a key such as the absolute path of its file, is appended as a record
+ * framed by its length and CRC-32. The returned future completes once the record is durable. Records are written by a
+ * single thread which syncs all records appended while the previous sync was running at once, so concurrent appends
+ * share a sync instead of queuing for one each. Opening a journal replays it, a torn record at the end left by a crash
+ * is cut off.
+ * <p>
+ * Records of a file can carry its size and modification time. The lookups taking them only return a state recorded for
+ * the same size and modification time, so a file which changed after the crash, or since a journal was used for the
+ * last time, isn't skipped or replaced by a stale result. The states of the other records carry over the size and
+ * modification time recorded before.
+ * <p>
+ * The latest state of every item is kept in memory.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class BatchJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchJournal.class);
+
+    private static final int MAGIC = 0x4b4a4e4c;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+    private static final long UNKNOWN = -1;
+
+    /**
+     * States of an item in the order they are passed.
+     */
+    public enum State {
+        SUBMITTED,
+        UPLOADED,
+        DOWNLOADED,
+        COMMITTED
+    }
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+    private final ConcurrentMap<String, Item> items = new ConcurrentHashMap<String, Item>();
+    private final Object lock = new Object();
+    private final Thread writer;
+    private List<Append> appends = new ArrayList<Append>();
+    private boolean closed;
+    private IOException failure;
+    private long records;
+    private long syncs;
+
+    private BatchJournal(File file) {
+        checkNotNull(file, "file must not be null");
+
+        this.file = file;
+        try {
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+        } catch (IOException e) {
+            throw new KrakenIoException("Failed to open journal " + file, e);
+        }
+        this.fileChannel = randomAccessFile.getChannel();
+        try {
+            replay();
+        } catch (IOException e) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException closeException) {
+                log.warn("Failed to close journal {}", file, closeException);
+            }
+            throw new KrakenIoException("Failed to replay journal " + file, e);
+        }
+
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "kraken-io-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static BatchJournal open(File file) {
+        return new BatchJournal(file);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Nullable
+    public State getState(String key) {
+        checkNotNull(key, "key must not be null");
+        final Item item = items.get(key);
+        return item != null ? item.state : null;
+    }
+
+    /**
+     * The response recorded with {@link State#UPLOADED}, kept for the later states.
+     */
+    @Nullable
+    public SuccessfulUploadResponse getUploadResponse(String key) {
+        checkNotNull(key, "key must not be null");
+        final Item item = items.get(key);
+        return item != null ? item.successfulUploadResponse : null;
+    }
+
+    /**
+     * The response recorded with {@link State#UPLOADED}, null if the file had a different or no recorded size and
+     * modification time.
+     */
+    @Nullable
+    public SuccessfulUploadResponse getUploadResponse(String key, long length, long lastModified) {
+        checkNotNull(key, "key must not be null");
+        final Item item = items.get(key);
+        return item != null && item.isVersion(length, lastModified) ? item.successfulUploadResponse : null;
+    }
+
+    public boolean isCommitted(String key) {
+        return getState(key) == State.COMMITTED;
+    }
+
+    /**
+     * Whether the file has been committed with this size and modification time.
+     */
+    public boolean isCommitted(String key, long length, long lastModified) {
+        checkNotNull(key, "key must not be null");
+        final Item item = items.get(key);
+        return item != null && item.state == State.COMMITTED && item.isVersion(length, lastModified);
+    }
+
+    /**
+     * Number of items with a recorded state.
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Number of records written and the number of syncs they were made durable with, since the journal was opened.
+     */
+    public long getRecords() {
+        synchronized (lock) {
+            return records;
+        }
+    }
+
+    public long getSyncs() {
+        synchronized (lock) {
+            return syncs;
+        }
+    }
+
+    public ListenableFuture<Void> submitted(String key) {
+        return append(key, State.SUBMITTED, UNKNOWN, UNKNOWN, null);
+    }
+
+    /**
+     * @param length       size of the file when it was submitted
+     * @param lastModified modification time of the file when it was submitted
+     */
+    public ListenableFuture<Void> submitted(String key, long length, long lastModified) {
+        checkVersion(length, lastModified);
+        return append(key, State.SUBMITTED, length, lastModified, null);
+    }
+
+    public ListenableFuture<Void> uploaded(String key, SuccessfulUploadResponse successfulUploadResponse) {
+        checkNotNull(successfulUploadResponse, "successfulUploadResponse must not be null");
+        return append(key, State.UPLOADED, UNKNOWN, UNKNOWN, successfulUploadResponse);
+    }
+
+    /**
+     * @param length       size of the file the response is for
+     * @param lastModified modification time of the file the response is for
+     */
+    public ListenableFuture<Void> uploaded(String key, long length, long lastModified, SuccessfulUploadResponse successfulUploadResponse) {
+        checkVersion(length, lastModified);
+        checkNotNull(successfulUploadResponse, "successfulUploadResponse must not be null");
+        return append(key, State.UPLOADED, length, lastModified, successfulUploadResponse);
+    }
+
+    public ListenableFuture<Void> downloaded(String key) {
+        return append(key, State.DOWNLOADED, UNKNOWN, UNKNOWN, null);
+    }
+
+    public ListenableFuture<Void> committed(String key) {
+        return append(key, State.COMMITTED, UNKNOWN, UNKNOWN, null);
+    }
+
+    /**
+     * @param length       size of the file once committed, after it has been replaced by its optimized version
+     * @param lastModified modification time of the file once committed
+     */
+    public ListenableFuture<Void> committed(String key, long length, long lastModified) {
+        checkVersion(length, lastModified);
+        return append(key, State.COMMITTED, length, lastModified, null);
+    }
+
+    /**
+     * Waits until all appended records are durable and closes the file, appends afterwards fail.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void checkVersion(long length, long lastModified) {
+        checkArgument(length >= 0, "length must not be negative");
+        checkArgument(lastModified >= 0, "lastModified must not be negative");
+    }
+
+    private ListenableFuture<Void> append(String key, State state, long length, long lastModified, @Nullable SuccessfulUploadResponse successfulUploadResponse) {
+        checkNotNull(key, "key must not be null");
+
+        final byte[] record;
+        try {
+            record = encode(key, state, length, lastModified, successfulUploadResponse);
+        } catch (IOException e) {
+            throw new KrakenIoException("Failed to encode journal record", e);
+        }
+        checkArgument(record.length <= MAX_RECORD_SIZE, "record of %s is too large", key);
+
+        final SettableFuture<Void> future = SettableFuture.create();
+        synchronized (lock) {
+            if (closed) {
+                future.setException(new KrakenIoException("Journal " + file + " is closed"));
+                return future;
+            }
+            if (failure != null) {
+                future.setException(new KrakenIoException("Journal " + file + " failed", failure));
+                return future;
+            }
+
+            apply(key, state, length, lastModified, successfulUploadResponse);
+            appends.add(new Append(record, future));
+            lock.notifyAll();
+        }
+        return future;
+    }
+
+    private void apply(String key, State state, long length, long lastModified, @Nullable SuccessfulUploadResponse successfulUploadResponse) {
+        final Item previous = items.get(key);
+        if (previous == null) {
+            items.put(key, new Item(state, length, lastModified, successfulUploadResponse));
+        } else if (length == UNKNOWN) {
+            items.put(key, new Item(state, previous.length, previous.lastModified,
+                    successfulUploadResponse != null ? successfulUploadResponse : previous.successfulUploadResponse));
+        } else {
+            // A new size and modification time is a new version of the file, the response of the old one is dropped
+            final boolean sameVersion = previous.isVersion(length, lastModified);
+            items.put(key, new Item(state, length, lastModified,
+                    successfulUploadResponse != null || !sameVersion ? successfulUploadResponse : previous.successfulUploadResponse));
+        }
+    }
+
+    /**
+     * Loop of the writer thread, writes and syncs all records appended since the last sync at once.
+     */
+    private void write() {
+        while (true) {
+            final List<Append> batch;
+            synchronized (lock) {
+                while (appends.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (appends.isEmpty()) {
+                    return;
+                }
+
+                batch = appends;
+                appends = new ArrayList<Append>();
+            }
+
+            try {
+                final ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = ByteBuffer.wrap(batch.get(i).record);
+                }
+                while (buffers[buffers.length - 1].hasRemaining()) {
+                    fileChannel.write(buffers);
+                }
+                fileChannel.force(false);
+
+                synchronized (lock) {
+                    records += batch.size();
+                    syncs++;
+                }
+                for (Append append : batch) {
+                    append.future.set(null);
+                }
+            } catch (IOException e) {
+                log.error("Failed to write journal {}", file, e);
+                synchronized (lock) {
+                    failure = e;
+                }
+                for (Append append : batch) {
+                    append.future.setException(new KrakenIoException("Failed to write journal " + file, e));
+                }
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        if (fileChannel.size() == 0) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                fileChannel.write(header);
+            }
+            fileChannel.force(true);
+            return;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException(file + " is not a journal");
+        }
+
+        long position = HEADER_SIZE;
+        final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        final CRC32 crc32 = new CRC32();
+        while (true) {
+            recordHeader.clear();
+            readFully(recordHeader, position);
+            if (recordHeader.position() < RECORD_HEADER_SIZE) {
+                break;
+            }
+            recordHeader.flip();
+            final int length = recordHeader.getInt();
+            final int checksum = recordHeader.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE) {
+                break;
+            }
+
+            final ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + RECORD_HEADER_SIZE);
+            if (payload.hasRemaining()) {
+                break;
+            }
+            crc32.reset();
+            crc32.update(payload.array(), 0, length);
+            if ((int) crc32.getValue() != checksum) {
+                break;
+            }
+
+            decode(payload.array());
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        if (position < fileChannel.size()) {
+            log.warn("Cutting off {} bytes of a torn record at the end of journal {}", fileChannel.size() - position, file);
+            fileChannel.truncate(position);
+            fileChannel.force(true);
+        }
+        fileChannel.position(position);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = fileChannel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return;
+            }
+        }
+    }
+
+    private static byte[] encode(String key, State state, long length, long lastModified, @Nullable SuccessfulUploadResponse successfulUploadResponse) throws IOException {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        final DataOutputStream payload = new DataOutputStream(byteArrayOutputStream);
+        payload.writeByte(state.ordinal());
+        payload.writeUTF(key);
+        payload.writeLong(length);
+        payload.writeLong(lastModified);
+        if (state == State.UPLOADED) {
+            writeString(payload, successfulUploadResponse.getFileName());
+            writeInteger(payload, successfulUploadResponse.getOriginalSize());
+            writeInteger(payload, successfulUploadResponse.getKrakedSize());
+            writeInteger(payload, successfulUploadResponse.getSavedBytes());
+            writeString(payload, successfulUploadResponse.getKrakedUrl());
+        }
+        payload.flush();
+
+        final byte[] payloadBytes = byteArrayOutputStream.toByteArray();
+        final CRC32 crc32 = new CRC32();
+        crc32.update(payloadBytes);
+        return ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadBytes.length)
+                .putInt(payloadBytes.length)
+                .putInt((int) crc32.getValue())
+                .put(payloadBytes)
+                .array();
+    }
+
+    private void decode(byte[] payloadBytes) throws IOException {
+        final DataInputStream payload = new DataInputStream(new ByteArrayInputStream(payloadBytes));
+        final State state = State.values()[payload.readUnsignedByte()];
+        final String key = payload.readUTF();
+        final long length = payload.readLong();
+        final long lastModified = payload.readLong();
+        SuccessfulUploadResponse successfulUploadResponse = null;
+        if (state == State.UPLOADED) {
+            final String fileName = readString(payload);
+            final Integer originalSize = readInteger(payload);
+            final Integer krakedSize = readInteger(payload);
+            final Integer savedBytes = readInteger(payload);
+            final String krakedUrl = readString(payload);
+            successfulUploadResponse = new SuccessfulUploadResponse(true, fileName, originalSize, krakedSize, savedBytes, krakedUrl);
+        }
+        apply(key, state, length, lastModified, successfulUploadResponse);
+    }
+
+    private static void writeString(DataOutputStream dataOutputStream, @Nullable String value) throws IOException {
+        dataOutputStream.writeBoolean(value != null);
+        if (value != null) {
+            dataOutputStream.writeUTF(value);
+        }
+    }
+
+    private static void writeInteger(DataOutputStream dataOutputStream, @Nullable Integer value) throws IOException {
+        dataOutputStream.writeBoolean(value != null);
+        if (value != null) {
+            dataOutputStream.writeInt(value);
+        }
+    }
+
+    @Nullable
+    private static String readString(DataInputStream dataInputStream) throws IOException {
+        return dataInputStream.readBoolean() ? dataInputStream.readUTF() : null;
+    }
+
+    @Nullable
+    private static Integer readInteger(DataInputStream dataInputStream) throws IOException {
+        return dataInputStream.readBoolean() ? dataInputStream.readInt() : null;
+    }
+
+    private static class Item {
+        private final State state;
+        private final long length;
+        private final long lastModified;
+        private final SuccessfulUploadResponse successfulUploadResponse;
+
+        private Item(State state, long length, long lastModified, @Nullable SuccessfulUploadResponse successfulUploadResponse) {
+            this.state = state;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.successfulUploadResponse = successfulUploadResponse;
+        }
+
+        private boolean isVersion(long length, long lastModified) {
+            return this.length != UNKNOWN && this.length == length && this.lastModified == lastModified;
+        }
+    }
+
+    private static class Append {
+        private final byte[] record;
+        private final SettableFuture<Void> future;
+
+        private Append(byte[] record, SettableFuture<Void> future) {
+            this.record = record;
+            this.future = future;
+        }
+    }
+}
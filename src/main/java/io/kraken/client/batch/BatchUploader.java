@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.kraken.client.AsyncKrakenIoClient;
+import io.kraken.client.model.request.*;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+
+import javax.annotation.Nullable;
+import java.io.File;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs a stream of upload requests with a bounded number of requests in flight.
+ * <p>
+ * Requests are pulled from the source only when a slot is free, so a slow consumer or a slow Kraken.io slows down the
+ * producer instead of piling up requests in memory. Results are returned in completion order, a failed request is
+ * reported as a failed {@link UploadResult} and doesn't abort the batch.
+ * <p>
+ * With a {@link BatchJournal} every {@link DirectFileUploadRequest} is recorded by the absolute path of its file along
+ * with its size and modification time. When a batch is run again after a crash, files the journal holds an upload
+ * response for are returned with that response instead of being uploaded again, unless they changed meanwhile. Files
+ * marked committed by the consumer are skipped. Other requests are not journaled.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class BatchUploader {
+
+    private final AsyncKrakenIoClient krakenIoClient;
+    private final int maxConcurrency;
+    private final BatchJournal batchJournal;
+
+    private BatchUploader(AsyncKrakenIoClient krakenIoClient, int maxConcurrency, @Nullable BatchJournal batchJournal) {
+        checkNotNull(krakenIoClient, "krakenIoClient must not be null");
+        checkArgument(maxConcurrency > 0, "maxConcurrency must be greater than 0");
+
+        this.krakenIoClient = krakenIoClient;
+        this.maxConcurrency = maxConcurrency;
+        this.batchJournal = batchJournal;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public <T extends AbstractUploadRequest> Iterator<UploadResult<T>> upload(Iterable<T> requests) {
+        checkNotNull(requests, "requests must not be null");
+        return upload(requests.iterator());
+    }
+
+    /**
+     * Lazily uploads the requests. Requests are submitted while iterating over the results, a result which has been
+     * returned frees the slot for the next request. The returned iterator must be used by a single thread.
+     */
+    public <T extends AbstractUploadRequest> Iterator<UploadResult<T>> upload(Iterator<T> requests) {
+        checkNotNull(requests, "requests must not be null");
+        return new ResultIterator<T>(requests);
+    }
+
+    /**
+     * Key of the request in the journal, null if the request is not journaled.
+     */
+    @Nullable
+    private String journalKey(AbstractUploadRequest request) {
+        return batchJournal != null && request instanceof DirectFileUploadRequest
+                ? ((DirectFileUploadRequest) request).getImage().getAbsolutePath()
+                : null;
+    }
+
+    private ListenableFuture<?> submit(AbstractUploadRequest request) {
+        final String key = journalKey(request);
+        if (key == null) {
+            return upload(request);
+        }
+
+        final File image = ((DirectFileUploadRequest) request).getImage();
+        final long length = image.length();
+        final long lastModified = image.lastModified();
+        final SuccessfulUploadResponse journaledResponse = batchJournal.getUploadResponse(key, length, lastModified);
+        if (journaledResponse != null) {
+            return Futures.immediateFuture(journaledResponse);
+        }
+
+        batchJournal.submitted(key, length, lastModified);
+        return Futures.transform(upload(request), new AsyncFunction<Object, Object>() {
+            @Override
+            public ListenableFuture<Object> apply(final Object response) {
+                return Futures.transform(batchJournal.uploaded(key, length, lastModified, (SuccessfulUploadResponse) response), new Function<Void, Object>() {
+                    @Override
+                    public Object apply(Void input) {
+                        return response;
+                    }
+                });
+            }
+        });
+    }
+
+    private ListenableFuture<?> upload(AbstractUploadRequest request) {
+        try {
+            if (request instanceof DirectUploadRequest) {
+                return krakenIoClient.directUploadAsync((DirectUploadRequest) request);
+            } else if (request instanceof DirectFileUploadRequest) {
+                return krakenIoClient.directUploadAsync((DirectFileUploadRequest) request);
+            } else if (request instanceof ImageUrlUploadRequest) {
+                return krakenIoClient.imageUrlUploadAsync((ImageUrlUploadRequest) request);
+            } else if (request instanceof DirectUploadCallbackUrlRequest) {
+                return krakenIoClient.directUploadAsync((DirectUploadCallbackUrlRequest) request);
+            } else if (request instanceof DirectFileUploadCallbackUrlRequest) {
+                return krakenIoClient.directUploadAsync((DirectFileUploadCallbackUrlRequest) request);
+            } else if (request instanceof ImageUrlUploadCallbackUrlRequest) {
+                return krakenIoClient.imageUrlUploadAsync((ImageUrlUploadCallbackUrlRequest) request);
+            }
+
+            return Futures.immediateFailedFuture(new IllegalArgumentException("Unsupported request type " + request.getClass().getName()));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    public static Builder builder(AsyncKrakenIoClient krakenIoClient) {
+        return new Builder(krakenIoClient);
+    }
+
+    public static class Builder {
+        private final AsyncKrakenIoClient krakenIoClient;
+        private int maxConcurrency = 8;
+        private BatchJournal batchJournal;
+
+        private Builder(AsyncKrakenIoClient krakenIoClient) {
+            this.krakenIoClient = krakenIoClient;
+        }
+
+        /**
+         * Maximum number of requests which are in flight or completed but not yet consumed.
+         */
+        public Builder withMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Journal to record the uploads of files in and to resume from, none by default.
+         */
+        public Builder withJournal(BatchJournal batchJournal) {
+            this.batchJournal = batchJournal;
+            return this;
+        }
+
+        public BatchUploader build() {
+            return new BatchUploader(krakenIoClient, maxConcurrency, batchJournal);
+        }
+    }
+
+    private class ResultIterator<T extends AbstractUploadRequest> implements Iterator<UploadResult<T>> {
+
+        private final Iterator<T> requests;
+        private final BlockingQueue<UploadResult<T>> completed = new LinkedBlockingQueue<UploadResult<T>>();
+        private int pending;
+
+        private ResultIterator(Iterator<T> requests) {
+            this.requests = requests;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending < maxConcurrency && requests.hasNext()) {
+                final T request = requests.next();
+                checkNotNull(request, "request must not be null");
+                final String key = journalKey(request);
+                if (key != null && batchJournal.isCommitted(key)) {
+                    continue;
+                }
+
+                pending++;
+                Futures.addCallback(submit(request), new FutureCallback<Object>() {
+                    @Override
+                    public void onSuccess(Object response) {
+                        completed.add(UploadResult.success(request, response));
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        completed.add(UploadResult.failure(request, t));
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+
+            return pending > 0;
+        }
+
+        @Override
+        public UploadResult<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final UploadResult<T> result = Uninterruptibles.takeUninterruptibly(completed);
+            pending--;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove");
+        }
+    }
+}
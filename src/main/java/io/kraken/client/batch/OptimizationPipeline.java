@@ -0,0 +1,560 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.kraken.client.KrakenIoClient;
+import io.kraken.client.impl.download.FileReplacement;
+import io.kraken.client.impl.download.ResultDownloader;
+import io.kraken.client.impl.preflight.PreflightInspector;
+import io.kraken.client.impl.preflight.PreflightResult;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.request.UploadOptions;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Optimizes the images of a directory tree in place.
+ * <p>
+ * A run is split into stages connected by bounded queues: the scan walks the tree, the read stage runs the preflight,
+ * the upload stage uploads the files, the download stage downloads the optimized images next to the originals and the
+ * replace stage renames them over the originals. Every stage runs on its own threads, so disk reads, uploads and
+ * downloads overlap. A full queue blocks the stage feeding it. Files are uploaded as {@link DirectFileUploadRequest}s,
+ * their bodies can be sent again, so the retry policy of the client applies.
+ * <p>
+ * A file failing in any stage is reported and left as it was, it doesn't abort the run. Files Kraken.io couldn't make
+ * smaller are not downloaded. A file whose size or modification time changed since the scan is not replaced by the
+ * optimized version of its old content, it is reported as failed instead.
+ * <p>
+ * With a {@link BatchJournal} the progress of every file is recorded, keyed by its absolute path along with its size and
+ * modification time. A run over the same tree after a crash skips the files committed before and downloads the files
+ * uploaded before without uploading them again, as long as they didn't change meanwhile. Kraken.io keeps optimized
+ * images for a limited time only, a journal should be resumed soon.
+ * <p>
+ * With a {@link ProcessedFileIndex} every optimized file is recorded once it is replaced or found not to shrink, later
+ * runs skip it as long as it doesn't change. Only new and modified files are uploaded.
+ * <p>
+ * With a {@link PreflightInspector} every file is inspected once read, files which can't be optimized or already fit
+ * the resize of the upload options are reported and not uploaded.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class OptimizationPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(OptimizationPipeline.class);
+
+    private static final String DOWNLOAD_SUFFIX = ".kraken";
+    private static final Item END = new Item(null, 0, 0);
+
+    private final KrakenIoClient krakenIoClient;
+    private final ResultDownloader resultDownloader;
+    private final UploadOptions uploadOptions;
+    private final FileFilter fileFilter;
+    private final BatchJournal batchJournal;
+    private final ProcessedFileIndex processedFileIndex;
+    private final PreflightInspector preflightInspector;
+    private final int readThreads;
+    private final int uploadThreads;
+    private final int downloadThreads;
+    private final int replaceThreads;
+    private final int queueCapacity;
+
+    private OptimizationPipeline(Builder builder) {
+        checkNotNull(builder.krakenIoClient, "krakenIoClient must not be null");
+        checkNotNull(builder.resultDownloader, "resultDownloader must not be null");
+        checkNotNull(builder.uploadOptions, "uploadOptions must not be null");
+        checkNotNull(builder.fileFilter, "fileFilter must not be null");
+        checkArgument(builder.readThreads > 0, "readThreads must be greater than 0");
+        checkArgument(builder.uploadThreads > 0, "uploadThreads must be greater than 0");
+        checkArgument(builder.downloadThreads > 0, "downloadThreads must be greater than 0");
+        checkArgument(builder.replaceThreads > 0, "replaceThreads must be greater than 0");
+        checkArgument(builder.queueCapacity > 0, "queueCapacity must be greater than 0");
+
+        this.krakenIoClient = builder.krakenIoClient;
+        this.resultDownloader = builder.resultDownloader;
+        this.uploadOptions = builder.uploadOptions;
+        this.fileFilter = builder.fileFilter;
+        this.batchJournal = builder.batchJournal;
+        this.processedFileIndex = builder.processedFileIndex;
+        this.preflightInspector = builder.preflightInspector;
+        this.readThreads = builder.readThreads;
+        this.uploadThreads = builder.uploadThreads;
+        this.downloadThreads = builder.downloadThreads;
+        this.replaceThreads = builder.replaceThreads;
+        this.queueCapacity = builder.queueCapacity;
+    }
+
+    public static Builder builder(KrakenIoClient krakenIoClient, ResultDownloader resultDownloader) {
+        return new Builder(krakenIoClient, resultDownloader);
+    }
+
+    /**
+     * Optimizes all files below the root directory accepted by the file filter, the scan runs on the calling thread.
+     *
+     * @return the report once every file passed all stages
+     * @throws InterruptedException if the calling thread is interrupted, the remaining stages are stopped
+     */
+    public PipelineReport run(File root) throws InterruptedException {
+        checkNotNull(root, "root must not be null");
+        checkArgument(root.isDirectory(), "root must be a directory");
+
+        final Run run = new Run();
+        final ExecutorService executorService = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kraken-io-pipeline-%d").build()
+        );
+        try {
+            final Stage replace = new Stage("replace", replaceThreads, queueCapacity, null, run) {
+                @Override
+                boolean process(Item item) throws Exception {
+                    run.replace(item);
+                    return false;
+                }
+            };
+            final Stage download = new Stage("download", downloadThreads, queueCapacity, replace, run) {
+                @Override
+                boolean process(Item item) throws Exception {
+                    return run.download(item);
+                }
+            };
+            final Stage upload = new Stage("upload", uploadThreads, queueCapacity, download, run) {
+                @Override
+                boolean process(Item item) throws Exception {
+                    return run.upload(item);
+                }
+            };
+            final Stage read = new Stage("read", readThreads, queueCapacity, upload, run) {
+                @Override
+                boolean process(Item item) throws Exception {
+                    return item.response != null || run.preflight(item);
+                }
+            };
+
+            for (Stage stage : Arrays.asList(replace, download, upload, read)) {
+                stage.start(executorService);
+            }
+
+            scan(root, read, run);
+            read.end();
+            replace.await();
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        return run.report();
+    }
+
+    private void scan(File directory, Stage read, Run run) throws InterruptedException {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            run.failures.put(directory, new IOException("Failed to list " + directory));
+            return;
+        }
+
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                scan(file, read, run);
+            } else if (fileFilter.accept(file)) {
+                run.files.incrementAndGet();
+                if (isProcessed(file)) {
+                    run.skipped.incrementAndGet();
+                    continue;
+                }
+
+                final Item item = new Item(file, file.length(), file.lastModified());
+                if (batchJournal != null) {
+                    final String key = file.getAbsolutePath();
+                    if (batchJournal.isCommitted(key, item.length, item.lastModified)) {
+                        run.resumed.incrementAndGet();
+                        continue;
+                    }
+
+                    item.response = batchJournal.getUploadResponse(key, item.length, item.lastModified);
+                    if (item.response == null) {
+                        batchJournal.submitted(key, item.length, item.lastModified);
+                    }
+                }
+                read.put(item);
+            }
+        }
+    }
+
+    private boolean isProcessed(File file) {
+        if (processedFileIndex == null) {
+            return false;
+        }
+
+        try {
+            return processedFileIndex.isProcessed(file);
+        } catch (IOException e) {
+            log.debug("Failed to look up {} in the index", file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Accepts JPEG, PNG and GIF files by their extension.
+     */
+    public static FileFilter imageFileFilter() {
+        return new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                final String extension = Files.getFileExtension(file.getName()).toLowerCase(Locale.ENGLISH);
+                return file.isFile() && !file.isHidden() && Arrays.asList("jpg", "jpeg", "png", "gif").contains(extension);
+            }
+        };
+    }
+
+    public static class Builder {
+        private final KrakenIoClient krakenIoClient;
+        private final ResultDownloader resultDownloader;
+        private UploadOptions uploadOptions = UploadOptions.builder().build();
+        private FileFilter fileFilter = imageFileFilter();
+        private BatchJournal batchJournal;
+        private ProcessedFileIndex processedFileIndex;
+        private PreflightInspector preflightInspector;
+        private int readThreads = 2;
+        private int uploadThreads = 8;
+        private int downloadThreads;
+        private int replaceThreads = 1;
+        private int queueCapacity = 16;
+
+        private Builder(KrakenIoClient krakenIoClient, ResultDownloader resultDownloader) {
+            this.krakenIoClient = krakenIoClient;
+            this.resultDownloader = resultDownloader;
+            this.downloadThreads = resultDownloader != null ? resultDownloader.getMaxConcurrency() : 1;
+        }
+
+        /**
+         * Options of the uploads, by default lossless optimization without resizing.
+         */
+        public Builder withUploadOptions(UploadOptions uploadOptions) {
+            this.uploadOptions = uploadOptions;
+            return this;
+        }
+
+        /**
+         * Files to optimize, {@link #imageFileFilter()} by default.
+         */
+        public Builder withFileFilter(FileFilter fileFilter) {
+            this.fileFilter = fileFilter;
+            return this;
+        }
+
+        /**
+         * Journal to record the progress in and to resume from, none by default.
+         */
+        public Builder withJournal(BatchJournal batchJournal) {
+            this.batchJournal = batchJournal;
+            return this;
+        }
+
+        /**
+         * Index of processed files to skip unchanged files by, none by default.
+         */
+        public Builder withIndex(ProcessedFileIndex processedFileIndex) {
+            this.processedFileIndex = processedFileIndex;
+            return this;
+        }
+
+        /**
+         * Inspector to check files before their upload, none by default.
+         */
+        public Builder withPreflight(PreflightInspector preflightInspector) {
+            this.preflightInspector = preflightInspector;
+            return this;
+        }
+
+        /**
+         * Threads running the preflight, which reads the header and the tail of every file.
+         */
+        public Builder withReadThreads(int readThreads) {
+            this.readThreads = readThreads;
+            return this;
+        }
+
+        public Builder withUploadThreads(int uploadThreads) {
+            this.uploadThreads = uploadThreads;
+            return this;
+        }
+
+        /**
+         * Defaults to the maximum concurrency of the downloader, more threads than that only wait for it.
+         */
+        public Builder withDownloadThreads(int downloadThreads) {
+            this.downloadThreads = downloadThreads;
+            return this;
+        }
+
+        public Builder withReplaceThreads(int replaceThreads) {
+            this.replaceThreads = replaceThreads;
+            return this;
+        }
+
+        /**
+         * Capacity of each queue between two stages.
+         */
+        public Builder withQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public OptimizationPipeline build() {
+            return new OptimizationPipeline(this);
+        }
+    }
+
+    /**
+     * State of a single run.
+     */
+    private class Run {
+        private final AtomicInteger files = new AtomicInteger();
+        private final AtomicInteger replaced = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicInteger resumed = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicLong savedBytes = new AtomicLong();
+        private final Map<File, PreflightResult> preflightResults = new ConcurrentHashMap<File, PreflightResult>();
+        private final Map<File, Throwable> failures = new ConcurrentHashMap<File, Throwable>();
+
+        /**
+         * @return whether the file passed the preflight, a skipped file is recorded as done
+         */
+        private boolean preflight(Item item) throws Exception {
+            if (preflightInspector == null) {
+                return true;
+            }
+
+            final PreflightResult preflightResult = preflightInspector.inspect(item.file, uploadOptions.getResize());
+            if (preflightResult.isUpload()) {
+                return true;
+            }
+
+            preflightResults.put(item.file, preflightResult);
+            if (preflightResult.getVerdict() == PreflightResult.Verdict.SKIP) {
+                if (batchJournal != null) {
+                    await(batchJournal.committed(item.file.getAbsolutePath(), item.length, item.lastModified));
+                }
+                if (processedFileIndex != null) {
+                    processedFileIndex.markProcessed(item.file);
+                }
+            }
+            return false;
+        }
+
+        private boolean upload(Item item) throws Exception {
+            if (item.response == null) {
+                final DirectFileUploadRequest directFileUploadRequest = DirectFileUploadRequest.builder(item.file)
+                        .withOptionsOf(uploadOptions)
+                        .build();
+                item.response = krakenIoClient.directUpload(directFileUploadRequest);
+                if (batchJournal != null) {
+                    await(batchJournal.uploaded(item.file.getAbsolutePath(), item.length, item.lastModified, item.response));
+                }
+            }
+
+            final Integer savedBytes = item.response.getSavedBytes();
+            if (savedBytes != null && savedBytes <= 0) {
+                if (batchJournal != null) {
+                    await(batchJournal.committed(item.file.getAbsolutePath(), item.length, item.lastModified));
+                }
+                if (processedFileIndex != null) {
+                    processedFileIndex.markProcessed(item.file);
+                }
+                unchanged.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        private boolean download(Item item) throws Exception {
+            item.download = new File(item.file.getAbsoluteFile().getParentFile(), "." + item.file.getName() + DOWNLOAD_SUFFIX);
+            await(resultDownloader.download(item.response, item.download));
+            if (batchJournal != null) {
+                await(batchJournal.downloaded(item.file.getAbsolutePath()));
+            }
+            return true;
+        }
+
+        private void replace(Item item) throws Exception {
+            if (item.file.length() != item.length || item.file.lastModified() != item.lastModified) {
+                throw new IOException(item.file + " changed since it was scanned");
+            }
+            FileReplacement.replace(item.download, item.file);
+            if (batchJournal != null) {
+                await(batchJournal.committed(item.file.getAbsolutePath(), item.file.length(), item.file.lastModified()));
+            }
+            if (processedFileIndex != null) {
+                processedFileIndex.markProcessed(item.file);
+            }
+
+            replaced.incrementAndGet();
+            if (item.response.getSavedBytes() != null) {
+                savedBytes.addAndGet(item.response.getSavedBytes());
+            }
+        }
+
+        private void await(ListenableFuture<?> future) throws Exception {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        private void fail(Item item, Exception e) {
+            log.debug("Failed to optimize {}", item.file, e);
+            failures.put(item.file, e);
+            if (item.download != null && item.download.exists() && !item.download.delete()) {
+                log.warn("Failed to delete {}", item.download);
+            }
+        }
+
+        private PipelineReport report() {
+            return new PipelineReport(files.get(), replaced.get(), unchanged.get(), resumed.get(), skipped.get(), savedBytes.get(), preflightResults, failures);
+        }
+    }
+
+    /**
+     * A number of threads taking items from a bounded queue and passing them on to the next stage. Once the previous
+     * stage ended, the last thread of the stage to finish ends the next stage.
+     */
+    private abstract static class Stage {
+        private final String name;
+        private final int threads;
+        private final Stage next;
+        private final Run run;
+        private final BlockingQueue<Item> queue;
+        private final AtomicInteger running;
+        private final CountDownLatch done;
+
+        private Stage(String name, int threads, int queueCapacity, @Nullable Stage next, Run run) {
+            this.name = name;
+            this.threads = threads;
+            this.next = next;
+            this.run = run;
+            this.queue = new ArrayBlockingQueue<Item>(queueCapacity);
+            this.running = new AtomicInteger(threads);
+            this.done = new CountDownLatch(threads);
+        }
+
+        /**
+         * @return whether to pass the item on to the next stage
+         */
+        abstract boolean process(Item item) throws Exception;
+
+        private void start(ExecutorService executorService) {
+            for (int i = 0; i < threads; i++) {
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            work();
+                        } catch (InterruptedException e) {
+                            log.debug("Stage {} interrupted", name);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+        }
+
+        private void work() throws InterruptedException {
+            try {
+                while (true) {
+                    final Item item = queue.take();
+                    if (item == END) {
+                        return;
+                    }
+
+                    boolean passOn;
+                    try {
+                        passOn = process(item);
+                    } catch (Exception e) {
+                        run.fail(item, e);
+                        passOn = false;
+                    }
+                    if (passOn && next != null) {
+                        next.put(item);
+                    }
+                }
+            } finally {
+                if (running.decrementAndGet() == 0 && next != null) {
+                    next.end();
+                }
+            }
+        }
+
+        private void put(Item item) throws InterruptedException {
+            queue.put(item);
+        }
+
+        /**
+         * Lets every thread of the stage finish once the items before have been processed.
+         */
+        private void end() throws InterruptedException {
+            for (int i = 0; i < threads; i++) {
+                queue.put(END);
+            }
+        }
+
+        private void await() throws InterruptedException {
+            done.await();
+        }
+    }
+
+    /**
+     * A file passing through the stages, only accessed by one stage at a time.
+     */
+    private static class Item {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private SuccessfulUploadResponse response;
+        private File download;
+
+        private Item(File file, long length, long lastModified) {
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import com.google.common.collect.ImmutableMap;
+import io.kraken.client.impl.preflight.PreflightResult;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Outcome of a run of the {@link OptimizationPipeline}.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class PipelineReport {
+
+    private final int files;
+    private final int replaced;
+    private final int unchanged;
+    private final int resumed;
+    private final int skipped;
+    private final long savedBytes;
+    private final Map<File, PreflightResult> preflightResults;
+    private final Map<File, Throwable> failures;
+
+    PipelineReport(int files, int replaced, int unchanged, int resumed, int skipped, long savedBytes,
+                   Map<File, PreflightResult> preflightResults, Map<File, Throwable> failures) {
+        this.files = files;
+        this.replaced = replaced;
+        this.unchanged = unchanged;
+        this.resumed = resumed;
+        this.skipped = skipped;
+        this.savedBytes = savedBytes;
+        this.preflightResults = ImmutableMap.copyOf(preflightResults);
+        this.failures = ImmutableMap.copyOf(failures);
+    }
+
+    /**
+     * Number of files found by the scan.
+     */
+    public int getFiles() {
+        return files;
+    }
+
+    /**
+     * Number of files replaced by their optimized version.
+     */
+    public int getReplaced() {
+        return replaced;
+    }
+
+    /**
+     * Number of files left as they were because Kraken.io couldn't make them smaller.
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Number of files skipped because the journal of the pipeline recorded them as committed by an earlier run.
+     */
+    public int getResumed() {
+        return resumed;
+    }
+
+    /**
+     * Number of files skipped because the index of the pipeline recorded them as processed and they didn't change.
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Sum of the bytes saved by the replaced files.
+     */
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    /**
+     * The result of every file the preflight inspector rejected or skipped, these files are not uploaded.
+     */
+    public Map<File, PreflightResult> getPreflightResults() {
+        return preflightResults;
+    }
+
+    /**
+     * The failure of every file which failed in any stage, these files are left as they were.
+     */
+    public Map<File, Throwable> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "PipelineReport{" +
+                "files=" + files +
+                ", replaced=" + replaced +
+                ", unchanged=" + unchanged +
+                ", resumed=" + resumed +
+                ", skipped=" + skipped +
+                ", savedBytes=" + savedBytes +
+                ", preflightResults=" + preflightResults.size() +
+                ", failures=" + failures.size() +
+                '}';
+    }
+}
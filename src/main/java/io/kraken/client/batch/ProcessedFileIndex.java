@@ -0,0 +1,447 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.PrimitiveSink;
+import com.google.common.io.Files;
+import io.kraken.client.exception.KrakenIoException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Index of processed files, used to skip files which didn't change since they were optimized.
+ * <p>
+ * Every file is recorded with its size, modification time and content hash in an open-addressing hash table, keyed by
+ * a 128 bit hash of its absolute path. The table lives in a memory-mapped file, so the index of millions of files
+ * neither has to be loaded nor fit in the heap. A Bloom filter in front of the table answers most lookups of new files
+ * without touching the table, it is kept next to the table file when the index is closed.
+ * <p>
+ * A file is processed if its size and modification time match the recorded ones. If only the modification time
+ * differs, the content hash decides, a file which was touched but not changed is not optimized again.
+ * <p>
+ * The index is a cache: it survives a crash of the process, but not necessarily a crash of the system.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class ProcessedFileIndex implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessedFileIndex.class);
+
+    private static final long MAGIC = 0x4b5049444e455831L;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 48;
+    private static final int SLOTS_PER_CHUNK = 1 << 20;
+    private static final int MIN_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.75;
+    private static final String BLOOM_FILTER_SUFFIX = ".bloom";
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final File file;
+    private final double falsePositiveProbability;
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] chunks;
+    private long capacity;
+    private long size;
+    private BloomFilter<long[]> bloomFilter;
+    private long bloomFilterSkips;
+    private boolean closed;
+
+    private ProcessedFileIndex(Builder builder) {
+        checkNotNull(builder.file, "file must not be null");
+        checkArgument(builder.expectedFiles > 0, "expectedFiles must be greater than 0");
+        checkArgument(builder.falsePositiveProbability > 0 && builder.falsePositiveProbability < 1, "falsePositiveProbability must be between 0 and 1");
+
+        this.file = builder.file;
+        this.falsePositiveProbability = builder.falsePositiveProbability;
+        try {
+            if (file.exists() && file.length() > 0) {
+                load();
+            } else {
+                create(file, capacityFor(builder.expectedFiles));
+                bloomFilter = newBloomFilter();
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            throw new KrakenIoException("Failed to open index " + file, e);
+        }
+    }
+
+    private ProcessedFileIndex(File file, double falsePositiveProbability) {
+        this.file = file;
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    public static Builder builder(File file) {
+        return new Builder(file);
+    }
+
+    public static ProcessedFileIndex open(File file) {
+        return builder(file).build();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Number of files in the index.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Number of lookups the Bloom filter answered without touching the table, since the index was opened.
+     */
+    public synchronized long getBloomFilterSkips() {
+        return bloomFilterSkips;
+    }
+
+    /**
+     * Whether the file is in the index and didn't change since it was recorded.
+     */
+    public synchronized boolean isProcessed(File file) throws IOException {
+        checkNotNull(file, "file must not be null");
+        checkState();
+
+        final long[] key = key(file);
+        if (!bloomFilter.mightContain(key)) {
+            bloomFilterSkips++;
+            return false;
+        }
+
+        final long slot = find(key);
+        if (isEmpty(slot)) {
+            return false;
+        }
+
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        if (length != getLong(slot, 2) || lastModified == 0) {
+            return false;
+        }
+        if (lastModified == getLong(slot, 3)) {
+            return true;
+        }
+
+        final long[] contentHash = contentHash(file);
+        if (contentHash[0] != getLong(slot, 4) || contentHash[1] != getLong(slot, 5)) {
+            return false;
+        }
+        putLong(slot, 3, lastModified);
+        return true;
+    }
+
+    /**
+     * Records the current state of the file, it is processed until it changes.
+     */
+    public synchronized void markProcessed(File file) throws IOException {
+        checkNotNull(file, "file must not be null");
+        checkState();
+
+        final long[] key = key(file);
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        final long[] contentHash = contentHash(file);
+
+        long slot = find(key);
+        if (isEmpty(slot)) {
+            if (size + 1 > capacity * MAX_LOAD) {
+                grow();
+                slot = find(key);
+            }
+            putLong(slot, 0, key[0]);
+            putLong(slot, 1, key[1]);
+            size++;
+            header.putLong(16, size);
+            bloomFilter.put(key);
+        }
+        putLong(slot, 2, length);
+        putLong(slot, 3, lastModified);
+        putLong(slot, 4, contentHash[0]);
+        putLong(slot, 5, contentHash[1]);
+    }
+
+    /**
+     * Writes the table and the Bloom filter to disk and closes the index.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            force();
+            writeBloomFilter();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private void checkState() {
+        if (closed) {
+            throw new IllegalStateException("Index " + file + " is closed");
+        }
+    }
+
+    /**
+     * Slot of the key or the empty slot it would be inserted into, linear probing.
+     */
+    private long find(long[] key) {
+        final long mask = capacity - 1;
+        long slot = key[1] & mask;
+        while (true) {
+            if (isEmpty(slot) || (getLong(slot, 0) == key[0] && getLong(slot, 1) == key[1])) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean isEmpty(long slot) {
+        return getLong(slot, 0) == 0 && getLong(slot, 1) == 0;
+    }
+
+    private long getLong(long slot, int field) {
+        return chunks[(int) (slot / SLOTS_PER_CHUNK)].getLong((int) (slot % SLOTS_PER_CHUNK) * SLOT_SIZE + field * 8);
+    }
+
+    private void putLong(long slot, int field, long value) {
+        chunks[(int) (slot / SLOTS_PER_CHUNK)].putLong((int) (slot % SLOTS_PER_CHUNK) * SLOT_SIZE + field * 8, value);
+    }
+
+    /**
+     * Rehashes the table into a file of twice the capacity which then replaces the current one.
+     */
+    private void grow() throws IOException {
+        final File grownFile = new File(file.getPath() + ".grow");
+        final ProcessedFileIndex grown = new ProcessedFileIndex(grownFile, falsePositiveProbability);
+        try {
+            grown.create(grownFile, capacity * 2);
+            grown.bloomFilter = grown.newBloomFilter();
+
+            for (long slot = 0; slot < capacity; slot++) {
+                if (!isEmpty(slot)) {
+                    final long[] key = {getLong(slot, 0), getLong(slot, 1)};
+                    final long grownSlot = grown.find(key);
+                    for (int field = 0; field < SLOT_SIZE / 8; field++) {
+                        grown.putLong(grownSlot, field, getLong(slot, field));
+                    }
+                    grown.bloomFilter.put(key);
+                }
+            }
+            grown.size = size;
+            grown.header.putLong(16, size);
+            grown.force();
+            grown.randomAccessFile.close();
+        } catch (IOException e) {
+            grown.closeQuietly();
+            grownFile.delete();
+            throw e;
+        }
+
+        randomAccessFile.close();
+        if (!grownFile.renameTo(file) && !(file.delete() && grownFile.renameTo(file))) {
+            throw new IOException("Failed to replace " + file + " by " + grownFile);
+        }
+        map(file);
+        bloomFilter = grown.bloomFilter;
+        log.debug("Grew index {} to {} slots", file, capacity);
+    }
+
+    private void create(File file, long capacity) throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        randomAccessFile.setLength(HEADER_SIZE + capacity * SLOT_SIZE);
+        final MappedByteBuffer header = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.putLong(0, MAGIC).putInt(8, VERSION).putLong(24, capacity).putLong(16, 0);
+        header.force();
+        randomAccessFile.close();
+        map(file);
+    }
+
+    private void load() throws IOException {
+        map(file);
+        final File bloomFilterFile = bloomFilterFile();
+        if (bloomFilterFile.exists()) {
+            final DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(bloomFilterFile)));
+            try {
+                if (dataInputStream.readLong() == size) {
+                    bloomFilter = BloomFilter.readFrom(dataInputStream, KeyFunnel.INSTANCE);
+                }
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable Bloom filter {}", bloomFilterFile, e);
+            } finally {
+                dataInputStream.close();
+            }
+        }
+
+        if (bloomFilter == null) {
+            log.debug("Rebuilding the Bloom filter of index {}", file);
+            bloomFilter = newBloomFilter();
+            for (long slot = 0; slot < capacity; slot++) {
+                if (!isEmpty(slot)) {
+                    bloomFilter.put(new long[]{getLong(slot, 0), getLong(slot, 1)});
+                }
+            }
+        }
+    }
+
+    private void map(File file) throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        final FileChannel fileChannel = randomAccessFile.getChannel();
+        header = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+            throw new IOException(file + " is not an index");
+        }
+        size = header.getLong(16);
+        capacity = header.getLong(24);
+        if (Long.bitCount(capacity) != 1 || fileChannel.size() < HEADER_SIZE + capacity * SLOT_SIZE) {
+            throw new IOException(file + " is truncated");
+        }
+
+        chunks = new MappedByteBuffer[(int) ((capacity + SLOTS_PER_CHUNK - 1) / SLOTS_PER_CHUNK)];
+        for (int i = 0; i < chunks.length; i++) {
+            final long slots = Math.min(SLOTS_PER_CHUNK, capacity - (long) i * SLOTS_PER_CHUNK);
+            chunks[i] = fileChannel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (long) i * SLOTS_PER_CHUNK * SLOT_SIZE, slots * SLOT_SIZE);
+        }
+    }
+
+    private void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        header.force();
+    }
+
+    private void writeBloomFilter() throws IOException {
+        final File bloomFilterFile = bloomFilterFile();
+        final File tempFile = new File(bloomFilterFile.getPath() + ".tmp");
+        final DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            dataOutputStream.writeLong(size);
+            bloomFilter.writeTo(dataOutputStream);
+        } finally {
+            dataOutputStream.close();
+        }
+        if (!tempFile.renameTo(bloomFilterFile) && !(bloomFilterFile.delete() && tempFile.renameTo(bloomFilterFile))) {
+            throw new IOException("Failed to replace " + bloomFilterFile + " by " + tempFile);
+        }
+    }
+
+    private File bloomFilterFile() {
+        return new File(file.getPath() + BLOOM_FILTER_SUFFIX);
+    }
+
+    private BloomFilter<long[]> newBloomFilter() {
+        return BloomFilter.create(KeyFunnel.INSTANCE, (int) Math.min(Integer.MAX_VALUE, (long) (capacity * MAX_LOAD)), falsePositiveProbability);
+    }
+
+    private void closeQuietly() {
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                log.warn("Failed to close index {}", file, e);
+            }
+        }
+    }
+
+    private static long capacityFor(long expectedFiles) {
+        final long slots = (long) Math.ceil(expectedFiles / MAX_LOAD);
+        return Math.max(MIN_CAPACITY, Long.highestOneBit(slots - 1) << 1);
+    }
+
+    private static long[] key(File file) {
+        final ByteBuffer hash = ByteBuffer.wrap(HASH_FUNCTION.hashString(file.getAbsolutePath(), Charsets.UTF_8).asBytes());
+        final long[] key = {hash.getLong(), hash.getLong()};
+        if (key[0] == 0 && key[1] == 0) {
+            key[1] = 1;
+        }
+        return key;
+    }
+
+    private static long[] contentHash(File file) throws IOException {
+        final ByteBuffer hash = ByteBuffer.wrap(Files.hash(file, HASH_FUNCTION).asBytes());
+        return new long[]{hash.getLong(), hash.getLong()};
+    }
+
+    public static class Builder {
+        private final File file;
+        private long expectedFiles = 100000;
+        private double falsePositiveProbability = 0.01;
+
+        private Builder(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Number of files the table of a new index is sized for, it grows beyond.
+         */
+        public Builder withExpectedFiles(long expectedFiles) {
+            this.expectedFiles = expectedFiles;
+            return this;
+        }
+
+        /**
+         * Probability of the Bloom filter to send a lookup of a file not in the index to the table, 1% by default.
+         */
+        public Builder withFalsePositiveProbability(double falsePositiveProbability) {
+            this.falsePositiveProbability = falsePositiveProbability;
+            return this;
+        }
+
+        public ProcessedFileIndex build() {
+            return new ProcessedFileIndex(this);
+        }
+    }
+
+    private enum KeyFunnel implements Funnel<long[]> {
+        INSTANCE;
+
+        @Override
+        public void funnel(long[] key, PrimitiveSink into) {
+            into.putLong(key[0]).putLong(key[1]);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.kraken.client.AsyncKrakenIoClient;
+import io.kraken.client.exception.KrakenIoException;
+import io.kraken.client.model.request.AbstractUploadRequest;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.request.DirectFileUploadSetRequest;
+import io.kraken.client.model.request.DirectUploadRequest;
+import io.kraken.client.model.request.DirectUploadSetRequest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+import io.kraken.client.model.request.ImageUrlUploadSetRequest;
+import io.kraken.client.model.resize.AbstractResize;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import io.kraken.client.model.response.SuccessfulUploadSetResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Merges uploads of the same image which only differ in their resize into a single set upload.
+ * <p>
+ * The first upload of an image opens a group which is sent after the aggregation window elapsed or as soon as it holds
+ * the maximum number of distinct resizes. Uploads of the same image source with equal options other than the resize
+ * join the open group, uploads requesting an equal resize share its result. Each caller receives the result of its own
+ * resize. A failed set upload fails the uploads of all callers in the group.
+ * <p>
+ * Files are grouped by their absolute path and image URLs by their string form. {@link InputStream} images are read into
+ * memory and grouped by their content. Uploads without a resize are passed through to the client unchanged.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class SetUploadAggregator implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SetUploadAggregator.class);
+
+    private final AsyncKrakenIoClient krakenIoClient;
+    private final long windowNanos;
+    private final int maxResizes;
+    private final ScheduledExecutorService scheduler;
+    private final Map<List<Object>, Group> groups = new HashMap<List<Object>, Group>();
+
+    private SetUploadAggregator(AsyncKrakenIoClient krakenIoClient, long windowNanos, int maxResizes) {
+        checkNotNull(krakenIoClient, "krakenIoClient must not be null");
+        checkArgument(windowNanos >= 0, "window must not be negative");
+        checkArgument(maxResizes > 0, "maxResizes must be greater than 0");
+
+        this.krakenIoClient = krakenIoClient;
+        this.windowNanos = windowNanos;
+        this.maxResizes = maxResizes;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kraken-io-set-aggregator-%d").build()
+        );
+    }
+
+    public static Builder builder(AsyncKrakenIoClient krakenIoClient) {
+        return new Builder(krakenIoClient);
+    }
+
+    public ListenableFuture<SuccessfulUploadResponse> directUploadAsync(DirectUploadRequest directUploadRequest) {
+        checkNotNull(directUploadRequest, "directUploadRequest must not be null");
+        if (directUploadRequest.getResize() == null) {
+            return krakenIoClient.directUploadAsync(directUploadRequest);
+        }
+
+        final byte[] image = readImage(directUploadRequest.getImage());
+        return add(Hashing.sha256().hashBytes(image), directUploadRequest, new SetUploadFactory() {
+            @Override
+            public ListenableFuture<SuccessfulUploadSetResponse> upload(AbstractUploadRequest options, Map<String, AbstractResize> resizes) {
+                return krakenIoClient.directUploadAsync(DirectUploadSetRequest.builder(new ByteArrayInputStream(image))
+                        .withOptionsOf(options)
+                        .withResizes(resizes)
+                        .build());
+            }
+        });
+    }
+
+    public ListenableFuture<SuccessfulUploadResponse> directUploadAsync(DirectFileUploadRequest directFileUploadRequest) {
+        checkNotNull(directFileUploadRequest, "directFileUploadRequest must not be null");
+        if (directFileUploadRequest.getResize() == null) {
+            return krakenIoClient.directUploadAsync(directFileUploadRequest);
+        }
+
+        final File image = directFileUploadRequest.getImage();
+        return add(image.getAbsoluteFile(), directFileUploadRequest, new SetUploadFactory() {
+            @Override
+            public ListenableFuture<SuccessfulUploadSetResponse> upload(AbstractUploadRequest options, Map<String, AbstractResize> resizes) {
+                return krakenIoClient.directUploadAsync(DirectFileUploadSetRequest.builder(image)
+                        .withOptionsOf(options)
+                        .withResizes(resizes)
+                        .build());
+            }
+        });
+    }
+
+    public ListenableFuture<SuccessfulUploadResponse> imageUrlUploadAsync(ImageUrlUploadRequest imageUrlUploadRequest) {
+        checkNotNull(imageUrlUploadRequest, "imageUrlUploadRequest must not be null");
+        if (imageUrlUploadRequest.getResize() == null) {
+            return krakenIoClient.imageUrlUploadAsync(imageUrlUploadRequest);
+        }
+
+        final URL imageUrl = imageUrlUploadRequest.getImageUrl();
+        return add(imageUrl.toExternalForm(), imageUrlUploadRequest, new SetUploadFactory() {
+            @Override
+            public ListenableFuture<SuccessfulUploadSetResponse> upload(AbstractUploadRequest options, Map<String, AbstractResize> resizes) {
+                return krakenIoClient.imageUrlUploadAsync(ImageUrlUploadSetRequest.builder(imageUrl)
+                        .withOptionsOf(options)
+                        .withResizes(resizes)
+                        .build());
+            }
+        });
+    }
+
+    /**
+     * Sends all open groups without waiting for their window to elapse.
+     */
+    public void flush() {
+        final List<Group> flushed;
+        synchronized (groups) {
+            flushed = new ArrayList<Group>(groups.values());
+            groups.clear();
+        }
+
+        for (Group group : flushed) {
+            send(group);
+        }
+    }
+
+    /**
+     * Sends all open groups and stops the scheduler, uploads added afterwards fail.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        flush();
+    }
+
+    private ListenableFuture<SuccessfulUploadResponse> add(Object source, AbstractUploadRequest abstractUploadRequest, SetUploadFactory setUploadFactory) {
+        final List<Object> key = Arrays.asList(
+                source,
+                abstractUploadRequest.getDev(),
+                abstractUploadRequest.getWebp(),
+                abstractUploadRequest.getLossy(),
+                abstractUploadRequest.getQuality(),
+                abstractUploadRequest.getPreserveMeta(),
+                abstractUploadRequest.getConvert()
+        );
+
+        final SettableFuture<SuccessfulUploadResponse> future = SettableFuture.create();
+        Group full = null;
+        synchronized (groups) {
+            if (scheduler.isShutdown()) {
+                future.setException(new KrakenIoException("Set upload aggregator is closed"));
+                return future;
+            }
+
+            Group group = groups.get(key);
+            if (group == null) {
+                group = new Group(abstractUploadRequest, setUploadFactory);
+                groups.put(key, group);
+                schedule(key, group);
+            }
+
+            group.add(abstractUploadRequest.getResize(), future);
+            if (group.resizes.size() >= maxResizes) {
+                groups.remove(key);
+                full = group;
+            }
+        }
+
+        if (full != null) {
+            send(full);
+        }
+        return future;
+    }
+
+    private void schedule(final List<Object> key, final Group group) {
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (groups) {
+                        // The group may have been sent already because it was full or flushed
+                        if (groups.get(key) != group) {
+                            return;
+                        }
+                        groups.remove(key);
+                    }
+                    send(group);
+                }
+            }, windowNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed concurrently, close() flushes the group
+            log.debug("Not scheduling set upload, the aggregator is closed", e);
+        }
+    }
+
+    private void send(final Group group) {
+        final Map<String, AbstractResize> resizes = new LinkedHashMap<String, AbstractResize>();
+        for (Map.Entry<AbstractResize, String> entry : group.resizes.entrySet()) {
+            resizes.put(entry.getValue(), entry.getKey());
+        }
+
+        ListenableFuture<SuccessfulUploadSetResponse> setFuture;
+        try {
+            setFuture = group.setUploadFactory.upload(group.options, resizes);
+        } catch (RuntimeException e) {
+            setFuture = Futures.immediateFailedFuture(e);
+        }
+
+        log.debug("Sending set upload with {} resizes for {} uploads", resizes.size(), group.callers.size());
+        Futures.addCallback(setFuture, new FutureCallback<SuccessfulUploadSetResponse>() {
+            @Override
+            public void onSuccess(SuccessfulUploadSetResponse successfulUploadSetResponse) {
+                for (Caller caller : group.callers) {
+                    final SuccessfulUploadResponse successfulUploadResponse = successfulUploadSetResponse.getResult(caller.id);
+                    if (successfulUploadResponse == null) {
+                        caller.future.setException(new KrakenIoException("Set upload returned no result for resize " + caller.id));
+                    } else {
+                        successfulUploadResponse.setStatus(successfulUploadSetResponse.getStatus());
+                        caller.future.set(successfulUploadResponse);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                for (Caller caller : group.callers) {
+                    caller.future.setException(t);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static byte[] readImage(InputStream image) {
+        try {
+            return ByteStreams.toByteArray(image);
+        } catch (IOException e) {
+            throw new KrakenIoException("Failed to read image", e);
+        } finally {
+            Closeables.closeQuietly(image);
+        }
+    }
+
+    public static class Builder {
+        private final AsyncKrakenIoClient krakenIoClient;
+        private long windowNanos = TimeUnit.MILLISECONDS.toNanos(50);
+        private int maxResizes = 10;
+
+        private Builder(AsyncKrakenIoClient krakenIoClient) {
+            this.krakenIoClient = krakenIoClient;
+        }
+
+        /**
+         * How long a group waits for further resizes of its image after its first upload was added.
+         */
+        public Builder withWindow(long window, TimeUnit timeUnit) {
+            this.windowNanos = timeUnit.toNanos(window);
+            return this;
+        }
+
+        /**
+         * Maximum number of distinct resizes per set upload, a group is sent as soon as it is reached.
+         */
+        public Builder withMaxResizes(int maxResizes) {
+            this.maxResizes = maxResizes;
+            return this;
+        }
+
+        public SetUploadAggregator build() {
+            return new SetUploadAggregator(krakenIoClient, windowNanos, maxResizes);
+        }
+    }
+
+    private interface SetUploadFactory {
+        ListenableFuture<SuccessfulUploadSetResponse> upload(AbstractUploadRequest options, Map<String, AbstractResize> resizes);
+    }
+
+    /**
+     * Uploads waiting to be sent as one set upload, only accessed while holding the lock on the groups until it is
+     * removed from them.
+     */
+    private static class Group {
+        private final AbstractUploadRequest options;
+        private final SetUploadFactory setUploadFactory;
+        private final Map<AbstractResize, String> resizes = new LinkedHashMap<AbstractResize, String>();
+        private final List<Caller> callers = new ArrayList<Caller>();
+
+        private Group(AbstractUploadRequest options, SetUploadFactory setUploadFactory) {
+            this.options = options;
+            this.setUploadFactory = setUploadFactory;
+        }
+
+        private void add(AbstractResize resize, SettableFuture<SuccessfulUploadResponse> future) {
+            String id = resizes.get(resize);
+            if (id == null) {
+                id = String.valueOf(resizes.size());
+                resizes.put(resize, id);
+            }
+            callers.add(new Caller(id, future));
+        }
+    }
+
+    private static class Caller {
+        private final String id;
+        private final SettableFuture<SuccessfulUploadResponse> future;
+
+        private Caller(String id, SettableFuture<SuccessfulUploadResponse> future) {
+            this.id = id;
+            this.future = future;
+        }
+    }
+}
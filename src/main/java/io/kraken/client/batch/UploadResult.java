@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.model.request.AbstractUploadRequest;
+import io.kraken.client.model.response.FailedUploadResponse;
+import io.kraken.client.model.response.SuccessfulUploadCallbackUrlResponse;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Outcome of a single request of a batch. Exactly one of the successful responses or the exception is set.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class UploadResult<T extends AbstractUploadRequest> {
+
+    private final T request;
+    private final SuccessfulUploadResponse successfulUploadResponse;
+    private final SuccessfulUploadCallbackUrlResponse successfulUploadCallbackUrlResponse;
+    private final Throwable exception;
+
+    private UploadResult(T request,
+                         SuccessfulUploadResponse successfulUploadResponse,
+                         SuccessfulUploadCallbackUrlResponse successfulUploadCallbackUrlResponse,
+                         Throwable exception) {
+        checkNotNull(request, "request must not be null");
+
+        this.request = request;
+        this.successfulUploadResponse = successfulUploadResponse;
+        this.successfulUploadCallbackUrlResponse = successfulUploadCallbackUrlResponse;
+        this.exception = exception;
+    }
+
+    static <T extends AbstractUploadRequest> UploadResult<T> success(T request, Object response) {
+        if (response instanceof SuccessfulUploadCallbackUrlResponse) {
+            return new UploadResult<T>(request, null, (SuccessfulUploadCallbackUrlResponse) response, null);
+        }
+        return new UploadResult<T>(request, (SuccessfulUploadResponse) response, null, null);
+    }
+
+    static <T extends AbstractUploadRequest> UploadResult<T> failure(T request, Throwable exception) {
+        checkNotNull(exception, "exception must not be null");
+        return new UploadResult<T>(request, null, null, exception);
+    }
+
+    public T getRequest() {
+        return request;
+    }
+
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+
+    /**
+     * Response of a successful request which waits for the optimized image.
+     */
+    @Nullable
+    public SuccessfulUploadResponse getSuccessfulUploadResponse() {
+        return successfulUploadResponse;
+    }
+
+    /**
+     * Response of a successful callback url request.
+     */
+    @Nullable
+    public SuccessfulUploadCallbackUrlResponse getSuccessfulUploadCallbackUrlResponse() {
+        return successfulUploadCallbackUrlResponse;
+    }
+
+    /**
+     * Response returned by Kraken.io for a rejected request, {@code null} if the request succeeded or failed without
+     * a response, e.g. because of a connection error.
+     */
+    @Nullable
+    public FailedUploadResponse getFailedUploadResponse() {
+        return exception instanceof KrakenIoRequestException ? ((KrakenIoRequestException) exception).getFailedUploadResponse() : null;
+    }
+
+    @Nullable
+    public Throwable getException() {
+        return exception;
+    }
+}
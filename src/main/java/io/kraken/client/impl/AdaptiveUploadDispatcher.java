@@ -0,0 +1,289 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import io.kraken.client.AsyncKrakenIoClient;
+import io.kraken.client.model.request.DirectFileUploadCallbackUrlRequest;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.request.DirectUploadCallbackUrlRequest;
+import io.kraken.client.model.request.DirectUploadRequest;
+import io.kraken.client.model.request.ImageUrlUploadCallbackUrlRequest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Sends each upload either with {@code wait=true}, holding the connection until Kraken.io finished optimizing, or with
+ * the callback URL of a {@link CallbackReceiver}, depending on the current load.
+ * <p>
+ * Uploads are sent waiting while fewer than the maximum number of waiting uploads are in flight and the average upload
+ * latency is below the threshold, otherwise they are sent with a callback URL. The average is a moving average over the
+ * latencies of completed uploads in both modes, so the dispatcher returns to waiting uploads once Kraken.io got fast
+ * again. Failed uploads count with the time until they failed, timed out uploads with at least the threshold, as their
+ * elapsed time is capped by the timeout. Callers receive the same result in both modes.
+ * <p>
+ * The threshold has to be below the read timeout of the client, otherwise waiting uploads time out before the dispatcher
+ * switches to callbacks.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class AdaptiveUploadDispatcher {
+
+    /**
+     * Weight of a new latency sample is 1 / 2^LATENCY_SMOOTHING_SHIFT.
+     */
+    private static final int LATENCY_SMOOTHING_SHIFT = 3;
+
+    private final AsyncKrakenIoClient krakenIoClient;
+    private final CallbackReceiver callbackReceiver;
+    private final int maxWaitingUploads;
+    private final long latencyThresholdNanos;
+    private final Ticker ticker = Ticker.systemTicker();
+    private final AtomicInteger waitingUploads = new AtomicInteger();
+    private final AtomicLong averageLatencyNanos = new AtomicLong();
+
+    private AdaptiveUploadDispatcher(Builder builder) {
+        checkNotNull(builder.krakenIoClient, "krakenIoClient must not be null");
+        checkNotNull(builder.callbackReceiver, "callbackReceiver must not be null");
+        checkArgument(builder.maxWaitingUploads >= 0, "maxWaitingUploads must not be negative");
+        checkArgument(builder.latencyThresholdNanos > 0, "latencyThreshold must be greater than 0");
+
+        this.krakenIoClient = builder.krakenIoClient;
+        this.callbackReceiver = builder.callbackReceiver;
+        this.maxWaitingUploads = builder.maxWaitingUploads;
+        this.latencyThresholdNanos = builder.latencyThresholdNanos;
+    }
+
+    public static Builder builder(AsyncKrakenIoClient krakenIoClient, CallbackReceiver callbackReceiver) {
+        return new Builder(krakenIoClient, callbackReceiver);
+    }
+
+    /**
+     * Number of uploads sent with {@code wait=true} which have not completed yet.
+     */
+    public int getWaitingUploads() {
+        return waitingUploads.get();
+    }
+
+    /**
+     * Moving average of the latency of completed uploads, 0 until the first upload completed.
+     */
+    public long getAverageLatency(TimeUnit timeUnit) {
+        return timeUnit.convert(averageLatencyNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public ListenableFuture<SuccessfulUploadResponse> directUploadAsync(final DirectUploadRequest directUploadRequest) {
+        checkNotNull(directUploadRequest, "directUploadRequest must not be null");
+        return dispatch(new Upload() {
+            @Override
+            public ListenableFuture<SuccessfulUploadResponse> send(boolean waiting) {
+                if (waiting) {
+                    return krakenIoClient.directUploadAsync(directUploadRequest);
+                }
+                return callbackReceiver.awaitUpload(krakenIoClient.directUploadAsync(
+                        DirectUploadCallbackUrlRequest.builder(directUploadRequest.getImage(), callbackReceiver.getCallbackUrl())
+                                .withOptionsOf(directUploadRequest)
+                                .build()
+                ));
+            }
+        });
+    }
+
+    public ListenableFuture<SuccessfulUploadResponse> directUploadAsync(final DirectFileUploadRequest directFileUploadRequest) {
+        checkNotNull(directFileUploadRequest, "directFileUploadRequest must not be null");
+        return dispatch(new Upload() {
+            @Override
+            public ListenableFuture<SuccessfulUploadResponse> send(boolean waiting) {
+                if (waiting) {
+                    return krakenIoClient.directUploadAsync(directFileUploadRequest);
+                }
+                return callbackReceiver.awaitUpload(krakenIoClient.directUploadAsync(
+                        DirectFileUploadCallbackUrlRequest.builder(directFileUploadRequest.getImage(), callbackReceiver.getCallbackUrl())
+                                .withOptionsOf(directFileUploadRequest)
+                                .build()
+                ));
+            }
+        });
+    }
+
+    public ListenableFuture<SuccessfulUploadResponse> imageUrlUploadAsync(final ImageUrlUploadRequest imageUrlUploadRequest) {
+        checkNotNull(imageUrlUploadRequest, "imageUrlUploadRequest must not be null");
+        return dispatch(new Upload() {
+            @Override
+            public ListenableFuture<SuccessfulUploadResponse> send(boolean waiting) {
+                if (waiting) {
+                    return krakenIoClient.imageUrlUploadAsync(imageUrlUploadRequest);
+                }
+                return callbackReceiver.awaitUpload(krakenIoClient.imageUrlUploadAsync(
+                        ImageUrlUploadCallbackUrlRequest.builder(imageUrlUploadRequest.getImageUrl(), callbackReceiver.getCallbackUrl())
+                                .withOptionsOf(imageUrlUploadRequest)
+                                .build()
+                ));
+            }
+        });
+    }
+
+    private ListenableFuture<SuccessfulUploadResponse> dispatch(Upload upload) {
+        final long startNanos = ticker.read();
+        final boolean waiting = tryAcquireWaiting();
+        final ListenableFuture<SuccessfulUploadResponse> future;
+        try {
+            future = upload.send(waiting);
+        } catch (RuntimeException e) {
+            if (waiting) {
+                waitingUploads.decrementAndGet();
+            }
+            throw e;
+        }
+        return track(future, startNanos, waiting);
+    }
+
+    /**
+     * Takes a slot for a waiting upload if the load permits it.
+     */
+    private boolean tryAcquireWaiting() {
+        if (averageLatencyNanos.get() >= latencyThresholdNanos) {
+            return false;
+        }
+
+        while (true) {
+            final int current = waitingUploads.get();
+            if (current >= maxWaitingUploads) {
+                return false;
+            }
+            if (waitingUploads.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The returned future completes after the load has been accounted for, so an upload following it sees the updated
+     * load.
+     */
+    private ListenableFuture<SuccessfulUploadResponse> track(final ListenableFuture<SuccessfulUploadResponse> future, final long startNanos, final boolean waiting) {
+        final SettableFuture<SuccessfulUploadResponse> tracked = SettableFuture.create();
+        Futures.addCallback(future, new FutureCallback<SuccessfulUploadResponse>() {
+            @Override
+            public void onSuccess(SuccessfulUploadResponse successfulUploadResponse) {
+                if (waiting) {
+                    waitingUploads.decrementAndGet();
+                }
+                recordLatency(ticker.read() - startNanos);
+                tracked.set(successfulUploadResponse);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (waiting) {
+                    waitingUploads.decrementAndGet();
+                }
+                if (!(t instanceof CancellationException)) {
+                    final long latencyNanos = ticker.read() - startNanos;
+                    recordLatency(isTimeout(t) ? Math.max(latencyNanos, latencyThresholdNanos) : latencyNanos);
+                }
+                tracked.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+
+        tracked.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (tracked.isCancelled()) {
+                    future.cancel(true);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return tracked;
+    }
+
+    /**
+     * Socket, connection pool and callback timeouts, and those of other transports by their name.
+     */
+    private static boolean isTimeout(Throwable throwable) {
+        for (Throwable cause : Throwables.getCausalChain(throwable)) {
+            if (cause instanceof InterruptedIOException || cause.getClass().getSimpleName().endsWith("TimeoutException")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void recordLatency(long latencyNanos) {
+        while (true) {
+            final long current = averageLatencyNanos.get();
+            final long updated = current == 0 ? latencyNanos : current + ((latencyNanos - current) >> LATENCY_SMOOTHING_SHIFT);
+            if (averageLatencyNanos.compareAndSet(current, Math.max(updated, 1))) {
+                return;
+            }
+        }
+    }
+
+    private interface Upload {
+        ListenableFuture<SuccessfulUploadResponse> send(boolean waiting);
+    }
+
+    public static class Builder {
+        private final AsyncKrakenIoClient krakenIoClient;
+        private final CallbackReceiver callbackReceiver;
+        private int maxWaitingUploads = 16;
+        private long latencyThresholdNanos = TimeUnit.SECONDS.toNanos(2);
+
+        private Builder(AsyncKrakenIoClient krakenIoClient, CallbackReceiver callbackReceiver) {
+            this.krakenIoClient = krakenIoClient;
+            this.callbackReceiver = callbackReceiver;
+        }
+
+        /**
+         * Maximum number of uploads in flight with {@code wait=true}, further uploads use the callback URL. Should not
+         * exceed the connections of the client.
+         */
+        public Builder withMaxWaitingUploads(int maxWaitingUploads) {
+            this.maxWaitingUploads = maxWaitingUploads;
+            return this;
+        }
+
+        /**
+         * Average upload latency from which on uploads use the callback URL, 2 seconds by default. Must be below the
+         * read timeout of the client, which is 3 seconds by default.
+         */
+        public Builder withLatencyThreshold(long latencyThreshold, TimeUnit timeUnit) {
+            this.latencyThresholdNanos = timeUnit.toNanos(latencyThreshold);
+            return this;
+        }
+
+        public AdaptiveUploadDispatcher build() {
+            return new AdaptiveUploadDispatcher(this);
+        }
+    }
+}
@@ -0,0 +1,481 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.kraken.client.exception.CallbackTimeoutException;
+import io.kraken.client.exception.KrakenIoException;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.model.response.AbstractUploadResponse;
+import io.kraken.client.model.response.FailedUploadResponse;
+import io.kraken.client.model.response.SuccessfulUploadCallbackUrlResponse;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import io.kraken.client.model.response.SuccessfulUploadSetResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Embedded HTTP endpoint receiving the results Kraken.io posts to the callback URL of an upload, based on the HTTP
+ * server of the JDK.
+ * <p>
+ * The result of an upload is awaited under the id Kraken.io returned for it, the returned future completes once the
+ * callback arrived. No thread is held while waiting. Callbacks arriving before their upload is awaited are kept until
+ * it is, for at most the timeout of the receiver. An upload without a callback within the timeout fails with a
+ * {@link CallbackTimeoutException}. A result is dropped as soon as it was received and handed out, each result can
+ * therefore be awaited once. Only its id is remembered for a few minutes to ignore repeated callbacks.
+ * <p>
+ * The path of the callback URL ends with a random token of the receiver, requests without it are rejected, so peers
+ * reaching the receiver can't forge results of uploads. The number of callbacks kept before anyone awaits them is
+ * capped, further callbacks are rejected with 503 until results are awaited or time out.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class CallbackReceiver implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(CallbackReceiver.class);
+
+    private static final String POST = "POST";
+    private static final long MAX_BODY_SIZE = 1024 * 1024;
+    private static final long COMPLETED_ID_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int MAX_COMPLETED_IDS = 10000;
+    private static final int TOKEN_BYTES = 16;
+
+    private final ResponseDecoder responseDecoder = new ResponseDecoder();
+    private final ConcurrentMap<String, PendingResult> results = new ConcurrentHashMap<String, PendingResult>();
+    // Ids of handed out results mapped to the time they were handed out, in that order. Guarded by itself
+    private final LinkedHashMap<String, Long> completedIds = new LinkedHashMap<String, Long>();
+    private final HttpServer httpServer;
+    private final String path;
+    private final byte[] tokenPath;
+    private final URL callbackUrl;
+    private final long timeoutNanos;
+    private final int maxUnawaitedResults;
+    private final AtomicInteger unawaitedResults = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+
+    private CallbackReceiver(Builder builder) {
+        checkNotNull(builder.address, "address must not be null");
+        checkNotNull(builder.path, "path must not be null");
+        checkArgument(builder.path.startsWith("/"), "path must start with /");
+        checkArgument(builder.timeoutNanos > 0, "timeout must be greater than 0");
+        checkArgument(builder.maxUnawaitedResults > 0, "maxUnawaitedResults must be greater than 0");
+
+        this.path = builder.path;
+        final String token = createToken();
+        this.tokenPath = (trimTrailingSlash(path) + "/" + token).getBytes(Charsets.UTF_8);
+        this.timeoutNanos = builder.timeoutNanos;
+        this.maxUnawaitedResults = builder.maxUnawaitedResults;
+        try {
+            this.httpServer = HttpServer.create(builder.address, 0);
+        } catch (IOException e) {
+            throw new KrakenIoException("Failed to bind the callback receiver to " + builder.address, e);
+        }
+        this.callbackUrl = withToken(builder.callbackUrl != null ? builder.callbackUrl : createCallbackUrl(httpServer.getAddress(), path), token);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kraken-io-callback-timeout-%d").build()
+        );
+
+        httpServer.createContext(path, new CallbackHandler());
+        httpServer.start();
+    }
+
+    private static URL createCallbackUrl(InetSocketAddress address, String path) {
+        try {
+            final InetAddress host = address.getAddress().isAnyLocalAddress() ? InetAddress.getLocalHost() : address.getAddress();
+            return new URL("http", host.getHostAddress(), address.getPort(), path);
+        } catch (IOException e) {
+            throw new KrakenIoException("Failed to determine the callback URL, configure it explicitly", e);
+        }
+    }
+
+    private static String createToken() {
+        final byte[] token = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(token);
+        return BaseEncoding.base16().lowerCase().encode(token);
+    }
+
+    private static URL withToken(URL url, String token) {
+        try {
+            return new URL(url.getProtocol(), url.getHost(), url.getPort(), trimTrailingSlash(url.getPath()) + "/" + token);
+        } catch (MalformedURLException e) {
+            throw new KrakenIoException("Failed to append the token to the callback URL " + url, e);
+        }
+    }
+
+    private static String trimTrailingSlash(String path) {
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The URL to pass as callback URL of uploads, its path ends with the token of the receiver.
+     */
+    public URL getCallbackUrl() {
+        return callbackUrl;
+    }
+
+    /**
+     * The address the receiver is bound to.
+     */
+    public InetSocketAddress getAddress() {
+        return httpServer.getAddress();
+    }
+
+    /**
+     * Number of uploads awaiting their callback and of received results not awaited yet.
+     */
+    public int size() {
+        return results.size();
+    }
+
+    public ListenableFuture<SuccessfulUploadResponse> awaitUpload(String id) {
+        return cast(await(id), SuccessfulUploadResponse.class);
+    }
+
+    public ListenableFuture<SuccessfulUploadSetResponse> awaitUploadSet(String id) {
+        return cast(await(id), SuccessfulUploadSetResponse.class);
+    }
+
+    /**
+     * Awaits the callback of an upload sent with {@link #getCallbackUrl()}, fails if the upload itself failed.
+     */
+    public ListenableFuture<SuccessfulUploadResponse> awaitUpload(ListenableFuture<SuccessfulUploadCallbackUrlResponse> upload) {
+        checkNotNull(upload, "upload must not be null");
+        return Futures.transform(upload, new AsyncFunction<SuccessfulUploadCallbackUrlResponse, SuccessfulUploadResponse>() {
+            @Override
+            public ListenableFuture<SuccessfulUploadResponse> apply(SuccessfulUploadCallbackUrlResponse successfulUploadCallbackUrlResponse) {
+                return awaitUpload(successfulUploadCallbackUrlResponse.getId());
+            }
+        });
+    }
+
+    public ListenableFuture<SuccessfulUploadSetResponse> awaitUploadSet(ListenableFuture<SuccessfulUploadCallbackUrlResponse> upload) {
+        checkNotNull(upload, "upload must not be null");
+        return Futures.transform(upload, new AsyncFunction<SuccessfulUploadCallbackUrlResponse, SuccessfulUploadSetResponse>() {
+            @Override
+            public ListenableFuture<SuccessfulUploadSetResponse> apply(SuccessfulUploadCallbackUrlResponse successfulUploadCallbackUrlResponse) {
+                return awaitUploadSet(successfulUploadCallbackUrlResponse.getId());
+            }
+        });
+    }
+
+    /**
+     * Stops the server, uploads still awaiting their callback fail.
+     */
+    @Override
+    public void close() throws IOException {
+        httpServer.stop(0);
+        scheduler.shutdownNow();
+        for (Map.Entry<String, PendingResult> entry : results.entrySet()) {
+            entry.getValue().future.setException(new KrakenIoException("Callback receiver is closed"));
+            if (results.remove(entry.getKey(), entry.getValue())) {
+                release(entry.getValue());
+            }
+        }
+    }
+
+    private ListenableFuture<AbstractUploadResponse> await(String id) {
+        final PendingResult pendingResult = pendingResult(id, false);
+        pendingResult.awaited = true;
+        release(pendingResult);
+        retireIfHandedOut(id, pendingResult);
+
+        return pendingResult.future;
+    }
+
+    /**
+     * @return false if the callback was rejected because too many results are not awaited yet
+     */
+    private boolean complete(ResponseDecoder.Callback callback) {
+        if (isCompleted(callback.getId())) {
+            log.debug("Ignoring repeated callback for upload {}", callback.getId());
+            return true;
+        }
+
+        PendingResult pendingResult = results.get(callback.getId());
+        if (pendingResult == null) {
+            if (unawaitedResults.incrementAndGet() > maxUnawaitedResults) {
+                unawaitedResults.decrementAndGet();
+                log.warn("Rejecting callback for upload {}, {} results are not awaited yet", callback.getId(), maxUnawaitedResults);
+                return false;
+            }
+            pendingResult = pendingResult(callback.getId(), true);
+        }
+        final boolean completed;
+        if (callback.getResponse() instanceof FailedUploadResponse) {
+            completed = pendingResult.future.setException(new KrakenIoRequestException("Kraken.io request failed", (FailedUploadResponse) callback.getResponse()));
+        } else {
+            completed = pendingResult.future.set(callback.getResponse());
+        }
+
+        if (!completed) {
+            log.debug("Ignoring repeated callback for upload {}", callback.getId());
+        }
+        retireIfHandedOut(callback.getId(), pendingResult);
+        return true;
+    }
+
+    /**
+     * The pending result of the upload with the given id, created by whichever comes first, the callback or the caller
+     * awaiting it.
+     *
+     * @param unawaited whether a created result counts towards the results not awaited yet, which the caller has
+     *                  already reserved a slot for
+     */
+    private PendingResult pendingResult(final String id, boolean unawaited) {
+        checkNotNull(id, "id must not be null");
+
+        final PendingResult existing = results.get(id);
+        if (existing != null) {
+            if (unawaited) {
+                unawaitedResults.decrementAndGet();
+            }
+            return existing;
+        }
+
+        final PendingResult created = new PendingResult(unawaited);
+        final PendingResult raced = results.putIfAbsent(id, created);
+        if (raced != null) {
+            if (unawaited) {
+                unawaitedResults.decrementAndGet();
+            }
+            return raced;
+        }
+
+        try {
+            created.timeout = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (results.remove(id, created)) {
+                        release(created);
+                    }
+                    created.future.setException(new CallbackTimeoutException("No callback received for upload " + id));
+                }
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            if (results.remove(id, created)) {
+                release(created);
+            }
+            created.future.setException(new KrakenIoException("Callback receiver is closed", e));
+        }
+        return created;
+    }
+
+    /**
+     * Frees the slot a result created by a callback took among the results not awaited yet.
+     */
+    private void release(PendingResult pendingResult) {
+        if (pendingResult.unawaited.compareAndSet(true, false)) {
+            unawaitedResults.decrementAndGet();
+        }
+    }
+
+    /**
+     * Drops a result once it was both received and handed out, both sides call this after their own update so the
+     * later one sees the other's.
+     */
+    private void retireIfHandedOut(String id, PendingResult pendingResult) {
+        if (!pendingResult.awaited || !pendingResult.future.isDone() || !results.remove(id, pendingResult)) {
+            return;
+        }
+
+        final Future<?> timeout = pendingResult.timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        synchronized (completedIds) {
+            expireCompletedIds(System.nanoTime());
+            completedIds.put(id, System.nanoTime());
+            if (completedIds.size() > MAX_COMPLETED_IDS) {
+                completedIds.remove(completedIds.keySet().iterator().next());
+            }
+        }
+    }
+
+    private boolean isCompleted(String id) {
+        synchronized (completedIds) {
+            expireCompletedIds(System.nanoTime());
+            return completedIds.containsKey(id);
+        }
+    }
+
+    private void expireCompletedIds(long now) {
+        final Iterator<Long> iterator = completedIds.values().iterator();
+        while (iterator.hasNext() && now - iterator.next() > COMPLETED_ID_RETENTION_NANOS) {
+            iterator.remove();
+        }
+    }
+
+    private static <T extends AbstractUploadResponse> ListenableFuture<T> cast(ListenableFuture<AbstractUploadResponse> future, final Class<T> type) {
+        return Futures.transform(future, new Function<AbstractUploadResponse, T>() {
+            @Override
+            public T apply(AbstractUploadResponse abstractUploadResponse) {
+                if (!type.isInstance(abstractUploadResponse)) {
+                    throw new KrakenIoException("Expected a " + type.getSimpleName() + " callback but received a " + abstractUploadResponse.getClass().getSimpleName());
+                }
+                return type.cast(abstractUploadResponse);
+            }
+        });
+    }
+
+    private static class PendingResult {
+        private final SettableFuture<AbstractUploadResponse> future = SettableFuture.create();
+        private final AtomicBoolean unawaited;
+        private volatile Future<?> timeout;
+        private volatile boolean awaited;
+
+        private PendingResult(boolean unawaited) {
+            this.unawaited = new AtomicBoolean(unawaited);
+        }
+    }
+
+    private class CallbackHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange httpExchange) throws IOException {
+            try {
+                if (!MessageDigest.isEqual(tokenPath, httpExchange.getRequestURI().getRawPath().getBytes(Charsets.UTF_8))) {
+                    httpExchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                if (!POST.equals(httpExchange.getRequestMethod())) {
+                    httpExchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+
+                final ResponseDecoder.Callback callback;
+                try {
+                    callback = responseDecoder.decodeCallback(ByteStreams.limit(httpExchange.getRequestBody(), MAX_BODY_SIZE));
+                } catch (IOException e) {
+                    log.debug("Rejecting malformed callback", e);
+                    httpExchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+
+                httpExchange.sendResponseHeaders(complete(callback) ? 200 : 503, -1);
+            } finally {
+                httpExchange.close();
+            }
+        }
+    }
+
+    public static class Builder {
+        private InetSocketAddress address = new InetSocketAddress(0);
+        private String path = "/kraken/callback";
+        private URL callbackUrl;
+        private long timeoutNanos = TimeUnit.HOURS.toNanos(1);
+        private int maxUnawaitedResults = 1000;
+
+        private Builder() {
+        }
+
+        /**
+         * The address to bind to, by default an ephemeral port on all interfaces.
+         */
+        public Builder withAddress(InetSocketAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        public Builder withPort(int port) {
+            this.address = new InetSocketAddress(port);
+            return this;
+        }
+
+        /**
+         * The path callbacks are received under, {@code /kraken/callback} by default. The token of the receiver is
+         * appended to it.
+         */
+        public Builder withPath(String path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * The URL Kraken.io reaches the receiver at, required if it runs behind a proxy or NAT. By default the URL is
+         * derived from the bound address. The token of the receiver is appended to its path, which the proxy has to
+         * pass on.
+         */
+        public Builder withCallbackUrl(@Nullable URL callbackUrl) {
+            this.callbackUrl = callbackUrl;
+            return this;
+        }
+
+        /**
+         * How long results are awaited and early results are kept, one hour by default.
+         */
+        public Builder withTimeout(long timeout, TimeUnit timeUnit) {
+            this.timeoutNanos = timeUnit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Number of callbacks kept before anyone awaits them, 1000 by default. Further callbacks are rejected with 503
+         * until results are awaited or time out.
+         */
+        public Builder withMaxUnawaitedResults(int maxUnawaitedResults) {
+            this.maxUnawaitedResults = maxUnawaitedResults;
+            return this;
+        }
+
+        /**
+         * Binds the receiver and starts accepting callbacks.
+         */
+        public CallbackReceiver build() {
+            return new CallbackReceiver(this);
+        }
+    }
+}
@@ -16,13 +16,39 @@
 package io.kraken.client.impl;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.kraken.client.AsyncKrakenIoClient;
 import io.kraken.client.KrakenIoClient;
 import io.kraken.client.exception.KrakenIoException;
 import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.exception.RateLimitExceededException;
+import io.kraken.client.impl.cache.UploadFingerprints;
+import io.kraken.client.impl.cache.UploadResultCache;
+import io.kraken.client.impl.circuitbreaker.CircuitBreaker;
+import io.kraken.client.impl.circuitbreaker.CircuitBreakerTransport;
+import io.kraken.client.impl.ratelimit.RateLimiter;
+import io.kraken.client.impl.ratelimit.RateLimiterRegistry;
+import io.kraken.client.impl.retry.RetryPolicy;
+import io.kraken.client.impl.singleflight.SingleFlight;
+import io.kraken.client.impl.transport.ApacheHttpTransport;
+import io.kraken.client.impl.transport.ByteArrayRequestBody;
+import io.kraken.client.impl.transport.MultipartRequestBody;
+import io.kraken.client.impl.transport.Transport;
+import io.kraken.client.impl.transport.TransportRequest;
+import io.kraken.client.impl.transport.TransportResponse;
 import io.kraken.client.model.Auth;
 import io.kraken.client.model.AuthWrapper;
 import io.kraken.client.model.request.*;
@@ -30,28 +56,22 @@ import io.kraken.client.model.response.AbstractUploadResponse;
 import io.kraken.client.model.response.FailedUploadResponse;
 import io.kraken.client.model.response.SuccessfulUploadCallbackUrlResponse;
 import io.kraken.client.model.response.SuccessfulUploadResponse;
-import org.glassfish.jersey.client.ClientConfig;
-import org.glassfish.jersey.client.ClientProperties;
-import org.glassfish.jersey.logging.LoggingFeature;
-import org.glassfish.jersey.media.multipart.BodyPart;
-import org.glassfish.jersey.media.multipart.FormDataBodyPart;
-import org.glassfish.jersey.media.multipart.MultiPart;
-import org.glassfish.jersey.media.multipart.MultiPartFeature;
-import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
-import org.glassfish.jersey.media.multipart.file.StreamDataBodyPart;
+import io.kraken.client.model.response.SuccessfulUploadSetResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.Feature;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.UUID;
-import java.util.logging.Level;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -60,9 +80,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * @author Emir Dizdarevic
  * @since 1.0.0
  */
-public class DefaultKrakenIoClient implements KrakenIoClient {
+public class DefaultKrakenIoClient implements KrakenIoClient, AsyncKrakenIoClient, Closeable {
 
-    private static final java.util.logging.Logger JERSEY_LOGGER = java.util.logging.Logger.getLogger(DefaultKrakenIoClient.class.getCanonicalName());
     private static final Logger log = LoggerFactory.getLogger(DefaultKrakenIoClient.class);
 
     private static final String DEFAULT_BASE_URL = "https://api.kraken.io";
@@ -70,120 +89,651 @@ public class DefaultKrakenIoClient implements KrakenIoClient {
     private static final String IMAGE_URL_ENDPOINT = "{0}/v1/url";
     private static final String DATA_PART = "data";
     private static final String UPLOAD_PART = "upload";
+    private static final String APPLICATION_JSON = "application/json";
+    private static final String OCTET_STREAM = "application/octet-stream";
+    private static final String RETRY_AFTER = "Retry-After";
 
-    private final javax.ws.rs.client.Client client;
+    private final Transport transport;
+    private final Transport pooledTransport;
+    private final boolean ownsTransport;
+    private final ObjectMapper objectMapper;
+    private final ResponseDecoder responseDecoder = new ResponseDecoder();
     private final String apiKey;
-    private final String apiSecret;
+    private final Auth auth;
     private final String directUploadUrl;
     private final String imageUrl;
+    private final RetryPolicy retryPolicy;
+    private final RateLimiter rateLimiter;
+    private final ScheduledExecutorService scheduler;
+    private final UploadResultCache resultCache;
+    private final SingleFlight<HashCode, SuccessfulUploadResponse> singleFlight;
+
+    private final ResponseHandler<SuccessfulUploadResponse> uploadResponseHandler = new ResponseHandler<SuccessfulUploadResponse>() {
+        @Override
+        public SuccessfulUploadResponse handle(TransportResponse response) {
+            return handleResponse(response);
+        }
+    };
+
+    private final ResponseHandler<SuccessfulUploadSetResponse> uploadSetResponseHandler = new ResponseHandler<SuccessfulUploadSetResponse>() {
+        @Override
+        public SuccessfulUploadSetResponse handle(TransportResponse response) {
+            return handleUploadSetResponse(response);
+        }
+    };
+
+    private final ResponseHandler<SuccessfulUploadCallbackUrlResponse> callbackUrlResponseHandler = new ResponseHandler<SuccessfulUploadCallbackUrlResponse>() {
+        @Override
+        public SuccessfulUploadCallbackUrlResponse handle(TransportResponse response) {
+            return handleCallbackUrlResponse(response);
+        }
+    };
 
     public DefaultKrakenIoClient(String apiKey, String apiSecret) {
         this(apiKey, apiSecret, DEFAULT_BASE_URL);
     }
 
     public DefaultKrakenIoClient(String apiKey, String apiSecret, String baseUrl) {
-        checkNotNull(apiKey, "apiKey must not be null");
-        checkArgument(!apiKey.isEmpty(), "apiKey must not be empty");
-        checkNotNull(apiSecret, "apiSecret must not be null");
-        checkArgument(!apiSecret.isEmpty(), "apiSecret must not be empty");
-        checkNotNull(baseUrl, "baseUrl must not be null");
-        checkArgument(!baseUrl.isEmpty(), "baseUrl must not be empty");
-
-        this.apiKey = apiKey;
-        this.apiSecret = apiSecret;
-        this.directUploadUrl = MessageFormat.format(DIRECT_UPLOAD_ENDPOINT, baseUrl);
-        this.imageUrl = MessageFormat.format(IMAGE_URL_ENDPOINT, baseUrl);
-        this.client = createClient(createObjectMapper());
-    }
-
-    private Client createClient(ObjectMapper objectMapper) {
-        final ClientConfig clientConfig = new ClientConfig();
-        clientConfig.property(ClientProperties.FOLLOW_REDIRECTS, true);
-        clientConfig.property(ClientProperties.CONNECT_TIMEOUT, 3000);
-        clientConfig.property(ClientProperties.READ_TIMEOUT, 3000);
-        clientConfig.property(ClientProperties.FEATURE_AUTO_DISCOVERY_DISABLE, true);
-
-        final JacksonJsonProvider jacksonJsonProvider = new JacksonJsonProvider(objectMapper);
-        final Client client = ClientBuilder.newClient(clientConfig).register(jacksonJsonProvider).register(MultiPartFeature.class);
-        final Feature feature = new LoggingFeature(JERSEY_LOGGER, Level.FINE, LoggingFeature.Verbosity.PAYLOAD_ANY, null);
-        client.register(feature);
-        return client;
+        this(builder(apiKey, apiSecret).withBaseUrl(baseUrl));
+    }
+
+    private DefaultKrakenIoClient(Builder builder) {
+        checkNotNull(builder.apiKey, "apiKey must not be null");
+        checkArgument(!builder.apiKey.isEmpty(), "apiKey must not be empty");
+        checkNotNull(builder.apiSecret, "apiSecret must not be null");
+        checkArgument(!builder.apiSecret.isEmpty(), "apiSecret must not be empty");
+        checkNotNull(builder.baseUrl, "baseUrl must not be null");
+        checkArgument(!builder.baseUrl.isEmpty(), "baseUrl must not be empty");
+
+        this.apiKey = builder.apiKey;
+        this.auth = new Auth(apiKey, builder.apiSecret);
+        this.directUploadUrl = MessageFormat.format(DIRECT_UPLOAD_ENDPOINT, builder.baseUrl);
+        this.imageUrl = MessageFormat.format(IMAGE_URL_ENDPOINT, builder.baseUrl);
+        this.objectMapper = createObjectMapper();
+        this.retryPolicy = checkNotNull(builder.retryPolicy, "retryPolicy must not be null");
+        this.rateLimiter = builder.rateLimiterRegistry != null ? builder.rateLimiterRegistry.get(apiKey) : builder.rateLimiter;
+        this.scheduler = retryPolicy.getMaxAttempts() > 1 || rateLimiter != null ? Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kraken-io-scheduler-%d").build()
+        ) : null;
+        this.resultCache = builder.resultCache;
+        this.singleFlight = builder.requestCoalescing ? new SingleFlight<HashCode, SuccessfulUploadResponse>() : null;
+
+        final Transport transport;
+        if (builder.transport != null) {
+            transport = builder.transport;
+            this.ownsTransport = false;
+        } else {
+            transport = builder.transportBuilder.withExecutorService(builder.executorService).build();
+            this.ownsTransport = true;
+        }
+        this.pooledTransport = transport;
+        this.transport = builder.circuitBreaker != null ? new CircuitBreakerTransport(transport, builder.circuitBreaker) : transport;
     }
 
     private ObjectMapper createObjectMapper() {
         final ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        objectMapper.configure(DeserializationFeature.READ_ENUMS_USING_TO_STRING, true);
         objectMapper.configure(SerializationFeature.WRITE_ENUMS_USING_TO_STRING, true);
         objectMapper.configure(SerializationFeature.WRITE_EMPTY_JSON_ARRAYS, false);
         objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-        objectMapper.enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
-        objectMapper.enable(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS);
 
         return objectMapper;
     }
 
+    public static Builder builder(String apiKey, String apiSecret) {
+        return new Builder(apiKey, apiSecret);
+    }
+
+    /**
+     * The transport the client sends its API requests through, guarded by the circuit breaker if one is configured.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * The connection pool of the client without its circuit breaker, for requests to other hosts like the downloads of
+     * optimized images. Failing downloads don't open the circuit of the API and an open circuit doesn't block them.
+     */
+    public Transport getPooledTransport() {
+        return pooledTransport;
+    }
+
+    /**
+     * Closes the underlying transport unless it was supplied through {@link Builder#withTransport(Transport)}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (ownsTransport) {
+            transport.close();
+        }
+    }
+
     @Override
     public SuccessfulUploadResponse directUpload(DirectUploadRequest directUploadRequest) {
-        return directUpload(directUploadRequest, new StreamDataBodyPart(UPLOAD_PART, directUploadRequest.getImage(), UUID.randomUUID().toString()));
+        return directUpload(directUploadRequest, serializeRequest(directUploadRequest), directUploadRequest.getImage());
     }
 
     @Override
     public SuccessfulUploadResponse directUpload(DirectFileUploadRequest directFileUploadRequest) {
-        return directUpload(directFileUploadRequest, new FileDataBodyPart(UPLOAD_PART, directFileUploadRequest.getImage()));
+        return directUpload(directFileUploadRequest, serializeRequest(directFileUploadRequest), directFileUploadRequest.getImage());
     }
 
     @Override
     public SuccessfulUploadResponse imageUrlUpload(ImageUrlUploadRequest imageUrlUploadRequest) {
-        final WebTarget webTarget = client.target(imageUrl);
-        final Response response = webTarget.request(MediaType.APPLICATION_JSON_TYPE).post(Entity.entity(wrapAuth(imageUrlUploadRequest), MediaType.APPLICATION_JSON_TYPE));
-        return handleResponse(response);
+        if (singleFlight != null) {
+            final TransportRequest transportRequest = createImageUrlRequest(imageUrlUploadRequest);
+            return singleFlight.execute(UploadFingerprints.fingerprint(imageUrlUploadRequest), new Supplier<SuccessfulUploadResponse>() {
+                @Override
+                public SuccessfulUploadResponse get() {
+                    return execute(transportRequest, uploadResponseHandler);
+                }
+            });
+        }
+
+        return execute(createImageUrlRequest(imageUrlUploadRequest), uploadResponseHandler);
     }
 
     @Override
     public SuccessfulUploadCallbackUrlResponse directUpload(DirectUploadCallbackUrlRequest directUploadCallbackUrlRequest) {
-        return directCallbackUrlUpload(directUploadCallbackUrlRequest, new StreamDataBodyPart(UPLOAD_PART, directUploadCallbackUrlRequest.getImage(), UUID.randomUUID().toString()));
+        return execute(createDirectUploadRequest(createStreamUploadBody(serializeRequest(directUploadCallbackUrlRequest), directUploadCallbackUrlRequest.getImage())), callbackUrlResponseHandler);
     }
 
     @Override
     public SuccessfulUploadCallbackUrlResponse directUpload(DirectFileUploadCallbackUrlRequest directFileUploadCallbackUrlRequest) {
-        return directCallbackUrlUpload(directFileUploadCallbackUrlRequest, new FileDataBodyPart(UPLOAD_PART, directFileUploadCallbackUrlRequest.getImage()));
+        return execute(createDirectUploadRequest(createFileUploadBody(serializeRequest(directFileUploadCallbackUrlRequest), directFileUploadCallbackUrlRequest.getImage())), callbackUrlResponseHandler);
     }
 
     @Override
     public SuccessfulUploadCallbackUrlResponse imageUrlUpload(ImageUrlUploadCallbackUrlRequest imageUrlUploadCallbackUrlRequest) {
-        final WebTarget webTarget = client.target(imageUrl);
-        final Response response = webTarget.request(MediaType.APPLICATION_JSON_TYPE).post(Entity.entity(wrapAuth(imageUrlUploadCallbackUrlRequest), MediaType.APPLICATION_JSON_TYPE));
-        return handleCallbackUrlResponse(response);
+        return execute(createImageUrlRequest(imageUrlUploadCallbackUrlRequest), callbackUrlResponseHandler);
+    }
+
+    @Override
+    public SuccessfulUploadSetResponse directUpload(DirectUploadSetRequest directUploadSetRequest) {
+        return execute(createDirectUploadRequest(createStreamUploadBody(serializeRequest(directUploadSetRequest), directUploadSetRequest.getImage())), uploadSetResponseHandler);
+    }
+
+    @Override
+    public SuccessfulUploadSetResponse directUpload(DirectFileUploadSetRequest directFileUploadSetRequest) {
+        return execute(createDirectUploadRequest(createFileUploadBody(serializeRequest(directFileUploadSetRequest), directFileUploadSetRequest.getImage())), uploadSetResponseHandler);
+    }
+
+    @Override
+    public SuccessfulUploadSetResponse imageUrlUpload(ImageUrlUploadSetRequest imageUrlUploadSetRequest) {
+        return execute(createImageUrlRequest(imageUrlUploadSetRequest), uploadSetResponseHandler);
+    }
+
+    @Override
+    public SuccessfulUploadCallbackUrlResponse directUpload(DirectUploadCallbackUrlSetRequest directUploadCallbackUrlSetRequest) {
+        return execute(createDirectUploadRequest(createStreamUploadBody(serializeRequest(directUploadCallbackUrlSetRequest), directUploadCallbackUrlSetRequest.getImage())), callbackUrlResponseHandler);
+    }
+
+    @Override
+    public SuccessfulUploadCallbackUrlResponse directUpload(DirectFileUploadCallbackUrlSetRequest directFileUploadCallbackUrlSetRequest) {
+        return execute(createDirectUploadRequest(createFileUploadBody(serializeRequest(directFileUploadCallbackUrlSetRequest), directFileUploadCallbackUrlSetRequest.getImage())), callbackUrlResponseHandler);
+    }
+
+    @Override
+    public SuccessfulUploadCallbackUrlResponse imageUrlUpload(ImageUrlUploadCallbackUrlSetRequest imageUrlUploadCallbackUrlSetRequest) {
+        return execute(createImageUrlRequest(imageUrlUploadCallbackUrlSetRequest), callbackUrlResponseHandler);
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadResponse> directUploadAsync(DirectUploadRequest directUploadRequest) {
+        return directUploadAsync(directUploadRequest, serializeRequest(directUploadRequest), directUploadRequest.getImage());
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadResponse> directUploadAsync(DirectFileUploadRequest directFileUploadRequest) {
+        return directUploadAsync(directFileUploadRequest, serializeRequest(directFileUploadRequest), directFileUploadRequest.getImage());
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadResponse> imageUrlUploadAsync(ImageUrlUploadRequest imageUrlUploadRequest) {
+        if (singleFlight != null) {
+            final TransportRequest transportRequest = createImageUrlRequest(imageUrlUploadRequest);
+            return singleFlight.executeAsync(UploadFingerprints.fingerprint(imageUrlUploadRequest), new Supplier<ListenableFuture<SuccessfulUploadResponse>>() {
+                @Override
+                public ListenableFuture<SuccessfulUploadResponse> get() {
+                    return executeAsync(transportRequest, uploadResponseHandler);
+                }
+            });
+        }
+
+        return executeAsync(createImageUrlRequest(imageUrlUploadRequest), uploadResponseHandler);
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadCallbackUrlResponse> directUploadAsync(DirectUploadCallbackUrlRequest directUploadCallbackUrlRequest) {
+        return executeAsync(createDirectUploadRequest(createStreamUploadBody(serializeRequest(directUploadCallbackUrlRequest), directUploadCallbackUrlRequest.getImage())), callbackUrlResponseHandler);
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadCallbackUrlResponse> directUploadAsync(DirectFileUploadCallbackUrlRequest directFileUploadCallbackUrlRequest) {
+        return executeAsync(createDirectUploadRequest(createFileUploadBody(serializeRequest(directFileUploadCallbackUrlRequest), directFileUploadCallbackUrlRequest.getImage())), callbackUrlResponseHandler);
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadCallbackUrlResponse> imageUrlUploadAsync(ImageUrlUploadCallbackUrlRequest imageUrlUploadCallbackUrlRequest) {
+        return executeAsync(createImageUrlRequest(imageUrlUploadCallbackUrlRequest), callbackUrlResponseHandler);
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadSetResponse> directUploadAsync(DirectUploadSetRequest directUploadSetRequest) {
+        return executeAsync(createDirectUploadRequest(createStreamUploadBody(serializeRequest(directUploadSetRequest), directUploadSetRequest.getImage())), uploadSetResponseHandler);
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadSetResponse> directUploadAsync(DirectFileUploadSetRequest directFileUploadSetRequest) {
+        return executeAsync(createDirectUploadRequest(createFileUploadBody(serializeRequest(directFileUploadSetRequest), directFileUploadSetRequest.getImage())), uploadSetResponseHandler);
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadSetResponse> imageUrlUploadAsync(ImageUrlUploadSetRequest imageUrlUploadSetRequest) {
+        return executeAsync(createImageUrlRequest(imageUrlUploadSetRequest), uploadSetResponseHandler);
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadCallbackUrlResponse> directUploadAsync(DirectUploadCallbackUrlSetRequest directUploadCallbackUrlSetRequest) {
+        return executeAsync(createDirectUploadRequest(createStreamUploadBody(serializeRequest(directUploadCallbackUrlSetRequest), directUploadCallbackUrlSetRequest.getImage())), callbackUrlResponseHandler);
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadCallbackUrlResponse> directUploadAsync(DirectFileUploadCallbackUrlSetRequest directFileUploadCallbackUrlSetRequest) {
+        return executeAsync(createDirectUploadRequest(createFileUploadBody(serializeRequest(directFileUploadCallbackUrlSetRequest), directFileUploadCallbackUrlSetRequest.getImage())), callbackUrlResponseHandler);
+    }
+
+    @Override
+    public ListenableFuture<SuccessfulUploadCallbackUrlResponse> imageUrlUploadAsync(ImageUrlUploadCallbackUrlSetRequest imageUrlUploadCallbackUrlSetRequest) {
+        return executeAsync(createImageUrlRequest(imageUrlUploadCallbackUrlSetRequest), callbackUrlResponseHandler);
+    }
+
+    /**
+     * Renders the {@code data} part of uploads with the given options once, uploads through the profile skip
+     * serializing the request. The profile can only be used with this client.
+     */
+    public UploadProfile createUploadProfile(UploadOptions uploadOptions) {
+        checkNotNull(uploadOptions, "uploadOptions must not be null");
+        return new UploadProfile(this, uploadOptions, serializeRequest(uploadOptions));
+    }
+
+    public SuccessfulUploadResponse directUpload(UploadProfile uploadProfile, InputStream image) {
+        checkProfile(uploadProfile);
+        checkNotNull(image, "image must not be null");
+        return directUpload(uploadProfile.getUploadOptions(), uploadProfile.getData(), image);
+    }
+
+    public SuccessfulUploadResponse directUpload(UploadProfile uploadProfile, File image) {
+        checkProfile(uploadProfile);
+        checkNotNull(image, "image must not be null");
+        return directUpload(uploadProfile.getUploadOptions(), uploadProfile.getData(), image);
+    }
+
+    public ListenableFuture<SuccessfulUploadResponse> directUploadAsync(UploadProfile uploadProfile, InputStream image) {
+        checkProfile(uploadProfile);
+        checkNotNull(image, "image must not be null");
+        return directUploadAsync(uploadProfile.getUploadOptions(), uploadProfile.getData(), image);
+    }
+
+    public ListenableFuture<SuccessfulUploadResponse> directUploadAsync(UploadProfile uploadProfile, File image) {
+        checkProfile(uploadProfile);
+        checkNotNull(image, "image must not be null");
+        return directUploadAsync(uploadProfile.getUploadOptions(), uploadProfile.getData(), image);
     }
 
-    private AuthWrapper wrapAuth(AbstractUploadRequest abstractUploadRequest) {
-        return new AuthWrapper(new Auth(apiKey, apiSecret), abstractUploadRequest);
+    private void checkProfile(UploadProfile uploadProfile) {
+        checkNotNull(uploadProfile, "uploadProfile must not be null");
+        checkArgument(uploadProfile.getClient() == this, "uploadProfile was created by a different client");
     }
 
-    private SuccessfulUploadResponse directUpload(AbstractUploadRequest abstractUploadRequest, BodyPart bodyPart) {
-        return handleResponse(handleRequest(abstractUploadRequest, bodyPart));
+    /**
+     * @param data the serialized request
+     */
+    private SuccessfulUploadResponse directUpload(AbstractUploadRequest abstractUploadRequest, byte[] data, InputStream image) {
+        if (resultCache != null || singleFlight != null) {
+            final byte[] imageBytes = readImage(image);
+            return executeDirectUpload(UploadFingerprints.fingerprint(abstractUploadRequest, imageBytes),
+                    createDirectUploadRequest(createBytesUploadBody(data, imageBytes)));
+        }
+
+        return execute(createDirectUploadRequest(createStreamUploadBody(data, image)), uploadResponseHandler);
+    }
+
+    private SuccessfulUploadResponse directUpload(AbstractUploadRequest abstractUploadRequest, byte[] data, File image) {
+        if (resultCache != null || singleFlight != null) {
+            return executeDirectUpload(UploadFingerprints.fingerprint(abstractUploadRequest, image),
+                    createDirectUploadRequest(createFileUploadBody(data, image)));
+        }
+
+        return execute(createDirectUploadRequest(createFileUploadBody(data, image)), uploadResponseHandler);
+    }
+
+    private ListenableFuture<SuccessfulUploadResponse> directUploadAsync(AbstractUploadRequest abstractUploadRequest, byte[] data, InputStream image) {
+        if (resultCache != null || singleFlight != null) {
+            final byte[] imageBytes = readImage(image);
+            return executeDirectUploadAsync(UploadFingerprints.fingerprint(abstractUploadRequest, imageBytes),
+                    createDirectUploadRequest(createBytesUploadBody(data, imageBytes)));
+        }
+
+        return executeAsync(createDirectUploadRequest(createStreamUploadBody(data, image)), uploadResponseHandler);
+    }
+
+    private ListenableFuture<SuccessfulUploadResponse> directUploadAsync(AbstractUploadRequest abstractUploadRequest, byte[] data, File image) {
+        if (resultCache != null || singleFlight != null) {
+            return executeDirectUploadAsync(UploadFingerprints.fingerprint(abstractUploadRequest, image),
+                    createDirectUploadRequest(createFileUploadBody(data, image)));
+        }
+
+        return executeAsync(createDirectUploadRequest(createFileUploadBody(data, image)), uploadResponseHandler);
+    }
+
+    /**
+     * @param request an {@link AbstractUploadRequest} or an {@link AbstractUploadSetRequest}
+     */
+    private AuthWrapper<Object> wrapAuth(Object request) {
+        return new AuthWrapper<Object>(auth, request);
+    }
+
+    private byte[] serializeRequest(Object request) {
+        try {
+            return objectMapper.writeValueAsBytes(wrapAuth(request));
+        } catch (JsonProcessingException e) {
+            throw new KrakenIoException("Failed to marshall request", e);
+        }
     }
 
-    private SuccessfulUploadCallbackUrlResponse directCallbackUrlUpload(AbstractUploadRequest abstractUploadRequest, BodyPart bodyPart) {
-        return handleCallbackUrlResponse(handleRequest(abstractUploadRequest, bodyPart));
+    private MultipartRequestBody createStreamUploadBody(byte[] data, InputStream image) {
+        return MultipartRequestBody.builder()
+                .withBytes(DATA_PART, APPLICATION_JSON, data)
+                .withStream(UPLOAD_PART, UUID.randomUUID().toString(), image)
+                .build();
     }
 
-    private Response handleRequest(AbstractUploadRequest abstractUploadRequest, BodyPart bodyPart) {
-        final WebTarget webTarget = client.target(directUploadUrl);
+    private MultipartRequestBody createBytesUploadBody(byte[] data, byte[] image) {
+        return MultipartRequestBody.builder()
+                .withBytes(DATA_PART, APPLICATION_JSON, data)
+                .withBytes(UPLOAD_PART, UUID.randomUUID().toString(), OCTET_STREAM, image)
+                .build();
+    }
 
-        final MultiPart multiPart = new MultiPart();
-        multiPart.setMediaType(MediaType.MULTIPART_FORM_DATA_TYPE);
+    private MultipartRequestBody createFileUploadBody(byte[] data, File image) {
+        return MultipartRequestBody.builder()
+                .withBytes(DATA_PART, APPLICATION_JSON, data)
+                .withFile(UPLOAD_PART, image)
+                .build();
+    }
 
-        multiPart.bodyPart(new FormDataBodyPart(DATA_PART, wrapAuth(abstractUploadRequest), MediaType.APPLICATION_JSON_TYPE));
-        multiPart.bodyPart(bodyPart);
+    private TransportRequest createDirectUploadRequest(MultipartRequestBody multipartRequestBody) {
+        return TransportRequest.builder(TransportRequest.POST, directUploadUrl)
+                .withHeader("Accept", APPLICATION_JSON)
+                .withBody(multipartRequestBody)
+                .build();
+    }
 
-        return webTarget.request(MediaType.APPLICATION_JSON_TYPE).post(Entity.entity(multiPart, multiPart.getMediaType()));
+    private TransportRequest createImageUrlRequest(Object request) {
+        return TransportRequest.builder(TransportRequest.POST, imageUrl)
+                .withHeader("Accept", APPLICATION_JSON)
+                .withBody(new ByteArrayRequestBody(APPLICATION_JSON, serializeRequest(request)))
+                .build();
     }
 
-    private SuccessfulUploadResponse handleResponse(Response response) {
+    private byte[] readImage(InputStream image) {
         try {
-            final AbstractUploadResponse abstractUploadResponse = response.readEntity(AbstractUploadResponse.class);
+            return ByteStreams.toByteArray(image);
+        } catch (IOException e) {
+            throw new KrakenIoException("Failed to read image", e);
+        } finally {
+            Closeables.closeQuietly(image);
+        }
+    }
+
+    /**
+     * Serves the upload from the result cache if possible, otherwise uploads it unless an identical upload is already
+     * in flight.
+     */
+    private SuccessfulUploadResponse executeDirectUpload(final HashCode fingerprint, final TransportRequest transportRequest) {
+        if (resultCache != null) {
+            final SuccessfulUploadResponse cachedResponse = resultCache.get(fingerprint);
+            if (cachedResponse != null) {
+                log.debug("Serving upload {} from the result cache", fingerprint);
+                return cachedResponse;
+            }
+        }
+
+        final Supplier<SuccessfulUploadResponse> upload = new Supplier<SuccessfulUploadResponse>() {
+            @Override
+            public SuccessfulUploadResponse get() {
+                final SuccessfulUploadResponse successfulUploadResponse = execute(transportRequest, uploadResponseHandler);
+                if (resultCache != null) {
+                    resultCache.put(fingerprint, successfulUploadResponse);
+                }
+                return successfulUploadResponse;
+            }
+        };
+        return singleFlight != null ? singleFlight.execute(fingerprint, upload) : upload.get();
+    }
+
+    private ListenableFuture<SuccessfulUploadResponse> executeDirectUploadAsync(final HashCode fingerprint, final TransportRequest transportRequest) {
+        if (resultCache != null) {
+            final SuccessfulUploadResponse cachedResponse = resultCache.get(fingerprint);
+            if (cachedResponse != null) {
+                log.debug("Serving upload {} from the result cache", fingerprint);
+                return Futures.immediateFuture(cachedResponse);
+            }
+        }
+
+        final Supplier<ListenableFuture<SuccessfulUploadResponse>> upload = new Supplier<ListenableFuture<SuccessfulUploadResponse>>() {
+            @Override
+            public ListenableFuture<SuccessfulUploadResponse> get() {
+                final ListenableFuture<SuccessfulUploadResponse> future = executeAsync(transportRequest, uploadResponseHandler);
+                if (resultCache == null) {
+                    return future;
+                }
+
+                // Populate the cache before the returned future completes so an upload following it is served from the cache
+                return Futures.transform(future, new Function<SuccessfulUploadResponse, SuccessfulUploadResponse>() {
+                    @Override
+                    public SuccessfulUploadResponse apply(SuccessfulUploadResponse successfulUploadResponse) {
+                        resultCache.put(fingerprint, successfulUploadResponse);
+                        return successfulUploadResponse;
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+        };
+        return singleFlight != null ? singleFlight.executeAsync(fingerprint, upload) : upload.get();
+    }
+
+    private <T> T execute(TransportRequest transportRequest, ResponseHandler<T> responseHandler) {
+        retryPolicy.getRetryBudget().deposit();
+        for (int attempt = 1; ; attempt++) {
+            Integer statusCode = null;
+            long retryAfterMillis = -1;
+            KrakenIoException failure;
+            try {
+                awaitRateLimit(transportRequest);
+                final TransportResponse transportResponse = transport.execute(transportRequest);
+                statusCode = transportResponse.getStatus();
+                retryAfterMillis = RetryPolicy.parseRetryAfter(transportResponse.getHeader(RETRY_AFTER));
+                return responseHandler.handle(transportResponse);
+            } catch (IOException e) {
+                failure = new KrakenIoException("Kraken.io request failed", e);
+            } catch (KrakenIoException e) {
+                failure = e;
+            }
+
+            final long delayMillis = getRetryDelayMillis(transportRequest, attempt, statusCode, retryAfterMillis, failure);
+            if (delayMillis < 0) {
+                throw failure;
+            }
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw failure;
+            }
+        }
+    }
+
+    private <T> ListenableFuture<T> executeAsync(TransportRequest transportRequest, ResponseHandler<T> responseHandler) {
+        final SettableFuture<T> future = SettableFuture.create();
+        retryPolicy.getRetryBudget().deposit();
+        executeAsync(transportRequest, responseHandler, future, 1);
+
+        return future;
+    }
+
+    private <T> void executeAsync(final TransportRequest transportRequest,
+                                  final ResponseHandler<T> responseHandler,
+                                  final SettableFuture<T> future,
+                                  final int attempt) {
+        final long waitNanos = rateLimiter != null ? rateLimiter.reserve() : 0;
+        if (waitNanos < 0) {
+            future.setException(createRateLimitExceededException(transportRequest));
+        } else if (waitNanos == 0) {
+            sendAsync(transportRequest, responseHandler, future, attempt);
+        } else {
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!future.isDone()) {
+                            sendAsync(transportRequest, responseHandler, future, attempt);
+                        }
+                    }
+                }, waitNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                future.setException(new KrakenIoException("Kraken.io client is closed", e));
+            }
+        }
+    }
+
+    private <T> void sendAsync(final TransportRequest transportRequest,
+                               final ResponseHandler<T> responseHandler,
+                               final SettableFuture<T> future,
+                               final int attempt) {
+        final ListenableFuture<TransportResponse> responseFuture = transport.executeAsync(transportRequest);
+        Futures.addCallback(responseFuture, new FutureCallback<TransportResponse>() {
+            @Override
+            public void onSuccess(TransportResponse transportResponse) {
+                final long retryAfterMillis = RetryPolicy.parseRetryAfter(transportResponse.getHeader(RETRY_AFTER));
+                try {
+                    future.set(responseHandler.handle(transportResponse));
+                } catch (KrakenIoException e) {
+                    retryAsync(transportRequest, responseHandler, future, attempt, transportResponse.getStatus(), retryAfterMillis, e);
+                } catch (Exception e) {
+                    future.setException(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                final KrakenIoException failure = throwable instanceof KrakenIoException ? (KrakenIoException) throwable : new KrakenIoException("Kraken.io request failed", throwable);
+                retryAsync(transportRequest, responseHandler, future, attempt, null, -1, failure);
+            }
+        });
+
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isCancelled()) {
+                    responseFuture.cancel(true);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private <T> void retryAsync(final TransportRequest transportRequest,
+                                final ResponseHandler<T> responseHandler,
+                                final SettableFuture<T> future,
+                                final int attempt,
+                                Integer statusCode,
+                                long retryAfterMillis,
+                                KrakenIoException failure) {
+        if (future.isDone()) {
+            return;
+        }
+
+        final long delayMillis = getRetryDelayMillis(transportRequest, attempt, statusCode, retryAfterMillis, failure);
+        if (delayMillis < 0) {
+            future.setException(failure);
+            return;
+        }
+
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!future.isDone()) {
+                        executeAsync(transportRequest, responseHandler, future, attempt + 1);
+                    }
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            future.setException(failure);
+        }
+    }
+
+    private void awaitRateLimit(TransportRequest transportRequest) {
+        if (rateLimiter == null) {
+            return;
+        }
+
+        final long waitNanos = rateLimiter.reserve();
+        if (waitNanos < 0) {
+            throw createRateLimitExceededException(transportRequest);
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KrakenIoException("Interrupted while waiting for the rate limit", e);
+        }
+    }
+
+    private RateLimitExceededException createRateLimitExceededException(TransportRequest transportRequest) {
+        return new RateLimitExceededException("Rate limit exceeded, rejected " + transportRequest.getMethod() + " " + transportRequest.getUrl());
+    }
+
+    /**
+     * @return the delay before the next attempt or -1 if the failure is final
+     */
+    private long getRetryDelayMillis(TransportRequest transportRequest,
+                                     int attempt,
+                                     @Nullable Integer statusCode,
+                                     long retryAfterMillis,
+                                     KrakenIoException failure) {
+        if (attempt >= retryPolicy.getMaxAttempts()) {
+            return -1;
+        }
+        if (transportRequest.getBody() != null && !transportRequest.getBody().isRepeatable()) {
+            log.debug("Not retrying {} {}, the request body can't be sent again", transportRequest.getMethod(), transportRequest.getUrl());
+            return -1;
+        }
+        if (!retryPolicy.isRetryable(statusCode, failure)) {
+            return -1;
+        }
+
+        final long delayMillis = retryPolicy.getDelayMillis(attempt, retryAfterMillis);
+        if (delayMillis < 0) {
+            return -1;
+        }
+        if (!retryPolicy.getRetryBudget().tryWithdraw()) {
+            log.debug("Not retrying {} {}, the retry budget is exhausted", transportRequest.getMethod(), transportRequest.getUrl());
+            return -1;
+        }
+
+        log.debug("Retrying {} {} in {} ms after attempt {} failed", transportRequest.getMethod(), transportRequest.getUrl(), delayMillis, attempt);
+        return delayMillis;
+    }
+
+    private SuccessfulUploadResponse handleResponse(TransportResponse response) {
+        try {
+            final AbstractUploadResponse abstractUploadResponse = responseDecoder.decodeUploadResponse(response.getBody());
             abstractUploadResponse.setStatus(response.getStatus());
 
             if (response.getStatus() == 200) {
@@ -195,15 +745,36 @@ public class DefaultKrakenIoClient implements KrakenIoClient {
             throw e;
         } catch (Exception e) {
             throw new KrakenIoException("Failed to unmarshall response", e);
+        } finally {
+            closeQuietly(response);
         }
     }
 
-    private SuccessfulUploadCallbackUrlResponse handleCallbackUrlResponse(Response response) {
+    private SuccessfulUploadSetResponse handleUploadSetResponse(TransportResponse response) {
         try {
+            final AbstractUploadResponse abstractUploadResponse = responseDecoder.decodeUploadSetResponse(response.getBody());
+            abstractUploadResponse.setStatus(response.getStatus());
+
             if (response.getStatus() == 200) {
-                return response.readEntity(SuccessfulUploadCallbackUrlResponse.class);
+                return (SuccessfulUploadSetResponse) abstractUploadResponse;
             } else {
-                final FailedUploadResponse failedUploadResponse = response.readEntity(FailedUploadResponse.class);
+                throw new KrakenIoRequestException("Kraken.io request failed", (FailedUploadResponse) abstractUploadResponse);
+            }
+        } catch (KrakenIoRequestException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new KrakenIoException("Failed to unmarshall response", e);
+        } finally {
+            closeQuietly(response);
+        }
+    }
+
+    private SuccessfulUploadCallbackUrlResponse handleCallbackUrlResponse(TransportResponse response) {
+        try {
+            if (response.getStatus() == 200) {
+                return responseDecoder.decodeCallbackUrlResponse(response.getBody());
+            } else {
+                final FailedUploadResponse failedUploadResponse = responseDecoder.decodeFailedUploadResponse(response.getBody());
                 failedUploadResponse.setStatus(response.getStatus());
                 throw new KrakenIoRequestException("Kraken.io request failed", failedUploadResponse);
             }
@@ -211,6 +782,162 @@ public class DefaultKrakenIoClient implements KrakenIoClient {
             throw e;
         } catch (Exception e) {
             throw new KrakenIoException("Failed to unmarshall response", e);
+        } finally {
+            closeQuietly(response);
+        }
+    }
+
+    private void closeQuietly(TransportResponse response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            log.debug("Failed to close response", e);
+        }
+    }
+
+    private interface ResponseHandler<T> {
+        T handle(TransportResponse response);
+    }
+
+    public static class Builder {
+        private final String apiKey;
+        private final String apiSecret;
+        private final ApacheHttpTransport.Builder transportBuilder = ApacheHttpTransport.builder();
+        private String baseUrl = DEFAULT_BASE_URL;
+        private ExecutorService executorService;
+        private Transport transport;
+        private RetryPolicy retryPolicy = RetryPolicy.none();
+        private CircuitBreaker circuitBreaker;
+        private RateLimiter rateLimiter;
+        private RateLimiterRegistry rateLimiterRegistry;
+        private UploadResultCache resultCache;
+        private boolean requestCoalescing;
+
+        private Builder(String apiKey, String apiSecret) {
+            this.apiKey = apiKey;
+            this.apiSecret = apiSecret;
+        }
+
+        public Builder withBaseUrl(String baseUrl) {
+            this.baseUrl = baseUrl;
+            return this;
+        }
+
+        /**
+         * Executor the asynchronous requests are run on. The executor is owned by the caller and is never shut down by
+         * the client.
+         */
+        public Builder withExecutorService(@Nullable ExecutorService executorService) {
+            this.executorService = executorService;
+            return this;
+        }
+
+        /**
+         * Replaces the default pooled transport, the connection settings of this builder are ignored in that case.
+         * A transport supplied here is not closed by {@link DefaultKrakenIoClient#close()}.
+         */
+        public Builder withTransport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Retries transient failures, by default requests are not retried. Requests uploading an {@link InputStream}
+         * are never retried since the stream can only be read once.
+         */
+        public Builder withRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Guards the transport with a circuit breaker, while it is open requests fail immediately with a
+         * {@link io.kraken.client.exception.CircuitBreakerOpenException} which is never retried.
+         */
+        public Builder withCircuitBreaker(@Nullable CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Spaces out requests client side, requests which would have to wait longer than the maximum wait time of the
+         * limiter fail with a {@link RateLimitExceededException}. Retries take a permit as well.
+         */
+        public Builder withRateLimiter(@Nullable RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * Uses the limiter of the API key from the registry, takes precedence over {@link #withRateLimiter(RateLimiter)}.
+         */
+        public Builder withRateLimiterRegistry(@Nullable RateLimiterRegistry rateLimiterRegistry) {
+            this.rateLimiterRegistry = rateLimiterRegistry;
+            return this;
+        }
+
+        /**
+         * Serves direct uploads of byte identical images with identical options from the cache instead of uploading
+         * them again. Uploads with a callback URL are never cached. While a cache is configured {@link InputStream}
+         * images are read into memory to fingerprint them, which also makes their uploads retryable.
+         */
+        public Builder withResultCache(@Nullable UploadResultCache resultCache) {
+            this.resultCache = resultCache;
+            return this;
+        }
+
+        /**
+         * Shares a single in-flight request between concurrent identical direct and image URL uploads, identified by
+         * their content and options, all callers receive its result or exception. Uploads with a callback URL are
+         * never coalesced. While enabled {@link InputStream} images are read into memory to fingerprint them.
+         */
+        public Builder withRequestCoalescing(boolean requestCoalescing) {
+            this.requestCoalescing = requestCoalescing;
+            return this;
+        }
+
+        public Builder withConnectTimeout(long connectTimeout, TimeUnit timeUnit) {
+            transportBuilder.withConnectTimeout(connectTimeout, timeUnit);
+            return this;
+        }
+
+        public Builder withReadTimeout(long readTimeout, TimeUnit timeUnit) {
+            transportBuilder.withReadTimeout(readTimeout, timeUnit);
+            return this;
+        }
+
+        public Builder withMaxConnections(int maxConnections) {
+            transportBuilder.withMaxConnections(maxConnections);
+            return this;
+        }
+
+        public Builder withMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            transportBuilder.withMaxConnectionsPerRoute(maxConnectionsPerRoute);
+            return this;
+        }
+
+        public Builder withConnectionRequestTimeout(long connectionRequestTimeout, TimeUnit timeUnit) {
+            transportBuilder.withConnectionRequestTimeout(connectionRequestTimeout, timeUnit);
+            return this;
+        }
+
+        public Builder withIdleConnectionTimeout(long idleConnectionTimeout, TimeUnit timeUnit) {
+            transportBuilder.withIdleConnectionTimeout(idleConnectionTimeout, timeUnit);
+            return this;
+        }
+
+        public Builder withKeepAlive(long keepAlive, TimeUnit timeUnit) {
+            transportBuilder.withKeepAlive(keepAlive, timeUnit);
+            return this;
+        }
+
+        public Builder withConnectionTimeToLive(long connectionTimeToLive, TimeUnit timeUnit) {
+            transportBuilder.withConnectionTimeToLive(connectionTimeToLive, timeUnit);
+            return this;
+        }
+
+        public DefaultKrakenIoClient build() {
+            return new DefaultKrakenIoClient(this);
         }
     }
 }
@@ -0,0 +1,355 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.kraken.client.model.response.AbstractUploadResponse;
+import io.kraken.client.model.response.FailedUploadResponse;
+import io.kraken.client.model.response.SuccessfulUploadCallbackUrlResponse;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import io.kraken.client.model.response.SuccessfulUploadSetResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decodes the responses of the upload endpoints with a streaming parser straight from the response body. The response
+ * shapes are fixed, decoding them field by field avoids the reflection and polymorphic type handling of data binding.
+ * Unknown fields are skipped. Field names are canonicalized by the parser, so matching them does not allocate.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+class ResponseDecoder {
+
+    private static final String SUCCESS = "success";
+    private static final String FILE_NAME = "file_name";
+    private static final String ORIGINAL_SIZE = "original_size";
+    private static final String KRAKED_SIZE = "kraked_size";
+    private static final String SAVED_BYTES = "saved_bytes";
+    private static final String KRAKED_URL = "kraked_url";
+    private static final String MESSAGE = "message";
+    private static final String ID = "id";
+    private static final String RESULTS = "results";
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Decodes a {@link SuccessfulUploadResponse} or a {@link FailedUploadResponse} depending on the {@code success}
+     * property, which is mandatory.
+     */
+    AbstractUploadResponse decodeUploadResponse(InputStream inputStream) throws IOException {
+        final JsonParser parser = jsonFactory.createParser(inputStream);
+        try {
+            expectStartObject(parser);
+
+            Boolean success = null;
+            String fileName = null;
+            Integer originalSize = null;
+            Integer krakedSize = null;
+            Integer savedBytes = null;
+            String krakedUrl = null;
+            String message = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if (SUCCESS.equals(fieldName)) {
+                    success = readBoolean(parser, token);
+                } else if (FILE_NAME.equals(fieldName)) {
+                    fileName = readString(parser, token);
+                } else if (ORIGINAL_SIZE.equals(fieldName)) {
+                    originalSize = readInteger(parser, token);
+                } else if (KRAKED_SIZE.equals(fieldName)) {
+                    krakedSize = readInteger(parser, token);
+                } else if (SAVED_BYTES.equals(fieldName)) {
+                    savedBytes = readInteger(parser, token);
+                } else if (KRAKED_URL.equals(fieldName)) {
+                    krakedUrl = readString(parser, token);
+                } else if (MESSAGE.equals(fieldName)) {
+                    message = readString(parser, token);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (success == null) {
+                throw new JsonParseException(parser, "Missing property '" + SUCCESS + "'");
+            }
+            return success
+                    ? new SuccessfulUploadResponse(true, fileName, originalSize, krakedSize, savedBytes, krakedUrl)
+                    : new FailedUploadResponse(false, message);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Decodes a {@link SuccessfulUploadSetResponse} or a {@link FailedUploadResponse} depending on the {@code success}
+     * property, which is mandatory. The results are kept in the order of the response.
+     */
+    AbstractUploadResponse decodeUploadSetResponse(InputStream inputStream) throws IOException {
+        final JsonParser parser = jsonFactory.createParser(inputStream);
+        try {
+            expectStartObject(parser);
+
+            Boolean success = null;
+            Map<String, SuccessfulUploadResponse> results = null;
+            String message = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if (SUCCESS.equals(fieldName)) {
+                    success = readBoolean(parser, token);
+                } else if (RESULTS.equals(fieldName)) {
+                    results = readResults(parser, token);
+                } else if (MESSAGE.equals(fieldName)) {
+                    message = readString(parser, token);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (success == null) {
+                throw new JsonParseException(parser, "Missing property '" + SUCCESS + "'");
+            }
+            return success
+                    ? new SuccessfulUploadSetResponse(true, results)
+                    : new FailedUploadResponse(false, message);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Decodes the body Kraken.io posts to a callback URL. It is a {@link SuccessfulUploadResponse}, a
+     * {@link SuccessfulUploadSetResponse} if it has {@code results}, or a {@link FailedUploadResponse}, together with
+     * the id of the upload. The {@code id} and {@code success} properties are mandatory.
+     */
+    Callback decodeCallback(InputStream inputStream) throws IOException {
+        final JsonParser parser = jsonFactory.createParser(inputStream);
+        try {
+            expectStartObject(parser);
+
+            String id = null;
+            Boolean success = null;
+            String fileName = null;
+            Integer originalSize = null;
+            Integer krakedSize = null;
+            Integer savedBytes = null;
+            String krakedUrl = null;
+            Map<String, SuccessfulUploadResponse> results = null;
+            String message = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if (ID.equals(fieldName)) {
+                    id = readString(parser, token);
+                } else if (SUCCESS.equals(fieldName)) {
+                    success = readBoolean(parser, token);
+                } else if (FILE_NAME.equals(fieldName)) {
+                    fileName = readString(parser, token);
+                } else if (ORIGINAL_SIZE.equals(fieldName)) {
+                    originalSize = readInteger(parser, token);
+                } else if (KRAKED_SIZE.equals(fieldName)) {
+                    krakedSize = readInteger(parser, token);
+                } else if (SAVED_BYTES.equals(fieldName)) {
+                    savedBytes = readInteger(parser, token);
+                } else if (KRAKED_URL.equals(fieldName)) {
+                    krakedUrl = readString(parser, token);
+                } else if (RESULTS.equals(fieldName)) {
+                    results = readResults(parser, token);
+                } else if (MESSAGE.equals(fieldName)) {
+                    message = readString(parser, token);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (id == null) {
+                throw new JsonParseException(parser, "Missing property '" + ID + "'");
+            }
+            if (success == null) {
+                throw new JsonParseException(parser, "Missing property '" + SUCCESS + "'");
+            }
+
+            final AbstractUploadResponse response;
+            if (!success) {
+                response = new FailedUploadResponse(false, message);
+            } else if (results != null) {
+                response = new SuccessfulUploadSetResponse(true, results);
+            } else {
+                response = new SuccessfulUploadResponse(true, fileName, originalSize, krakedSize, savedBytes, krakedUrl);
+            }
+            return new Callback(id, response);
+        } finally {
+            parser.close();
+        }
+    }
+
+    FailedUploadResponse decodeFailedUploadResponse(InputStream inputStream) throws IOException {
+        final JsonParser parser = jsonFactory.createParser(inputStream);
+        try {
+            expectStartObject(parser);
+
+            Boolean success = null;
+            String message = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if (SUCCESS.equals(fieldName)) {
+                    success = readBoolean(parser, token);
+                } else if (MESSAGE.equals(fieldName)) {
+                    message = readString(parser, token);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            return new FailedUploadResponse(success, message);
+        } finally {
+            parser.close();
+        }
+    }
+
+    SuccessfulUploadCallbackUrlResponse decodeCallbackUrlResponse(InputStream inputStream) throws IOException {
+        final JsonParser parser = jsonFactory.createParser(inputStream);
+        try {
+            expectStartObject(parser);
+
+            String id = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if (ID.equals(fieldName)) {
+                    id = readString(parser, token);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            return new SuccessfulUploadCallbackUrlResponse(id);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static Map<String, SuccessfulUploadResponse> readResults(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected an object for '" + RESULTS + "'");
+        }
+
+        final Map<String, SuccessfulUploadResponse> results = new LinkedHashMap<String, SuccessfulUploadResponse>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String id = parser.getCurrentName();
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected an object for result '" + id + "'");
+            }
+            results.put(id, readResult(parser));
+        }
+        return results;
+    }
+
+    /**
+     * Reads the fields of a single result of a set upload, the parser is positioned on its start.
+     */
+    private static SuccessfulUploadResponse readResult(JsonParser parser) throws IOException {
+        String fileName = null;
+        Integer originalSize = null;
+        Integer krakedSize = null;
+        Integer savedBytes = null;
+        String krakedUrl = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String fieldName = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            if (FILE_NAME.equals(fieldName)) {
+                fileName = readString(parser, token);
+            } else if (ORIGINAL_SIZE.equals(fieldName)) {
+                originalSize = readInteger(parser, token);
+            } else if (KRAKED_SIZE.equals(fieldName)) {
+                krakedSize = readInteger(parser, token);
+            } else if (SAVED_BYTES.equals(fieldName)) {
+                savedBytes = readInteger(parser, token);
+            } else if (KRAKED_URL.equals(fieldName)) {
+                krakedUrl = readString(parser, token);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new SuccessfulUploadResponse(true, fileName, originalSize, krakedSize, savedBytes, krakedUrl);
+    }
+
+    private static void expectStartObject(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a JSON object");
+        }
+    }
+
+    private static Boolean readBoolean(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.VALUE_TRUE && token != JsonToken.VALUE_FALSE) {
+            throw new JsonParseException(parser, "Expected a boolean for '" + parser.getCurrentName() + "'");
+        }
+        return token == JsonToken.VALUE_TRUE;
+    }
+
+    private static Integer readInteger(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.VALUE_NUMBER_INT) {
+            throw new JsonParseException(parser, "Expected an integer for '" + parser.getCurrentName() + "'");
+        }
+        return parser.getIntValue();
+    }
+
+    private static String readString(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw new JsonParseException(parser, "Expected a string for '" + parser.getCurrentName() + "'");
+        }
+        return parser.getText();
+    }
+
+    static class Callback {
+        private final String id;
+        private final AbstractUploadResponse response;
+
+        Callback(String id, AbstractUploadResponse response) {
+            this.id = id;
+            this.response = response;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        AbstractUploadResponse getResponse() {
+            return response;
+        }
+    }
+}
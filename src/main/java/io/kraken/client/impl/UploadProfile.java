@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import io.kraken.client.model.request.UploadOptions;
+
+/**
+ * Upload options bound to the credentials of a client with the {@code data} part of the upload rendered once. The
+ * rendered bytes are shared by every upload through the profile and are never modified. Profiles are immutable and
+ * thread safe, create them with {@link DefaultKrakenIoClient#createUploadProfile(UploadOptions)} and reuse them.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public final class UploadProfile {
+
+    private final DefaultKrakenIoClient client;
+    private final UploadOptions uploadOptions;
+    private final byte[] data;
+
+    UploadProfile(DefaultKrakenIoClient client, UploadOptions uploadOptions, byte[] data) {
+        this.client = client;
+        this.uploadOptions = uploadOptions;
+        this.data = data;
+    }
+
+    public UploadOptions getUploadOptions() {
+        return uploadOptions;
+    }
+
+    DefaultKrakenIoClient getClient() {
+        return client;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+}
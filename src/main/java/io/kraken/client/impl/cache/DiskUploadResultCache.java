@@ -0,0 +1,494 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.kraken.client.exception.KrakenIoException;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link UploadResultCache} persisted in a memory mapped file, so results survive restarts and can be shared by several
+ * JVMs on one host. The file is an open addressing hash table of fixed size records with linear probing, lookups read
+ * the mapped records in place. Every access holds a lock on the file, shared for lookups and exclusive for writes.
+ * Expired records are removed by a background compaction.
+ * <p>
+ * The capacity is fixed when the file is created. Once the table is full new results are dropped until compaction frees
+ * records, results with a file name or URL which does not fit a record are not stored. Failures to access the file are
+ * logged and treated as cache misses. A file must only be opened once per JVM, share the instance instead.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class DiskUploadResultCache implements UploadResultCache, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskUploadResultCache.class);
+
+    private static final int MAGIC = 0x4B524B43;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    private static final int KEY_SIZE = 32;
+    private static final int FILE_NAME_CAPACITY = 134;
+    private static final int KRAKED_URL_CAPACITY = 320;
+    private static final int RECORD_SIZE = 512;
+
+    private static final int EXPIRES_AT_OFFSET = 0;
+    private static final int KEY_OFFSET = 8;
+    private static final int ORIGINAL_SIZE_OFFSET = 40;
+    private static final int KRAKED_SIZE_OFFSET = 44;
+    private static final int SAVED_BYTES_OFFSET = 48;
+    private static final int NULLS_OFFSET = 52;
+    private static final int FILE_NAME_LENGTH_OFFSET = 54;
+    private static final int KRAKED_URL_LENGTH_OFFSET = 56;
+    private static final int FILE_NAME_OFFSET = 58;
+    private static final int KRAKED_URL_OFFSET = FILE_NAME_OFFSET + FILE_NAME_CAPACITY;
+
+    private static final int ORIGINAL_SIZE_NULL = 1;
+    private static final int KRAKED_SIZE_NULL = 1 << 1;
+    private static final int SAVED_BYTES_NULL = 1 << 2;
+    private static final int FILE_NAME_NULL = 1 << 3;
+    private static final int KRAKED_URL_NULL = 1 << 4;
+
+    private final File file;
+    private final long expireAfterWriteMillis;
+    private final int capacity;
+    private final MappedByteBuffer buffer;
+    private final ScheduledExecutorService compactionExecutor;
+    private final byte[] key = new byte[KEY_SIZE];
+    private final byte[] scratch = new byte[KRAKED_URL_CAPACITY];
+
+    private RandomAccessFile randomAccessFile;
+    private long hitCount;
+    private long missCount;
+    private boolean closed;
+
+    private DiskUploadResultCache(Builder builder) throws IOException {
+        checkNotNull(builder.file, "file must not be null");
+        checkArgument(builder.capacity > 0, "capacity must be greater than 0");
+        checkArgument(builder.capacity <= (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE, "capacity must not exceed %s", (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE);
+        checkArgument(builder.expireAfterWriteMillis > 0, "expireAfterWrite must be greater than 0");
+
+        this.file = builder.file;
+        this.expireAfterWriteMillis = builder.expireAfterWriteMillis;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+
+        final FileLock fileLock = randomAccessFile.getChannel().lock();
+        try {
+            if (randomAccessFile.length() == 0) {
+                randomAccessFile.setLength(HEADER_SIZE + (long) builder.capacity * RECORD_SIZE);
+                this.buffer = map();
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, RECORD_SIZE);
+                buffer.putInt(12, builder.capacity);
+                buffer.force();
+            } else {
+                this.buffer = map();
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE) {
+                    throw new KrakenIoException(file + " is not a result cache file");
+                }
+            }
+            this.capacity = buffer.getInt(12);
+        } catch (RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        } finally {
+            if (fileLock.isValid()) {
+                fileLock.release();
+            }
+        }
+
+        this.compactionExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kraken-io-cache-compaction-%d").build()
+        );
+        compactionExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        }, builder.compactionIntervalMillis, builder.compactionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        final MappedByteBuffer mappedByteBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length());
+        mappedByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        return mappedByteBuffer;
+    }
+
+    @Nullable
+    @Override
+    public synchronized SuccessfulUploadResponse get(HashCode fingerprint) {
+        checkFingerprint(fingerprint);
+
+        final FileLock fileLock = lock(true);
+        if (fileLock == null) {
+            return null;
+        }
+        try {
+            final int slot = find(fingerprint, System.currentTimeMillis());
+            if (slot < 0) {
+                missCount++;
+                return null;
+            }
+
+            hitCount++;
+            return readResponse(recordOffset(slot));
+        } finally {
+            release(fileLock);
+        }
+    }
+
+    @Override
+    public synchronized void put(HashCode fingerprint, SuccessfulUploadResponse successfulUploadResponse) {
+        checkFingerprint(fingerprint);
+        checkNotNull(successfulUploadResponse, "successfulUploadResponse must not be null");
+
+        final byte[] fileName = encode(successfulUploadResponse.getFileName());
+        final byte[] krakedUrl = encode(successfulUploadResponse.getKrakedUrl());
+        if (fileName.length > FILE_NAME_CAPACITY || krakedUrl.length > KRAKED_URL_CAPACITY) {
+            log.debug("Not caching {}, the response does not fit a record", fingerprint);
+            return;
+        }
+
+        final FileLock fileLock = lock(false);
+        if (fileLock == null) {
+            return;
+        }
+        try {
+            final long now = System.currentTimeMillis();
+            final int slot = findInsertionSlot(fingerprint, now);
+            if (slot < 0) {
+                log.warn("Result cache {} is full, not caching {}", file, fingerprint);
+                return;
+            }
+
+            final int offset = recordOffset(slot);
+            int nulls = 0;
+            nulls |= writeInt(offset + ORIGINAL_SIZE_OFFSET, successfulUploadResponse.getOriginalSize(), ORIGINAL_SIZE_NULL);
+            nulls |= writeInt(offset + KRAKED_SIZE_OFFSET, successfulUploadResponse.getKrakedSize(), KRAKED_SIZE_NULL);
+            nulls |= writeInt(offset + SAVED_BYTES_OFFSET, successfulUploadResponse.getSavedBytes(), SAVED_BYTES_NULL);
+            nulls |= successfulUploadResponse.getFileName() == null ? FILE_NAME_NULL : 0;
+            nulls |= successfulUploadResponse.getKrakedUrl() == null ? KRAKED_URL_NULL : 0;
+            buffer.put(offset + NULLS_OFFSET, (byte) nulls);
+            buffer.putShort(offset + FILE_NAME_LENGTH_OFFSET, (short) fileName.length);
+            buffer.putShort(offset + KRAKED_URL_LENGTH_OFFSET, (short) krakedUrl.length);
+            putBytes(offset + FILE_NAME_OFFSET, fileName, fileName.length);
+            putBytes(offset + KRAKED_URL_OFFSET, krakedUrl, krakedUrl.length);
+            fingerprint.writeBytesTo(key, 0, KEY_SIZE);
+            putBytes(offset + KEY_OFFSET, key, KEY_SIZE);
+            buffer.putLong(offset + EXPIRES_AT_OFFSET, now + expireAfterWriteMillis);
+        } finally {
+            release(fileLock);
+        }
+    }
+
+    /**
+     * Removes expired records, runs periodically in the background.
+     */
+    public synchronized void compact() {
+        final FileLock fileLock = lock(false);
+        if (fileLock == null) {
+            return;
+        }
+        try {
+            final long now = System.currentTimeMillis();
+            int removed = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                // Removing a record can shift an expired record into its slot
+                while (isOccupied(slot) && isExpired(slot, now)) {
+                    remove(slot);
+                    removed++;
+                }
+            }
+            log.debug("Removed {} expired records from result cache {}", removed, file);
+        } catch (RuntimeException e) {
+            log.warn("Failed to compact result cache " + file, e);
+        } finally {
+            release(fileLock);
+        }
+    }
+
+    /**
+     * Number of records which have not expired yet.
+     */
+    public synchronized int size() {
+        final FileLock fileLock = lock(true);
+        if (fileLock == null) {
+            return 0;
+        }
+        try {
+            final long now = System.currentTimeMillis();
+            int size = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (isOccupied(slot) && !isExpired(slot, now)) {
+                    size++;
+                }
+            }
+            return size;
+        } finally {
+            release(fileLock);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactionExecutor.shutdownNow();
+        synchronized (this) {
+            closed = true;
+            buffer.force();
+            randomAccessFile.close();
+        }
+    }
+
+    private int find(HashCode fingerprint, long now) {
+        fingerprint.writeBytesTo(key, 0, KEY_SIZE);
+        int slot = homeSlot(fingerprint.asLong());
+        for (int probes = 0; probes < capacity && isOccupied(slot); probes++) {
+            if (keyEquals(slot)) {
+                return isExpired(slot, now) ? -1 : slot;
+            }
+            slot = nextSlot(slot);
+        }
+        return -1;
+    }
+
+    private int findInsertionSlot(HashCode fingerprint, long now) {
+        fingerprint.writeBytesTo(key, 0, KEY_SIZE);
+        int expiredSlot = -1;
+        int slot = homeSlot(fingerprint.asLong());
+        for (int probes = 0; probes < capacity; probes++) {
+            if (!isOccupied(slot) || keyEquals(slot)) {
+                return expiredSlot >= 0 && !keyEquals(slot) ? expiredSlot : slot;
+            }
+            if (expiredSlot < 0 && isExpired(slot, now)) {
+                expiredSlot = slot;
+            }
+            slot = nextSlot(slot);
+        }
+        return expiredSlot;
+    }
+
+    /**
+     * Backward shift deletion, moves the records following the slot in its probe sequence up so lookups never stop at
+     * the emptied slot before reaching them.
+     */
+    private void remove(int slot) {
+        int emptySlot = slot;
+        int current = slot;
+        for (int probes = 1; probes < capacity; probes++) {
+            current = nextSlot(current);
+            if (!isOccupied(current)) {
+                break;
+            }
+
+            final int home = homeSlot(buffer.getLong(recordOffset(current) + KEY_OFFSET));
+            final boolean reachable = emptySlot <= current
+                    ? emptySlot < home && home <= current
+                    : emptySlot < home || home <= current;
+            if (!reachable) {
+                copyRecord(current, emptySlot);
+                emptySlot = current;
+            }
+        }
+        buffer.putLong(recordOffset(emptySlot) + EXPIRES_AT_OFFSET, 0);
+    }
+
+    private void copyRecord(int fromSlot, int toSlot) {
+        final int fromOffset = recordOffset(fromSlot);
+        final int toOffset = recordOffset(toSlot);
+        for (int i = 0; i < RECORD_SIZE; i += 8) {
+            buffer.putLong(toOffset + i, buffer.getLong(fromOffset + i));
+        }
+    }
+
+    private SuccessfulUploadResponse readResponse(int offset) {
+        final int nulls = buffer.get(offset + NULLS_OFFSET);
+        final SuccessfulUploadResponse successfulUploadResponse = new SuccessfulUploadResponse(
+                true,
+                (nulls & FILE_NAME_NULL) != 0 ? null : readString(offset + FILE_NAME_OFFSET, buffer.getShort(offset + FILE_NAME_LENGTH_OFFSET)),
+                (nulls & ORIGINAL_SIZE_NULL) != 0 ? null : buffer.getInt(offset + ORIGINAL_SIZE_OFFSET),
+                (nulls & KRAKED_SIZE_NULL) != 0 ? null : buffer.getInt(offset + KRAKED_SIZE_OFFSET),
+                (nulls & SAVED_BYTES_NULL) != 0 ? null : buffer.getInt(offset + SAVED_BYTES_OFFSET),
+                (nulls & KRAKED_URL_NULL) != 0 ? null : readString(offset + KRAKED_URL_OFFSET, buffer.getShort(offset + KRAKED_URL_LENGTH_OFFSET))
+        );
+        successfulUploadResponse.setStatus(200);
+        return successfulUploadResponse;
+    }
+
+    private String readString(int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buffer.get(offset + i);
+        }
+        return new String(scratch, 0, length, Charsets.UTF_8);
+    }
+
+    private int writeInt(int offset, @Nullable Integer value, int nullFlag) {
+        buffer.putInt(offset, value != null ? value : 0);
+        return value != null ? 0 : nullFlag;
+    }
+
+    private void putBytes(int offset, byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + i, bytes[i]);
+        }
+    }
+
+    private boolean keyEquals(int slot) {
+        final int offset = recordOffset(slot) + KEY_OFFSET;
+        for (int i = 0; i < KEY_SIZE; i++) {
+            if (buffer.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isOccupied(int slot) {
+        return buffer.getLong(recordOffset(slot) + EXPIRES_AT_OFFSET) != 0;
+    }
+
+    private boolean isExpired(int slot, long now) {
+        return buffer.getLong(recordOffset(slot) + EXPIRES_AT_OFFSET) <= now;
+    }
+
+    private int homeSlot(long hash) {
+        return (int) ((hash & Long.MAX_VALUE) % capacity);
+    }
+
+    private int nextSlot(int slot) {
+        return slot + 1 == capacity ? 0 : slot + 1;
+    }
+
+    private static int recordOffset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static byte[] encode(@Nullable String value) {
+        return value != null ? value.getBytes(Charsets.UTF_8) : new byte[0];
+    }
+
+    private static void checkFingerprint(HashCode fingerprint) {
+        checkNotNull(fingerprint, "fingerprint must not be null");
+        checkArgument(fingerprint.bits() == KEY_SIZE * 8, "fingerprint must have %s bits", KEY_SIZE * 8);
+    }
+
+    /**
+     * Locks the whole file. A thread interrupted while waiting for the lock closes the channel, in that case it is
+     * reopened on the next access. The mapping stays valid independently of the channel.
+     */
+    @Nullable
+    private FileLock lock(boolean shared) {
+        if (closed) {
+            return null;
+        }
+        try {
+            if (!randomAccessFile.getChannel().isOpen()) {
+                randomAccessFile = new RandomAccessFile(file, "rw");
+            }
+            return randomAccessFile.getChannel().lock(0, Long.MAX_VALUE, shared);
+        } catch (IOException e) {
+            log.warn("Failed to lock result cache " + file, e);
+            return null;
+        } catch (OverlappingFileLockException e) {
+            log.warn("Result cache " + file + " is opened more than once by this JVM", e);
+            return null;
+        }
+    }
+
+    private void release(FileLock fileLock) {
+        try {
+            if (fileLock.isValid()) {
+                fileLock.release();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to unlock result cache " + file, e);
+        }
+    }
+
+    public static Builder builder(File file) {
+        return new Builder(file);
+    }
+
+    public static class Builder {
+        private final File file;
+        private int capacity = 16384;
+        private long expireAfterWriteMillis = TimeUnit.HOURS.toMillis(1);
+        private long compactionIntervalMillis = TimeUnit.MINUTES.toMillis(5);
+
+        private Builder(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Number of records, only applies when the file is created. Each record takes 512 bytes.
+         */
+        public Builder withCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        public Builder withExpireAfterWrite(long expireAfterWrite, TimeUnit timeUnit) {
+            this.expireAfterWriteMillis = timeUnit.toMillis(expireAfterWrite);
+            return this;
+        }
+
+        public Builder withCompactionInterval(long compactionInterval, TimeUnit timeUnit) {
+            this.compactionIntervalMillis = timeUnit.toMillis(compactionInterval);
+            return this;
+        }
+
+        public DiskUploadResultCache build() {
+            try {
+                return new DiskUploadResultCache(this);
+            } catch (IOException e) {
+                throw new KrakenIoException("Failed to open result cache " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Size bounded in-memory {@link UploadResultCache} with LRU eviction. Entries expire after the time the optimized
+ * image stays available under its {@code kraked_url}, one hour by default.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class InMemoryUploadResultCache implements UploadResultCache {
+
+    private final Cache<HashCode, SuccessfulUploadResponse> cache;
+
+    private InMemoryUploadResultCache(long maximumSize, long expireAfterWriteMillis) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    @Nullable
+    @Override
+    public SuccessfulUploadResponse get(HashCode fingerprint) {
+        return cache.getIfPresent(checkNotNull(fingerprint, "fingerprint must not be null"));
+    }
+
+    @Override
+    public void put(HashCode fingerprint, SuccessfulUploadResponse successfulUploadResponse) {
+        checkNotNull(fingerprint, "fingerprint must not be null");
+        checkNotNull(successfulUploadResponse, "successfulUploadResponse must not be null");
+
+        cache.put(fingerprint, successfulUploadResponse);
+    }
+
+    /**
+     * Hit, miss and eviction counts since the cache was created.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private long maximumSize = 10000;
+        private long expireAfterWriteMillis = TimeUnit.HOURS.toMillis(1);
+
+        private Builder() {
+        }
+
+        public Builder withMaximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Should not exceed the time Kraken.io keeps the optimized image available under its {@code kraked_url}.
+         */
+        public Builder withExpireAfterWrite(long expireAfterWrite, TimeUnit timeUnit) {
+            this.expireAfterWriteMillis = timeUnit.toMillis(expireAfterWrite);
+            return this;
+        }
+
+        public InMemoryUploadResultCache build() {
+            return new InMemoryUploadResultCache(maximumSize, expireAfterWriteMillis);
+        }
+    }
+}
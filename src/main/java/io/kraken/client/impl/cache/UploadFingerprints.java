@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import io.kraken.client.exception.KrakenIoException;
+import io.kraken.client.model.request.AbstractUploadRequest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+/**
+ * Computes the 256-bit fingerprints identifying uploads. A direct upload is identified by the SHA-256 of the image content
+ * combined with the {@link AbstractUploadRequest#getOptionsFingerprint() options fingerprint} of the request, an image
+ * URL upload by its normalized image URL and the options fingerprint.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public final class UploadFingerprints {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.sha256();
+
+    private UploadFingerprints() {
+    }
+
+    public static HashCode fingerprint(AbstractUploadRequest abstractUploadRequest, File image) {
+        try {
+            return combine(abstractUploadRequest, Files.hash(image, HASH_FUNCTION));
+        } catch (IOException e) {
+            throw new KrakenIoException("Failed to read " + image, e);
+        }
+    }
+
+    public static HashCode fingerprint(AbstractUploadRequest abstractUploadRequest, byte[] image) {
+        return combine(abstractUploadRequest, HASH_FUNCTION.hashBytes(image));
+    }
+
+    public static HashCode fingerprint(ImageUrlUploadRequest imageUrlUploadRequest) {
+        return combine(imageUrlUploadRequest, HASH_FUNCTION.hashString(normalizeUrl(imageUrlUploadRequest.getImageUrl().toExternalForm()), Charsets.UTF_8));
+    }
+
+    private static HashCode combine(AbstractUploadRequest abstractUploadRequest, HashCode image) {
+        return HASH_FUNCTION.newHasher()
+                .putBytes(abstractUploadRequest.getOptionsFingerprint().asBytes())
+                .putBytes(image.asBytes())
+                .hash();
+    }
+
+    /**
+     * Lower cases scheme and host, drops default ports and the fragment and removes dot segments from the path.
+     */
+    static String normalizeUrl(String url) {
+        try {
+            final URI uri = new URI(url).normalize();
+            if (uri.isOpaque() || uri.getScheme() == null || uri.getHost() == null) {
+                return url;
+            }
+
+            final String scheme = uri.getScheme().toLowerCase(Locale.ENGLISH);
+            final int port = ("http".equals(scheme) && uri.getPort() == 80) || ("https".equals(scheme) && uri.getPort() == 443) ? -1 : uri.getPort();
+            final String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+
+            final StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append(scheme).append("://");
+            if (uri.getRawUserInfo() != null) {
+                stringBuilder.append(uri.getRawUserInfo()).append('@');
+            }
+            stringBuilder.append(uri.getHost().toLowerCase(Locale.ENGLISH));
+            if (port != -1) {
+                stringBuilder.append(':').append(port);
+            }
+            stringBuilder.append(path);
+            if (uri.getRawQuery() != null) {
+                stringBuilder.append('?').append(uri.getRawQuery());
+            }
+            return stringBuilder.toString();
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+}
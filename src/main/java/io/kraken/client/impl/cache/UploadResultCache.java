@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.cache;
+
+import com.google.common.hash.HashCode;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+
+import javax.annotation.Nullable;
+
+/**
+ * Stores the results of direct uploads by {@link UploadFingerprints fingerprint}, so byte identical images uploaded with
+ * identical options are only sent to Kraken.io once. Implementations must be thread safe.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public interface UploadResultCache {
+
+    @Nullable
+    SuccessfulUploadResponse get(HashCode fingerprint);
+
+    void put(HashCode fingerprint, SuccessfulUploadResponse successfulUploadResponse);
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.circuitbreaker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Count based circuit breaker.
+ * <p>
+ * While {@link State#CLOSED} the outcome of the last {@code windowSize} calls is kept, once at least
+ * {@code minimumNumberOfCalls} have been recorded and either the failure rate or the slow call rate reaches its
+ * threshold the breaker opens. While {@link State#OPEN} calls are rejected, after {@code waitDurationInOpenState} the
+ * breaker lets {@code permittedCallsInHalfOpenState} trial calls through and closes or opens again depending on
+ * their outcome.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final int minimumNumberOfCalls;
+    private final float failureRateThreshold;
+    private final float slowCallRateThreshold;
+    private final long slowCallDurationNanos;
+    private final long waitDurationInOpenStateNanos;
+    private final int permittedCallsInHalfOpenState;
+    private final List<CircuitBreakerListener> listeners;
+
+    // Ring buffer of outcomes, guarded by this
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int recordedCalls;
+    private int nextIndex;
+    private int failedCount;
+    private int slowCount;
+
+    private State state = State.CLOSED;
+    private long openedAtNanos;
+    private int halfOpenPermits;
+
+    private CircuitBreaker(Builder builder) {
+        checkArgument(builder.windowSize > 0, "windowSize must be greater than 0");
+        checkArgument(builder.minimumNumberOfCalls > 0 && builder.minimumNumberOfCalls <= builder.windowSize, "minimumNumberOfCalls must be between 1 and windowSize");
+        checkArgument(builder.failureRateThreshold > 0 && builder.failureRateThreshold <= 100, "failureRateThreshold must be between 0 and 100");
+        checkArgument(builder.slowCallRateThreshold > 0 && builder.slowCallRateThreshold <= 100, "slowCallRateThreshold must be between 0 and 100");
+        checkArgument(builder.slowCallDurationNanos > 0, "slowCallDuration must be greater than 0");
+        checkArgument(builder.waitDurationInOpenStateNanos > 0, "waitDurationInOpenState must be greater than 0");
+        checkArgument(builder.permittedCallsInHalfOpenState > 0, "permittedCallsInHalfOpenState must be greater than 0");
+
+        this.windowSize = builder.windowSize;
+        this.minimumNumberOfCalls = builder.minimumNumberOfCalls;
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.slowCallDurationNanos = builder.slowCallDurationNanos;
+        this.waitDurationInOpenStateNanos = builder.waitDurationInOpenStateNanos;
+        this.permittedCallsInHalfOpenState = builder.permittedCallsInHalfOpenState;
+        this.listeners = Collections.unmodifiableList(new ArrayList<CircuitBreakerListener>(builder.listeners));
+        this.failedCalls = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return {@code true} if the call may proceed, its outcome must then be reported through {@link #onSuccess},
+     * {@link #onError} or {@link #releasePermission()}
+     */
+    public boolean tryAcquirePermission() {
+        final State from;
+        final State to;
+        final boolean permitted;
+        synchronized (this) {
+            from = state;
+            if (state == State.OPEN && System.nanoTime() - openedAtNanos >= waitDurationInOpenStateNanos) {
+                transitionTo(State.HALF_OPEN);
+            }
+            to = state;
+
+            permitted = state == State.CLOSED || (state == State.HALF_OPEN && halfOpenPermits < permittedCallsInHalfOpenState);
+            if (permitted && state == State.HALF_OPEN) {
+                halfOpenPermits++;
+            }
+        }
+
+        notifyStateChange(from, to);
+        if (!permitted) {
+            for (CircuitBreakerListener listener : listeners) {
+                try {
+                    listener.onCallRejected(to);
+                } catch (RuntimeException e) {
+                    log.warn("Circuit breaker listener failed", e);
+                }
+            }
+        }
+
+        return permitted;
+    }
+
+    /**
+     * Time until an open breaker lets trial calls through, 0 if it isn't open.
+     */
+    public synchronized long getRemainingOpenMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(waitDurationInOpenStateNanos - (System.nanoTime() - openedAtNanos)));
+    }
+
+    public void onSuccess(long durationNanos) {
+        record(false, durationNanos);
+    }
+
+    public void onError(long durationNanos) {
+        record(true, durationNanos);
+    }
+
+    /**
+     * Gives back a permission whose call was cancelled before it had an outcome.
+     */
+    public synchronized void releasePermission() {
+        if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+            halfOpenPermits--;
+        }
+    }
+
+    private void record(boolean failed, long durationNanos) {
+        final State from;
+        final State to;
+        synchronized (this) {
+            from = state;
+            if (state == State.OPEN) {
+                // Late outcome of a call which started before the breaker opened
+                return;
+            }
+
+            if (recordedCalls == windowSize) {
+                failedCount -= failedCalls[nextIndex] ? 1 : 0;
+                slowCount -= slowCalls[nextIndex] ? 1 : 0;
+            } else {
+                recordedCalls++;
+            }
+            failedCalls[nextIndex] = failed;
+            slowCalls[nextIndex] = durationNanos >= slowCallDurationNanos;
+            failedCount += failed ? 1 : 0;
+            slowCount += slowCalls[nextIndex] ? 1 : 0;
+            nextIndex = (nextIndex + 1) % windowSize;
+
+            if (state == State.CLOSED && recordedCalls >= minimumNumberOfCalls && isThresholdExceeded()) {
+                transitionTo(State.OPEN);
+            } else if (state == State.HALF_OPEN && recordedCalls >= permittedCallsInHalfOpenState) {
+                transitionTo(isThresholdExceeded() ? State.OPEN : State.CLOSED);
+            }
+            to = state;
+        }
+
+        notifyStateChange(from, to);
+    }
+
+    private boolean isThresholdExceeded() {
+        return failedCount * 100f / recordedCalls >= failureRateThreshold
+                || slowCount * 100f / recordedCalls >= slowCallRateThreshold;
+    }
+
+    private void transitionTo(State newState) {
+        log.debug("Circuit breaker transitions from {} to {}, failed {} and slow {} of {} calls", state, newState, failedCount, slowCount, recordedCalls);
+
+        state = newState;
+        recordedCalls = 0;
+        nextIndex = 0;
+        failedCount = 0;
+        slowCount = 0;
+        halfOpenPermits = 0;
+        if (newState == State.OPEN) {
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+    private void notifyStateChange(State from, State to) {
+        if (from == to) {
+            return;
+        }
+
+        for (CircuitBreakerListener listener : listeners) {
+            try {
+                listener.onStateChange(from, to);
+            } catch (RuntimeException e) {
+                log.warn("Circuit breaker listener failed", e);
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int windowSize = 100;
+        private int minimumNumberOfCalls = 20;
+        private float failureRateThreshold = 50;
+        private float slowCallRateThreshold = 50;
+        private long slowCallDurationNanos = TimeUnit.SECONDS.toNanos(2);
+        private long waitDurationInOpenStateNanos = TimeUnit.SECONDS.toNanos(30);
+        private int permittedCallsInHalfOpenState = 5;
+        private final List<CircuitBreakerListener> listeners = new ArrayList<CircuitBreakerListener>();
+
+        private Builder() {
+        }
+
+        /**
+         * Number of most recent calls the failure and slow call rates are computed from.
+         */
+        public Builder withWindowSize(int windowSize) {
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * Minimum number of calls in the window before the breaker may open.
+         */
+        public Builder withMinimumNumberOfCalls(int minimumNumberOfCalls) {
+            this.minimumNumberOfCalls = minimumNumberOfCalls;
+            return this;
+        }
+
+        /**
+         * Percentage of failed calls at which the breaker opens.
+         */
+        public Builder withFailureRateThreshold(float failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * Percentage of slow calls at which the breaker opens.
+         */
+        public Builder withSlowCallRateThreshold(float slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            return this;
+        }
+
+        /**
+         * Calls taking at least this long count as slow.
+         */
+        public Builder withSlowCallDuration(long slowCallDuration, TimeUnit timeUnit) {
+            this.slowCallDurationNanos = timeUnit.toNanos(slowCallDuration);
+            return this;
+        }
+
+        public Builder withWaitDurationInOpenState(long waitDuration, TimeUnit timeUnit) {
+            this.waitDurationInOpenStateNanos = timeUnit.toNanos(waitDuration);
+            return this;
+        }
+
+        /**
+         * Number of trial calls let through once the wait duration in open state has passed.
+         */
+        public Builder withPermittedCallsInHalfOpenState(int permittedCallsInHalfOpenState) {
+            this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+            return this;
+        }
+
+        public Builder withListener(CircuitBreakerListener listener) {
+            listeners.add(checkNotNull(listener, "listener must not be null"));
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.circuitbreaker;
+
+/**
+ * Receives the events of a {@link CircuitBreaker}. Listeners are called on the thread which caused the event and must
+ * not block.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public interface CircuitBreakerListener {
+
+    void onStateChange(CircuitBreaker.State from, CircuitBreaker.State to);
+
+    void onCallRejected(CircuitBreaker.State state);
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.circuitbreaker;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.kraken.client.exception.CircuitBreakerOpenException;
+import io.kraken.client.impl.transport.Transport;
+import io.kraken.client.impl.transport.TransportRequest;
+import io.kraken.client.impl.transport.TransportResponse;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link Transport} decorator which guards the delegate with a {@link CircuitBreaker}. I/O errors and 5xx responses
+ * count as failures, while the breaker is open requests fail immediately with a {@link CircuitBreakerOpenException}.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class CircuitBreakerTransport implements Transport {
+
+    private final Transport delegate;
+    private final CircuitBreaker circuitBreaker;
+
+    public CircuitBreakerTransport(Transport delegate, CircuitBreaker circuitBreaker) {
+        this.delegate = checkNotNull(delegate, "delegate must not be null");
+        this.circuitBreaker = checkNotNull(circuitBreaker, "circuitBreaker must not be null");
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest transportRequest) throws IOException {
+        acquirePermission(transportRequest);
+
+        final long start = System.nanoTime();
+        try {
+            final TransportResponse transportResponse = delegate.execute(transportRequest);
+            record(transportResponse, System.nanoTime() - start);
+            return transportResponse;
+        } catch (IOException e) {
+            circuitBreaker.onError(System.nanoTime() - start);
+            throw e;
+        } catch (RuntimeException e) {
+            circuitBreaker.onError(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    @Override
+    public ListenableFuture<TransportResponse> executeAsync(TransportRequest transportRequest) {
+        try {
+            acquirePermission(transportRequest);
+        } catch (CircuitBreakerOpenException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+
+        final long start = System.nanoTime();
+        final ListenableFuture<TransportResponse> responseFuture = delegate.executeAsync(transportRequest);
+        Futures.addCallback(responseFuture, new FutureCallback<TransportResponse>() {
+            @Override
+            public void onSuccess(TransportResponse transportResponse) {
+                record(transportResponse, System.nanoTime() - start);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                if (throwable instanceof CancellationException) {
+                    circuitBreaker.releasePermission();
+                } else {
+                    circuitBreaker.onError(System.nanoTime() - start);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+
+        return responseFuture;
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    private void acquirePermission(TransportRequest transportRequest) {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            throw new CircuitBreakerOpenException("Circuit breaker is open, rejected " + transportRequest.getMethod() + " " + transportRequest.getUrl(),
+                    circuitBreaker.getRemainingOpenMillis());
+        }
+    }
+
+    private void record(TransportResponse transportResponse, long durationNanos) {
+        if (transportResponse.getStatus() >= 500) {
+            circuitBreaker.onError(durationNanos);
+        } else {
+            circuitBreaker.onSuccess(durationNanos);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.download;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Replaces a file by another one in the same directory without ever losing both.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public final class FileReplacement {
+
+    private static final Logger log = LoggerFactory.getLogger(FileReplacement.class);
+
+    private FileReplacement() {
+    }
+
+    /**
+     * Renames the replacement to the target, which is atomic on POSIX file systems. Platforms refusing to rename onto
+     * an existing file get the target renamed to a backup first, the backup is restored if the replacement can't be
+     * renamed either and deleted otherwise.
+     *
+     * @throws IOException if the target could not be replaced, the replacement is left as it was
+     */
+    public static void replace(File replacement, File target) throws IOException {
+        checkNotNull(replacement, "replacement must not be null");
+        checkNotNull(target, "target must not be null");
+
+        if (replacement.renameTo(target)) {
+            return;
+        }
+        if (!target.exists()) {
+            throw new IOException("Failed to rename " + replacement + " to " + target);
+        }
+
+        final File backup = new File(target.getAbsoluteFile().getParentFile(), "." + target.getName() + "." + UUID.randomUUID() + ".bak");
+        if (!target.renameTo(backup)) {
+            throw new IOException("Failed to rename " + target + " to " + backup);
+        }
+        if (!replacement.renameTo(target)) {
+            if (!backup.renameTo(target)) {
+                throw new IOException("Failed to rename " + replacement + " to " + target + ", the original is kept in " + backup);
+            }
+            throw new IOException("Failed to rename " + replacement + " to " + target);
+        }
+        if (!backup.delete()) {
+            log.warn("Failed to delete {}", backup);
+        }
+    }
+}
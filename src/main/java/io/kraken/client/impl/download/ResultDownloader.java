@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.download;
+
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.kraken.client.exception.KrakenIoException;
+import io.kraken.client.impl.transport.Transport;
+import io.kraken.client.impl.transport.TransportRequest;
+import io.kraken.client.impl.transport.TransportResponse;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Downloads the optimized images of successful uploads through a {@link Transport}, usually the pooled transport of the
+ * client from {@link io.kraken.client.impl.DefaultKrakenIoClient#getPooledTransport()}.
+ * <p>
+ * At most the configured number of downloads run in parallel, further downloads are queued. Response bodies are copied
+ * through a small direct buffer straight into the target, they are never held in memory as a whole. Downloads to a file
+ * are written to a temporary file next to it which replaces the target once complete through {@link FileReplacement},
+ * so a failed download never leaves a partial target behind and never loses the existing one. The downloaded length is
+ * checked against {@link SuccessfulUploadResponse#getKrakedSize()} if Kraken.io reported it.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class ResultDownloader implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ResultDownloader.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Transport transport;
+    private final int maxConcurrency;
+    private final ListeningExecutorService executorService;
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private ResultDownloader(Transport transport, int maxConcurrency) {
+        checkNotNull(transport, "transport must not be null");
+        checkArgument(maxConcurrency > 0, "maxConcurrency must be greater than 0");
+
+        this.transport = transport;
+        this.maxConcurrency = maxConcurrency;
+        this.executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(maxConcurrency,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kraken-io-download-%d").build()
+        ));
+    }
+
+    public static Builder builder(Transport transport) {
+        return new Builder(transport);
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Downloads the optimized image to the file, an existing file is replaced.
+     *
+     * @return a future completing with the target once it has been replaced
+     */
+    public ListenableFuture<File> download(final SuccessfulUploadResponse successfulUploadResponse, final File target) {
+        checkKrakedUrl(successfulUploadResponse);
+        checkNotNull(target, "target must not be null");
+
+        return executorService.submit(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                downloadToFile(successfulUploadResponse.getKrakedUrl(), successfulUploadResponse.getKrakedSize(), target);
+                return target;
+            }
+        });
+    }
+
+    /**
+     * Downloads the optimized image into the channel, which is not closed. The channel may have received data if the
+     * download fails.
+     *
+     * @return a future completing with the number of bytes written
+     */
+    public ListenableFuture<Long> download(final SuccessfulUploadResponse successfulUploadResponse, final WritableByteChannel target) {
+        checkKrakedUrl(successfulUploadResponse);
+        checkNotNull(target, "target must not be null");
+
+        return executorService.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return downloadToChannel(successfulUploadResponse.getKrakedUrl(), successfulUploadResponse.getKrakedSize(), target);
+            }
+        });
+    }
+
+    /**
+     * Stops the download threads, queued downloads are cancelled. The transport is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+    }
+
+    private static void checkKrakedUrl(SuccessfulUploadResponse successfulUploadResponse) {
+        checkNotNull(successfulUploadResponse, "successfulUploadResponse must not be null");
+        checkArgument(successfulUploadResponse.getKrakedUrl() != null, "successfulUploadResponse has no kraked url");
+    }
+
+    private void downloadToFile(String url, @Nullable Integer expectedLength, File target) throws IOException {
+        final File directory = target.getAbsoluteFile().getParentFile();
+        final File temporary = new File(directory, "." + target.getName() + "." + UUID.randomUUID() + ".part");
+        boolean replaced = false;
+        try {
+            final FileOutputStream fileOutputStream = new FileOutputStream(temporary);
+            try {
+                final FileChannel fileChannel = fileOutputStream.getChannel();
+                downloadToChannel(url, expectedLength, fileChannel);
+                fileChannel.force(false);
+            } finally {
+                fileOutputStream.close();
+            }
+
+            FileReplacement.replace(temporary, target);
+            replaced = true;
+        } finally {
+            if (!replaced && temporary.exists() && !temporary.delete()) {
+                log.warn("Failed to delete {}", temporary);
+            }
+        }
+    }
+
+    private long downloadToChannel(String url, @Nullable Integer expectedLength, WritableByteChannel target) throws IOException {
+        final TransportResponse transportResponse = transport.execute(TransportRequest.builder(TransportRequest.GET, url).build());
+        try {
+            if (transportResponse.getStatus() != 200) {
+                throw new KrakenIoException("Download of " + url + " failed with status " + transportResponse.getStatus());
+            }
+
+            final long length = copy(Channels.newChannel(transportResponse.getBody()), target);
+            if (expectedLength != null && length != expectedLength) {
+                throw new KrakenIoException("Download of " + url + " is " + length + " bytes long, expected " + expectedLength);
+            }
+            return length;
+        } finally {
+            Closeables.close(transportResponse, true);
+        }
+    }
+
+    /**
+     * Copies through the direct buffer of the download thread.
+     */
+    private long copy(ReadableByteChannel source, WritableByteChannel target) throws IOException {
+        final ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        long length = 0;
+        while (source.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                length += target.write(buffer);
+            }
+            buffer.clear();
+        }
+        return length;
+    }
+
+    public static class Builder {
+        private final Transport transport;
+        private int maxConcurrency = 4;
+
+        private Builder(Transport transport) {
+            this.transport = transport;
+        }
+
+        /**
+         * Maximum number of downloads running in parallel, should not exceed the connections per route of the transport.
+         */
+        public Builder withMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public ResultDownloader build() {
+            return new ResultDownloader(transport, maxConcurrency);
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.preflight;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import io.kraken.client.impl.preflight.PreflightResult.Reason;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.resize.AbstractDimensionBasedResize;
+import io.kraken.client.model.resize.AbstractResize;
+import io.kraken.client.model.resize.AutoResize;
+import io.kraken.client.model.resize.FitResize;
+import io.kraken.client.model.resize.LandscapeResize;
+import io.kraken.client.model.resize.PortraitResize;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Inspects images before their upload to avoid round trips which can't succeed or pay off.
+ * <p>
+ * The format is sniffed from the magic bytes, the dimensions are read from the header and the end marker is looked
+ * for in the tail, no pixels are decoded and only the header and the tail of a file are read. Content in no known
+ * format, formats Kraken.io doesn't optimize and malformed or truncated headers are rejected. A missing end marker
+ * doesn't reject an image, motion photos and other files with appended data lack it too, the image is uploaded with
+ * {@link Reason#UNVERIFIED_END}. Images which already fit a resize that only shrinks, like {@link FitResize}, are
+ * skipped.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class PreflightInspector {
+
+    private static final int SNIFF_SIZE = 512;
+    private static final int JPEG_TAIL_SIZE = 16 * 1024;
+    private static final int PNG_TAIL_SIZE = 1024;
+    private static final int GIF_TAIL_SIZE = 256;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final byte[] PNG_END = {'I', 'E', 'N', 'D', (byte) 0xae, 0x42, 0x60, (byte) 0x82};
+    private static final byte[] JPEG_END = {(byte) 0xff, (byte) 0xd9};
+
+    private final Set<ImageFormat> supportedFormats;
+
+    private PreflightInspector(Set<ImageFormat> supportedFormats) {
+        checkNotNull(supportedFormats, "supportedFormats must not be null");
+        checkArgument(!supportedFormats.isEmpty(), "supportedFormats must not be empty");
+
+        this.supportedFormats = ImmutableSet.copyOf(supportedFormats);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Set<ImageFormat> getSupportedFormats() {
+        return supportedFormats;
+    }
+
+    public PreflightResult inspect(DirectFileUploadRequest directFileUploadRequest) throws IOException {
+        checkNotNull(directFileUploadRequest, "directFileUploadRequest must not be null");
+        return inspect(directFileUploadRequest.getImage(), directFileUploadRequest.getResize());
+    }
+
+    public PreflightResult inspect(File image) throws IOException {
+        return inspect(image, null);
+    }
+
+    /**
+     * @param resize resize the image is going to be uploaded with, null if none
+     */
+    public PreflightResult inspect(File image, @Nullable AbstractResize resize) throws IOException {
+        checkNotNull(image, "image must not be null");
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(image, "r");
+        try {
+            return inspect(new FileSource(randomAccessFile), resize);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public PreflightResult inspect(byte[] image) {
+        return inspect(image, null);
+    }
+
+    /**
+     * @param resize resize the image is going to be uploaded with, null if none
+     */
+    public PreflightResult inspect(byte[] image, @Nullable AbstractResize resize) {
+        checkNotNull(image, "image must not be null");
+
+        try {
+            return inspect(new ByteArraySource(image), resize);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private PreflightResult inspect(Source source, @Nullable AbstractResize resize) throws IOException {
+        final ImageFormat imageFormat = sniff(read(source, 0, (int) Math.min(source.length(), SNIFF_SIZE)));
+        if (imageFormat == null) {
+            return PreflightResult.reject(Reason.NOT_AN_IMAGE, null);
+        }
+        if (!supportedFormats.contains(imageFormat)) {
+            return PreflightResult.reject(Reason.UNSUPPORTED_FORMAT, imageFormat);
+        }
+
+        final Header header;
+        switch (imageFormat) {
+            case JPEG:
+                header = inspectJpeg(source);
+                break;
+            case PNG:
+                header = inspectPng(source);
+                break;
+            case GIF:
+                header = inspectGif(source);
+                break;
+            default:
+                return PreflightResult.upload(imageFormat, null, null);
+        }
+
+        if (header.rejected) {
+            return PreflightResult.reject(header.reason, imageFormat);
+        }
+        final Integer width = header.width > 0 ? header.width : null;
+        final Integer height = header.height > 0 ? header.height : null;
+        if (width != null && height != null && fits(resize, width, height)) {
+            return PreflightResult.skip(Reason.WITHIN_RESIZE, imageFormat, width, height);
+        }
+        return PreflightResult.upload(header.reason, imageFormat, width, height);
+    }
+
+    @Nullable
+    private static ImageFormat sniff(byte[] head) {
+        if (startsWith(head, 0, (byte) 0xff, (byte) 0xd8, (byte) 0xff)) {
+            return ImageFormat.JPEG;
+        } else if (startsWith(head, 0, PNG_SIGNATURE)) {
+            return ImageFormat.PNG;
+        } else if (startsWith(head, 0, ascii("GIF87a")) || startsWith(head, 0, ascii("GIF89a"))) {
+            return ImageFormat.GIF;
+        } else if (startsWith(head, 0, ascii("RIFF")) && startsWith(head, 8, ascii("WEBP"))) {
+            return ImageFormat.WEBP;
+        } else if (startsWith(head, 0, (byte) 'I', (byte) 'I', (byte) 0x2a, (byte) 0) || startsWith(head, 0, (byte) 'M', (byte) 'M', (byte) 0, (byte) 0x2a)) {
+            return ImageFormat.TIFF;
+        } else if (startsWith(head, 0, ascii("BM")) && head.length >= 26) {
+            return ImageFormat.BMP;
+        }
+
+        final String text = new String(head, Charsets.ISO_8859_1).replace("\u00ef\u00bb\u00bf", "").trim();
+        if (text.startsWith("<") && text.toLowerCase(Locale.ENGLISH).contains("<svg")) {
+            return ImageFormat.SVG;
+        }
+        return null;
+    }
+
+    /**
+     * Walks the segments up to the start of the scan, the dimensions are in the frame header before it. Inside the
+     * entropy-coded scan 0xFF is always followed by 0x00 or a restart marker, so an end marker found after the start of
+     * the scan is the end of the image.
+     *
+     */
+    private static Header inspectJpeg(Source source) throws IOException {
+        final long length = source.length();
+        Header header = null;
+        long position = 2;
+        while (true) {
+            final byte[] marker = read(source, position, 4);
+            if (marker.length < 4) {
+                return Header.invalid(Reason.TRUNCATED);
+            }
+            if ((marker[0] & 0xff) != 0xff) {
+                return Header.invalid(Reason.CORRUPT);
+            }
+
+            final int type = marker[1] & 0xff;
+            if (type == 0xff) {
+                position++;
+                continue;
+            }
+            if (type == 0x01 || (type >= 0xd0 && type <= 0xd7)) {
+                position += 2;
+                continue;
+            }
+            if (type == 0xd9) {
+                return Header.invalid(Reason.CORRUPT);
+            }
+
+            final int segmentLength = unsignedShort(marker, 2, false);
+            if (segmentLength < 2) {
+                return Header.invalid(Reason.CORRUPT);
+            }
+            if (type >= 0xc0 && type <= 0xcf && type != 0xc4 && type != 0xc8 && type != 0xcc) {
+                final byte[] frameHeader = read(source, position + 4, 5);
+                if (frameHeader.length < 5) {
+                    return Header.invalid(Reason.TRUNCATED);
+                }
+                header = Header.of(unsignedShort(frameHeader, 3, false), unsignedShort(frameHeader, 1, false));
+            }
+            if (type == 0xda) {
+                break;
+            }
+            position += 2 + segmentLength;
+        }
+
+        if (header == null) {
+            return Header.invalid(Reason.CORRUPT);
+        }
+        final long tailStart = Math.max(position, length - JPEG_TAIL_SIZE);
+        if (indexOf(read(source, tailStart, (int) (length - tailStart)), JPEG_END) < 0) {
+            return Header.unverified(header.width, header.height);
+        }
+        return header;
+    }
+
+    private static Header inspectPng(Source source) throws IOException {
+        final byte[] header = read(source, 0, 24);
+        if (header.length < 24) {
+            return Header.invalid(Reason.TRUNCATED);
+        }
+        if (!startsWith(header, 12, ascii("IHDR"))) {
+            return Header.invalid(Reason.CORRUPT);
+        }
+        final int width = signedInt(header, 16);
+        final int height = signedInt(header, 20);
+        if (width <= 0 || height <= 0) {
+            return Header.invalid(Reason.CORRUPT);
+        }
+
+        final long tailStart = Math.max(24, source.length() - PNG_TAIL_SIZE);
+        if (indexOf(read(source, tailStart, (int) (source.length() - tailStart)), PNG_END) < 0) {
+            return Header.unverified(width, height);
+        }
+        return Header.of(width, height);
+    }
+
+    private static Header inspectGif(Source source) throws IOException {
+        final byte[] header = read(source, 0, 13);
+        if (header.length < 13) {
+            return Header.invalid(Reason.TRUNCATED);
+        }
+        final int width = unsignedShort(header, 6, true);
+        final int height = unsignedShort(header, 8, true);
+        if (width == 0 || height == 0) {
+            return Header.invalid(Reason.CORRUPT);
+        }
+
+        final long tailStart = Math.max(13, source.length() - GIF_TAIL_SIZE);
+        final byte[] tail = read(source, tailStart, (int) (source.length() - tailStart));
+        int last = tail.length - 1;
+        while (last >= 0 && tail[last] == 0) {
+            last--;
+        }
+        if (last < 0 || tail[last] != 0x3b) {
+            return Header.unverified(width, height);
+        }
+        return Header.of(width, height);
+    }
+
+    /**
+     * Whether the resize leaves an image of these dimensions as it is. Resizes which crop, fill or stretch always
+     * change the image.
+     */
+    private static boolean fits(@Nullable AbstractResize resize, int width, int height) {
+        if (resize instanceof FitResize || resize instanceof AutoResize) {
+            final AbstractDimensionBasedResize dimensionBasedResize = (AbstractDimensionBasedResize) resize;
+            return width <= dimensionBasedResize.getWidth() && height <= dimensionBasedResize.getHeight();
+        } else if (resize instanceof LandscapeResize) {
+            return width <= ((LandscapeResize) resize).getWidth();
+        } else if (resize instanceof PortraitResize) {
+            return height <= ((PortraitResize) resize).getHeight();
+        }
+        return false;
+    }
+
+    private static byte[] read(Source source, long position, int length) throws IOException {
+        final byte[] buffer = new byte[(int) Math.max(0, Math.min(length, source.length() - position))];
+        int read = 0;
+        while (read < buffer.length) {
+            final int count = source.read(position + read, buffer, read, buffer.length - read);
+            if (count < 0) {
+                return Arrays.copyOf(buffer, read);
+            }
+            read += count;
+        }
+        return buffer;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte... prefix) {
+        if (bytes.length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        for (int i = 0; i <= bytes.length - pattern.length; i++) {
+            if (startsWith(bytes, i, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int unsignedShort(byte[] bytes, int offset, boolean littleEndian) {
+        final int first = bytes[offset] & 0xff;
+        final int second = bytes[offset + 1] & 0xff;
+        return littleEndian ? first | second << 8 : first << 8 | second;
+    }
+
+    private static int signedInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8 | bytes[offset + 3] & 0xff;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(Charsets.US_ASCII);
+    }
+
+    public static class Builder {
+        private Set<ImageFormat> supportedFormats = EnumSet.of(ImageFormat.JPEG, ImageFormat.PNG, ImageFormat.GIF, ImageFormat.SVG);
+
+        private Builder() {
+        }
+
+        /**
+         * Formats to upload, JPEG, PNG, GIF and SVG by default.
+         */
+        public Builder withSupportedFormats(Set<ImageFormat> supportedFormats) {
+            this.supportedFormats = supportedFormats;
+            return this;
+        }
+
+        public PreflightInspector build() {
+            return new PreflightInspector(supportedFormats);
+        }
+    }
+
+    /**
+     * Dimensions read from the header of an image, or the reason the image is invalid.
+     */
+    private static class Header {
+        private final int width;
+        private final int height;
+        private final Reason reason;
+        private final boolean rejected;
+
+        private Header(int width, int height, @Nullable Reason reason, boolean rejected) {
+            this.width = width;
+            this.height = height;
+            this.reason = reason;
+            this.rejected = rejected;
+        }
+
+        private static Header of(int width, int height) {
+            return new Header(width, height, null, false);
+        }
+
+        /**
+         * The header is fine but the end marker is missing from the tail, which doesn't justify a rejection.
+         */
+        private static Header unverified(int width, int height) {
+            return new Header(width, height, Reason.UNVERIFIED_END, false);
+        }
+
+        private static Header invalid(Reason reason) {
+            return new Header(0, 0, reason, true);
+        }
+    }
+
+    /**
+     * Random access to the content of an image.
+     */
+    private interface Source {
+        long length() throws IOException;
+
+        int read(long position, byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    private static class FileSource implements Source {
+        private final RandomAccessFile randomAccessFile;
+
+        private FileSource(RandomAccessFile randomAccessFile) {
+            this.randomAccessFile = randomAccessFile;
+        }
+
+        @Override
+        public long length() throws IOException {
+            return randomAccessFile.length();
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+            randomAccessFile.seek(position);
+            return randomAccessFile.read(buffer, offset, length);
+        }
+    }
+
+    private static class ByteArraySource implements Source {
+        private final byte[] bytes;
+
+        private ByteArraySource(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long length() {
+            return bytes.length;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length) {
+            if (position >= bytes.length) {
+                return -1;
+            }
+            final int count = (int) Math.min(length, bytes.length - position);
+            System.arraycopy(bytes, (int) position, buffer, offset, count);
+            return count;
+        }
+    }
+}
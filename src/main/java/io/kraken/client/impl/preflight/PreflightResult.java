@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.preflight;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Outcome of the inspection of an image before its upload.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class PreflightResult {
+
+    public enum Verdict {
+        /**
+         * The image should be uploaded.
+         */
+        UPLOAD,
+        /**
+         * The upload would succeed but not pay off.
+         */
+        SKIP,
+        /**
+         * The upload can't succeed.
+         */
+        REJECT
+    }
+
+    public enum Reason {
+        /**
+         * The content is not in any known image format.
+         */
+        NOT_AN_IMAGE,
+        /**
+         * The image is in a format Kraken.io doesn't optimize.
+         */
+        UNSUPPORTED_FORMAT,
+        /**
+         * The header of the image is malformed.
+         */
+        CORRUPT,
+        /**
+         * The image ends before its header is complete.
+         */
+        TRUNCATED,
+        /**
+         * The end marker isn't in the tail of the image. It may be truncated or carry appended data, like motion
+         * photos do, so it is uploaded anyway.
+         */
+        UNVERIFIED_END,
+        /**
+         * The image already fits the resize, which only ever shrinks images.
+         */
+        WITHIN_RESIZE
+    }
+
+    private final Verdict verdict;
+    private final Reason reason;
+    private final ImageFormat imageFormat;
+    private final Integer width;
+    private final Integer height;
+
+    private PreflightResult(Verdict verdict, @Nullable Reason reason, @Nullable ImageFormat imageFormat, @Nullable Integer width, @Nullable Integer height) {
+        this.verdict = verdict;
+        this.reason = reason;
+        this.imageFormat = imageFormat;
+        this.width = width;
+        this.height = height;
+    }
+
+    static PreflightResult upload(ImageFormat imageFormat, @Nullable Integer width, @Nullable Integer height) {
+        return upload(null, imageFormat, width, height);
+    }
+
+    /**
+     * @param reason why the image could not be fully verified, null if it could
+     */
+    static PreflightResult upload(@Nullable Reason reason, ImageFormat imageFormat, @Nullable Integer width, @Nullable Integer height) {
+        return new PreflightResult(Verdict.UPLOAD, reason, checkNotNull(imageFormat), width, height);
+    }
+
+    static PreflightResult skip(Reason reason, ImageFormat imageFormat, @Nullable Integer width, @Nullable Integer height) {
+        return new PreflightResult(Verdict.SKIP, checkNotNull(reason), checkNotNull(imageFormat), width, height);
+    }
+
+    static PreflightResult reject(Reason reason, @Nullable ImageFormat imageFormat) {
+        return new PreflightResult(Verdict.REJECT, checkNotNull(reason), imageFormat, null, null);
+    }
+
+    public Verdict getVerdict() {
+        return verdict;
+    }
+
+    public boolean isUpload() {
+        return verdict == Verdict.UPLOAD;
+    }
+
+    /**
+     * Why the image should not be uploaded, or why an image which should be uploaded could not be fully verified. Null
+     * for an image which should be uploaded and passed all checks.
+     */
+    @Nullable
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * Format of the image, null if it is not an image.
+     */
+    @Nullable
+    public ImageFormat getImageFormat() {
+        return imageFormat;
+    }
+
+    /**
+     * Dimensions of the image, null if the format keeps them in no fixed header or the image was rejected.
+     */
+    @Nullable
+    public Integer getWidth() {
+        return width;
+    }
+
+    @Nullable
+    public Integer getHeight() {
+        return height;
+    }
+
+    @Override
+    public String toString() {
+        return "PreflightResult{" +
+                "verdict=" + verdict +
+                ", reason=" + reason +
+                ", imageFormat=" + imageFormat +
+                ", width=" + width +
+                ", height=" + height +
+                '}';
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Lock-free token bucket, implemented as generic cell rate algorithm on a single {@link AtomicLong} holding the
+ * theoretical arrival time of the next request. Up to {@code burst} requests pass immediately, after that requests
+ * are spaced out to {@code permitsPerSecond}.
+ * <p>
+ * A reservation is taken with a compare-and-set, so concurrent callers never block each other. Callers which have to
+ * wait are told how long, the blocking variants sleep for that time, the asynchronous client schedules the request.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class RateLimiter {
+
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final long maxWaitNanos;
+    private final AtomicLong theoreticalArrivalNanos;
+
+    private final AtomicLong acquiredPermits = new AtomicLong();
+    private final AtomicLong delayedPermits = new AtomicLong();
+    private final AtomicLong rejectedPermits = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxObservedWaitNanos = new AtomicLong();
+
+    private RateLimiter(double permitsPerSecond, int burst, long maxWaitNanos) {
+        checkArgument(permitsPerSecond > 0, "permitsPerSecond must be greater than 0");
+        checkArgument(burst > 0, "burst must be greater than 0");
+        checkArgument(maxWaitNanos >= 0, "maxWait must not be negative");
+
+        this.emissionIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+        this.maxWaitNanos = maxWaitNanos;
+        this.theoreticalArrivalNanos = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Reserves a permit without blocking.
+     *
+     * @return nanoseconds the caller has to wait before using the permit, or -1 if the wait would exceed
+     * {@code timeout}, in which case nothing is reserved
+     */
+    public long reserve(long timeout, TimeUnit timeUnit) {
+        final long timeoutNanos = timeUnit.toNanos(timeout);
+        while (true) {
+            final long now = System.nanoTime();
+            final long theoreticalArrival = theoreticalArrivalNanos.get();
+            final long waitNanos = Math.max(0, theoreticalArrival - burstToleranceNanos - now);
+            if (waitNanos > timeoutNanos) {
+                rejectedPermits.incrementAndGet();
+                return -1;
+            }
+
+            if (theoreticalArrivalNanos.compareAndSet(theoreticalArrival, Math.max(theoreticalArrival, now) + emissionIntervalNanos)) {
+                recordWait(waitNanos);
+                return waitNanos;
+            }
+        }
+    }
+
+    /**
+     * Reserves a permit waiting at most the configured maximum wait time.
+     *
+     * @see #reserve(long, TimeUnit)
+     */
+    public long reserve() {
+        return reserve(maxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean tryAcquire() {
+        return reserve(0, TimeUnit.NANOSECONDS) == 0;
+    }
+
+    /**
+     * Acquires a permit, blocking until it is available if that takes at most {@code timeout}.
+     *
+     * @return {@code false} if the permit isn't available within the timeout
+     */
+    public boolean tryAcquire(long timeout, TimeUnit timeUnit) throws InterruptedException {
+        final long waitNanos = reserve(timeout, timeUnit);
+        if (waitNanos < 0) {
+            return false;
+        }
+
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+        return true;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * Number of permits handed out, including the ones which had to wait.
+     */
+    public long getAcquiredPermits() {
+        return acquiredPermits.get();
+    }
+
+    /**
+     * Number of permits which had to wait for the bucket to refill.
+     */
+    public long getDelayedPermits() {
+        return delayedPermits.get();
+    }
+
+    /**
+     * Number of requests rejected because the wait would have exceeded their timeout.
+     */
+    public long getRejectedPermits() {
+        return rejectedPermits.get();
+    }
+
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.get();
+    }
+
+    public long getMaxWaitObservedNanos() {
+        return maxObservedWaitNanos.get();
+    }
+
+    private void recordWait(long waitNanos) {
+        acquiredPermits.incrementAndGet();
+        if (waitNanos == 0) {
+            return;
+        }
+
+        delayedPermits.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        long maxWait;
+        while (waitNanos > (maxWait = maxObservedWaitNanos.get())) {
+            if (maxObservedWaitNanos.compareAndSet(maxWait, waitNanos)) {
+                break;
+            }
+        }
+    }
+
+    public static Builder builder(double permitsPerSecond) {
+        return new Builder(permitsPerSecond);
+    }
+
+    public static class Builder {
+        private final double permitsPerSecond;
+        private int burst = 1;
+        private long maxWaitNanos = TimeUnit.SECONDS.toNanos(30);
+
+        private Builder(double permitsPerSecond) {
+            this.permitsPerSecond = permitsPerSecond;
+        }
+
+        /**
+         * Number of requests which may be sent back to back after an idle period.
+         */
+        public Builder withBurst(int burst) {
+            this.burst = burst;
+            return this;
+        }
+
+        /**
+         * Longest time a request waits for a permit before it fails with a
+         * {@link io.kraken.client.exception.RateLimitExceededException}.
+         */
+        public Builder withMaxWait(long maxWait, TimeUnit timeUnit) {
+            this.maxWaitNanos = timeUnit.toNanos(maxWait);
+            return this;
+        }
+
+        public RateLimiter build() {
+            return new RateLimiter(permitsPerSecond, burst, maxWaitNanos);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.ratelimit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Hands out one {@link RateLimiter} per API key, so all clients using the same key share its rate limit.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class RateLimiterRegistry {
+
+    private final RateLimiter.Builder rateLimiterBuilder;
+    private final ConcurrentMap<String, RateLimiter> rateLimiters = new ConcurrentHashMap<String, RateLimiter>();
+
+    /**
+     * @param rateLimiterBuilder template the limiter of each API key is built from
+     */
+    public RateLimiterRegistry(RateLimiter.Builder rateLimiterBuilder) {
+        this.rateLimiterBuilder = checkNotNull(rateLimiterBuilder, "rateLimiterBuilder must not be null");
+    }
+
+    public RateLimiter get(String apiKey) {
+        checkNotNull(apiKey, "apiKey must not be null");
+
+        final RateLimiter rateLimiter = rateLimiters.get(apiKey);
+        if (rateLimiter != null) {
+            return rateLimiter;
+        }
+
+        final RateLimiter newRateLimiter = rateLimiterBuilder.build();
+        final RateLimiter existingRateLimiter = rateLimiters.putIfAbsent(apiKey, newRateLimiter);
+        return existingRateLimiter != null ? existingRateLimiter : newRateLimiter;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.retry;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits retries to a fraction of the regular requests, so a degraded endpoint isn't hit by a multiple of the normal
+ * traffic. Every request deposits {@code retryRatio} tokens and every retry withdraws one, on top of that
+ * {@code minRetriesPerSecond} tokens are refilled over time so low traffic clients can still retry.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class RetryBudget {
+
+    private final double retryRatio;
+    private final double minRetriesPerSecond;
+    private final double maxBalance;
+
+    private double balance;
+    private long lastRefillNanos;
+
+    public RetryBudget(double retryRatio, double minRetriesPerSecond) {
+        checkArgument(retryRatio >= 0, "retryRatio must not be negative");
+        checkArgument(minRetriesPerSecond >= 0, "minRetriesPerSecond must not be negative");
+
+        this.retryRatio = retryRatio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.maxBalance = Math.max(1, minRetriesPerSecond * 10 + retryRatio * 100);
+        this.balance = maxBalance;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public synchronized void deposit() {
+        refill();
+        balance = Math.min(maxBalance, balance + retryRatio);
+    }
+
+    /**
+     * @return {@code true} if the budget allows another retry
+     */
+    public synchronized boolean tryWithdraw() {
+        refill();
+        if (balance < 1) {
+            return false;
+        }
+
+        balance -= 1;
+        return true;
+    }
+
+    public synchronized double getBalance() {
+        refill();
+        return balance;
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        balance = Math.min(maxBalance, balance + (now - lastRefillNanos) / 1e9 * minRetriesPerSecond);
+        lastRefillNanos = now;
+    }
+}
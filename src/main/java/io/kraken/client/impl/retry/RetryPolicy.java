@@ -0,0 +1,280 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.retry;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.kraken.client.exception.KrakenIoException;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.model.response.FailedUploadResponse;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Decides whether and when a failed request is retried.
+ * <p>
+ * A failure is retryable if Kraken.io answered with one of the retryable status codes or a message matching a
+ * retryable pattern, or if the request failed with one of the retryable exception types. Messages matching a fatal
+ * pattern and non-retryable exception types are never retried. Retries back off exponentially with full jitter, a
+ * {@code Retry-After} header sent by Kraken.io is honoured as lower bound of the delay. All retries draw from a
+ * shared {@link RetryBudget}.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class RetryPolicy {
+
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Set<Integer> retryableStatusCodes;
+    private final List<Pattern> retryableMessagePatterns;
+    private final List<Pattern> fatalMessagePatterns;
+    private final List<Class<? extends Throwable>> retryableExceptions;
+    private final List<Class<? extends Throwable>> nonRetryableExceptions;
+    private final RetryBudget retryBudget;
+    private final Random random = new Random();
+
+    private RetryPolicy(Builder builder) {
+        checkArgument(builder.maxAttempts > 0, "maxAttempts must be greater than 0");
+        checkArgument(builder.baseDelayMillis > 0, "baseDelay must be greater than 0");
+        checkArgument(builder.maxDelayMillis >= builder.baseDelayMillis, "maxDelay must not be less than baseDelay");
+
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.retryableStatusCodes = Collections.unmodifiableSet(new HashSet<Integer>(builder.retryableStatusCodes));
+        this.retryableMessagePatterns = Collections.unmodifiableList(new ArrayList<Pattern>(builder.retryableMessagePatterns));
+        this.fatalMessagePatterns = Collections.unmodifiableList(new ArrayList<Pattern>(builder.fatalMessagePatterns));
+        this.retryableExceptions = Collections.unmodifiableList(new ArrayList<Class<? extends Throwable>>(builder.retryableExceptions));
+        this.nonRetryableExceptions = Collections.unmodifiableList(new ArrayList<Class<? extends Throwable>>(builder.nonRetryableExceptions));
+        this.retryBudget = new RetryBudget(builder.retryRatio, builder.minRetriesPerSecond);
+    }
+
+    /**
+     * Policy which never retries.
+     */
+    public static RetryPolicy none() {
+        return builder().withMaxAttempts(1).build();
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * @param statusCode status code of the response or {@code null} if the request failed without a response
+     */
+    public boolean isRetryable(@Nullable Integer statusCode, KrakenIoException exception) {
+        if (statusCode != null) {
+            final FailedUploadResponse failedUploadResponse = exception instanceof KrakenIoRequestException ? ((KrakenIoRequestException) exception).getFailedUploadResponse() : null;
+            final String message = failedUploadResponse != null ? failedUploadResponse.getMessage() : null;
+            if (message != null && matchesAny(fatalMessagePatterns, message)) {
+                return false;
+            }
+
+            return retryableStatusCodes.contains(statusCode) || (message != null && matchesAny(retryableMessagePatterns, message));
+        }
+
+        final Throwable cause = exception.getCause();
+        return cause != null && !isInstanceOfAny(nonRetryableExceptions, cause) && isInstanceOfAny(retryableExceptions, cause);
+    }
+
+    /**
+     * @param attempt          number of the attempt which failed, starting with 1
+     * @param retryAfterMillis delay requested by Kraken.io or -1
+     * @return the delay before the next attempt or -1 if the request must not be retried anymore
+     */
+    public long getDelayMillis(int attempt, long retryAfterMillis) {
+        if (attempt >= maxAttempts || retryAfterMillis > maxDelayMillis) {
+            return -1;
+        }
+
+        final long ceiling = attempt > 31 ? maxDelayMillis : Math.min(maxDelayMillis, baseDelayMillis * (1L << (attempt - 1)));
+        final long jitteredDelay = (long) (random.nextDouble() * (ceiling + 1));
+        return Math.max(jitteredDelay, retryAfterMillis);
+    }
+
+    /**
+     * Parses a {@code Retry-After} header given either in seconds or as HTTP date.
+     *
+     * @return the delay in milliseconds or -1 if the value is missing or malformed
+     */
+    public static long parseRetryAfter(@Nullable String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1;
+        }
+
+        final String value = retryAfter.trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            final SimpleDateFormat dateFormat = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return Math.max(0, dateFormat.parse(value).getTime() - System.currentTimeMillis());
+            } catch (ParseException parseException) {
+                return -1;
+            }
+        }
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String value) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(value).find()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isInstanceOfAny(List<Class<? extends Throwable>> exceptionTypes, Throwable throwable) {
+        for (Class<? extends Throwable> exceptionType : exceptionTypes) {
+            if (exceptionType.isInstance(throwable)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int maxAttempts = 3;
+        private long baseDelayMillis = 200;
+        private long maxDelayMillis = TimeUnit.SECONDS.toMillis(10);
+        private final Set<Integer> retryableStatusCodes = new HashSet<Integer>(Arrays.asList(429, 500, 502, 503, 504));
+        private final List<Pattern> retryableMessagePatterns = new ArrayList<Pattern>();
+        private final List<Pattern> fatalMessagePatterns = new ArrayList<Pattern>();
+        private final List<Class<? extends Throwable>> retryableExceptions = new ArrayList<Class<? extends Throwable>>();
+        private final List<Class<? extends Throwable>> nonRetryableExceptions = new ArrayList<Class<? extends Throwable>>();
+        private double retryRatio = 0.1;
+        private double minRetriesPerSecond = 10;
+
+        private Builder() {
+            retryableExceptions.add(IOException.class);
+            nonRetryableExceptions.add(UnknownHostException.class);
+            nonRetryableExceptions.add(JsonProcessingException.class);
+        }
+
+        /**
+         * Total number of attempts including the first one.
+         */
+        public Builder withMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Upper bound of the delay before the first retry, doubled for every further retry.
+         */
+        public Builder withBaseDelay(long baseDelay, TimeUnit timeUnit) {
+            this.baseDelayMillis = timeUnit.toMillis(baseDelay);
+            return this;
+        }
+
+        /**
+         * Upper bound of any delay. Requests with a longer {@code Retry-After} are not retried.
+         */
+        public Builder withMaxDelay(long maxDelay, TimeUnit timeUnit) {
+            this.maxDelayMillis = timeUnit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * Replaces the default retryable status codes 429, 500, 502, 503 and 504.
+         */
+        public Builder withRetryableStatusCodes(Integer... statusCodes) {
+            retryableStatusCodes.clear();
+            retryableStatusCodes.addAll(Arrays.asList(statusCodes));
+            return this;
+        }
+
+        /**
+         * Failures whose {@link FailedUploadResponse#getMessage()} matches are retried regardless of the status code.
+         */
+        public Builder withRetryableMessage(Pattern pattern) {
+            retryableMessagePatterns.add(checkNotNull(pattern, "pattern must not be null"));
+            return this;
+        }
+
+        /**
+         * Failures whose {@link FailedUploadResponse#getMessage()} matches are never retried.
+         */
+        public Builder withFatalMessage(Pattern pattern) {
+            fatalMessagePatterns.add(checkNotNull(pattern, "pattern must not be null"));
+            return this;
+        }
+
+        /**
+         * Requests failing with an exception of this type are retried, by default any {@link IOException}.
+         */
+        public Builder withRetryableException(Class<? extends Throwable> exceptionType) {
+            retryableExceptions.add(checkNotNull(exceptionType, "exceptionType must not be null"));
+            return this;
+        }
+
+        /**
+         * Requests failing with an exception of this type are never retried, takes precedence over
+         * {@link #withRetryableException(Class)}.
+         */
+        public Builder withNonRetryableException(Class<? extends Throwable> exceptionType) {
+            nonRetryableExceptions.add(checkNotNull(exceptionType, "exceptionType must not be null"));
+            return this;
+        }
+
+        /**
+         * Retry budget of the client, by default retries may add 10% to the regular requests plus 10 retries per
+         * second.
+         */
+        public Builder withRetryBudget(double retryRatio, double minRetriesPerSecond) {
+            this.retryRatio = retryRatio;
+            this.minRetriesPerSecond = minRetriesPerSecond;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.singleflight;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import io.kraken.client.exception.KrakenIoException;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Coalesces concurrent calls with the same key into a single in-flight call whose result or exception is delivered to
+ * every caller. A call is only shared while it is in flight, calls made after it completed start a new one.
+ * <p>
+ * Every caller gets its own future, cancelling it detaches that caller only. The underlying call is cancelled once
+ * every caller waiting for it has cancelled.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight<V>> inFlight = new ConcurrentHashMap<K, Flight<V>>();
+
+    /**
+     * Runs the call on the calling thread unless a call with the same key is already in flight, in that case waits for
+     * its result.
+     */
+    public V execute(K key, Supplier<V> call) {
+        checkNotNull(key, "key must not be null");
+        checkNotNull(call, "call must not be null");
+
+        final Flight<V> flight = new Flight<V>();
+        final Flight<V> existingFlight = join(key, flight);
+        if (existingFlight != null) {
+            return await(existingFlight.subscribe());
+        }
+
+        final V value;
+        try {
+            value = call.get();
+        } catch (RuntimeException e) {
+            complete(key, flight, null, e);
+            throw e;
+        } catch (Error e) {
+            complete(key, flight, null, e);
+            throw e;
+        }
+        complete(key, flight, value, null);
+        return value;
+    }
+
+    /**
+     * Starts the call unless a call with the same key is already in flight, in that case returns a future of its
+     * result.
+     */
+    public ListenableFuture<V> executeAsync(final K key, Supplier<ListenableFuture<V>> call) {
+        checkNotNull(key, "key must not be null");
+        checkNotNull(call, "call must not be null");
+
+        final Flight<V> flight = new Flight<V>();
+        final Flight<V> existingFlight = join(key, flight);
+        if (existingFlight != null) {
+            return existingFlight.subscribe();
+        }
+
+        // Subscribe before starting the call so a call completing immediately still has a subscriber
+        final ListenableFuture<V> subscription = flight.subscribe();
+        final ListenableFuture<V> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            complete(key, flight, null, e);
+            throw e;
+        }
+        flight.setCall(future);
+        Futures.addCallback(future, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+                complete(key, flight, value, null);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                complete(key, flight, null, throwable);
+            }
+        }, MoreExecutors.directExecutor());
+        return subscription;
+    }
+
+    /**
+     * Number of calls currently in flight.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    /**
+     * Registers the flight for the key, returns the flight already in flight for it or {@code null} if the given flight
+     * was registered.
+     */
+    private Flight<V> join(K key, Flight<V> flight) {
+        while (true) {
+            final Flight<V> existingFlight = inFlight.putIfAbsent(key, flight);
+            if (existingFlight == null) {
+                return null;
+            }
+            if (existingFlight.retain()) {
+                return existingFlight;
+            }
+
+            // Every subscriber of the existing flight cancelled, it is being torn down
+            inFlight.remove(key, existingFlight);
+        }
+    }
+
+    private void complete(K key, Flight<V> flight, V value, Throwable throwable) {
+        // Remove first so callers arriving after completion start a new call instead of getting a stale result
+        inFlight.remove(key, flight);
+        if (throwable == null) {
+            flight.promise.set(value);
+        } else if (throwable instanceof CancellationException) {
+            flight.promise.cancel(false);
+        } else {
+            flight.promise.setException(throwable);
+        }
+    }
+
+    private static <V> V await(ListenableFuture<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new KrakenIoException("Interrupted while waiting for in-flight request", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new KrakenIoException("In-flight request failed", cause);
+        }
+    }
+
+    private static class Flight<V> {
+        private final SettableFuture<V> promise = SettableFuture.create();
+        // The creator of a flight holds the first reference
+        private final AtomicInteger subscribers = new AtomicInteger(1);
+        private volatile ListenableFuture<V> call;
+
+        /**
+         * @return false if every subscriber already cancelled
+         */
+        private boolean retain() {
+            while (true) {
+                final int current = subscribers.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (subscribers.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void setCall(ListenableFuture<V> call) {
+            this.call = call;
+            if (subscribers.get() == 0) {
+                call.cancel(true);
+            }
+        }
+
+        /**
+         * Returns a future of the result which can be cancelled independently of other subscribers, takes over the
+         * reference acquired by {@link #retain()} or the creator reference.
+         */
+        private ListenableFuture<V> subscribe() {
+            final SettableFuture<V> subscription = SettableFuture.create();
+            Futures.addCallback(promise, new FutureCallback<V>() {
+                @Override
+                public void onSuccess(V value) {
+                    subscription.set(value);
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                    if (throwable instanceof CancellationException) {
+                        subscription.cancel(false);
+                    } else {
+                        subscription.setException(throwable);
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+            subscription.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (subscription.isCancelled() && !promise.isDone() && subscribers.decrementAndGet() == 0) {
+                        final ListenableFuture<V> currentCall = call;
+                        if (currentCall != null) {
+                            currentCall.cancel(true);
+                        }
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+            return subscription;
+        }
+    }
+}
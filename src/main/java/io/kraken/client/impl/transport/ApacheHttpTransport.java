@@ -0,0 +1,417 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link Transport} backed by Apache HttpClient with a pool of keep-alive connections. Idle and expired connections
+ * are evicted by a background thread, so steady state traffic reuses warm TLS connections.
+ * <p>
+ * Apache HttpClient is blocking, an asynchronous request occupies an executor thread while it is executed. At most as
+ * many asynchronous requests as a route has connections are executed at once, the others wait in a queue without
+ * holding a thread or waiting for a connection, so a burst of requests larger than the pool doesn't fail with a
+ * connection request timeout.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class ApacheHttpTransport implements Transport {
+
+    private static final Logger log = LoggerFactory.getLogger(ApacheHttpTransport.class);
+
+    private final CloseableHttpClient httpClient;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final ExecutorService executorService;
+    private final boolean ownsExecutorService;
+    private final int maxAsyncRequests;
+    private final Queue<AsyncRequest> queuedAsyncRequests = new ArrayDeque<AsyncRequest>();
+    private int runningAsyncRequests;
+
+    private ApacheHttpTransport(int maxConnections,
+                                int maxConnectionsPerRoute,
+                                long connectTimeoutMillis,
+                                long readTimeoutMillis,
+                                long connectionRequestTimeoutMillis,
+                                long idleConnectionTimeoutMillis,
+                                long keepAliveMillis,
+                                long connectionTimeToLiveMillis,
+                                ExecutorService executorService) {
+        checkArgument(maxConnections > 0, "maxConnections must be greater than 0");
+        checkArgument(maxConnectionsPerRoute > 0, "maxConnectionsPerRoute must be greater than 0");
+        checkArgument(maxConnectionsPerRoute <= maxConnections, "maxConnectionsPerRoute must not be greater than maxConnections");
+        checkArgument(connectTimeoutMillis >= 0, "connectTimeout must not be negative");
+        checkArgument(readTimeoutMillis >= 0, "readTimeout must not be negative");
+        checkArgument(connectionRequestTimeoutMillis >= 0, "connectionRequestTimeout must not be negative");
+        checkArgument(idleConnectionTimeoutMillis > 0, "idleConnectionTimeout must be greater than 0");
+        checkArgument(keepAliveMillis > 0, "keepAlive must be greater than 0");
+
+        this.connectionManager = new PoolingHttpClientConnectionManager(connectionTimeToLiveMillis, TimeUnit.MILLISECONDS);
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout((int) connectTimeoutMillis)
+                .setSocketTimeout((int) readTimeoutMillis)
+                .setConnectionRequestTimeout((int) connectionRequestTimeoutMillis)
+                .setRedirectsEnabled(true)
+                .build();
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(new DefaultingKeepAliveStrategy(keepAliveMillis))
+                .evictIdleConnections(idleConnectionTimeoutMillis, TimeUnit.MILLISECONDS)
+                .evictExpiredConnections()
+                .disableCookieManagement()
+                .build();
+
+        if (executorService != null) {
+            this.executorService = executorService;
+            this.ownsExecutorService = false;
+        } else {
+            this.executorService = Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kraken-io-transport-%d").build()
+            );
+            this.ownsExecutorService = true;
+        }
+        this.maxAsyncRequests = maxConnectionsPerRoute;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest transportRequest) throws IOException {
+        return execute(transportRequest, toHttpRequest(transportRequest));
+    }
+
+    private HttpUriRequest toHttpRequest(TransportRequest transportRequest) {
+        final RequestBuilder requestBuilder = RequestBuilder.create(transportRequest.getMethod()).setUri(transportRequest.getUrl());
+        for (Map.Entry<String, String> header : transportRequest.getHeaders().entrySet()) {
+            requestBuilder.addHeader(header.getKey(), header.getValue());
+        }
+        if (transportRequest.getBody() != null) {
+            requestBuilder.setEntity(new RequestBodyEntity(transportRequest.getBody()));
+        }
+        return requestBuilder.build();
+    }
+
+    private TransportResponse execute(TransportRequest transportRequest, HttpUriRequest httpRequest) throws IOException {
+        log.debug("Executing {} {}", transportRequest.getMethod(), transportRequest.getUrl());
+        final CloseableHttpResponse httpResponse = httpClient.execute(httpRequest);
+        log.debug("Received {} for {} {}", httpResponse.getStatusLine().getStatusCode(), transportRequest.getMethod(), transportRequest.getUrl());
+
+        return toTransportResponse(httpResponse);
+    }
+
+    /**
+     * Queues the request if the maximum number of asynchronous requests is already being executed. Cancelling the
+     * returned future drops a queued request and aborts a running one, which frees its thread and connection.
+     */
+    @Override
+    public ListenableFuture<TransportResponse> executeAsync(final TransportRequest transportRequest) {
+        final AsyncRequest asyncRequest = new AsyncRequest(transportRequest);
+        synchronized (queuedAsyncRequests) {
+            if (runningAsyncRequests >= maxAsyncRequests) {
+                queuedAsyncRequests.add(asyncRequest);
+                return asyncRequest.future;
+            }
+            runningAsyncRequests++;
+        }
+
+        dispatch(asyncRequest);
+        return asyncRequest.future;
+    }
+
+    /**
+     * Number of asynchronous requests waiting for one of the requests being executed to finish.
+     */
+    public int getQueuedAsyncRequests() {
+        synchronized (queuedAsyncRequests) {
+            return queuedAsyncRequests.size();
+        }
+    }
+
+    private void dispatch(AsyncRequest asyncRequest) {
+        try {
+            executorService.execute(asyncRequest);
+        } catch (RejectedExecutionException e) {
+            asyncRequest.future.setException(e);
+            next();
+        }
+    }
+
+    /**
+     * Hands the slot of a finished request to the next queued one.
+     */
+    private void next() {
+        final AsyncRequest asyncRequest;
+        synchronized (queuedAsyncRequests) {
+            asyncRequest = queuedAsyncRequests.poll();
+            if (asyncRequest == null) {
+                runningAsyncRequests--;
+                return;
+            }
+        }
+
+        dispatch(asyncRequest);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            httpClient.close();
+        } finally {
+            if (ownsExecutorService) {
+                executorService.shutdownNow();
+            }
+        }
+    }
+
+    private TransportResponse toTransportResponse(CloseableHttpResponse httpResponse) throws IOException {
+        final Map<String, String> headers = new HashMap<String, String>();
+        for (Header header : httpResponse.getAllHeaders()) {
+            if (!headers.containsKey(header.getName())) {
+                headers.put(header.getName(), header.getValue());
+            }
+        }
+
+        final HttpEntity entity = httpResponse.getEntity();
+        final InputStream body = entity != null ? entity.getContent() : new ByteArrayInputStream(new byte[0]);
+        return new TransportResponse(httpResponse.getStatusLine().getStatusCode(), headers, body, httpResponse);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int maxConnections = 20;
+        private int maxConnectionsPerRoute = 20;
+        private long connectTimeoutMillis = 3000;
+        private long readTimeoutMillis = 3000;
+        private long connectionRequestTimeoutMillis = 3000;
+        private long idleConnectionTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+        private long keepAliveMillis = TimeUnit.SECONDS.toMillis(30);
+        private long connectionTimeToLiveMillis = -1;
+        private ExecutorService executorService;
+
+        private Builder() {
+        }
+
+        public Builder withMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder withMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        public Builder withConnectTimeout(long connectTimeout, TimeUnit timeUnit) {
+            this.connectTimeoutMillis = timeUnit.toMillis(connectTimeout);
+            return this;
+        }
+
+        public Builder withReadTimeout(long readTimeout, TimeUnit timeUnit) {
+            this.readTimeoutMillis = timeUnit.toMillis(readTimeout);
+            return this;
+        }
+
+        /**
+         * Maximum time a synchronous request waits for a free connection when the pool is exhausted. Asynchronous
+         * requests are queued before they take a connection and don't wait for one.
+         */
+        public Builder withConnectionRequestTimeout(long connectionRequestTimeout, TimeUnit timeUnit) {
+            this.connectionRequestTimeoutMillis = timeUnit.toMillis(connectionRequestTimeout);
+            return this;
+        }
+
+        /**
+         * Pooled connections idle for longer than this are closed by the eviction thread.
+         */
+        public Builder withIdleConnectionTimeout(long idleConnectionTimeout, TimeUnit timeUnit) {
+            this.idleConnectionTimeoutMillis = timeUnit.toMillis(idleConnectionTimeout);
+            return this;
+        }
+
+        /**
+         * How long a connection is kept alive when the server does not send a {@code Keep-Alive} header.
+         */
+        public Builder withKeepAlive(long keepAlive, TimeUnit timeUnit) {
+            this.keepAliveMillis = timeUnit.toMillis(keepAlive);
+            return this;
+        }
+
+        /**
+         * Upper bound for the lifetime of a connection, by default connections live as long as they are kept alive.
+         */
+        public Builder withConnectionTimeToLive(long connectionTimeToLive, TimeUnit timeUnit) {
+            this.connectionTimeToLiveMillis = timeUnit.toMillis(connectionTimeToLive);
+            return this;
+        }
+
+        /**
+         * Executor the asynchronous requests are run on, it runs at most as many requests at once as a route has
+         * connections. The executor is owned by the caller and is never shut down by the transport, if none is set the
+         * transport uses its own cached thread pool.
+         */
+        public Builder withExecutorService(@Nullable ExecutorService executorService) {
+            this.executorService = executorService;
+            return this;
+        }
+
+        public ApacheHttpTransport build() {
+            return new ApacheHttpTransport(
+                    maxConnections,
+                    maxConnectionsPerRoute,
+                    connectTimeoutMillis,
+                    readTimeoutMillis,
+                    connectionRequestTimeoutMillis,
+                    idleConnectionTimeoutMillis,
+                    keepAliveMillis,
+                    connectionTimeToLiveMillis,
+                    executorService
+            );
+        }
+    }
+
+    private class AsyncRequest implements Runnable {
+
+        private final TransportRequest transportRequest;
+        private final SettableFuture<TransportResponse> future = SettableFuture.create();
+
+        private AsyncRequest(TransportRequest transportRequest) {
+            this.transportRequest = transportRequest;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (future.isCancelled()) {
+                    return;
+                }
+
+                final HttpUriRequest httpRequest = toHttpRequest(transportRequest);
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (future.isCancelled()) {
+                            httpRequest.abort();
+                        }
+                    }
+                }, MoreExecutors.directExecutor());
+
+                final TransportResponse transportResponse = execute(transportRequest, httpRequest);
+                if (!future.set(transportResponse)) {
+                    transportResponse.close();
+                }
+            } catch (Throwable t) {
+                future.setException(t);
+            } finally {
+                next();
+            }
+        }
+    }
+
+    private static class RequestBodyEntity extends AbstractHttpEntity {
+
+        private final RequestBody requestBody;
+
+        private RequestBodyEntity(RequestBody requestBody) {
+            checkNotNull(requestBody, "requestBody must not be null");
+
+            this.requestBody = requestBody;
+            setContentType(requestBody.getContentType());
+            setChunked(requestBody.getContentLength() < 0);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return requestBody.isRepeatable();
+        }
+
+        @Override
+        public long getContentLength() {
+            return requestBody.getContentLength();
+        }
+
+        @Override
+        public InputStream getContent() {
+            throw new UnsupportedOperationException("Request bodies can only be written");
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            requestBody.writeTo(outputStream);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    private static class DefaultingKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        private final long keepAliveMillis;
+
+        private DefaultingKeepAliveStrategy(long keepAliveMillis) {
+            this.keepAliveMillis = keepAliveMillis;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            final long keepAliveDuration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return keepAliveDuration > 0 ? Math.min(keepAliveDuration, keepAliveMillis) : keepAliveMillis;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.glassfish.jersey.client.ClientAsyncExecutor;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import org.glassfish.jersey.logging.LoggingFeature;
+import org.glassfish.jersey.spi.ExecutorServiceProvider;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.Feature;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+/**
+ * {@link Transport} backed by a JAX-RS client using Jersey's default {@code HttpURLConnection} connector. Bodies of
+ * unknown length are sent with chunked transfer encoding instead of being buffered by {@code HttpURLConnection}, note
+ * that in this mode {@code HttpURLConnection} discards the body of a 401 response.
+ * <p>
+ * {@code HttpURLConnection} is blocking, an asynchronous request occupies a thread of the executor until its response
+ * has been received.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class JerseyTransport implements Transport {
+
+    private static final java.util.logging.Logger JERSEY_LOGGER = java.util.logging.Logger.getLogger(JerseyTransport.class.getCanonicalName());
+
+    private final Client client;
+
+    public JerseyTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        this(connectTimeoutMillis, readTimeoutMillis, null);
+    }
+
+    /**
+     * @param executorService executor the asynchronous requests are run on, the Jersey default is used if {@code null}.
+     *                        The executor is owned by the caller and is never shut down by the transport.
+     */
+    public JerseyTransport(int connectTimeoutMillis, int readTimeoutMillis, @Nullable ExecutorService executorService) {
+        this.client = createClient(connectTimeoutMillis, readTimeoutMillis, executorService);
+    }
+
+    private Client createClient(int connectTimeoutMillis, int readTimeoutMillis, ExecutorService executorService) {
+        final ClientConfig clientConfig = new ClientConfig();
+        clientConfig.property(ClientProperties.FOLLOW_REDIRECTS, true);
+        clientConfig.property(ClientProperties.CONNECT_TIMEOUT, connectTimeoutMillis);
+        clientConfig.property(ClientProperties.READ_TIMEOUT, readTimeoutMillis);
+        clientConfig.property(ClientProperties.FEATURE_AUTO_DISCOVERY_DISABLE, true);
+
+        final Client client = ClientBuilder.newClient(clientConfig);
+        final Feature feature = new LoggingFeature(JERSEY_LOGGER, Level.FINE, LoggingFeature.Verbosity.PAYLOAD_ANY, null);
+        client.register(feature);
+
+        if (executorService != null) {
+            client.register(new CallerExecutorServiceProvider(executorService));
+        }
+
+        return client;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest transportRequest) throws IOException {
+        try {
+            final Invocation.Builder invocationBuilder = createInvocationBuilder(transportRequest);
+            if (transportRequest.getBody() == null) {
+                return toTransportResponse(invocationBuilder.method(transportRequest.getMethod()));
+            } else {
+                return toTransportResponse(invocationBuilder.method(transportRequest.getMethod(), toEntity(transportRequest.getBody())));
+            }
+        } catch (ProcessingException e) {
+            throw new IOException("Failed to execute " + transportRequest.getMethod() + " " + transportRequest.getUrl(), e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<TransportResponse> executeAsync(final TransportRequest transportRequest) {
+        final SettableFuture<TransportResponse> future = SettableFuture.create();
+        final InvocationCallback<Response> invocationCallback = new InvocationCallback<Response>() {
+            @Override
+            public void completed(Response response) {
+                try {
+                    future.set(toTransportResponse(response));
+                } catch (Exception e) {
+                    future.setException(e);
+                }
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                future.setException(new IOException("Failed to execute " + transportRequest.getMethod() + " " + transportRequest.getUrl(), throwable));
+            }
+        };
+
+        final Invocation.Builder invocationBuilder = createInvocationBuilder(transportRequest);
+        final Future<Response> responseFuture;
+        if (transportRequest.getBody() == null) {
+            responseFuture = invocationBuilder.async().method(transportRequest.getMethod(), invocationCallback);
+        } else {
+            responseFuture = invocationBuilder.async().method(transportRequest.getMethod(), toEntity(transportRequest.getBody()), invocationCallback);
+        }
+
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isCancelled()) {
+                    responseFuture.cancel(true);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+
+        return future;
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    private Invocation.Builder createInvocationBuilder(TransportRequest transportRequest) {
+        final Invocation.Builder invocationBuilder = client.target(transportRequest.getUrl()).request();
+        for (Map.Entry<String, String> header : transportRequest.getHeaders().entrySet()) {
+            invocationBuilder.header(header.getKey(), header.getValue());
+        }
+        if (transportRequest.getBody() != null && transportRequest.getBody().getContentLength() < 0) {
+            invocationBuilder.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+        }
+
+        return invocationBuilder;
+    }
+
+    private Entity<StreamingOutput> toEntity(final RequestBody requestBody) {
+        final StreamingOutput streamingOutput = new StreamingOutput() {
+            @Override
+            public void write(OutputStream outputStream) throws IOException {
+                requestBody.writeTo(outputStream);
+            }
+        };
+
+        return Entity.entity(streamingOutput, requestBody.getContentType());
+    }
+
+    private TransportResponse toTransportResponse(final Response response) {
+        final Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header : response.getStringHeaders().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                headers.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+
+        final InputStream body = response.hasEntity() ? response.readEntity(InputStream.class) : new ByteArrayInputStream(new byte[0]);
+        return new TransportResponse(response.getStatus(), headers, body, new Closeable() {
+            @Override
+            public void close() {
+                response.close();
+            }
+        });
+    }
+
+    @ClientAsyncExecutor
+    private static class CallerExecutorServiceProvider implements ExecutorServiceProvider {
+
+        private final ExecutorService executorService;
+
+        private CallerExecutorServiceProvider(ExecutorService executorService) {
+            this.executorService = executorService;
+        }
+
+        @Override
+        public ExecutorService getExecutorService() {
+            return executorService;
+        }
+
+        @Override
+        public void dispose(ExecutorService executorService) {
+            // Owned by the caller
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * multipart/form-data request body. The parts are encoded while the body is written, streamed content is pumped
+ * through a single fixed size buffer, so memory use doesn't depend on the size of the uploaded image.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class MultipartRequestBody implements RequestBody {
+
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    private static final byte[] CRLF = "\r\n".getBytes(Charsets.US_ASCII);
+    private static final byte[] DASHES = "--".getBytes(Charsets.US_ASCII);
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String boundary;
+    private final List<Part> parts;
+
+    private MultipartRequestBody(String boundary, List<Part> parts) {
+        checkArgument(!parts.isEmpty(), "parts must not be empty");
+
+        this.boundary = boundary;
+        this.parts = Collections.unmodifiableList(new ArrayList<Part>(parts));
+    }
+
+    public String getBoundary() {
+        return boundary;
+    }
+
+    @Override
+    public String getContentType() {
+        return "multipart/form-data;boundary=" + boundary;
+    }
+
+    /**
+     * Exact length of the encoded body, or -1 if any of the parts is a stream of unknown length.
+     */
+    @Override
+    public long getContentLength() {
+        final int boundaryLength = boundary.getBytes(Charsets.US_ASCII).length;
+        long contentLength = 0;
+        for (Part part : parts) {
+            final long partLength = part.getContentLength();
+            if (partLength < 0) {
+                return -1;
+            }
+            contentLength += DASHES.length + boundaryLength + CRLF.length + part.getHeaders().length + partLength + CRLF.length;
+        }
+
+        return contentLength + DASHES.length + boundaryLength + DASHES.length + CRLF.length;
+    }
+
+    /**
+     * A body with a stream part can only be written once.
+     */
+    @Override
+    public boolean isRepeatable() {
+        for (Part part : parts) {
+            if (!part.isRepeatable()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        final byte[] boundaryBytes = boundary.getBytes(Charsets.US_ASCII);
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        for (Part part : parts) {
+            outputStream.write(DASHES);
+            outputStream.write(boundaryBytes);
+            outputStream.write(CRLF);
+            outputStream.write(part.getHeaders());
+            part.writeContentTo(outputStream, buffer);
+            outputStream.write(CRLF);
+        }
+
+        outputStream.write(DASHES);
+        outputStream.write(boundaryBytes);
+        outputStream.write(DASHES);
+        outputStream.write(CRLF);
+    }
+
+    /**
+     * Hands the encoded body to the visitor as a sequence of segments, the boundaries and part headers as bytes and the
+     * part contents as they were added. Transports which compose their body from sources, rather than writing it to a
+     * stream, can use this to send file parts without copying them through {@link #writeTo}.
+     */
+    public void accept(SegmentVisitor segmentVisitor) throws IOException {
+        final byte[] boundaryBytes = boundary.getBytes(Charsets.US_ASCII);
+        final ByteArrayOutputStream framing = new ByteArrayOutputStream();
+        for (Part part : parts) {
+            framing.write(DASHES);
+            framing.write(boundaryBytes);
+            framing.write(CRLF);
+            framing.write(part.getHeaders());
+            segmentVisitor.visitBytes(framing.toByteArray());
+            framing.reset();
+
+            part.accept(segmentVisitor);
+            framing.write(CRLF);
+        }
+
+        framing.write(DASHES);
+        framing.write(boundaryBytes);
+        framing.write(DASHES);
+        framing.write(CRLF);
+        segmentVisitor.visitBytes(framing.toByteArray());
+    }
+
+    private static long copy(InputStream inputStream, OutputStream outputStream, byte[] buffer) throws IOException {
+        long count = 0;
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+            count += read;
+        }
+
+        return count;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private final List<Part> parts = new ArrayList<Part>();
+
+        private Builder() {
+        }
+
+        public Builder withBytes(String name, String contentType, byte[] content) {
+            parts.add(new ByteArrayPart(name, null, contentType, content));
+            return this;
+        }
+
+        public Builder withBytes(String name, String fileName, String contentType, byte[] content) {
+            checkNotNull(fileName, "fileName must not be null");
+            parts.add(new ByteArrayPart(name, fileName, contentType, content));
+            return this;
+        }
+
+        public Builder withFile(String name, File file) {
+            parts.add(new FilePart(name, file));
+            return this;
+        }
+
+        /**
+         * The stream is closed once it has been written.
+         */
+        public Builder withStream(String name, String fileName, InputStream inputStream) {
+            parts.add(new InputStreamPart(name, fileName, inputStream));
+            return this;
+        }
+
+        public MultipartRequestBody build() {
+            return new MultipartRequestBody("Boundary_" + UUID.randomUUID().toString().replace("-", ""), parts);
+        }
+    }
+
+    /**
+     * Receives the segments of an encoded body in order, see {@link #accept(SegmentVisitor)}.
+     */
+    public interface SegmentVisitor {
+
+        void visitBytes(byte[] bytes) throws IOException;
+
+        /**
+         * @param length length of the file when it was added to the body
+         */
+        void visitFile(File file, long length) throws IOException;
+
+        /**
+         * The visitor is responsible for closing the stream once it has been consumed.
+         */
+        void visitStream(InputStream inputStream) throws IOException;
+    }
+
+    private static abstract class Part {
+        private final byte[] headers;
+
+        protected Part(String name, @Nullable String fileName, String contentType) {
+            checkNotNull(name, "name must not be null");
+            checkNotNull(contentType, "contentType must not be null");
+
+            final StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("Content-Type: ").append(contentType).append("\r\n");
+            stringBuilder.append("Content-Disposition: form-data; name=\"").append(escape(name)).append('"');
+            if (fileName != null) {
+                stringBuilder.append("; filename=\"").append(escape(fileName)).append('"');
+            }
+            stringBuilder.append("\r\n\r\n");
+
+            this.headers = stringBuilder.toString().getBytes(Charsets.UTF_8);
+        }
+
+        byte[] getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Length of the content without headers, or -1 if unknown.
+         */
+        abstract long getContentLength();
+
+        boolean isRepeatable() {
+            return true;
+        }
+
+        /**
+         * @param buffer scratch buffer shared by all parts of a body, its content is undefined between calls
+         */
+        abstract void writeContentTo(OutputStream outputStream, byte[] buffer) throws IOException;
+
+        abstract void accept(SegmentVisitor segmentVisitor) throws IOException;
+
+        private static String escape(String value) {
+            return value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+        }
+    }
+
+    private static class ByteArrayPart extends Part {
+        private final byte[] content;
+
+        private ByteArrayPart(String name, @Nullable String fileName, String contentType, byte[] content) {
+            super(name, fileName, contentType);
+
+            checkNotNull(content, "content must not be null");
+            this.content = content;
+        }
+
+        @Override
+        long getContentLength() {
+            return content.length;
+        }
+
+        @Override
+        void writeContentTo(OutputStream outputStream, byte[] buffer) throws IOException {
+            outputStream.write(content);
+        }
+
+        @Override
+        void accept(SegmentVisitor segmentVisitor) throws IOException {
+            segmentVisitor.visitBytes(content);
+        }
+    }
+
+    /**
+     * Knows its length up front so the body can be sent with a fixed Content-Length.
+     */
+    private static class FilePart extends Part {
+        private final File file;
+        private final long length;
+
+        private FilePart(String name, File file) {
+            super(name, file.getName(), guessContentType(file.getName()));
+            this.file = file;
+            this.length = file.length();
+        }
+
+        @Override
+        long getContentLength() {
+            return length;
+        }
+
+        @Override
+        void writeContentTo(OutputStream outputStream, byte[] buffer) throws IOException {
+            final FileInputStream inputStream = new FileInputStream(file);
+            try {
+                final FileChannel fileChannel = inputStream.getChannel();
+                if (fileChannel.size() != length) {
+                    throw new IOException("File " + file + " changed its size from " + length + " to " + fileChannel.size() + " bytes");
+                }
+
+                if (copy(ByteStreams.limit(inputStream, length), outputStream, buffer) != length) {
+                    throw new IOException("File " + file + " was truncated while uploading");
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        @Override
+        void accept(SegmentVisitor segmentVisitor) throws IOException {
+            segmentVisitor.visitFile(file, length);
+        }
+
+        private static String guessContentType(String fileName) {
+            final String contentType = URLConnection.guessContentTypeFromName(fileName);
+            return contentType != null ? contentType : DEFAULT_CONTENT_TYPE;
+        }
+    }
+
+    private static class InputStreamPart extends Part {
+        private final InputStream inputStream;
+
+        private InputStreamPart(String name, String fileName, InputStream inputStream) {
+            super(name, fileName, DEFAULT_CONTENT_TYPE);
+
+            checkNotNull(inputStream, "inputStream must not be null");
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        void writeContentTo(OutputStream outputStream, byte[] buffer) throws IOException {
+            try {
+                copy(inputStream, outputStream, buffer);
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        @Override
+        void accept(SegmentVisitor segmentVisitor) throws IOException {
+            segmentVisitor.visitStream(inputStream);
+        }
+    }
+}
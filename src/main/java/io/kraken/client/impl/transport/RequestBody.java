@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public interface RequestBody {
+
+    String getContentType();
+
+    /**
+     * @return the exact number of bytes {@link #writeTo(OutputStream)} will write or -1 if unknown
+     */
+    long getContentLength();
+
+    /**
+     * @return {@code true} if {@link #writeTo(OutputStream)} can be called more than once, e.g. to retry a request
+     */
+    boolean isRepeatable();
+
+    void writeTo(OutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * HTTP transport used by {@link io.kraken.client.impl.DefaultKrakenIoClient}. Implementations only move bytes,
+ * request bodies are fully encoded and responses are decoded by the client.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Executes the request on the calling thread. The caller must close the returned response.
+     */
+    TransportResponse execute(TransportRequest transportRequest) throws IOException;
+
+    /**
+     * Executes the request without blocking the calling thread. I/O failures complete the future with an {@link IOException}.
+     */
+    ListenableFuture<TransportResponse> executeAsync(TransportRequest transportRequest);
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class TransportRequest {
+
+    public static final String POST = "POST";
+    public static final String GET = "GET";
+
+    private final String method;
+    private final String url;
+    private final Map<String, String> headers;
+    private final RequestBody body;
+
+    private TransportRequest(String method, String url, Map<String, String> headers, RequestBody body) {
+        checkNotNull(method, "method must not be null");
+        checkNotNull(url, "url must not be null");
+        checkArgument(!url.isEmpty(), "url must not be empty");
+
+        this.method = method;
+        this.url = url;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<String, String>(headers));
+        this.body = body;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Nullable
+    public RequestBody getBody() {
+        return body;
+    }
+
+    public static Builder builder(String method, String url) {
+        return new Builder(method, url);
+    }
+
+    public static class Builder {
+        private final String method;
+        private final String url;
+        private final Map<String, String> headers = new LinkedHashMap<String, String>();
+        private RequestBody body;
+
+        private Builder(String method, String url) {
+            this.method = method;
+            this.url = url;
+        }
+
+        public Builder withHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Builder withBody(RequestBody body) {
+            this.body = body;
+            return this;
+        }
+
+        public TransportRequest build() {
+            return new TransportRequest(method, url, headers, body);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class TransportResponse implements Closeable {
+
+    private final int status;
+    private final Map<String, String> headers;
+    private final InputStream body;
+    private final Closeable resource;
+
+    /**
+     * @param headers  first value of every response header
+     * @param resource released together with the body once the response is closed
+     */
+    public TransportResponse(int status, Map<String, String> headers, InputStream body, @Nullable Closeable resource) {
+        checkNotNull(headers, "headers must not be null");
+        checkNotNull(body, "body must not be null");
+
+        this.status = status;
+        this.headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        this.headers.putAll(headers);
+        this.body = body;
+        this.resource = resource;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    @Nullable
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            body.close();
+        } finally {
+            if (resource != null) {
+                resource.close();
+            }
+        }
+    }
+}
@@ -18,6 +18,8 @@ package io.kraken.client.model;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.Objects;
+import com.google.common.hash.PrimitiveSink;
 import io.kraken.client.serializer.RGBASerializer;
 
 /**
@@ -53,4 +55,34 @@ public class Convert {
     public Boolean getKeepExtension() {
         return keepExtension;
     }
+
+    /**
+     * Writes the conversion options to the sink, used to fingerprint requests.
+     */
+    public void funnel(PrimitiveSink primitiveSink) {
+        PrimitiveSinks.putString(primitiveSink, format != null ? format.getValue() : null);
+        primitiveSink.putBoolean(background != null);
+        if (background != null) {
+            background.funnel(primitiveSink);
+        }
+        PrimitiveSinks.putBoolean(primitiveSink, keepExtension);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final Convert that = (Convert) o;
+        return format == that.format && Objects.equal(background, that.background) && Objects.equal(keepExtension, that.keepExtension);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(format, background, keepExtension);
+    }
 }
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.model;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.PrimitiveSink;
+
+import javax.annotation.Nullable;
+
+/**
+ * Writes nullable values to a {@link PrimitiveSink} so that the written bytes identify the values unambiguously. Used to
+ * compute the options fingerprint of requests, the encoding must stay stable across releases.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public final class PrimitiveSinks {
+
+    private PrimitiveSinks() {
+    }
+
+    public static void putBoolean(PrimitiveSink primitiveSink, @Nullable Boolean value) {
+        primitiveSink.putByte(value == null ? (byte) -1 : value ? (byte) 1 : (byte) 0);
+    }
+
+    public static void putInteger(PrimitiveSink primitiveSink, @Nullable Integer value) {
+        primitiveSink.putBoolean(value != null);
+        if (value != null) {
+            primitiveSink.putInt(value);
+        }
+    }
+
+    public static void putString(PrimitiveSink primitiveSink, @Nullable String value) {
+        if (value == null) {
+            primitiveSink.putInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(Charsets.UTF_8);
+            primitiveSink.putInt(bytes.length);
+            primitiveSink.putBytes(bytes);
+        }
+    }
+}
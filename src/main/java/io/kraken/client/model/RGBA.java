@@ -17,6 +17,8 @@ package io.kraken.client.model;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+import com.google.common.hash.PrimitiveSink;
 
 import java.math.BigDecimal;
 
@@ -69,4 +71,35 @@ public class RGBA {
     public BigDecimal getAlpha() {
         return alpha;
     }
+
+    /**
+     * Writes the color to the sink, used to fingerprint requests.
+     */
+    public void funnel(PrimitiveSink primitiveSink) {
+        primitiveSink.putInt(red);
+        primitiveSink.putInt(green);
+        primitiveSink.putInt(blue);
+        primitiveSink.putDouble(alpha.doubleValue());
+    }
+
+    /**
+     * The alpha channel is compared by value, 1 and 1.0 are equal.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final RGBA that = (RGBA) o;
+        return red.equals(that.red) && green.equals(that.green) && blue.equals(that.blue) && alpha.compareTo(that.alpha) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(red, green, blue, alpha.doubleValue());
+    }
 }
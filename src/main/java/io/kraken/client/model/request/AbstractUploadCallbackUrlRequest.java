@@ -52,6 +52,16 @@ public abstract class AbstractUploadCallbackUrlRequest extends AbstractUploadReq
         return callbackUrl;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && callbackUrl.toExternalForm().equals(((AbstractUploadCallbackUrlRequest) o).callbackUrl.toExternalForm());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + callbackUrl.toExternalForm().hashCode();
+    }
+
     protected static class Builder<T extends Builder> extends AbstractUploadRequest.Builder<T> {
 
         protected final URL callbackUrl;
@@ -21,6 +21,7 @@ import io.kraken.client.model.Metadata;
 import io.kraken.client.model.resize.AbstractResize;
 
 import java.net.URL;
+import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -38,7 +39,7 @@ public abstract class AbstractUploadCallbackUrlSetRequest extends AbstractUpload
                                                Boolean webp,
                                                Boolean lossy,
                                                Integer quality,
-                                               Set<AbstractResize> resize,
+                                               Map<String, AbstractResize> resize,
                                                Set<Metadata> preserveMeta,
                                                Convert convert,
                                                URL callbackUrl) {
@@ -52,6 +53,16 @@ public abstract class AbstractUploadCallbackUrlSetRequest extends AbstractUpload
         return callbackUrl;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && callbackUrl.toExternalForm().equals(((AbstractUploadCallbackUrlSetRequest) o).callbackUrl.toExternalForm());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + callbackUrl.toExternalForm().hashCode();
+    }
+
     protected static class Builder<T extends Builder> extends AbstractUploadSetRequest.Builder<T> {
 
         protected final URL callbackUrl;
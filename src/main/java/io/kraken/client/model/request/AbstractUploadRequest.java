@@ -16,12 +16,24 @@
 package io.kraken.client.model.request;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.PrimitiveSink;
 import io.kraken.client.model.Convert;
 import io.kraken.client.model.Metadata;
+import io.kraken.client.model.PrimitiveSinks;
 import io.kraken.client.model.resize.AbstractResize;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -42,6 +54,7 @@ public abstract class AbstractUploadRequest {
     @JsonProperty("preserve_meta")
     private final Set<Metadata> preserveMeta;
     private final Convert convert;
+    private final HashCode optionsFingerprint;
 
     @JsonCreator
     protected AbstractUploadRequest(Boolean dev,
@@ -64,8 +77,28 @@ public abstract class AbstractUploadRequest {
         this.lossy = lossy;
         this.quality = quality;
         this.resize = resize;
-        this.preserveMeta = preserveMeta;
+        this.preserveMeta = preserveMeta != null ? Sets.immutableEnumSet(preserveMeta) : null;
         this.convert = convert;
+        this.optionsFingerprint = fingerprintOptions();
+    }
+
+    private HashCode fingerprintOptions() {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        PrimitiveSinks.putBoolean(hasher, dev);
+        PrimitiveSinks.putBoolean(hasher, wait);
+        PrimitiveSinks.putBoolean(hasher, webp);
+        PrimitiveSinks.putBoolean(hasher, lossy);
+        PrimitiveSinks.putInteger(hasher, quality);
+        hasher.putBoolean(resize != null);
+        if (resize != null) {
+            resize.funnel(hasher);
+        }
+        putPreserveMeta(hasher, preserveMeta);
+        hasher.putBoolean(convert != null);
+        if (convert != null) {
+            convert.funnel(hasher);
+        }
+        return hasher.hash();
     }
 
     public Boolean getDev() {
@@ -100,6 +133,62 @@ public abstract class AbstractUploadRequest {
         return convert;
     }
 
+    /**
+     * Stable 128-bit fingerprint of the optimization options, requests with equal options have equal fingerprints in
+     * every JVM and release. The image, image URL and callback URL are not part of it.
+     */
+    @JsonIgnore
+    public HashCode getOptionsFingerprint() {
+        return optionsFingerprint;
+    }
+
+    static void putPreserveMeta(PrimitiveSink primitiveSink, @Nullable Set<Metadata> preserveMeta) {
+        if (preserveMeta == null) {
+            primitiveSink.putInt(-1);
+            return;
+        }
+
+        // Sort by value rather than by ordinal so the fingerprint does not depend on the declaration order
+        final List<String> values = new ArrayList<String>();
+        for (Metadata metadata : preserveMeta) {
+            values.add(metadata.getValue());
+        }
+        Collections.sort(values);
+        primitiveSink.putInt(values.size());
+        for (String value : values) {
+            PrimitiveSinks.putString(primitiveSink, value);
+        }
+    }
+
+    /**
+     * Requests are equal if they are of the same type and have equal options and equal images.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final AbstractUploadRequest that = (AbstractUploadRequest) o;
+        return optionsFingerprint.equals(that.optionsFingerprint) &&
+                dev.equals(that.dev) &&
+                wait.equals(that.wait) &&
+                Objects.equal(webp, that.webp) &&
+                lossy.equals(that.lossy) &&
+                Objects.equal(quality, that.quality) &&
+                Objects.equal(resize, that.resize) &&
+                Objects.equal(preserveMeta, that.preserveMeta) &&
+                Objects.equal(convert, that.convert);
+    }
+
+    @Override
+    public int hashCode() {
+        return optionsFingerprint.asInt();
+    }
+
     protected static class Builder<T extends Builder> {
         protected Boolean dev = false;
         protected Boolean webp = false;
@@ -148,5 +237,23 @@ public abstract class AbstractUploadRequest {
             this.convert = convert;
             return (T) this;
         }
+
+        /**
+         * Copies the options of another request, its image and callback URL are not copied.
+         */
+        public T withOptionsOf(AbstractUploadRequest abstractUploadRequest) {
+            checkNotNull(abstractUploadRequest, "abstractUploadRequest must not be null");
+            this.dev = abstractUploadRequest.getDev();
+            this.webp = abstractUploadRequest.getWebp();
+            this.lossy = abstractUploadRequest.getLossy();
+            this.quality = abstractUploadRequest.getQuality();
+            this.resize = abstractUploadRequest.getResize();
+            this.preserveMeta = new HashSet<Metadata>();
+            if (abstractUploadRequest.getPreserveMeta() != null) {
+                preserveMeta.addAll(abstractUploadRequest.getPreserveMeta());
+            }
+            this.convert = abstractUploadRequest.getConvert();
+            return (T) this;
+        }
     }
 }
@@ -16,12 +16,26 @@
 package io.kraken.client.model.request;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import io.kraken.client.model.Convert;
 import io.kraken.client.model.Metadata;
+import io.kraken.client.model.PrimitiveSinks;
 import io.kraken.client.model.resize.AbstractResize;
+import io.kraken.client.serializer.ResizeSetSerializer;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -38,10 +52,12 @@ public abstract class AbstractUploadSetRequest {
     private final Boolean webp;
     private final Boolean lossy;
     private final Integer quality;
-    private final Set<AbstractResize> resize;
+    @JsonSerialize(using = ResizeSetSerializer.class)
+    private final Map<String, AbstractResize> resize;
     @JsonProperty("preserve_meta")
     private final Set<Metadata> preserveMeta;
     private final Convert convert;
+    private final HashCode optionsFingerprint;
 
     @JsonCreator
     protected AbstractUploadSetRequest(Boolean dev,
@@ -49,7 +65,7 @@ public abstract class AbstractUploadSetRequest {
                                     Boolean webp,
                                     Boolean lossy,
                                     Integer quality,
-                                    Set<AbstractResize> resize,
+                                    Map<String, AbstractResize> resize,
                                     Set<Metadata> preserveMeta,
                                     Convert convert) {
         checkNotNull(dev, "dev must not be null");
@@ -57,15 +73,43 @@ public abstract class AbstractUploadSetRequest {
         checkNotNull(lossy, "lossy must not be null");
         checkArgument(quality == null || (quality != null && quality >= 1 && quality <= 100), "quality must be between 1-100");
         checkArgument(lossy != null || (lossy == null && quality == null), "quality can only be set if lossy is set");
+        checkNotNull(resize, "resize must not be null");
+        checkArgument(!resize.isEmpty(), "at least one resize must be set");
 
         this.dev = dev;
         this.wait = wait;
         this.webp = webp;
         this.lossy = lossy;
         this.quality = quality;
-        this.resize = resize;
-        this.preserveMeta = preserveMeta;
+        this.resize = ImmutableMap.copyOf(resize);
+        this.preserveMeta = preserveMeta != null ? Sets.immutableEnumSet(preserveMeta) : null;
         this.convert = convert;
+        this.optionsFingerprint = fingerprintOptions();
+    }
+
+    private HashCode fingerprintOptions() {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        PrimitiveSinks.putBoolean(hasher, dev);
+        PrimitiveSinks.putBoolean(hasher, wait);
+        PrimitiveSinks.putBoolean(hasher, webp);
+        PrimitiveSinks.putBoolean(hasher, lossy);
+        PrimitiveSinks.putInteger(hasher, quality);
+        // The resizes are keyed by id, combine their fingerprints independently of the iteration order
+        final List<HashCode> resizeFingerprints = new ArrayList<HashCode>();
+        for (Map.Entry<String, AbstractResize> entry : resize.entrySet()) {
+            final Hasher resizeHasher = Hashing.murmur3_128().newHasher();
+            PrimitiveSinks.putString(resizeHasher, entry.getKey());
+            entry.getValue().funnel(resizeHasher);
+            resizeFingerprints.add(resizeHasher.hash());
+        }
+        hasher.putInt(resize.size());
+        hasher.putBytes(Hashing.combineUnordered(resizeFingerprints).asBytes());
+        AbstractUploadRequest.putPreserveMeta(hasher, preserveMeta);
+        hasher.putBoolean(convert != null);
+        if (convert != null) {
+            convert.funnel(hasher);
+        }
+        return hasher.hash();
     }
 
     public Boolean getDev() {
@@ -88,7 +132,10 @@ public abstract class AbstractUploadSetRequest {
         return quality;
     }
 
-    public Set<AbstractResize> getResize() {
+    /**
+     * The resizes by id, results are returned under the same id.
+     */
+    public Map<String, AbstractResize> getResize() {
         return resize;
     }
 
@@ -100,12 +147,50 @@ public abstract class AbstractUploadSetRequest {
         return convert;
     }
 
+    /**
+     * Stable 128-bit fingerprint of the optimization options, requests with equal options have equal fingerprints in
+     * every JVM and release. The image, image URL and callback URL are not part of it.
+     */
+    @JsonIgnore
+    public HashCode getOptionsFingerprint() {
+        return optionsFingerprint;
+    }
+
+    /**
+     * Requests are equal if they are of the same type and have equal options and equal images.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final AbstractUploadSetRequest that = (AbstractUploadSetRequest) o;
+        return optionsFingerprint.equals(that.optionsFingerprint) &&
+                dev.equals(that.dev) &&
+                wait.equals(that.wait) &&
+                Objects.equal(webp, that.webp) &&
+                lossy.equals(that.lossy) &&
+                Objects.equal(quality, that.quality) &&
+                Objects.equal(resize, that.resize) &&
+                Objects.equal(preserveMeta, that.preserveMeta) &&
+                Objects.equal(convert, that.convert);
+    }
+
+    @Override
+    public int hashCode() {
+        return optionsFingerprint.asInt();
+    }
+
     protected static class Builder<T extends Builder> {
         protected Boolean dev = false;
         protected Boolean webp = false;
         protected Boolean lossy = false;
         protected Integer quality;
-        protected Set<AbstractResize> resize;
+        protected Map<String, AbstractResize> resize = new LinkedHashMap<String, AbstractResize>();
         protected Set<Metadata> preserveMeta = new HashSet<Metadata>();
         protected Convert convert;
 
@@ -134,8 +219,43 @@ public abstract class AbstractUploadSetRequest {
             return (T) this;
         }
 
-        public T withResize(AbstractResize singleResize) {
-            resize.add(singleResize);
+        /**
+         * Adds a resized variant of the image, identified by an id which must be unique within the request.
+         */
+        public T withResize(String id, AbstractResize singleResize) {
+            checkNotNull(id, "id must not be null");
+            checkNotNull(singleResize, "singleResize must not be null");
+            checkArgument(!resize.containsKey(id), "resize id %s is already used", id);
+
+            resize.put(id, singleResize);
+            return (T) this;
+        }
+
+        /**
+         * Adds the resizes in the iteration order of the map.
+         */
+        public T withResizes(Map<String, ? extends AbstractResize> resizes) {
+            checkNotNull(resizes, "resizes must not be null");
+            for (Map.Entry<String, ? extends AbstractResize> entry : resizes.entrySet()) {
+                withResize(entry.getKey(), entry.getValue());
+            }
+            return (T) this;
+        }
+
+        /**
+         * Copies the options of a single upload request except its resize and the image.
+         */
+        public T withOptionsOf(AbstractUploadRequest abstractUploadRequest) {
+            checkNotNull(abstractUploadRequest, "abstractUploadRequest must not be null");
+            this.dev = abstractUploadRequest.getDev();
+            this.webp = abstractUploadRequest.getWebp();
+            this.lossy = abstractUploadRequest.getLossy();
+            this.quality = abstractUploadRequest.getQuality();
+            this.preserveMeta = new HashSet<Metadata>();
+            if (abstractUploadRequest.getPreserveMeta() != null) {
+                preserveMeta.addAll(abstractUploadRequest.getPreserveMeta());
+            }
+            this.convert = abstractUploadRequest.getConvert();
             return (T) this;
         }
 
@@ -54,6 +54,16 @@ public class DirectFileUploadCallbackUrlRequest extends AbstractUploadCallbackUr
         return image;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && image.equals(((DirectFileUploadCallbackUrlRequest) o).image);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + image.hashCode();
+    }
+
     public static Builder builder(File image, URL callbackUrl) {
         return new Builder(image, callbackUrl);
     }
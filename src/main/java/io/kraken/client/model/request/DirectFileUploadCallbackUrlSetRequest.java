@@ -22,6 +22,7 @@ import io.kraken.client.model.resize.AbstractResize;
 
 import java.io.File;
 import java.net.URL;
+import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -39,7 +40,7 @@ public class DirectFileUploadCallbackUrlSetRequest extends AbstractUploadCallbac
                                                Boolean webp,
                                                Boolean lossy,
                                                Integer quality,
-                                               Set<AbstractResize> resize,
+                                               Map<String, AbstractResize> resize,
                                                Set<Metadata> preserveMeta,
                                                Convert convert,
                                                URL callbackUrl,
@@ -54,6 +55,16 @@ public class DirectFileUploadCallbackUrlSetRequest extends AbstractUploadCallbac
         return image;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && image.equals(((DirectFileUploadCallbackUrlSetRequest) o).image);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + image.hashCode();
+    }
+
     public static Builder builder(File image, URL callbackUrl) {
         return new Builder(image, callbackUrl);
     }
@@ -52,6 +52,16 @@ public class DirectFileUploadRequest extends AbstractUploadRequest {
         return image;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && image.equals(((DirectFileUploadRequest) o).image);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + image.hashCode();
+    }
+
     public static Builder builder(File image) {
         return new Builder(image);
     }
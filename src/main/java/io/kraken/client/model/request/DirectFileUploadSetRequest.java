@@ -21,6 +21,7 @@ import io.kraken.client.model.Metadata;
 import io.kraken.client.model.resize.AbstractResize;
 
 import java.io.File;
+import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -38,7 +39,7 @@ public class DirectFileUploadSetRequest extends AbstractUploadSetRequest {
                                     Boolean webp,
                                     Boolean lossy,
                                     Integer quality,
-                                    Set<AbstractResize> resize,
+                                    Map<String, AbstractResize> resize,
                                     Set<Metadata> preserveMeta,
                                     Convert convert,
                                     File image) {
@@ -52,6 +53,16 @@ public class DirectFileUploadSetRequest extends AbstractUploadSetRequest {
         return image;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && image.equals(((DirectFileUploadSetRequest) o).image);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + image.hashCode();
+    }
+
     public static Builder builder(File image) {
         return new Builder(image);
     }
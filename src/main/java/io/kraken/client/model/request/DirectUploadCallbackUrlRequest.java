@@ -54,6 +54,19 @@ public class DirectUploadCallbackUrlRequest extends AbstractUploadCallbackUrlReq
         return image;
     }
 
+    /**
+     * Streams can only be read once, requests are only equal if they upload the same stream instance.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && image == ((DirectUploadCallbackUrlRequest) o).image;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + System.identityHashCode(image);
+    }
+
     public static Builder builder(InputStream image, URL callbackUrl) {
         return new Builder(image, callbackUrl);
     }
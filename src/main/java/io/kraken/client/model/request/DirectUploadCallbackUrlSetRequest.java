@@ -22,6 +22,7 @@ import io.kraken.client.model.resize.AbstractResize;
 
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -39,7 +40,7 @@ public class DirectUploadCallbackUrlSetRequest extends AbstractUploadCallbackUrl
                                            Boolean webp,
                                            Boolean lossy,
                                            Integer quality,
-                                           Set<AbstractResize> resize,
+                                           Map<String, AbstractResize> resize,
                                            Set<Metadata> preserveMeta,
                                            Convert convert,
                                            URL callbackUrl,
@@ -54,6 +55,19 @@ public class DirectUploadCallbackUrlSetRequest extends AbstractUploadCallbackUrl
         return image;
     }
 
+    /**
+     * Streams can only be read once, requests are only equal if they upload the same stream instance.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && image == ((DirectUploadCallbackUrlSetRequest) o).image;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + System.identityHashCode(image);
+    }
+
     public static Builder builder(InputStream image, URL callbackUrl) {
         return new Builder(image, callbackUrl);
     }
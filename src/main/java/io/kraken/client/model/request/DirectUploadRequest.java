@@ -52,6 +52,19 @@ public class DirectUploadRequest extends AbstractUploadRequest {
         return image;
     }
 
+    /**
+     * Streams can only be read once, requests are only equal if they upload the same stream instance.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && image == ((DirectUploadRequest) o).image;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + System.identityHashCode(image);
+    }
+
     public static Builder builder(InputStream image) {
         return new Builder(image);
     }
@@ -21,6 +21,7 @@ import io.kraken.client.model.Metadata;
 import io.kraken.client.model.resize.AbstractResize;
 
 import java.io.InputStream;
+import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -38,7 +39,7 @@ public class DirectUploadSetRequest extends AbstractUploadSetRequest {
                                 Boolean webp,
                                 Boolean lossy,
                                 Integer quality,
-                                Set<AbstractResize> resize,
+                                Map<String, AbstractResize> resize,
                                 Set<Metadata> preserveMeta,
                                 Convert convert,
                                 InputStream image) {
@@ -52,6 +53,19 @@ public class DirectUploadSetRequest extends AbstractUploadSetRequest {
         return image;
     }
 
+    /**
+     * Streams can only be read once, requests are only equal if they upload the same stream instance.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && image == ((DirectUploadSetRequest) o).image;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + System.identityHashCode(image);
+    }
+
     public static Builder builder(InputStream image) {
         return new Builder(image);
     }
@@ -53,6 +53,19 @@ public class ImageUrlUploadCallbackUrlRequest extends AbstractUploadCallbackUrlR
         return imageUrl;
     }
 
+    /**
+     * Image URLs are compared by their string form, {@link URL#equals(Object)} resolves host names.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && imageUrl.toExternalForm().equals(((ImageUrlUploadCallbackUrlRequest) o).imageUrl.toExternalForm());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + imageUrl.toExternalForm().hashCode();
+    }
+
     public static Builder builder(URL imageUrl, URL callbackUrl) {
         return new Builder(imageUrl, callbackUrl);
     }
@@ -52,6 +52,19 @@ public class ImageUrlUploadRequest extends AbstractUploadRequest {
         return imageUrl;
     }
 
+    /**
+     * Image URLs are compared by their string form, {@link URL#equals(Object)} resolves host names.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && imageUrl.toExternalForm().equals(((ImageUrlUploadRequest) o).imageUrl.toExternalForm());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + imageUrl.toExternalForm().hashCode();
+    }
+
     public static Builder builder(URL imageUrl) {
         return new Builder(imageUrl);
     }
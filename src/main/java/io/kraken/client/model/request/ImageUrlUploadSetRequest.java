@@ -21,6 +21,7 @@ import io.kraken.client.model.Metadata;
 import io.kraken.client.model.resize.AbstractResize;
 
 import java.net.URL;
+import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -38,7 +39,7 @@ public class ImageUrlUploadSetRequest extends AbstractUploadSetRequest {
                                   Boolean webp,
                                   Boolean lossy,
                                   Integer quality,
-                                  Set<AbstractResize> resize,
+                                  Map<String, AbstractResize> resize,
                                   Set<Metadata> preserveMeta,
                                   Convert convert,
                                   URL imageUrl) {
@@ -52,6 +53,19 @@ public class ImageUrlUploadSetRequest extends AbstractUploadSetRequest {
         return imageUrl;
     }
 
+    /**
+     * Image URLs are compared by their string form, {@link URL#equals(Object)} resolves host names.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && imageUrl.toExternalForm().equals(((ImageUrlUploadSetRequest) o).imageUrl.toExternalForm());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + imageUrl.toExternalForm().hashCode();
+    }
+
     public static Builder builder(URL imageUrl) {
         return new Builder(imageUrl);
     }
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.model.request;
+
+import io.kraken.client.model.Convert;
+import io.kraken.client.model.Metadata;
+import io.kraken.client.model.resize.AbstractResize;
+
+import java.util.Set;
+
+/**
+ * Options of direct uploads without the image, used to create an {@link io.kraken.client.impl.UploadProfile}.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class UploadOptions extends AbstractUploadRequest {
+
+    private UploadOptions(Boolean dev,
+                          Boolean webp,
+                          Boolean lossy,
+                          Integer quality,
+                          AbstractResize resize,
+                          Set<Metadata> preserveMeta,
+                          Convert convert) {
+        super(dev, true, webp, lossy, quality, resize, preserveMeta, convert);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder extends AbstractUploadRequest.Builder<Builder> {
+
+        private Builder() {
+        }
+
+        public UploadOptions build() {
+            return new UploadOptions(
+                    dev,
+                    webp,
+                    lossy,
+                    quality,
+                    resize,
+                    preserveMeta,
+                    convert
+            );
+        }
+    }
+}
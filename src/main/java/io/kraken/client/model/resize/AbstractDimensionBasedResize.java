@@ -17,6 +17,9 @@ package io.kraken.client.model.resize;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+import com.google.common.hash.PrimitiveSink;
+import io.kraken.client.model.PrimitiveSinks;
 import io.kraken.client.model.Strategy;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -50,4 +53,26 @@ public abstract class AbstractDimensionBasedResize extends AbstractResize {
     public Integer getHeight() {
         return height;
     }
+
+    @Override
+    public void funnel(PrimitiveSink primitiveSink) {
+        super.funnel(primitiveSink);
+        PrimitiveSinks.putInteger(primitiveSink, width);
+        PrimitiveSinks.putInteger(primitiveSink, height);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) {
+            return false;
+        }
+
+        final AbstractDimensionBasedResize that = (AbstractDimensionBasedResize) o;
+        return width.equals(that.width) && height.equals(that.height);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(super.hashCode(), width, height);
+    }
 }
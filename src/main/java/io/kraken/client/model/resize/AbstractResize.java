@@ -19,6 +19,9 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.google.common.base.Objects;
+import com.google.common.hash.PrimitiveSink;
+import io.kraken.client.model.PrimitiveSinks;
 import io.kraken.client.model.Strategy;
 
 /**
@@ -48,4 +51,29 @@ public abstract class AbstractResize {
     public Strategy getStrategy() {
         return strategy;
     }
+
+    /**
+     * Writes the resize options to the sink, subclasses with options of their own must extend it.
+     */
+    public void funnel(PrimitiveSink primitiveSink) {
+        PrimitiveSinks.putString(primitiveSink, strategy != null ? strategy.getValue() : null);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final AbstractResize that = (AbstractResize) o;
+        return strategy == that.strategy;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(strategy);
+    }
 }
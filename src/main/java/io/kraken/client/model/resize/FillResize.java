@@ -18,6 +18,8 @@ package io.kraken.client.model.resize;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.Objects;
+import com.google.common.hash.PrimitiveSink;
 import io.kraken.client.model.RGBA;
 import io.kraken.client.model.Strategy;
 import io.kraken.client.serializer.RGBASerializer;
@@ -46,4 +48,23 @@ public class FillResize extends AbstractDimensionBasedResize {
     public RGBA getBackground() {
         return background;
     }
+
+    @Override
+    public void funnel(PrimitiveSink primitiveSink) {
+        super.funnel(primitiveSink);
+        primitiveSink.putBoolean(background != null);
+        if (background != null) {
+            background.funnel(primitiveSink);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && Objects.equal(background, ((FillResize) o).background);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(super.hashCode(), background);
+    }
 }
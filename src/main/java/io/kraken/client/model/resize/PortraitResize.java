@@ -17,6 +17,9 @@ package io.kraken.client.model.resize;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+import com.google.common.hash.PrimitiveSink;
+import io.kraken.client.model.PrimitiveSinks;
 import io.kraken.client.model.Strategy;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -40,4 +43,20 @@ public class PortraitResize extends AbstractResize {
     public Integer getHeight() {
         return height;
     }
+
+    @Override
+    public void funnel(PrimitiveSink primitiveSink) {
+        super.funnel(primitiveSink);
+        PrimitiveSinks.putInteger(primitiveSink, height);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && height.equals(((PortraitResize) o).height);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(super.hashCode(), height);
+    }
 }
@@ -29,8 +29,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 })
 public abstract class AbstractUploadResponse {
 
-    @JsonIgnore
-    protected final ObjectMapper objectMapper = new ObjectMapper();
+    /**
+     * Shared by all responses, only used by {@link #toString()}.
+     */
+    protected static final ObjectMapper objectMapper = new ObjectMapper();
 
     private final Boolean success;
 
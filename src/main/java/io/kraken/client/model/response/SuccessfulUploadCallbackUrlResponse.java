@@ -16,7 +16,6 @@
 package io.kraken.client.model.response;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -27,8 +26,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  */
 public class SuccessfulUploadCallbackUrlResponse {
 
-    @JsonIgnore
-    protected final ObjectMapper objectMapper = new ObjectMapper();
+    /**
+     * Shared by all responses, only used by {@link #toString()}.
+     */
+    protected static final ObjectMapper objectMapper = new ObjectMapper();
 
     private final String id;
 
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.model.response;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Result of a set upload, one {@link SuccessfulUploadResponse} per resize keyed by the id of the resize.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class SuccessfulUploadSetResponse extends AbstractUploadResponse {
+
+    private final Map<String, SuccessfulUploadResponse> results;
+
+    @JsonCreator
+    public SuccessfulUploadSetResponse(@JsonProperty("success") Boolean success,
+                                       @JsonProperty("results") Map<String, SuccessfulUploadResponse> results) {
+        super(success);
+        this.results = results != null ? ImmutableMap.copyOf(results) : ImmutableMap.<String, SuccessfulUploadResponse>of();
+    }
+
+    /**
+     * The results in the order they were returned by Kraken.io.
+     */
+    public Map<String, SuccessfulUploadResponse> getResults() {
+        return results;
+    }
+
+    /**
+     * @return the result of the resize with the given id or {@code null} if there is none
+     */
+    public SuccessfulUploadResponse getResult(String id) {
+        checkNotNull(id, "id must not be null");
+        return results.get(id);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return "AbstractUploadResponse:" + objectMapper.writeValueAsString(this);
+        } catch (JsonProcessingException e) {
+            return "SuccessfulUploadSetResponse{" +
+                    "success='" + getSuccess() + '\'' +
+                    ", status='" + getStatus() + '\'' +
+                    ", results=" + getResults() +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.serializer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import io.kraken.client.model.resize.AbstractResize;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Writes the resizes of a set request as an array of resize objects, each with its {@code id}.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class ResizeSetSerializer extends JsonSerializer<Map<String, AbstractResize>> {
+
+    @Override
+    public void serialize(Map<String, AbstractResize> value, JsonGenerator gen, SerializerProvider serializers) throws IOException, JsonProcessingException {
+        gen.writeStartArray();
+        for (Map.Entry<String, AbstractResize> entry : value.entrySet()) {
+            gen.writeStartObject();
+            gen.writeStringField("id", entry.getKey());
+            serializers.findValueSerializer(entry.getValue().getClass()).unwrappingSerializer(null).serialize(entry.getValue(), gen, serializers);
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+    }
+}
@@ -15,23 +15,30 @@
  */
 package io.kraken.client;
 
+import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.mockserver.client.server.MockServerClient;
 import org.mockserver.integration.ClientAndServer;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.Header;
+import org.mockserver.model.HttpResponse;
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
 /**
  * @author Emir Dizdarevic
  * @since 1.0.0
  */
 public abstract class AbstractFunctionalTest {
 
-    private static MockServerClient mockServerClient;
+    private static ClientAndServer mockServerClient;
 
     static {
         LogManager.getLogManager().reset();
@@ -45,6 +52,11 @@ public abstract class AbstractFunctionalTest {
         mockServerClient = ClientAndServer.startClientAndServer(1080);
     }
 
+    @AfterClass
+    public static final void destroyClass() throws Exception {
+        mockServerClient.stop();
+    }
+
     @Before
     public final void init() throws Exception {
         mockServerClient.reset();
@@ -53,4 +65,32 @@ public abstract class AbstractFunctionalTest {
     public MockServerClient getMockServerClient() {
         return mockServerClient;
     }
+
+    /**
+     * Responds to every request to the given path with the given JSON body.
+     */
+    protected void respondWith(String path, int statusCode, String body) {
+        respondWith(path, statusCode, body, Times.unlimited());
+    }
+
+    /**
+     * Responds to the given number of requests to the given path with the given JSON body. Expectations are matched
+     * in the order they were created.
+     */
+    protected void respondWith(String path, int statusCode, String body, Times times) {
+        getMockServerClient()
+                .when(
+                        request()
+                                .withPath(path),
+                        times
+                )
+                .respond(jsonResponse(statusCode, body));
+    }
+
+    protected HttpResponse jsonResponse(int statusCode, String body) {
+        return response()
+                .withStatusCode(statusCode)
+                .withHeader(new Header("Content-Type", "application/json"))
+                .withBody(body);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client;
+
+import java.io.InputStream;
+
+/**
+ * Stream of the given size which is generated while it is read.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class GeneratedInputStream extends InputStream {
+    private long remaining;
+
+    public GeneratedInputStream(long size) {
+        this.remaining = size;
+    }
+
+    @Override
+    public int read() {
+        if (remaining == 0) {
+            return -1;
+        }
+        remaining--;
+        return (int) (remaining & 0xff);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (remaining == 0) {
+            return -1;
+        }
+
+        final int read = (int) Math.min(length, remaining);
+        for (int i = 0; i < read; i++) {
+            buffer[offset + i] = (byte) (--remaining & 0xff);
+        }
+        return read;
+    }
+}
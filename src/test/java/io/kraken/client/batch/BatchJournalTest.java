@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.kraken.client.exception.KrakenIoException;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class BatchJournalTest {
+
+    private File directory;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDir();
+        file = new File(directory, "batch.journal");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testReplaysRecordedStates() throws Exception {
+        final BatchJournal batchJournal = BatchJournal.open(file);
+        batchJournal.submitted("a").get();
+        batchJournal.submitted("b").get();
+        batchJournal.uploaded("b", new SuccessfulUploadResponse(true, "b.jpg", 100, 60, 40, "http://somehost/b.jpg")).get();
+        batchJournal.submitted("c").get();
+        batchJournal.uploaded("c", new SuccessfulUploadResponse(true, "c.jpg", 100, 100, 0, null)).get();
+        batchJournal.downloaded("c").get();
+        batchJournal.committed("c").get();
+        batchJournal.close();
+
+        final BatchJournal replayedJournal = BatchJournal.open(file);
+        try {
+            assertThat(replayedJournal.size(), is(3));
+            assertThat(replayedJournal.getState("a"), is(BatchJournal.State.SUBMITTED));
+            assertThat(replayedJournal.getUploadResponse("a"), nullValue());
+            assertThat(replayedJournal.getState("b"), is(BatchJournal.State.UPLOADED));
+            assertThat(replayedJournal.getUploadResponse("b").getFileName(), is("b.jpg"));
+            assertThat(replayedJournal.getUploadResponse("b").getOriginalSize(), is(100));
+            assertThat(replayedJournal.getUploadResponse("b").getKrakedSize(), is(60));
+            assertThat(replayedJournal.getUploadResponse("b").getSavedBytes(), is(40));
+            assertThat(replayedJournal.getUploadResponse("b").getKrakedUrl(), is("http://somehost/b.jpg"));
+            assertThat(replayedJournal.isCommitted("c"), is(true));
+            assertThat(replayedJournal.getUploadResponse("c").getKrakedUrl(), nullValue());
+            assertThat(replayedJournal.getState("d"), nullValue());
+        } finally {
+            replayedJournal.close();
+        }
+    }
+
+    @Test
+    public void testReturnsStatesOfRecordedVersionOnly() throws Exception {
+        final BatchJournal batchJournal = BatchJournal.open(file);
+        batchJournal.submitted("a", 100, 1000).get();
+        batchJournal.uploaded("a", 100, 1000, new SuccessfulUploadResponse(true, "a.jpg", 100, 60, 40, "http://somehost/a.jpg")).get();
+        batchJournal.downloaded("a").get();
+        batchJournal.submitted("b", 100, 1000).get();
+        batchJournal.uploaded("b", 100, 1000, new SuccessfulUploadResponse(true, "b.jpg", 100, 60, 40, "http://somehost/b.jpg")).get();
+        batchJournal.downloaded("b").get();
+        batchJournal.committed("b", 60, 2000).get();
+        batchJournal.submitted("c", 100, 1000).get();
+        batchJournal.uploaded("c", 100, 1000, new SuccessfulUploadResponse(true, "c.jpg", 100, 60, 40, "http://somehost/c.jpg")).get();
+        batchJournal.submitted("c", 120, 3000).get();
+        batchJournal.committed("d").get();
+        batchJournal.close();
+
+        final BatchJournal replayedJournal = BatchJournal.open(file);
+        try {
+            assertThat(replayedJournal.getUploadResponse("a", 100, 1000).getKrakedUrl(), is("http://somehost/a.jpg"));
+            assertThat(replayedJournal.getUploadResponse("a", 100, 1001), nullValue());
+            assertThat(replayedJournal.getUploadResponse("a", 101, 1000), nullValue());
+            assertThat(replayedJournal.isCommitted("b", 60, 2000), is(true));
+            assertThat(replayedJournal.isCommitted("b", 100, 1000), is(false));
+            assertThat(replayedJournal.getUploadResponse("c", 100, 1000), nullValue());
+            assertThat(replayedJournal.getUploadResponse("c", 120, 3000), nullValue());
+            assertThat(replayedJournal.isCommitted("d"), is(true));
+            assertThat(replayedJournal.isCommitted("d", 0, 0), is(false));
+        } finally {
+            replayedJournal.close();
+        }
+    }
+
+    @Test
+    public void testCutsOffTornRecord() throws Exception {
+        final BatchJournal batchJournal = BatchJournal.open(file);
+        batchJournal.committed("a").get();
+        batchJournal.close();
+        final long length = file.length();
+
+        final FileOutputStream fileOutputStream = new FileOutputStream(file, true);
+        fileOutputStream.write(new byte[]{0, 0, 0, 42, 1, 2, 3});
+        fileOutputStream.close();
+
+        final BatchJournal replayedJournal = BatchJournal.open(file);
+        assertThat(file.length(), is(length));
+        assertThat(replayedJournal.isCommitted("a"), is(true));
+        replayedJournal.submitted("b").get();
+        replayedJournal.close();
+
+        final BatchJournal twiceReplayedJournal = BatchJournal.open(file);
+        try {
+            assertThat(twiceReplayedJournal.isCommitted("a"), is(true));
+            assertThat(twiceReplayedJournal.getState("b"), is(BatchJournal.State.SUBMITTED));
+        } finally {
+            twiceReplayedJournal.close();
+        }
+    }
+
+    @Test
+    public void testSyncsConcurrentAppendsTogether() throws Exception {
+        final BatchJournal batchJournal = BatchJournal.open(file);
+        try {
+            final List<ListenableFuture<Void>> futures = new ArrayList<ListenableFuture<Void>>();
+            for (int i = 0; i < 1000; i++) {
+                futures.add(batchJournal.submitted("item" + i));
+            }
+            Futures.allAsList(futures).get();
+
+            assertThat(batchJournal.getRecords(), is(1000L));
+            assertThat(batchJournal.getSyncs(), lessThan(1000L));
+        } finally {
+            batchJournal.close();
+        }
+    }
+
+    @Test(expected = KrakenIoException.class)
+    public void testRejectsFileWhichIsNoJournal() throws Exception {
+        Files.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9}, file);
+        BatchJournal.open(file);
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.impl.DefaultKrakenIoClient;
+import io.kraken.client.impl.DefaultKrakenIoClientFunctionalTest;
+import io.kraken.client.model.request.AbstractUploadRequest;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.request.DirectUploadRequest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class BatchUploaderFunctionalTest extends AbstractFunctionalTest {
+
+    private ExecutorService executorService;
+    private DefaultKrakenIoClient krakenIoClient;
+
+    @Before
+    public void setUp() throws Exception {
+        executorService = Executors.newFixedThreadPool(4);
+        krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withExecutorService(executorService)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        krakenIoClient.close();
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testUploadReportsEveryRequest() throws Exception {
+        respondWith("/v1/url", 200, loadFileString("krakenIoResponse200.json"));
+        respondWith("/v1/upload", 415, loadFileString("krakenIoResponse415.json"));
+
+        final List<AbstractUploadRequest> requests = new ArrayList<AbstractUploadRequest>();
+        for (int i = 0; i < 10; i++) {
+            requests.add(ImageUrlUploadRequest.builder(new URL("http://somehost/image" + i)).build());
+            requests.add(DirectUploadRequest.builder(new ByteArrayInputStream(new byte[]{1, 2, 3})).build());
+        }
+
+        final BatchUploader batchUploader = BatchUploader.builder(krakenIoClient).withMaxConcurrency(3).build();
+        int successful = 0;
+        int failed = 0;
+        final Iterator<UploadResult<AbstractUploadRequest>> results = batchUploader.upload(requests);
+        while (results.hasNext()) {
+            final UploadResult<AbstractUploadRequest> result = results.next();
+            if (result.isSuccessful()) {
+                successful++;
+                assertThat(result.getRequest(), instanceOf(ImageUrlUploadRequest.class));
+                assertThat(result.getSuccessfulUploadResponse().getKrakedUrl(), notNullValue());
+            } else {
+                failed++;
+                assertThat(result.getRequest(), instanceOf(DirectUploadRequest.class));
+                assertThat(result.getException(), instanceOf(KrakenIoRequestException.class));
+                assertThat(result.getFailedUploadResponse().getStatus(), is(415));
+            }
+        }
+
+        assertThat(successful, is(10));
+        assertThat(failed, is(10));
+    }
+
+    @Test
+    public void testUploadPullsRequestsOnlyWhenSlotIsFree() throws Exception {
+        respondWith("/v1/url", 200, loadFileString("krakenIoResponse200.json"));
+
+        final int[] pulled = new int[1];
+        final Iterator<ImageUrlUploadRequest> requests = new Iterator<ImageUrlUploadRequest>() {
+            @Override
+            public boolean hasNext() {
+                return pulled[0] < 20;
+            }
+
+            @Override
+            public ImageUrlUploadRequest next() {
+                try {
+                    return ImageUrlUploadRequest.builder(new URL("http://somehost/image" + pulled[0]++)).build();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final Iterator<UploadResult<ImageUrlUploadRequest>> results = BatchUploader.builder(krakenIoClient).withMaxConcurrency(2).build().upload(requests);
+        int consumed = 0;
+        while (results.hasNext()) {
+            assertThat(pulled[0], lessThanOrEqualTo(consumed + 2));
+            assertThat(results.next().isSuccessful(), is(true));
+            consumed++;
+        }
+
+        assertThat(consumed, is(20));
+    }
+
+    @Test
+    public void testUploadResumesFromJournal() throws Exception {
+        respondWith("/v1/upload", 200, loadFileString("krakenIoResponse200.json"));
+        final File directory = Files.createTempDir();
+        final List<DirectFileUploadRequest> requests = new ArrayList<DirectFileUploadRequest>();
+        for (String name : Arrays.asList("committed.jpg", "uploaded.jpg", "changed.jpg", "new.jpg")) {
+            final File file = new File(directory, name);
+            Files.write(new byte[]{1, 2, 3}, file);
+            requests.add(DirectFileUploadRequest.builder(file).build());
+        }
+
+        final BatchJournal batchJournal = BatchJournal.open(new File(directory, "batch.journal"));
+        try {
+            batchJournal.committed(new File(directory, "committed.jpg").getAbsolutePath()).get();
+            final File uploaded = new File(directory, "uploaded.jpg");
+            batchJournal.uploaded(uploaded.getAbsolutePath(), uploaded.length(), uploaded.lastModified(), new SuccessfulUploadResponse(
+                    true, "uploaded.jpg", 3, 2, 1, "http://somehost/uploaded.jpg"
+            )).get();
+            final File changed = new File(directory, "changed.jpg");
+            batchJournal.uploaded(changed.getAbsolutePath(), changed.length() - 1, changed.lastModified(), new SuccessfulUploadResponse(
+                    true, "changed.jpg", 2, 1, 1, "http://somehost/changed.jpg"
+            )).get();
+
+            final Map<String, String> krakedUrls = new HashMap<String, String>();
+            final Iterator<UploadResult<DirectFileUploadRequest>> results = BatchUploader.builder(krakenIoClient)
+                    .withJournal(batchJournal)
+                    .build()
+                    .upload(requests);
+            while (results.hasNext()) {
+                final UploadResult<DirectFileUploadRequest> result = results.next();
+                krakedUrls.put(result.getRequest().getImage().getName(), result.getSuccessfulUploadResponse().getKrakedUrl());
+            }
+
+            assertThat(krakedUrls.keySet(), containsInAnyOrder("uploaded.jpg", "changed.jpg", "new.jpg"));
+            assertThat(krakedUrls.get("uploaded.jpg"), is("http://somehost/uploaded.jpg"));
+            assertThat(krakedUrls.get("changed.jpg"), not("http://somehost/changed.jpg"));
+            assertThat(batchJournal.getState(new File(directory, "new.jpg").getAbsolutePath()), is(BatchJournal.State.UPLOADED));
+            assertThat(batchJournal.getUploadResponse(new File(directory, "new.jpg").getAbsolutePath()).getKrakedUrl(), is(krakedUrls.get("new.jpg")));
+            getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(2));
+        } finally {
+            batchJournal.close();
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(DefaultKrakenIoClientFunctionalTest.class, fileName), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,338 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.impl.DefaultKrakenIoClient;
+import io.kraken.client.impl.DefaultKrakenIoClientFunctionalTest;
+import io.kraken.client.impl.download.ResultDownloader;
+import io.kraken.client.impl.retry.RetryPolicy;
+import io.kraken.client.impl.preflight.PreflightInspector;
+import io.kraken.client.impl.preflight.PreflightResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.Delay;
+import org.mockserver.model.Header;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class OptimizationPipelineFunctionalTest extends AbstractFunctionalTest {
+
+    // Text bodies, binary ones need JAXB in the mock server which Java 11 lacks
+    private static final byte[] ORIGINAL = "original".getBytes(Charsets.UTF_8);
+    private static final byte[] OPTIMIZED = "kraked".getBytes(Charsets.UTF_8);
+
+    private File root;
+    private DefaultKrakenIoClient krakenIoClient;
+    private ResultDownloader resultDownloader;
+    private OptimizationPipeline optimizationPipeline;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDir();
+        for (String path : Arrays.asList("1.jpg", "a/2.png", "a/b/3.gif", "a/b/notes.txt")) {
+            final File file = new File(root, path);
+            Files.createParentDirs(file);
+            Files.write(ORIGINAL, file);
+        }
+
+        krakenIoClient = new DefaultKrakenIoClient("somekey", "somesecret", "http://localhost:1080");
+        resultDownloader = ResultDownloader.builder(krakenIoClient.getPooledTransport()).withMaxConcurrency(2).build();
+        optimizationPipeline = OptimizationPipeline.builder(krakenIoClient, resultDownloader)
+                .withReadThreads(2)
+                .withUploadThreads(3)
+                .withQueueCapacity(1)
+                .build();
+
+        getMockServerClient()
+                .when(request().withPath("/dl/optimized.jpg"))
+                .respond(response().withStatusCode(200).withBody(new String(OPTIMIZED, Charsets.UTF_8)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        resultDownloader.close();
+        krakenIoClient.close();
+        delete(root);
+    }
+
+    @Test
+    public void testReplacesFilesByOptimizedVersion() throws Exception {
+        respondToUpload(200, uploadResponse(ORIGINAL.length - OPTIMIZED.length));
+
+        final PipelineReport pipelineReport = optimizationPipeline.run(root);
+
+        assertThat(pipelineReport.getFiles(), is(3));
+        assertThat(pipelineReport.getReplaced(), is(3));
+        assertThat(pipelineReport.getUnchanged(), is(0));
+        assertThat(pipelineReport.getSavedBytes(), is(3L * (ORIGINAL.length - OPTIMIZED.length)));
+        assertThat(pipelineReport.getFailures().isEmpty(), is(true));
+        for (String path : Arrays.asList("1.jpg", "a/2.png", "a/b/3.gif")) {
+            assertThat(Files.toByteArray(new File(root, path)), is(OPTIMIZED));
+        }
+        assertThat(Files.toByteArray(new File(root, "a/b/notes.txt")), is(ORIGINAL));
+        assertThat(new File(root, "a/b").list(), arrayContainingInAnyOrder("3.gif", "notes.txt"));
+    }
+
+    @Test
+    public void testKeepsFilesWhichCouldNotBeMadeSmaller() throws Exception {
+        respondToUpload(200, uploadResponse(0));
+
+        final PipelineReport pipelineReport = optimizationPipeline.run(root);
+
+        assertThat(pipelineReport.getReplaced(), is(0));
+        assertThat(pipelineReport.getUnchanged(), is(3));
+        assertThat(Files.toByteArray(new File(root, "1.jpg")), is(ORIGINAL));
+        assertThat(Arrays.asList(getMockServerClient().retrieveAsExpectations(request().withPath("/dl/optimized.jpg"))), empty());
+    }
+
+    @Test
+    public void testReportsFailedFiles() throws Exception {
+        respondToUpload(415, Resources.toString(Resources.getResource(DefaultKrakenIoClientFunctionalTest.class, "krakenIoResponse415.json"), Charsets.UTF_8));
+
+        final PipelineReport pipelineReport = optimizationPipeline.run(root);
+
+        assertThat(pipelineReport.getFiles(), is(3));
+        assertThat(pipelineReport.getReplaced(), is(0));
+        assertThat(pipelineReport.getFailures().keySet(), containsInAnyOrder(new File(root, "1.jpg"), new File(root, "a/2.png"), new File(root, "a/b/3.gif")));
+        assertThat(pipelineReport.getFailures().get(new File(root, "1.jpg")), instanceOf(KrakenIoRequestException.class));
+        assertThat(Files.toByteArray(new File(root, "1.jpg")), is(ORIGINAL));
+    }
+
+    @Test
+    public void testResumesFromJournal() throws Exception {
+        respondToUpload(200, uploadResponse(ORIGINAL.length - OPTIMIZED.length));
+        final File journalFile = new File(Files.createTempDir(), "pipeline.journal");
+        final File committed = new File(root, "1.jpg");
+        final File uploaded = new File(root, "a/2.png");
+        final BatchJournal previousJournal = BatchJournal.open(journalFile);
+        previousJournal.committed(committed.getAbsolutePath(), committed.length(), committed.lastModified()).get();
+        previousJournal.uploaded(uploaded.getAbsolutePath(), uploaded.length(), uploaded.lastModified(), new SuccessfulUploadResponse(
+                true, "optimized.jpg", ORIGINAL.length, OPTIMIZED.length, ORIGINAL.length - OPTIMIZED.length, "http://localhost:1080/dl/optimized.jpg"
+        )).get();
+        previousJournal.close();
+
+        final BatchJournal batchJournal = BatchJournal.open(journalFile);
+        try {
+            final PipelineReport pipelineReport = OptimizationPipeline.builder(krakenIoClient, resultDownloader)
+                    .withJournal(batchJournal)
+                    .build()
+                    .run(root);
+
+            assertThat(pipelineReport.getFiles(), is(3));
+            assertThat(pipelineReport.getResumed(), is(1));
+            assertThat(pipelineReport.getReplaced(), is(2));
+            assertThat(Files.toByteArray(new File(root, "1.jpg")), is(ORIGINAL));
+            assertThat(Files.toByteArray(new File(root, "a/2.png")), is(OPTIMIZED));
+            assertThat(Files.toByteArray(new File(root, "a/b/3.gif")), is(OPTIMIZED));
+            assertThat(batchJournal.isCommitted(new File(root, "a/b/3.gif").getAbsolutePath()), is(true));
+            getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(1));
+        } finally {
+            batchJournal.close();
+            delete(journalFile.getParentFile());
+        }
+    }
+
+    @Test
+    public void testDoesNotReuseJournaledStatesOfChangedFiles() throws Exception {
+        respondToUpload(200, uploadResponse(ORIGINAL.length - OPTIMIZED.length));
+        final File journalFile = new File(Files.createTempDir(), "pipeline.journal");
+        final File committed = new File(root, "1.jpg");
+        final File uploaded = new File(root, "a/2.png");
+        final BatchJournal batchJournal = BatchJournal.open(journalFile);
+        try {
+            batchJournal.committed(committed.getAbsolutePath(), committed.length(), committed.lastModified() - 1000).get();
+            batchJournal.uploaded(uploaded.getAbsolutePath(), uploaded.length() + 1, uploaded.lastModified(), new SuccessfulUploadResponse(
+                    true, "stale.jpg", ORIGINAL.length, OPTIMIZED.length, ORIGINAL.length - OPTIMIZED.length, "http://localhost:1080/dl/stale.jpg"
+            )).get();
+            final OptimizationPipeline journaledPipeline = OptimizationPipeline.builder(krakenIoClient, resultDownloader)
+                    .withJournal(batchJournal)
+                    .build();
+
+            final PipelineReport pipelineReport = journaledPipeline.run(root);
+
+            assertThat(pipelineReport.getResumed(), is(0));
+            assertThat(pipelineReport.getReplaced(), is(3));
+            assertThat(pipelineReport.getFailures().isEmpty(), is(true));
+            assertThat(Files.toByteArray(committed), is(OPTIMIZED));
+            assertThat(Files.toByteArray(uploaded), is(OPTIMIZED));
+            getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(3));
+
+            // The journal of the last run skips unchanged files only
+            Files.write(ORIGINAL, uploaded);
+            uploaded.setLastModified(uploaded.lastModified() + 2000);
+            final PipelineReport nextPipelineReport = journaledPipeline.run(root);
+
+            assertThat(nextPipelineReport.getResumed(), is(2));
+            assertThat(nextPipelineReport.getReplaced(), is(1));
+            assertThat(Files.toByteArray(uploaded), is(OPTIMIZED));
+            getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(4));
+        } finally {
+            batchJournal.close();
+            delete(journalFile.getParentFile());
+        }
+    }
+
+    @Test
+    public void testSkipsFilesProcessedBefore() throws Exception {
+        respondToUpload(200, uploadResponse(ORIGINAL.length - OPTIMIZED.length));
+        final File indexDirectory = Files.createTempDir();
+        final ProcessedFileIndex processedFileIndex = ProcessedFileIndex.open(new File(indexDirectory, "processed.index"));
+        try {
+            final OptimizationPipeline indexedPipeline = OptimizationPipeline.builder(krakenIoClient, resultDownloader)
+                    .withIndex(processedFileIndex)
+                    .build();
+            assertThat(indexedPipeline.run(root).getReplaced(), is(3));
+
+            Files.write(ORIGINAL, new File(root, "a/2.png"));
+            final PipelineReport pipelineReport = indexedPipeline.run(root);
+
+            assertThat(pipelineReport.getFiles(), is(3));
+            assertThat(pipelineReport.getSkipped(), is(2));
+            assertThat(pipelineReport.getReplaced(), is(1));
+            assertThat(Files.toByteArray(new File(root, "a/2.png")), is(OPTIMIZED));
+            getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(4));
+        } finally {
+            processedFileIndex.close();
+            delete(indexDirectory);
+        }
+    }
+
+    @Test
+    public void testDoesNotUploadFilesRejectedByPreflight() throws Exception {
+        respondToUpload(200, uploadResponse(ORIGINAL.length - OPTIMIZED.length));
+
+        final PipelineReport pipelineReport = OptimizationPipeline.builder(krakenIoClient, resultDownloader)
+                .withPreflight(PreflightInspector.builder().build())
+                .build()
+                .run(root);
+
+        assertThat(pipelineReport.getFiles(), is(3));
+        assertThat(pipelineReport.getReplaced(), is(0));
+        assertThat(pipelineReport.getPreflightResults().size(), is(3));
+        assertThat(pipelineReport.getPreflightResults().get(new File(root, "1.jpg")).getReason(), is(PreflightResult.Reason.NOT_AN_IMAGE));
+        assertThat(Files.toByteArray(new File(root, "1.jpg")), is(ORIGINAL));
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(0));
+    }
+
+    @Test
+    public void testRetriesFailedUploads() throws Exception {
+        final DefaultKrakenIoClient retryingClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withRetryPolicy(RetryPolicy.builder().withBaseDelay(10, TimeUnit.MILLISECONDS).build())
+                .build();
+        try {
+            getMockServerClient()
+                    .when(request().withPath("/v1/upload"), Times.exactly(1))
+                    .respond(response().withStatusCode(502));
+            respondToUpload(200, uploadResponse(ORIGINAL.length - OPTIMIZED.length));
+
+            final PipelineReport pipelineReport = OptimizationPipeline.builder(retryingClient, resultDownloader)
+                    .withUploadThreads(1)
+                    .build()
+                    .run(root);
+
+            assertThat(pipelineReport.getFailures().isEmpty(), is(true));
+            assertThat(pipelineReport.getReplaced(), is(3));
+            getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(4));
+        } finally {
+            retryingClient.close();
+        }
+    }
+
+    @Test
+    public void testKeepsFilesChangedDuringRun() throws Exception {
+        final byte[] changed = "changed meanwhile".getBytes(Charsets.UTF_8);
+        getMockServerClient()
+                .when(request().withPath("/v1/upload"))
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withBody(uploadResponse(ORIGINAL.length - OPTIMIZED.length))
+                                .withDelay(new Delay(TimeUnit.MILLISECONDS, 500))
+                );
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    Files.write(changed, new File(root, "1.jpg"));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        writer.start();
+
+        final PipelineReport pipelineReport = optimizationPipeline.run(root);
+        writer.join();
+
+        assertThat(pipelineReport.getReplaced(), is(2));
+        assertThat(pipelineReport.getFailures().keySet(), contains(new File(root, "1.jpg")));
+        assertThat(pipelineReport.getFailures().get(new File(root, "1.jpg")).getMessage(), containsString("changed"));
+        assertThat(Files.toByteArray(new File(root, "1.jpg")), is(changed));
+        assertThat(Files.toByteArray(new File(root, "a/2.png")), is(OPTIMIZED));
+        assertThat(root.list(), arrayContainingInAnyOrder("1.jpg", "a"));
+    }
+
+    private String uploadResponse(int savedBytes) {
+        return "{\"success\":true,\"file_name\":\"optimized.jpg\",\"original_size\":" + ORIGINAL.length +
+                ",\"kraked_size\":" + (ORIGINAL.length - savedBytes) + ",\"saved_bytes\":" + savedBytes +
+                ",\"kraked_url\":\"http://localhost:1080/dl/optimized.jpg\"}";
+    }
+
+    private void respondToUpload(int statusCode, String body) {
+        getMockServerClient()
+                .when(request().withPath("/v1/upload"))
+                .respond(
+                        response()
+                                .withStatusCode(statusCode)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withBody(body)
+                );
+    }
+
+    private static void delete(File file) throws IOException {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class ProcessedFileIndexTest {
+
+    private File directory;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDir();
+        indexFile = new File(directory, "processed.index");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testSkipsOnlyUnchangedFiles() throws Exception {
+        final File image = image("image.jpg", new byte[]{1, 2, 3});
+        final ProcessedFileIndex processedFileIndex = ProcessedFileIndex.open(indexFile);
+        assertThat(processedFileIndex.isProcessed(image), is(false));
+        processedFileIndex.markProcessed(image);
+        processedFileIndex.close();
+
+        final ProcessedFileIndex reopenedIndex = ProcessedFileIndex.open(indexFile);
+        try {
+            assertThat(reopenedIndex.size(), is(1L));
+            assertThat(reopenedIndex.isProcessed(image), is(true));
+
+            assertThat(image.setLastModified(image.lastModified() - 60000), is(true));
+            assertThat(reopenedIndex.isProcessed(image), is(true));
+
+            Files.write(new byte[]{1, 2, 3, 4}, image);
+            assertThat(reopenedIndex.isProcessed(image), is(false));
+            reopenedIndex.markProcessed(image);
+            assertThat(reopenedIndex.isProcessed(image), is(true));
+
+            Files.write(new byte[]{4, 3, 2, 1}, image);
+            assertThat(image.setLastModified(image.lastModified() + 60000), is(true));
+            assertThat(reopenedIndex.isProcessed(image), is(false));
+            assertThat(reopenedIndex.size(), is(1L));
+        } finally {
+            reopenedIndex.close();
+        }
+    }
+
+    @Test
+    public void testBloomFilterAnswersLookupsOfNewFiles() throws Exception {
+        final ProcessedFileIndex processedFileIndex = ProcessedFileIndex.builder(indexFile)
+                .withFalsePositiveProbability(0.01)
+                .build();
+        try {
+            processedFileIndex.markProcessed(image("processed.jpg", new byte[]{1}));
+            for (int i = 0; i < 100; i++) {
+                assertThat(processedFileIndex.isProcessed(new File(directory, "new" + i + ".jpg")), is(false));
+            }
+
+            assertThat(processedFileIndex.getBloomFilterSkips(), greaterThanOrEqualTo(90L));
+        } finally {
+            processedFileIndex.close();
+        }
+    }
+
+    @Test
+    public void testGrowsBeyondExpectedFiles() throws Exception {
+        final ProcessedFileIndex processedFileIndex = ProcessedFileIndex.builder(indexFile).withExpectedFiles(10).build();
+        for (int i = 0; i < 1000; i++) {
+            processedFileIndex.markProcessed(image(i + ".jpg", new byte[]{(byte) i}));
+        }
+        assertThat(processedFileIndex.size(), is(1000L));
+        processedFileIndex.close();
+
+        assertThat(new File(directory, "processed.index.bloom").delete(), is(true));
+        final ProcessedFileIndex reopenedIndex = ProcessedFileIndex.open(indexFile);
+        try {
+            assertThat(reopenedIndex.size(), is(1000L));
+            for (int i = 0; i < 1000; i++) {
+                assertThat(reopenedIndex.isProcessed(new File(directory, i + ".jpg")), is(true));
+            }
+        } finally {
+            reopenedIndex.close();
+        }
+    }
+
+    private File image(String name, byte[] content) throws IOException {
+        final File file = new File(directory, name);
+        Files.write(content, file);
+        return file;
+    }
+}
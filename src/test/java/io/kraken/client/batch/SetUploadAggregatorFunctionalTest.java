@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.batch;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.impl.DefaultKrakenIoClient;
+import io.kraken.client.impl.DefaultKrakenIoClientFunctionalTest;
+import io.kraken.client.model.request.DirectUploadRequest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+import io.kraken.client.model.resize.AbstractResize;
+import io.kraken.client.model.resize.FitResize;
+import io.kraken.client.model.resize.SquareResize;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.mock.Expectation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static net.javacrumbs.jsonunit.JsonMatchers.jsonPartEquals;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockserver.model.HttpRequest.request;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class SetUploadAggregatorFunctionalTest extends AbstractFunctionalTest {
+
+    private static final String SET_RESPONSE = "{\"success\":true,\"results\":{" +
+            "\"0\":{\"file_name\":\"image\",\"original_size\":100,\"kraked_size\":20,\"saved_bytes\":80,\"kraked_url\":\"http://dl.kraken.io/0/image\"}," +
+            "\"1\":{\"file_name\":\"image\",\"original_size\":100,\"kraked_size\":50,\"saved_bytes\":50,\"kraked_url\":\"http://dl.kraken.io/1/image\"}}}";
+
+    private DefaultKrakenIoClient krakenIoClient;
+
+    @Before
+    public void setUp() throws Exception {
+        krakenIoClient = new DefaultKrakenIoClient("somekey", "somesecret", "http://localhost:1080");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        krakenIoClient.close();
+    }
+
+    @Test
+    public void testMergesResizesOfSameImage() throws Exception {
+        respondWith("/v1/url", 200, SET_RESPONSE);
+
+        final SetUploadAggregator setUploadAggregator = SetUploadAggregator.builder(krakenIoClient).withWindow(10, TimeUnit.SECONDS).build();
+        final ListenableFuture<SuccessfulUploadResponse> small = setUploadAggregator.imageUrlUploadAsync(imageUrlUpload(new SquareResize(150)));
+        final ListenableFuture<SuccessfulUploadResponse> large = setUploadAggregator.imageUrlUploadAsync(imageUrlUpload(new FitResize(1024, 768)));
+        final ListenableFuture<SuccessfulUploadResponse> smallAgain = setUploadAggregator.imageUrlUploadAsync(imageUrlUpload(new SquareResize(150)));
+        setUploadAggregator.close();
+
+        assertThat(small.get(5, TimeUnit.SECONDS).getKrakedUrl(), is("http://dl.kraken.io/0/image"));
+        assertThat(small.get().getStatus(), is(200));
+        assertThat(large.get(5, TimeUnit.SECONDS).getKrakedUrl(), is("http://dl.kraken.io/1/image"));
+        assertThat(smallAgain.get(5, TimeUnit.SECONDS).getKrakedUrl(), is("http://dl.kraken.io/0/image"));
+
+        final Expectation[] expectations = getMockServerClient().retrieveAsExpectations(request().withPath("/v1/url"));
+        assertThat(Arrays.asList(expectations), hasSize(1));
+        final String body = new String(expectations[0].getHttpRequest().getBody().getRawBytes(), Charsets.UTF_8);
+        assertThat(body, jsonPartEquals("url", "http://somehost/image"));
+        assertThat(body, jsonPartEquals("resize", "[{\"id\":\"0\",\"size\":150,\"strategy\":\"square\"},{\"id\":\"1\",\"width\":1024,\"height\":768,\"strategy\":\"fit\"}]"));
+    }
+
+    @Test
+    public void testKeepsUploadsWithDifferentOptionsApart() throws Exception {
+        respondWith("/v1/url", 200, SET_RESPONSE);
+
+        final SetUploadAggregator setUploadAggregator = SetUploadAggregator.builder(krakenIoClient).withWindow(10, TimeUnit.SECONDS).build();
+        final ListenableFuture<SuccessfulUploadResponse> lossless = setUploadAggregator.imageUrlUploadAsync(imageUrlUpload(new SquareResize(150)));
+        final ListenableFuture<SuccessfulUploadResponse> lossy = setUploadAggregator.imageUrlUploadAsync(
+                ImageUrlUploadRequest.builder(new URL("http://somehost/image")).withResize(new FitResize(1024, 768)).withLossy(true).build()
+        );
+        setUploadAggregator.flush();
+
+        assertThat(lossless.get(5, TimeUnit.SECONDS).getKrakedUrl(), is("http://dl.kraken.io/0/image"));
+        assertThat(lossy.get(5, TimeUnit.SECONDS).getKrakedUrl(), is("http://dl.kraken.io/0/image"));
+        assertThat(Arrays.asList(getMockServerClient().retrieveAsExpectations(request().withPath("/v1/url"))), hasSize(2));
+        setUploadAggregator.close();
+    }
+
+    @Test
+    public void testSendsGroupAfterWindow() throws Exception {
+        respondWith("/v1/upload", 200, SET_RESPONSE);
+
+        final SetUploadAggregator setUploadAggregator = SetUploadAggregator.builder(krakenIoClient).withWindow(100, TimeUnit.MILLISECONDS).build();
+        final ListenableFuture<SuccessfulUploadResponse> small = setUploadAggregator.directUploadAsync(
+                DirectUploadRequest.builder(new ByteArrayInputStream(new byte[]{1, 2, 3})).withResize(new SquareResize(150)).build()
+        );
+        final ListenableFuture<SuccessfulUploadResponse> large = setUploadAggregator.directUploadAsync(
+                DirectUploadRequest.builder(new ByteArrayInputStream(new byte[]{1, 2, 3})).withResize(new FitResize(1024, 768)).build()
+        );
+
+        assertThat(small.get(5, TimeUnit.SECONDS).getKrakedUrl(), is("http://dl.kraken.io/0/image"));
+        assertThat(large.get(5, TimeUnit.SECONDS).getKrakedUrl(), is("http://dl.kraken.io/1/image"));
+        assertThat(Arrays.asList(getMockServerClient().retrieveAsExpectations(request().withPath("/v1/upload"))), hasSize(1));
+        setUploadAggregator.close();
+    }
+
+    @Test
+    public void testSendsFullGroupImmediately() throws Exception {
+        respondWith("/v1/url", 200, SET_RESPONSE);
+
+        final SetUploadAggregator setUploadAggregator = SetUploadAggregator.builder(krakenIoClient)
+                .withWindow(1, TimeUnit.HOURS)
+                .withMaxResizes(2)
+                .build();
+        final ListenableFuture<SuccessfulUploadResponse> small = setUploadAggregator.imageUrlUploadAsync(imageUrlUpload(new SquareResize(150)));
+        final ListenableFuture<SuccessfulUploadResponse> large = setUploadAggregator.imageUrlUploadAsync(imageUrlUpload(new FitResize(1024, 768)));
+
+        assertThat(small.get(5, TimeUnit.SECONDS).getKrakedUrl(), is("http://dl.kraken.io/0/image"));
+        assertThat(large.get(5, TimeUnit.SECONDS).getKrakedUrl(), is("http://dl.kraken.io/1/image"));
+        setUploadAggregator.close();
+    }
+
+    @Test
+    public void testFailsAllUploadsOfFailedGroup() throws Exception {
+        respondWith("/v1/url", 415, loadFileString("krakenIoResponse415.json"));
+
+        final SetUploadAggregator setUploadAggregator = SetUploadAggregator.builder(krakenIoClient).withWindow(10, TimeUnit.SECONDS).build();
+        final ListenableFuture<SuccessfulUploadResponse> small = setUploadAggregator.imageUrlUploadAsync(imageUrlUpload(new SquareResize(150)));
+        final ListenableFuture<SuccessfulUploadResponse> large = setUploadAggregator.imageUrlUploadAsync(imageUrlUpload(new FitResize(1024, 768)));
+        setUploadAggregator.close();
+
+        for (ListenableFuture<SuccessfulUploadResponse> future : Arrays.asList(small, large)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("Expected the upload to fail");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(KrakenIoRequestException.class));
+                assertThat(((KrakenIoRequestException) e.getCause()).getFailedUploadResponse().getStatus(), is(415));
+            }
+        }
+    }
+
+    private ImageUrlUploadRequest imageUrlUpload(AbstractResize resize) throws IOException {
+        return ImageUrlUploadRequest.builder(new URL("http://somehost/image")).withResize(resize).build();
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(DefaultKrakenIoClientFunctionalTest.class, fileName), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.mock.Expectation;
+import org.mockserver.model.Delay;
+import org.mockserver.model.Header;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class AdaptiveUploadDispatcherFunctionalTest extends AbstractFunctionalTest {
+
+    private static final String ID = "18fede37617a787649c3f60b9f1f280d";
+    private static final String RESULT = "\"success\":true,\"file_name\":\"header.jpg\",\"original_size\":100," +
+            "\"kraked_size\":50,\"saved_bytes\":50,\"kraked_url\":\"http://dl.kraken.io/" + ID + "/header.jpg\"";
+
+    private DefaultKrakenIoClient krakenIoClient;
+    private CallbackReceiver callbackReceiver;
+
+    @Before
+    public void setUp() throws Exception {
+        krakenIoClient = new DefaultKrakenIoClient("somekey", "somesecret", "http://localhost:1080");
+        callbackReceiver = CallbackReceiver.builder().build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        callbackReceiver.close();
+        krakenIoClient.close();
+    }
+
+    @Test
+    public void testWaitsForResultUnderLowLoad() throws Exception {
+        respondWith(0);
+        final AdaptiveUploadDispatcher adaptiveUploadDispatcher = AdaptiveUploadDispatcher.builder(krakenIoClient, callbackReceiver).build();
+
+        final SuccessfulUploadResponse successfulUploadResponse = adaptiveUploadDispatcher.imageUrlUploadAsync(imageUrlUpload()).get(5, TimeUnit.SECONDS);
+
+        assertThat(successfulUploadResponse.getFileName(), is("header.jpg"));
+        assertThat(adaptiveUploadDispatcher.getWaitingUploads(), is(0));
+        assertThat(adaptiveUploadDispatcher.getAverageLatency(TimeUnit.NANOSECONDS), greaterThan(0L));
+        assertThat(getRequestBodies(), contains(allOf(containsString("\"wait\":true"), not(containsString("callback_url")))));
+    }
+
+    @Test
+    public void testUsesCallbackAboveMaxWaitingUploads() throws Exception {
+        respondWith(300);
+        final AdaptiveUploadDispatcher adaptiveUploadDispatcher = AdaptiveUploadDispatcher.builder(krakenIoClient, callbackReceiver)
+                .withMaxWaitingUploads(1)
+                .build();
+
+        final ListenableFuture<SuccessfulUploadResponse> waiting = adaptiveUploadDispatcher.imageUrlUploadAsync(imageUrlUpload());
+        final ListenableFuture<SuccessfulUploadResponse> callback = adaptiveUploadDispatcher.imageUrlUploadAsync(imageUrlUpload());
+        assertThat(adaptiveUploadDispatcher.getWaitingUploads(), is(1));
+        postCallback("{\"id\":\"" + ID + "\"," + RESULT + "}");
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS).getFileName(), is("header.jpg"));
+        assertThat(callback.get(5, TimeUnit.SECONDS).getFileName(), is("header.jpg"));
+        assertThat(getRequestBodies(), containsInAnyOrder(
+                allOf(containsString("\"wait\":true"), not(containsString("callback_url"))),
+                allOf(containsString("\"wait\":false"), containsString("\"callback_url\":\"" + callbackReceiver.getCallbackUrl() + "\""))
+        ));
+    }
+
+    @Test
+    public void testUsesCallbackAboveLatencyThreshold() throws Exception {
+        respondWith(50);
+        final AdaptiveUploadDispatcher adaptiveUploadDispatcher = AdaptiveUploadDispatcher.builder(krakenIoClient, callbackReceiver)
+                .withLatencyThreshold(10, TimeUnit.MILLISECONDS)
+                .build();
+
+        adaptiveUploadDispatcher.imageUrlUploadAsync(imageUrlUpload()).get(5, TimeUnit.SECONDS);
+        assertThat(adaptiveUploadDispatcher.getAverageLatency(TimeUnit.MILLISECONDS), greaterThanOrEqualTo(10L));
+
+        postCallback("{\"id\":\"" + ID + "\"," + RESULT + "}");
+        assertThat(adaptiveUploadDispatcher.imageUrlUploadAsync(imageUrlUpload()).get(5, TimeUnit.SECONDS).getFileName(), is("header.jpg"));
+
+        final List<String> requestBodies = getRequestBodies();
+        assertThat(requestBodies, hasSize(2));
+        assertThat(requestBodies.get(1), containsString("callback_url"));
+    }
+
+    @Test
+    public void testUsesCallbackAfterWaitingUploadTimedOut() throws Exception {
+        krakenIoClient.close();
+        krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withReadTimeout(100, TimeUnit.MILLISECONDS)
+                .build();
+        respondWith(500);
+        final AdaptiveUploadDispatcher adaptiveUploadDispatcher = AdaptiveUploadDispatcher.builder(krakenIoClient, callbackReceiver)
+                .withLatencyThreshold(1, TimeUnit.SECONDS)
+                .build();
+
+        try {
+            adaptiveUploadDispatcher.imageUrlUploadAsync(imageUrlUpload()).get(5, TimeUnit.SECONDS);
+            fail("Expected the waiting upload to time out");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        assertThat(adaptiveUploadDispatcher.getWaitingUploads(), is(0));
+        assertThat(adaptiveUploadDispatcher.getAverageLatency(TimeUnit.MILLISECONDS), greaterThanOrEqualTo(1000L));
+
+        getMockServerClient().reset();
+        respondWith(0);
+        final ListenableFuture<SuccessfulUploadResponse> callback = adaptiveUploadDispatcher.imageUrlUploadAsync(imageUrlUpload());
+        postCallback("{\"id\":\"" + ID + "\"," + RESULT + "}");
+        assertThat(callback.get(5, TimeUnit.SECONDS).getFileName(), is("header.jpg"));
+    }
+
+    private ImageUrlUploadRequest imageUrlUpload() throws IOException {
+        return ImageUrlUploadRequest.builder(new URL("http://somehost/image")).withLossy(true).build();
+    }
+
+    /**
+     * Responds to both modes, waiting uploads ignore the id and callback uploads the result.
+     */
+    private void respondWith(long delayMillis) {
+        getMockServerClient()
+                .when(request().withPath("/v1/url"))
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withBody("{\"id\":\"" + ID + "\"," + RESULT + "}")
+                                .withDelay(new Delay(TimeUnit.MILLISECONDS, delayMillis))
+                );
+    }
+
+    private List<String> getRequestBodies() {
+        final List<String> requestBodies = new ArrayList<String>();
+        for (Expectation expectation : getMockServerClient().retrieveAsExpectations(request().withPath("/v1/url"))) {
+            requestBodies.add(new String(expectation.getHttpRequest().getBody().getRawBytes(), Charsets.UTF_8));
+        }
+        return requestBodies;
+    }
+
+    private void postCallback(String body) throws IOException {
+        final URL url = new URL("http", "localhost", callbackReceiver.getAddress().getPort(), callbackReceiver.getCallbackUrl().getPath());
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            final OutputStream outputStream = connection.getOutputStream();
+            try {
+                outputStream.write(body.getBytes(Charsets.UTF_8));
+            } finally {
+                outputStream.close();
+            }
+            assertThat(connection.getResponseCode(), is(200));
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
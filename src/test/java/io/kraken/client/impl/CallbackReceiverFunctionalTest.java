@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.exception.CallbackTimeoutException;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.model.request.ImageUrlUploadCallbackUrlRequest;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import io.kraken.client.model.response.SuccessfulUploadSetResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.model.Header;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class CallbackReceiverFunctionalTest extends AbstractFunctionalTest {
+
+    private static final String ID = "18fede37617a787649c3f60b9f1f280d";
+    private static final String CALLBACK = "{\"id\":\"" + ID + "\",\"success\":true,\"file_name\":\"header.jpg\",\"original_size\":100," +
+            "\"kraked_size\":50,\"saved_bytes\":50,\"kraked_url\":\"http://dl.kraken.io/" + ID + "/header.jpg\"}";
+
+    private DefaultKrakenIoClient krakenIoClient;
+    private CallbackReceiver callbackReceiver;
+
+    @Before
+    public void setUp() throws Exception {
+        krakenIoClient = new DefaultKrakenIoClient("somekey", "somesecret", "http://localhost:1080");
+        callbackReceiver = CallbackReceiver.builder().build();
+
+        getMockServerClient()
+                .when(request().withPath("/v1/url"))
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withBody(loadFileString("krakenIoCallbackUrlResponse200.json"))
+                );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        callbackReceiver.close();
+        krakenIoClient.close();
+    }
+
+    @Test
+    public void testCompletesUploadOnCallback() throws Exception {
+        final ListenableFuture<SuccessfulUploadResponse> future = callbackReceiver.awaitUpload(krakenIoClient.imageUrlUploadAsync(
+                ImageUrlUploadCallbackUrlRequest.builder(new URL("http://somehost/image"), callbackReceiver.getCallbackUrl()).build()
+        ));
+        assertThat(callbackReceiver.getCallbackUrl().getPath(), startsWith("/kraken/callback/"));
+        assertThat(callbackReceiver.getCallbackUrl().getPath().length(), greaterThan("/kraken/callback/".length()));
+
+        assertThat(postCallback(CALLBACK), is(200));
+
+        final SuccessfulUploadResponse successfulUploadResponse = future.get(5, TimeUnit.SECONDS);
+        assertThat(successfulUploadResponse.getFileName(), is("header.jpg"));
+        assertThat(successfulUploadResponse.getKrakedSize(), is(50));
+        assertThat(successfulUploadResponse.getKrakedUrl(), is("http://dl.kraken.io/" + ID + "/header.jpg"));
+    }
+
+    @Test
+    public void testKeepsCallbackArrivingBeforeUploadIsAwaited() throws Exception {
+        assertThat(postCallback(CALLBACK), is(200));
+
+        final ListenableFuture<SuccessfulUploadResponse> future = callbackReceiver.awaitUpload(ID);
+        assertThat(future.isDone(), is(true));
+        assertThat(future.get().getFileName(), is("header.jpg"));
+    }
+
+    @Test
+    public void testIgnoresRepeatedCallback() throws Exception {
+        assertThat(postCallback(CALLBACK), is(200));
+        assertThat(postCallback(CALLBACK.replace("header.jpg", "other.jpg")), is(200));
+
+        assertThat(callbackReceiver.awaitUpload(ID).get(5, TimeUnit.SECONDS).getFileName(), is("header.jpg"));
+        assertThat(callbackReceiver.size(), is(0));
+
+        assertThat(postCallback(CALLBACK.replace("header.jpg", "other.jpg")), is(200));
+        assertThat(callbackReceiver.size(), is(0));
+    }
+
+    @Test
+    public void testDropsResultOnceReceivedAndAwaited() throws Exception {
+        final ListenableFuture<SuccessfulUploadResponse> future = callbackReceiver.awaitUpload(ID);
+        assertThat(callbackReceiver.size(), is(1));
+
+        assertThat(postCallback(CALLBACK), is(200));
+        assertThat(future.get(5, TimeUnit.SECONDS).getFileName(), is("header.jpg"));
+        assertThat(callbackReceiver.size(), is(0));
+    }
+
+    @Test
+    public void testCompletesUploadSetOnCallback() throws Exception {
+        final ListenableFuture<SuccessfulUploadSetResponse> future = callbackReceiver.awaitUploadSet(ID);
+        assertThat(postCallback("{\"id\":\"" + ID + "\",\"success\":true,\"results\":{\"small\":{\"file_name\":\"header.jpg\",\"kraked_size\":20}}}"), is(200));
+
+        assertThat(future.get(5, TimeUnit.SECONDS).getResult("small").getKrakedSize(), is(20));
+    }
+
+    @Test
+    public void testFailsUploadOnFailedCallback() throws Exception {
+        final ListenableFuture<SuccessfulUploadResponse> future = callbackReceiver.awaitUpload(ID);
+        assertThat(postCallback("{\"id\":\"" + ID + "\",\"success\":false,\"message\":\"Unsupported file type\"}"), is(200));
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the upload to fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(KrakenIoRequestException.class));
+            assertThat(((KrakenIoRequestException) e.getCause()).getFailedUploadResponse().getMessage(), is("Unsupported file type"));
+        }
+    }
+
+    @Test
+    public void testFailsUploadWithoutCallbackAfterTimeout() throws Exception {
+        callbackReceiver.close();
+        callbackReceiver = CallbackReceiver.builder().withTimeout(100, TimeUnit.MILLISECONDS).build();
+
+        try {
+            callbackReceiver.awaitUpload(ID).get(5, TimeUnit.SECONDS);
+            fail("Expected the upload to time out");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(CallbackTimeoutException.class));
+        }
+        assertThat(callbackReceiver.size(), is(0));
+    }
+
+    @Test
+    public void testRejectsMalformedCallback() throws Exception {
+        assertThat(postCallback("{\"success\":true}"), is(400));
+        assertThat(postCallback("not json"), is(400));
+        assertThat(callbackReceiver.size(), is(0));
+    }
+
+    @Test
+    public void testRejectsCallbackWithoutToken() throws Exception {
+        assertThat(postCallback("/kraken/callback", CALLBACK), is(404));
+        assertThat(postCallback("/kraken/callback/0123456789abcdef0123456789abcdef", CALLBACK), is(404));
+        assertThat(postCallback(callbackReceiver.getCallbackUrl().getPath() + "/other", CALLBACK), is(404));
+        assertThat(callbackReceiver.size(), is(0));
+    }
+
+    @Test
+    public void testUsesDifferentTokenPerReceiver() throws Exception {
+        final CallbackReceiver otherCallbackReceiver = CallbackReceiver.builder().build();
+        try {
+            assertThat(otherCallbackReceiver.getCallbackUrl().getPath(), not(callbackReceiver.getCallbackUrl().getPath()));
+        } finally {
+            otherCallbackReceiver.close();
+        }
+    }
+
+    @Test
+    public void testAppendsTokenToConfiguredCallbackUrl() throws Exception {
+        callbackReceiver.close();
+        callbackReceiver = CallbackReceiver.builder().withCallbackUrl(new URL("https://callbacks.example.com/kraken/callback/")).build();
+
+        final URL callbackUrl = callbackReceiver.getCallbackUrl();
+        assertThat(callbackUrl.getHost(), is("callbacks.example.com"));
+        assertThat(callbackUrl.getPath(), startsWith("/kraken/callback/"));
+        assertThat(postCallback(CALLBACK), is(200));
+    }
+
+    @Test
+    public void testRejectsCallbacksBeyondMaxUnawaitedResults() throws Exception {
+        callbackReceiver.close();
+        callbackReceiver = CallbackReceiver.builder().withMaxUnawaitedResults(2).build();
+
+        assertThat(postCallback(CALLBACK), is(200));
+        assertThat(postCallback(CALLBACK.replace(ID, "second")), is(200));
+        assertThat(postCallback(CALLBACK.replace(ID, "third")), is(503));
+        assertThat(callbackReceiver.size(), is(2));
+
+        assertThat(callbackReceiver.awaitUpload(ID).get(5, TimeUnit.SECONDS).getFileName(), is("header.jpg"));
+        assertThat(postCallback(CALLBACK.replace(ID, "third")), is(200));
+
+        final ListenableFuture<SuccessfulUploadResponse> future = callbackReceiver.awaitUpload("fourth");
+        assertThat(postCallback(CALLBACK.replace(ID, "fourth")), is(200));
+        assertThat(future.get(5, TimeUnit.SECONDS).getFileName(), is("header.jpg"));
+    }
+
+    private int postCallback(String body) throws IOException {
+        return postCallback(callbackReceiver.getCallbackUrl().getPath(), body);
+    }
+
+    private int postCallback(String path, String body) throws IOException {
+        final URL url = new URL("http", "localhost", callbackReceiver.getAddress().getPort(), path);
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setDoOutput(true);
+            final OutputStream outputStream = connection.getOutputStream();
+            try {
+                outputStream.write(body.getBytes(Charsets.UTF_8));
+            } finally {
+                outputStream.close();
+            }
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(CallbackReceiverFunctionalTest.class, fileName), Charsets.UTF_8);
+    }
+}
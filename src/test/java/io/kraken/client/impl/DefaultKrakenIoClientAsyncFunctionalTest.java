@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.AsyncKrakenIoClient;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.request.DirectUploadCallbackUrlRequest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+import io.kraken.client.model.response.SuccessfulUploadCallbackUrlResponse;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class DefaultKrakenIoClientAsyncFunctionalTest extends AbstractFunctionalTest {
+
+    private final AtomicInteger createdThreads = new AtomicInteger();
+
+    private ExecutorService executorService;
+    private AsyncKrakenIoClient krakenIoClient;
+
+    @Before
+    public void setUp() throws Exception {
+        executorService = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                createdThreads.incrementAndGet();
+                return new Thread(runnable, "kraken-io-test");
+            }
+        });
+        krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withExecutorService(executorService)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testDirectFileUploadAsync() throws Exception {
+        respondWith("/v1/upload", 200, loadFileString("krakenIoResponse200.json"));
+
+        final DirectFileUploadRequest directFileUploadRequest = DirectFileUploadRequest.builder(new File(Resources.getResource(DefaultKrakenIoClientAsyncFunctionalTest.class, "test.jpg").toURI())).build();
+        final SuccessfulUploadResponse successfulUploadResponse = krakenIoClient.directUploadAsync(directFileUploadRequest).get(10, TimeUnit.SECONDS);
+
+        assertThat(successfulUploadResponse.getStatus(), is(200));
+        assertThat(successfulUploadResponse.getSuccess(), is(true));
+        assertThat(successfulUploadResponse.getFileName(), is("header.jpg"));
+        assertThat(successfulUploadResponse.getKrakedUrl(), is("http://dl.kraken.io/ecdfa5c55d5668b1b5fe9e420554c4ee/header.jpg"));
+        assertThat(createdThreads.get(), greaterThan(0));
+    }
+
+    @Test
+    public void testDirectUploadCallbackUrlAsync() throws Exception {
+        respondWith("/v1/upload", 200, loadFileString("krakenIoCallbackUrlResponse200.json"));
+
+        final DirectUploadCallbackUrlRequest directUploadCallbackUrlRequest = DirectUploadCallbackUrlRequest.builder(new ByteArrayInputStream(loadFileBinary("test.jpg")), new URL("http://somehost/somecallback")).build();
+        final SuccessfulUploadCallbackUrlResponse successfulUploadCallbackUrlResponse = krakenIoClient.directUploadAsync(directUploadCallbackUrlRequest).get(10, TimeUnit.SECONDS);
+
+        assertThat(successfulUploadCallbackUrlResponse.getId(), is("18fede37617a787649c3f60b9f1f280d"));
+    }
+
+    @Test
+    public void testImageUrlUploadAsync_500() throws Exception {
+        respondWith("/v1/url", 500, loadFileString("krakenIoResponse500.json"));
+
+        try {
+            krakenIoClient.imageUrlUploadAsync(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build()).get(10, TimeUnit.SECONDS);
+            fail("Expected the future to fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(KrakenIoRequestException.class));
+
+            final KrakenIoRequestException krakenIoRequestException = (KrakenIoRequestException) e.getCause();
+            assertThat(krakenIoRequestException.getFailedUploadResponse().getStatus(), is(500));
+            assertThat(krakenIoRequestException.getFailedUploadResponse().getSuccess(), is(false));
+        }
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(DefaultKrakenIoClientAsyncFunctionalTest.class, fileName), Charsets.UTF_8);
+    }
+
+    private byte[] loadFileBinary(String fileName) throws IOException {
+        return Resources.toByteArray(Resources.getResource(DefaultKrakenIoClientAsyncFunctionalTest.class, fileName));
+    }
+}
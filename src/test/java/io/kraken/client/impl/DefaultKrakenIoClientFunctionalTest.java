@@ -60,7 +60,11 @@ public class DefaultKrakenIoClientFunctionalTest extends AbstractFunctionalTest
 
     @Before
     public void setUp() throws Exception {
-        krakenIoClient = new DefaultKrakenIoClient("somekey", "somesecret", "http://localhost:1080");
+        krakenIoClient = createKrakenIoClient();
+    }
+
+    protected KrakenIoClient createKrakenIoClient() {
+        return new DefaultKrakenIoClient("somekey", "somesecret", "http://localhost:1080");
     }
 
     @Test
@@ -187,6 +191,7 @@ public class DefaultKrakenIoClientFunctionalTest extends AbstractFunctionalTest
         assertThat(requestHeaders, containsString("Content-Type: application/json"));
         assertThat(imageHeaders, containsString("filename=\"test.jpg\""));
         assertThat(imageHeaders, containsString("Content-Type: image/jpeg"));
+        assertThat(expectations[0].getHttpRequest().getFirstHeader("Content-Length"), is(String.valueOf(expectations[0].getHttpRequest().getBodyAsRawBytes().length)));
         assertThat(image.toByteArray(), is(loadFileBinary("test.jpg")));
         assertThat(new String(request.toByteArray(), Charsets.UTF_8), jsonEquals(requestJson));
     }
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.impl.retry.RetryPolicy;
+import io.kraken.client.model.request.DirectUploadRequest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.Header;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class DefaultKrakenIoClientRetryFunctionalTest extends AbstractFunctionalTest {
+
+    private DefaultKrakenIoClient krakenIoClient;
+
+    @Before
+    public void setUp() throws Exception {
+        krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withRetryPolicy(RetryPolicy.builder()
+                        .withMaxAttempts(3)
+                        .withBaseDelay(10, TimeUnit.MILLISECONDS)
+                        .withMaxDelay(2, TimeUnit.SECONDS)
+                        .build())
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        krakenIoClient.close();
+    }
+
+    @Test
+    public void testRetriesServerErrors() throws Exception {
+        respondWith("/v1/url", 503, loadFileString("krakenIoResponse500.json"), Times.exactly(2));
+        respondWith("/v1/url", 200, loadFileString("krakenIoResponse200.json"), Times.unlimited());
+
+        final SuccessfulUploadResponse successfulUploadResponse = krakenIoClient.imageUrlUpload(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build());
+        assertThat(successfulUploadResponse.getStatus(), is(200));
+        getMockServerClient().verify(request().withPath("/v1/url"), VerificationTimes.exactly(3));
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        respondWith("/v1/url", 500, loadFileString("krakenIoResponse500.json"), Times.unlimited());
+
+        try {
+            krakenIoClient.imageUrlUpload(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build());
+            fail("Expected KrakenIoRequestException");
+        } catch (KrakenIoRequestException e) {
+            assertThat(e.getFailedUploadResponse().getStatus(), is(500));
+        }
+        getMockServerClient().verify(request().withPath("/v1/url"), VerificationTimes.exactly(3));
+    }
+
+    @Test
+    public void testDoesNotRetryClientErrors() throws Exception {
+        respondWith("/v1/url", 401, loadFileString("krakenIoResponse401.json"), Times.unlimited());
+
+        try {
+            krakenIoClient.imageUrlUpload(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build());
+            fail("Expected KrakenIoRequestException");
+        } catch (KrakenIoRequestException e) {
+            assertThat(e.getFailedUploadResponse().getStatus(), is(401));
+        }
+        getMockServerClient().verify(request().withPath("/v1/url"), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testDoesNotRetryStreamUploads() throws Exception {
+        respondWith("/v1/upload", 503, loadFileString("krakenIoResponse500.json"), Times.unlimited());
+
+        try {
+            krakenIoClient.directUpload(DirectUploadRequest.builder(new ByteArrayInputStream(new byte[]{1, 2, 3})).build());
+            fail("Expected KrakenIoRequestException");
+        } catch (KrakenIoRequestException e) {
+            assertThat(e.getFailedUploadResponse().getStatus(), is(503));
+        }
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testHonoursRetryAfter() throws Exception {
+        getMockServerClient()
+                .when(request().withPath("/v1/url"), Times.exactly(1))
+                .respond(
+                        response()
+                                .withStatusCode(429)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withHeader(new Header("Retry-After", "1"))
+                                .withBody(loadFileString("krakenIoResponse500.json"))
+                );
+        respondWith("/v1/url", 200, loadFileString("krakenIoResponse200.json"), Times.unlimited());
+
+        final long start = System.nanoTime();
+        krakenIoClient.imageUrlUpload(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build());
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(1000L));
+    }
+
+    @Test
+    public void testRetriesAsync() throws Exception {
+        respondWith("/v1/url", 502, loadFileString("krakenIoResponse500.json"), Times.exactly(1));
+        respondWith("/v1/url", 200, loadFileString("krakenIoResponse200.json"), Times.unlimited());
+
+        final SuccessfulUploadResponse successfulUploadResponse = krakenIoClient.imageUrlUploadAsync(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build()).get(5, TimeUnit.SECONDS);
+        assertThat(successfulUploadResponse.getStatus(), is(200));
+        getMockServerClient().verify(request().withPath("/v1/url"), VerificationTimes.exactly(2));
+    }
+
+    @Test
+    public void testRetryBudgetLimitsRetries() throws Exception {
+        krakenIoClient.close();
+        krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withRetryPolicy(RetryPolicy.builder()
+                        .withMaxAttempts(5)
+                        .withBaseDelay(1, TimeUnit.MILLISECONDS)
+                        .withRetryBudget(0, 0)
+                        .build())
+                .build();
+        respondWith("/v1/url", 500, loadFileString("krakenIoResponse500.json"), Times.unlimited());
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                krakenIoClient.imageUrlUploadAsync(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build()).get(5, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(KrakenIoRequestException.class));
+            }
+        }
+
+        // The initial balance of one token allows a single retry
+        getMockServerClient().verify(request().withPath("/v1/url"), VerificationTimes.exactly(4));
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(DefaultKrakenIoClientRetryFunctionalTest.class, fileName), Charsets.UTF_8);
+    }
+}
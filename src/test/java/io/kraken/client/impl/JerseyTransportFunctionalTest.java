@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import io.kraken.client.KrakenIoClient;
+import io.kraken.client.impl.transport.JerseyTransport;
+
+/**
+ * Runs the client functional tests over the Jersey transport.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class JerseyTransportFunctionalTest extends DefaultKrakenIoClientFunctionalTest {
+
+    @Override
+    protected KrakenIoClient createKrakenIoClient() {
+        return DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withTransport(new JerseyTransport(3000, 3000))
+                .build();
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.Resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares decoding a successful upload response with the data binding object mapper the client used before and with
+ * the {@link ResponseDecoder}, reporting time and bytes allocated per response. Allocations are measured with the
+ * HotSpot thread allocation counter.
+ * <p>
+ * Data binding decodes into {@link LegacyUploadResponse}, a copy of the response classes as they were before the
+ * decoder, polymorphic and with an object mapper per instance, so both sides of the comparison stay reproducible.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class ResponseDecodingBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    public static void main(String[] args) throws IOException {
+        final byte[] response = Resources.toByteArray(Resources.getResource(ResponseDecodingBenchmark.class, "krakenIoResponse200.json"));
+
+        final ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        objectMapper.configure(DeserializationFeature.READ_ENUMS_USING_TO_STRING, true);
+        objectMapper.enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+        objectMapper.enable(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS);
+        final ResponseDecoder responseDecoder = new ResponseDecoder();
+
+        final Decoder dataBinding = new Decoder() {
+            @Override
+            public Object decode(byte[] response) throws IOException {
+                return objectMapper.readValue(new ByteArrayInputStream(response), LegacyUploadResponse.class);
+            }
+        };
+        final Decoder streaming = new Decoder() {
+            @Override
+            public Object decode(byte[] response) throws IOException {
+                return responseDecoder.decodeUploadResponse(new ByteArrayInputStream(response));
+            }
+        };
+
+        run("data binding", dataBinding, response);
+        run("streaming", streaming, response);
+    }
+
+    private static void run(String name, Decoder decoder, byte[] response) throws IOException {
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        int blackhole = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            blackhole += decoder.decode(response).hashCode();
+        }
+
+        final long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            blackhole += decoder.decode(response).hashCode();
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.println(String.format("%-14s %8.1f ns/op %8d bytes/op (%d)", name, (double) elapsed / ITERATIONS, allocated / ITERATIONS, blackhole & 1));
+    }
+
+    private interface Decoder {
+        Object decode(byte[] response) throws IOException;
+    }
+
+    @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.EXISTING_PROPERTY, visible = true, property = "success")
+    @JsonSubTypes({
+            @JsonSubTypes.Type(value = LegacySuccessfulUploadResponse.class, name = "true"),
+            @JsonSubTypes.Type(value = LegacyFailedUploadResponse.class, name = "false")
+    })
+    abstract static class LegacyUploadResponse {
+        @JsonIgnore
+        protected final ObjectMapper objectMapper = new ObjectMapper();
+
+        private final Boolean success;
+
+        protected LegacyUploadResponse(Boolean success) {
+            this.success = success;
+        }
+
+        public Boolean getSuccess() {
+            return success;
+        }
+    }
+
+    static class LegacySuccessfulUploadResponse extends LegacyUploadResponse {
+        private final String fileName;
+        private final Integer originalSize;
+        private final Integer krakedSize;
+        private final Integer savedBytes;
+        private final String krakedUrl;
+
+        @JsonCreator
+        LegacySuccessfulUploadResponse(@JsonProperty("success") Boolean success,
+                                       @JsonProperty("file_name") String fileName,
+                                       @JsonProperty("original_size") Integer originalSize,
+                                       @JsonProperty("kraked_size") Integer krakedSize,
+                                       @JsonProperty("saved_bytes") Integer savedBytes,
+                                       @JsonProperty("kraked_url") String krakedUrl) {
+            super(success);
+            this.fileName = fileName;
+            this.originalSize = originalSize;
+            this.krakedSize = krakedSize;
+            this.savedBytes = savedBytes;
+            this.krakedUrl = krakedUrl;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public Integer getOriginalSize() {
+            return originalSize;
+        }
+
+        public Integer getKrakedSize() {
+            return krakedSize;
+        }
+
+        public Integer getSavedBytes() {
+            return savedBytes;
+        }
+
+        public String getKrakedUrl() {
+            return krakedUrl;
+        }
+    }
+
+    static class LegacyFailedUploadResponse extends LegacyUploadResponse {
+        private final String message;
+
+        @JsonCreator
+        LegacyFailedUploadResponse(@JsonProperty("success") Boolean success,
+                                   @JsonProperty("message") String message) {
+            super(success);
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.model.RGBA;
+import io.kraken.client.model.request.DirectUploadSetRequest;
+import io.kraken.client.model.request.ImageUrlUploadCallbackUrlSetRequest;
+import io.kraken.client.model.request.ImageUrlUploadSetRequest;
+import io.kraken.client.model.resize.FillResize;
+import io.kraken.client.model.resize.SquareResize;
+import io.kraken.client.model.response.SuccessfulUploadCallbackUrlResponse;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import io.kraken.client.model.response.SuccessfulUploadSetResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.mock.Expectation;
+import org.mockserver.model.Header;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static net.javacrumbs.jsonunit.JsonMatchers.jsonEquals;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class SetUploadFunctionalTest extends AbstractFunctionalTest {
+
+    private static final FillResize SMALL = new FillResize(150, 150, new RGBA(100, 100, 100, BigDecimal.ONE));
+    private static final SquareResize LARGE = new SquareResize(600);
+
+    private DefaultKrakenIoClient krakenIoClient;
+
+    @Before
+    public void setUp() throws Exception {
+        krakenIoClient = new DefaultKrakenIoClient("somekey", "somesecret", "http://localhost:1080");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        krakenIoClient.close();
+    }
+
+    @Test
+    public void testImageUrlUploadSet() throws Exception {
+        respond("/v1/url", 200, "krakenIoSetResponse200.json");
+
+        final SuccessfulUploadSetResponse successfulUploadSetResponse = krakenIoClient.imageUrlUpload(
+                ImageUrlUploadSetRequest.builder(new URL("http://somehost/image"))
+                        .withResize("small", SMALL)
+                        .withResize("large", LARGE)
+                        .build()
+        );
+
+        assertThat(successfulUploadSetResponse.getStatus(), is(200));
+        assertThat(successfulUploadSetResponse.getSuccess(), is(true));
+        assertThat(successfulUploadSetResponse.getResults().keySet(), contains("small", "large"));
+        assertResult(successfulUploadSetResponse.getResult("small"), 20, "http://dl.kraken.io/ecdfa5c55d5668b1b5fe9e420554c4ee/small/header.jpg");
+        assertResult(successfulUploadSetResponse.getResult("large"), 50, "http://dl.kraken.io/ecdfa5c55d5668b1b5fe9e420554c4ee/large/header.jpg");
+        assertThat(successfulUploadSetResponse.getResult("medium"), is(nullValue()));
+
+        final Expectation[] expectations = getMockServerClient().retrieveAsExpectations(request().withPath("/v1/url"));
+        assertThat(Arrays.asList(expectations), hasSize(1));
+        assertThat(new String(expectations[0].getHttpRequest().getBody().getRawBytes(), Charsets.UTF_8), jsonEquals(loadFileString("krakenIoRequestImageUrlSet.json")));
+    }
+
+    @Test
+    public void testDirectUploadSetAsync() throws Exception {
+        respond("/v1/upload", 200, "krakenIoSetResponse200.json");
+
+        final SuccessfulUploadSetResponse successfulUploadSetResponse = krakenIoClient.directUploadAsync(
+                DirectUploadSetRequest.builder(new ByteArrayInputStream(loadFileBinary("test.jpg")))
+                        .withResize("small", SMALL)
+                        .withResize("large", LARGE)
+                        .build()
+        ).get(5, TimeUnit.SECONDS);
+
+        assertThat(successfulUploadSetResponse.getResults().size(), is(2));
+        assertResult(successfulUploadSetResponse.getResult("small"), 20, "http://dl.kraken.io/ecdfa5c55d5668b1b5fe9e420554c4ee/small/header.jpg");
+        assertThat(Arrays.asList(getMockServerClient().retrieveAsExpectations(request().withPath("/v1/upload"))), hasSize(1));
+    }
+
+    @Test
+    public void testImageUrlUploadCallbackUrlSet() throws Exception {
+        respond("/v1/url", 200, "krakenIoCallbackUrlResponse200.json");
+
+        final SuccessfulUploadCallbackUrlResponse successfulUploadCallbackUrlResponse = krakenIoClient.imageUrlUpload(
+                ImageUrlUploadCallbackUrlSetRequest.builder(new URL("http://somehost/image"), new URL("http://somehost/somecallback"))
+                        .withResize("small", SMALL)
+                        .withResize("large", LARGE)
+                        .build()
+        );
+        assertThat(successfulUploadCallbackUrlResponse.getId(), is("18fede37617a787649c3f60b9f1f280d"));
+
+        final Expectation[] expectations = getMockServerClient().retrieveAsExpectations(request().withPath("/v1/url"));
+        assertThat(Arrays.asList(expectations), hasSize(1));
+        assertThat(new String(expectations[0].getHttpRequest().getBody().getRawBytes(), Charsets.UTF_8), jsonEquals(loadFileString("krakenIoRequestCallbackUrlSet.json")));
+    }
+
+    @Test
+    public void testImageUrlUploadSetFailure() throws Exception {
+        respond("/v1/url", 400, "krakenIoResponse400.json");
+
+        try {
+            krakenIoClient.imageUrlUpload(ImageUrlUploadSetRequest.builder(new URL("http://somehost/image"))
+                        .withResize("small", SMALL)
+                        .withResize("large", LARGE)
+                        .build());
+            fail("Expected a KrakenIoRequestException");
+        } catch (KrakenIoRequestException e) {
+            assertThat(e.getFailedUploadResponse().getStatus(), is(400));
+            assertThat(e.getFailedUploadResponse().getMessage(), is("Incoming request body does not contain a valid JSON object"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsDuplicateResizeId() throws Exception {
+        ImageUrlUploadSetRequest.builder(new URL("http://somehost/image"))
+                .withResize("small", new SquareResize(100))
+                .withResize("small", new SquareResize(200));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsSetWithoutResize() throws Exception {
+        ImageUrlUploadSetRequest.builder(new URL("http://somehost/image")).build();
+    }
+
+    private void assertResult(SuccessfulUploadResponse successfulUploadResponse, int krakedSize, String krakedUrl) {
+        assertThat(successfulUploadResponse.getFileName(), is("header.jpg"));
+        assertThat(successfulUploadResponse.getOriginalSize(), is(100));
+        assertThat(successfulUploadResponse.getKrakedSize(), is(krakedSize));
+        assertThat(successfulUploadResponse.getSavedBytes(), is(100 - krakedSize));
+        assertThat(successfulUploadResponse.getKrakedUrl(), is(krakedUrl));
+    }
+
+    private void respond(String path, int statusCode, String fileName) throws IOException {
+        getMockServerClient()
+                .when(request().withPath(path))
+                .respond(
+                        response()
+                                .withStatusCode(statusCode)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withBody(loadFileString(fileName))
+                );
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(SetUploadFunctionalTest.class, fileName), Charsets.UTF_8);
+    }
+
+    private byte[] loadFileBinary(String fileName) throws IOException {
+        return Resources.toByteArray(Resources.getResource(SetUploadFunctionalTest.class, fileName));
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.model.RGBA;
+import io.kraken.client.model.request.UploadOptions;
+import io.kraken.client.model.resize.FillResize;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.apache.commons.fileupload.MultipartStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.mock.Expectation;
+import org.mockserver.model.Header;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static net.javacrumbs.jsonunit.JsonMatchers.jsonEquals;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class UploadProfileFunctionalTest extends AbstractFunctionalTest {
+
+    private static final Pattern MULTIPART_BOUNDARY_PATTERN = Pattern.compile(".*boundary=(.*)");
+
+    private DefaultKrakenIoClient krakenIoClient;
+    private UploadProfile uploadProfile;
+
+    @Before
+    public void setUp() throws Exception {
+        krakenIoClient = new DefaultKrakenIoClient("somekey", "somesecret", "http://localhost:1080");
+        uploadProfile = krakenIoClient.createUploadProfile(UploadOptions.builder()
+                .withResize(new FillResize(150, 150, new RGBA(100, 100, 100, BigDecimal.ONE)))
+                .build());
+
+        getMockServerClient()
+                .when(request().withPath("/v1/upload"))
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withBody(loadFileString("krakenIoResponse200.json"))
+                );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        krakenIoClient.close();
+    }
+
+    @Test
+    public void testUploadsWithProfile() throws Exception {
+        final SuccessfulUploadResponse streamResponse = krakenIoClient.directUpload(uploadProfile, new ByteArrayInputStream(loadFileBinary("test.jpg")));
+        final SuccessfulUploadResponse fileResponse = krakenIoClient.directUploadAsync(uploadProfile, new File(Resources.getResource(UploadProfileFunctionalTest.class, "test.jpg").toURI()))
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(streamResponse.getStatus(), is(200));
+        assertThat(fileResponse.getStatus(), is(200));
+
+        final Expectation[] expectations = getMockServerClient().retrieveAsExpectations(request().withPath("/v1/upload"));
+        assertThat(Arrays.asList(expectations), hasSize(2));
+        for (Expectation expectation : expectations) {
+            final MultipartStream multipartStream = new MultipartStream(new ByteArrayInputStream(expectation.getHttpRequest().getBodyAsRawBytes()), getMultipartBoundary(expectation));
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            final ByteArrayOutputStream image = new ByteArrayOutputStream();
+
+            multipartStream.readHeaders();
+            multipartStream.readBodyData(data);
+            multipartStream.readBoundary();
+            multipartStream.readHeaders();
+            multipartStream.readBodyData(image);
+
+            assertThat(new String(data.toByteArray(), Charsets.UTF_8), jsonEquals(loadFileString("krakenIoRequestDirectResize.json")));
+            assertThat(image.toByteArray(), is(loadFileBinary("test.jpg")));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsProfileOfOtherClient() throws Exception {
+        final DefaultKrakenIoClient otherKrakenIoClient = new DefaultKrakenIoClient("otherkey", "othersecret", "http://localhost:1080");
+        try {
+            otherKrakenIoClient.directUpload(uploadProfile, new ByteArrayInputStream(loadFileBinary("test.jpg")));
+        } finally {
+            otherKrakenIoClient.close();
+        }
+    }
+
+    private byte[] getMultipartBoundary(Expectation expectation) {
+        final Matcher matcher = MULTIPART_BOUNDARY_PATTERN.matcher(expectation.getHttpRequest().getFirstHeader("Content-Type"));
+        matcher.matches();
+        return matcher.group(1).getBytes();
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(UploadProfileFunctionalTest.class, fileName), Charsets.UTF_8);
+    }
+
+    private byte[] loadFileBinary(String fileName) throws IOException {
+        return Resources.toByteArray(Resources.getResource(UploadProfileFunctionalTest.class, fileName));
+    }
+}
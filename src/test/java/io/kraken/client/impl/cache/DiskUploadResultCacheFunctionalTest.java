@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.impl.DefaultKrakenIoClient;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.model.Header;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class DiskUploadResultCacheFunctionalTest extends AbstractFunctionalTest {
+
+    private File cacheFile;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheFile = File.createTempFile("kraken-io-result-cache", ".bin");
+        cacheFile.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cacheFile.delete();
+    }
+
+    @Test
+    public void testResultSurvivesRestart() throws Exception {
+        getMockServerClient()
+                .when(request().withPath("/v1/upload"))
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withBody(loadFileString("krakenIoResponse200.json"))
+                );
+
+        final SuccessfulUploadResponse uploaded = uploadWithFreshClient();
+        final SuccessfulUploadResponse cached = uploadWithFreshClient();
+
+        assertThat(cached.getStatus(), is(200));
+        assertThat(cached.getFileName(), is(uploaded.getFileName()));
+        assertThat(cached.getOriginalSize(), is(uploaded.getOriginalSize()));
+        assertThat(cached.getKrakedSize(), is(uploaded.getKrakedSize()));
+        assertThat(cached.getSavedBytes(), is(uploaded.getSavedBytes()));
+        assertThat(cached.getKrakedUrl(), is(uploaded.getKrakedUrl()));
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testCompactionKeepsLiveRecordsReachable() throws Exception {
+        final DiskUploadResultCache shortLived = DiskUploadResultCache.builder(cacheFile)
+                .withCapacity(4)
+                .withExpireAfterWrite(50, TimeUnit.MILLISECONDS)
+                .build();
+        shortLived.put(fingerprint(1), successfulUploadResponse("1"));
+        shortLived.put(fingerprint(2), successfulUploadResponse("2"));
+        shortLived.close();
+
+        final DiskUploadResultCache longLived = DiskUploadResultCache.builder(cacheFile).build();
+        try {
+            longLived.put(fingerprint(3), successfulUploadResponse("3"));
+            longLived.put(fingerprint(4), successfulUploadResponse("4"));
+            assertThat(longLived.getCapacity(), is(4));
+
+            Thread.sleep(100);
+            longLived.compact();
+
+            assertThat(longLived.size(), is(2));
+            assertThat(longLived.get(fingerprint(1)), nullValue());
+            assertThat(longLived.get(fingerprint(2)), nullValue());
+            assertThat(longLived.get(fingerprint(3)).getFileName(), is("3"));
+            assertThat(longLived.get(fingerprint(4)).getFileName(), is("4"));
+            assertThat(longLived.getHitCount(), is(2L));
+            assertThat(longLived.getMissCount(), is(2L));
+        } finally {
+            longLived.close();
+        }
+    }
+
+    @Test
+    public void testNullFieldsRoundTrip() throws Exception {
+        final DiskUploadResultCache diskUploadResultCache = DiskUploadResultCache.builder(cacheFile).withCapacity(16).build();
+        try {
+            diskUploadResultCache.put(fingerprint(1), new SuccessfulUploadResponse(true, null, null, 10, null, null));
+
+            final SuccessfulUploadResponse successfulUploadResponse = diskUploadResultCache.get(fingerprint(1));
+            assertThat(successfulUploadResponse.getFileName(), nullValue());
+            assertThat(successfulUploadResponse.getOriginalSize(), nullValue());
+            assertThat(successfulUploadResponse.getKrakedSize(), is(10));
+            assertThat(successfulUploadResponse.getKrakedUrl(), nullValue());
+        } finally {
+            diskUploadResultCache.close();
+        }
+    }
+
+    private SuccessfulUploadResponse uploadWithFreshClient() throws Exception {
+        final DiskUploadResultCache diskUploadResultCache = DiskUploadResultCache.builder(cacheFile).withCapacity(16).build();
+        final DefaultKrakenIoClient krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withResultCache(diskUploadResultCache)
+                .build();
+        try {
+            return krakenIoClient.directUpload(DirectFileUploadRequest.builder(new File(Resources.getResource(DefaultKrakenIoClient.class, "test.jpg").toURI())).build());
+        } finally {
+            krakenIoClient.close();
+            diskUploadResultCache.close();
+        }
+    }
+
+    private static HashCode fingerprint(int i) {
+        return Hashing.sha256().hashInt(i);
+    }
+
+    private static SuccessfulUploadResponse successfulUploadResponse(String fileName) {
+        return new SuccessfulUploadResponse(true, fileName, 100, 50, 50, "https://dl.kraken.io/" + fileName);
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(DefaultKrakenIoClient.class, fileName), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.impl.DefaultKrakenIoClient;
+import io.kraken.client.model.Metadata;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.request.DirectUploadRequest;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.matchers.Times;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockserver.model.HttpRequest.request;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class UploadResultCacheFunctionalTest extends AbstractFunctionalTest {
+
+    private InMemoryUploadResultCache resultCache;
+    private DefaultKrakenIoClient krakenIoClient;
+
+    @Before
+    public void setUp() throws Exception {
+        resultCache = InMemoryUploadResultCache.builder().build();
+        krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withResultCache(resultCache)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        krakenIoClient.close();
+    }
+
+    @Test
+    public void testIdenticalUploadIsServedFromCache() throws Exception {
+        respondWith("/v1/upload", 200, loadFileString("krakenIoResponse200.json"), Times.unlimited());
+
+        final SuccessfulUploadResponse first = krakenIoClient.directUpload(DirectFileUploadRequest.builder(loadFile("test.jpg"))
+                .withPreserveMeta(Metadata.DATE)
+                .withPreserveMeta(Metadata.COPYRIGHT)
+                .build());
+        final SuccessfulUploadResponse second = krakenIoClient.directUpload(DirectUploadRequest.builder(new ByteArrayInputStream(loadFileBinary("test.jpg")))
+                .withPreserveMeta(Metadata.COPYRIGHT)
+                .withPreserveMeta(Metadata.DATE)
+                .build());
+
+        assertThat(second, sameInstance(first));
+        assertThat(resultCache.getStats().hitCount(), is(1L));
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testDifferentOptionsAreUploaded() throws Exception {
+        respondWith("/v1/upload", 200, loadFileString("krakenIoResponse200.json"), Times.unlimited());
+
+        krakenIoClient.directUpload(DirectFileUploadRequest.builder(loadFile("test.jpg")).build());
+        krakenIoClient.directUpload(DirectFileUploadRequest.builder(loadFile("test.jpg")).withLossy(true).build());
+        krakenIoClient.directUploadAsync(DirectUploadRequest.builder(new ByteArrayInputStream(new byte[]{1, 2, 3})).build()).get(5, TimeUnit.SECONDS);
+
+        assertThat(resultCache.getStats().hitCount(), is(0L));
+        assertThat(resultCache.size(), is(3L));
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(3));
+    }
+
+    @Test
+    public void testAsyncUploadIsServedFromCache() throws Exception {
+        respondWith("/v1/upload", 200, loadFileString("krakenIoResponse200.json"), Times.unlimited());
+
+        krakenIoClient.directUploadAsync(DirectFileUploadRequest.builder(loadFile("test.jpg")).build()).get(5, TimeUnit.SECONDS);
+        krakenIoClient.directUploadAsync(DirectFileUploadRequest.builder(loadFile("test.jpg")).build()).get(5, TimeUnit.SECONDS);
+
+        assertThat(resultCache.getStats().hitCount(), is(1L));
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws Exception {
+        respondWith("/v1/upload", 500, loadFileString("krakenIoResponse500.json"), Times.exactly(1));
+        respondWith("/v1/upload", 200, loadFileString("krakenIoResponse200.json"), Times.unlimited());
+
+        try {
+            krakenIoClient.directUpload(DirectFileUploadRequest.builder(loadFile("test.jpg")).build());
+            fail("Expected KrakenIoRequestException");
+        } catch (KrakenIoRequestException e) {
+            assertThat(e.getFailedUploadResponse().getStatus(), is(500));
+        }
+        final SuccessfulUploadResponse successfulUploadResponse = krakenIoClient.directUpload(DirectFileUploadRequest.builder(loadFile("test.jpg")).build());
+
+        assertThat(successfulUploadResponse.getStatus(), is(200));
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(2));
+    }
+
+    private File loadFile(String fileName) throws Exception {
+        return new File(Resources.getResource(DefaultKrakenIoClient.class, fileName).toURI());
+    }
+
+    private byte[] loadFileBinary(String fileName) throws IOException {
+        return Resources.toByteArray(Resources.getResource(DefaultKrakenIoClient.class, fileName));
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(DefaultKrakenIoClient.class, fileName), Charsets.UTF_8);
+    }
+}
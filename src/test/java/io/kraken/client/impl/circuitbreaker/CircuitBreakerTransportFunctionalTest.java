@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.circuitbreaker;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.exception.CircuitBreakerOpenException;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.impl.DefaultKrakenIoClient;
+import io.kraken.client.impl.DefaultKrakenIoClientFunctionalTest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.model.Delay;
+import org.mockserver.model.Header;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class CircuitBreakerTransportFunctionalTest extends AbstractFunctionalTest {
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    private CircuitBreaker circuitBreaker;
+    private DefaultKrakenIoClient krakenIoClient;
+
+    @Before
+    public void setUp() throws Exception {
+        circuitBreaker = CircuitBreaker.builder()
+                .withWindowSize(4)
+                .withMinimumNumberOfCalls(4)
+                .withFailureRateThreshold(50)
+                .withWaitDurationInOpenState(200, TimeUnit.MILLISECONDS)
+                .withPermittedCallsInHalfOpenState(2)
+                .withListener(new CircuitBreakerListener() {
+                    @Override
+                    public void onStateChange(CircuitBreaker.State from, CircuitBreaker.State to) {
+                        events.add(from + "->" + to);
+                    }
+
+                    @Override
+                    public void onCallRejected(CircuitBreaker.State state) {
+                        events.add("rejected");
+                    }
+                })
+                .build();
+        krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withCircuitBreaker(circuitBreaker)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        krakenIoClient.close();
+    }
+
+    @Test
+    public void testOpensOnFailuresAndFailsFast() throws Exception {
+        respondWith(500, "krakenIoResponse500.json");
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                upload();
+                fail("Expected KrakenIoRequestException");
+            } catch (KrakenIoRequestException e) {
+                assertThat(e.getFailedUploadResponse().getStatus(), is(500));
+            }
+        }
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+
+        try {
+            upload();
+            fail("Expected CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException e) {
+            assertThat(e.getRemainingOpenMillis(), lessThanOrEqualTo(200L));
+        }
+        try {
+            krakenIoClient.imageUrlUploadAsync(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build()).get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(CircuitBreakerOpenException.class));
+        }
+
+        getMockServerClient().verify(request().withPath("/v1/url"), VerificationTimes.exactly(4));
+        assertThat(events, contains("CLOSED->OPEN", "rejected", "rejected"));
+    }
+
+    @Test
+    public void testClosesAfterSuccessfulTrialCalls() throws Exception {
+        respondWith(500, "krakenIoResponse500.json");
+        for (int i = 0; i < 4; i++) {
+            try {
+                upload();
+            } catch (KrakenIoRequestException e) {
+                // expected
+            }
+        }
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+
+        getMockServerClient().reset();
+        respondWith(200, "krakenIoResponse200.json");
+        Thread.sleep(250);
+
+        upload();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        upload();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(events, contains("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"));
+    }
+
+    @Test
+    public void testOpensOnSlowCalls() throws Exception {
+        krakenIoClient.close();
+        circuitBreaker = CircuitBreaker.builder()
+                .withWindowSize(2)
+                .withMinimumNumberOfCalls(2)
+                .withSlowCallDuration(100, TimeUnit.MILLISECONDS)
+                .withSlowCallRateThreshold(100)
+                .build();
+        krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withCircuitBreaker(circuitBreaker)
+                .build();
+        getMockServerClient()
+                .when(request().withPath("/v1/url"))
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withBody(loadFileString("krakenIoResponse200.json"))
+                                .withDelay(new Delay(TimeUnit.MILLISECONDS, 150))
+                );
+
+        upload();
+        upload();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    private void upload() throws IOException {
+        krakenIoClient.imageUrlUpload(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build());
+    }
+
+    private void respondWith(int statusCode, String fileName) throws IOException {
+        getMockServerClient()
+                .when(request().withPath("/v1/url"))
+                .respond(
+                        response()
+                                .withStatusCode(statusCode)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withBody(loadFileString(fileName))
+                );
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(DefaultKrakenIoClientFunctionalTest.class, fileName), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.download;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class FileReplacementTest {
+
+    private File directory;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDir();
+        target = new File(directory, "image.jpg");
+        Files.write("original", target, Charsets.UTF_8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testReplacesTarget() throws Exception {
+        final File replacement = new File(directory, ".image.jpg.part");
+        Files.write("optimized", replacement, Charsets.UTF_8);
+
+        FileReplacement.replace(replacement, target);
+
+        assertThat(Files.toString(target, Charsets.UTF_8), is("optimized"));
+        assertThat(directory.list(), arrayContaining("image.jpg"));
+    }
+
+    @Test
+    public void testRestoresTargetIfReplacementCannotBeRenamed() throws Exception {
+        final File replacement = new File(directory, ".image.jpg.part");
+
+        try {
+            FileReplacement.replace(replacement, target);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("Failed to rename"));
+        }
+
+        assertThat(Files.toString(target, Charsets.UTF_8), is("original"));
+        assertThat(directory.list(), arrayContaining("image.jpg"));
+    }
+}
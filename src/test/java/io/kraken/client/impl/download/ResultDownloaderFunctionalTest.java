@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.download;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.exception.KrakenIoException;
+import io.kraken.client.impl.DefaultKrakenIoClient;
+import io.kraken.client.impl.circuitbreaker.CircuitBreaker;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.model.Delay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class ResultDownloaderFunctionalTest extends AbstractFunctionalTest {
+
+    private static final String KRAKED_URL = "http://localhost:1080/dl/header.jpg";
+    // A text body spanning several copy buffers, binary bodies need JAXB in the mock server which Java 11 lacks
+    private static final String IMAGE = Strings.repeat("optimized image content ", 8 * 1024);
+
+    private byte[] image;
+    private File directory;
+    private DefaultKrakenIoClient krakenIoClient;
+    private ResultDownloader resultDownloader;
+
+    @Before
+    public void setUp() throws Exception {
+        image = IMAGE.getBytes(Charsets.US_ASCII);
+        directory = Files.createTempDir();
+        krakenIoClient = new DefaultKrakenIoClient("somekey", "somesecret", "http://localhost:1080");
+        resultDownloader = ResultDownloader.builder(krakenIoClient.getPooledTransport()).withMaxConcurrency(2).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        resultDownloader.close();
+        krakenIoClient.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testDownloadsToFile() throws Exception {
+        serveImage(0);
+        final File target = new File(directory, "header.jpg");
+        Files.write(new byte[]{1, 2, 3}, target);
+
+        assertThat(resultDownloader.download(successfulUploadResponse(image.length), target).get(5, TimeUnit.SECONDS), is(target));
+
+        assertThat(Files.toByteArray(target), is(image));
+        assertThat(directory.list(), arrayContaining("header.jpg"));
+    }
+
+    @Test
+    public void testDownloadsToChannel() throws Exception {
+        serveImage(0);
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+        final long length = resultDownloader.download(successfulUploadResponse(image.length), Channels.newChannel(byteArrayOutputStream)).get(5, TimeUnit.SECONDS);
+
+        assertThat(length, is((long) image.length));
+        assertThat(byteArrayOutputStream.toByteArray(), is(image));
+    }
+
+    @Test
+    public void testRejectsDownloadOfUnexpectedLength() throws Exception {
+        serveImage(0);
+        final File target = new File(directory, "header.jpg");
+
+        assertDownloadFails(resultDownloader.download(successfulUploadResponse(image.length + 1), target), "expected " + (image.length + 1));
+        assertThat(directory.list(), emptyArray());
+    }
+
+    @Test
+    public void testRejectsFailedDownload() throws Exception {
+        getMockServerClient()
+                .when(request().withPath("/dl/header.jpg"))
+                .respond(response().withStatusCode(404));
+        final File target = new File(directory, "header.jpg");
+
+        assertDownloadFails(resultDownloader.download(successfulUploadResponse(image.length), target), "status 404");
+        assertThat(directory.list(), emptyArray());
+    }
+
+    @Test
+    public void testFailedDownloadsBypassCircuitBreaker() throws Exception {
+        resultDownloader.close();
+        krakenIoClient.close();
+        final CircuitBreaker circuitBreaker = CircuitBreaker.builder()
+                .withWindowSize(2)
+                .withMinimumNumberOfCalls(2)
+                .build();
+        krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withCircuitBreaker(circuitBreaker)
+                .build();
+        resultDownloader = ResultDownloader.builder(krakenIoClient.getPooledTransport()).build();
+        getMockServerClient()
+                .when(request().withPath("/dl/header.jpg"))
+                .respond(response().withStatusCode(503));
+
+        for (int i = 0; i < 4; i++) {
+            assertDownloadFails(resultDownloader.download(successfulUploadResponse(image.length), new File(directory, "header.jpg")), "status 503");
+        }
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void testDownloadsInParallel() throws Exception {
+        serveImage(100);
+
+        final List<ListenableFuture<File>> futures = new ArrayList<ListenableFuture<File>>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(resultDownloader.download(successfulUploadResponse(image.length), new File(directory, "header" + i + ".jpg")));
+        }
+
+        assertThat(Futures.allAsList(futures).get(5, TimeUnit.SECONDS), hasSize(6));
+        for (ListenableFuture<File> future : futures) {
+            assertThat(Files.toByteArray(future.get()), is(image));
+        }
+        assertThat(directory.list(), arrayWithSize(6));
+    }
+
+    private void assertDownloadFails(ListenableFuture<?> future, String message) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the download to fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(KrakenIoException.class));
+            assertThat(e.getCause().getMessage(), containsString(message));
+        }
+    }
+
+    private void serveImage(long delayMillis) throws IOException {
+        getMockServerClient()
+                .when(request().withMethod("GET").withPath("/dl/header.jpg"))
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody(IMAGE)
+                                .withDelay(new Delay(TimeUnit.MILLISECONDS, delayMillis))
+                );
+    }
+
+    private SuccessfulUploadResponse successfulUploadResponse(int krakedSize) {
+        return new SuccessfulUploadResponse(true, "header.jpg", krakedSize * 2, krakedSize, krakedSize, KRAKED_URL);
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.preflight;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import io.kraken.client.impl.DefaultKrakenIoClientFunctionalTest;
+import io.kraken.client.impl.preflight.PreflightResult.Reason;
+import io.kraken.client.impl.preflight.PreflightResult.Verdict;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.resize.ExactResize;
+import io.kraken.client.model.resize.FitResize;
+import io.kraken.client.model.resize.LandscapeResize;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class PreflightInspectorTest {
+
+    private final PreflightInspector preflightInspector = PreflightInspector.builder().build();
+
+    @Test
+    public void testReadsJpegHeader() throws Exception {
+        final File image = File.createTempFile("test", ".jpg");
+        try {
+            Files.write(jpeg(), image);
+
+            final PreflightResult preflightResult = preflightInspector.inspect(DirectFileUploadRequest.builder(image).build());
+
+            assertThat(preflightResult.getVerdict(), is(Verdict.UPLOAD));
+            assertThat(preflightResult.getReason(), nullValue());
+            assertThat(preflightResult.getImageFormat(), is(ImageFormat.JPEG));
+            assertThat(preflightResult.getWidth(), is(311));
+            assertThat(preflightResult.getHeight(), is(308));
+        } finally {
+            image.delete();
+        }
+    }
+
+    @Test
+    public void testReadsPngAndGifHeaders() throws Exception {
+        final PreflightResult pngResult = preflightInspector.inspect(png(640, 480, true));
+        assertThat(pngResult.getVerdict(), is(Verdict.UPLOAD));
+        assertThat(pngResult.getImageFormat(), is(ImageFormat.PNG));
+        assertThat(pngResult.getWidth(), is(640));
+        assertThat(pngResult.getHeight(), is(480));
+
+        final PreflightResult gifResult = preflightInspector.inspect(gif(320, 200, true));
+        assertThat(gifResult.getVerdict(), is(Verdict.UPLOAD));
+        assertThat(gifResult.getImageFormat(), is(ImageFormat.GIF));
+        assertThat(gifResult.getWidth(), is(320));
+        assertThat(gifResult.getHeight(), is(200));
+
+        final PreflightResult svgResult = preflightInspector.inspect("<?xml version=\"1.0\"?>\n<svg xmlns=\"http://www.w3.org/2000/svg\"/>".getBytes(Charsets.UTF_8));
+        assertThat(svgResult.getVerdict(), is(Verdict.UPLOAD));
+        assertThat(svgResult.getImageFormat(), is(ImageFormat.SVG));
+        assertThat(svgResult.getWidth(), nullValue());
+    }
+
+    @Test
+    public void testRejectsTruncatedHeaders() throws Exception {
+        assertRejected(preflightInspector.inspect(Arrays.copyOf(jpeg(), 200)), Reason.TRUNCATED, ImageFormat.JPEG);
+        assertRejected(preflightInspector.inspect(Arrays.copyOf(png(640, 480, true), 20)), Reason.TRUNCATED, ImageFormat.PNG);
+        assertRejected(preflightInspector.inspect(Arrays.copyOf(gif(320, 200, true), 10)), Reason.TRUNCATED, ImageFormat.GIF);
+    }
+
+    @Test
+    public void testUploadsImagesWithoutEndMarker() throws Exception {
+        final byte[] jpeg = jpeg();
+        assertUnverified(preflightInspector.inspect(Arrays.copyOf(jpeg, jpeg.length / 2)), ImageFormat.JPEG, 311);
+        assertUnverified(preflightInspector.inspect(png(640, 480, false)), ImageFormat.PNG, 640);
+        assertUnverified(preflightInspector.inspect(gif(320, 200, false)), ImageFormat.GIF, 320);
+
+        // Motion photos append a video after the end marker of the still image
+        final byte[] motionPhoto = Arrays.copyOf(jpeg, jpeg.length + 64 * 1024);
+        assertUnverified(preflightInspector.inspect(motionPhoto), ImageFormat.JPEG, 311);
+
+        final PreflightResult shortlyAppendedResult = preflightInspector.inspect(Arrays.copyOf(jpeg, jpeg.length + 16));
+        assertThat(shortlyAppendedResult.getVerdict(), is(Verdict.UPLOAD));
+        assertThat(shortlyAppendedResult.getReason(), nullValue());
+    }
+
+    @Test
+    public void testRejectsNonImagesAndUnsupportedFormats() throws Exception {
+        assertRejected(preflightInspector.inspect(new byte[0]), Reason.NOT_AN_IMAGE, null);
+        assertRejected(preflightInspector.inspect("just some text".getBytes(Charsets.UTF_8)), Reason.NOT_AN_IMAGE, null);
+        assertRejected(preflightInspector.inspect("RIFF\0\0\0\0WEBPVP8 ".getBytes(Charsets.US_ASCII)), Reason.UNSUPPORTED_FORMAT, ImageFormat.WEBP);
+        assertRejected(preflightInspector.inspect(new byte[]{'I', 'I', 0x2a, 0, 8, 0, 0, 0}), Reason.UNSUPPORTED_FORMAT, ImageFormat.TIFF);
+        assertRejected(preflightInspector.inspect(png(0, 480, true)), Reason.CORRUPT, ImageFormat.PNG);
+
+        final PreflightInspector pngOnlyInspector = PreflightInspector.builder().withSupportedFormats(EnumSet.of(ImageFormat.PNG)).build();
+        assertRejected(pngOnlyInspector.inspect(jpeg()), Reason.UNSUPPORTED_FORMAT, ImageFormat.JPEG);
+    }
+
+    @Test
+    public void testSkipsImagesWithinResize() throws Exception {
+        final byte[] png = png(640, 480, true);
+
+        final PreflightResult withinResult = preflightInspector.inspect(png, new FitResize(800, 600));
+        assertThat(withinResult.getVerdict(), is(Verdict.SKIP));
+        assertThat(withinResult.getReason(), is(Reason.WITHIN_RESIZE));
+        assertThat(withinResult.getWidth(), is(640));
+
+        assertThat(preflightInspector.inspect(png, new LandscapeResize(640)).getVerdict(), is(Verdict.SKIP));
+        assertThat(preflightInspector.inspect(png, new FitResize(320, 600)).getVerdict(), is(Verdict.UPLOAD));
+        assertThat(preflightInspector.inspect(png, new ExactResize(800, 600)).getVerdict(), is(Verdict.UPLOAD));
+    }
+
+    private static void assertUnverified(PreflightResult preflightResult, ImageFormat imageFormat, int width) {
+        assertThat(preflightResult.getVerdict(), is(Verdict.UPLOAD));
+        assertThat(preflightResult.isUpload(), is(true));
+        assertThat(preflightResult.getReason(), is(Reason.UNVERIFIED_END));
+        assertThat(preflightResult.getImageFormat(), is(imageFormat));
+        assertThat(preflightResult.getWidth(), is(width));
+    }
+
+    private static void assertRejected(PreflightResult preflightResult, Reason reason, ImageFormat imageFormat) {
+        assertThat(preflightResult.getVerdict(), is(Verdict.REJECT));
+        assertThat(preflightResult.isUpload(), is(false));
+        assertThat(preflightResult.getReason(), is(reason));
+        assertThat(preflightResult.getImageFormat(), is(imageFormat));
+    }
+
+    private static byte[] jpeg() throws IOException {
+        return Resources.toByteArray(Resources.getResource(DefaultKrakenIoClientFunctionalTest.class, "test.jpg"));
+    }
+
+    private static byte[] png(int width, int height, boolean complete) throws IOException {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        byteArrayOutputStream.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+        byteArrayOutputStream.write(ByteBuffer.allocate(25).putInt(13).put("IHDR".getBytes(Charsets.US_ASCII)).putInt(width).putInt(height).put(new byte[]{8, 2, 0, 0, 0}).array());
+        byteArrayOutputStream.write(new byte[64]);
+        if (complete) {
+            byteArrayOutputStream.write(new byte[]{0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xae, 0x42, 0x60, (byte) 0x82});
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static byte[] gif(int width, int height, boolean complete) throws IOException {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        byteArrayOutputStream.write("GIF89a".getBytes(Charsets.US_ASCII));
+        byteArrayOutputStream.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putShort((short) width).putShort((short) height).array());
+        byteArrayOutputStream.write(new byte[]{0, 0, 0, 0x2c, 1, 2, 3});
+        if (complete) {
+            byteArrayOutputStream.write(0x3b);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+}
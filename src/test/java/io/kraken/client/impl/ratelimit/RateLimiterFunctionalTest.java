@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.ratelimit;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.exception.RateLimitExceededException;
+import io.kraken.client.impl.DefaultKrakenIoClient;
+import io.kraken.client.impl.DefaultKrakenIoClientFunctionalTest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.model.Header;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class RateLimiterFunctionalTest extends AbstractFunctionalTest {
+
+    @Before
+    public void setUp() throws Exception {
+        getMockServerClient()
+                .when(request().withPath("/v1/url"))
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader(new Header("Content-Type", "application/json"))
+                                .withBody(loadFileString("krakenIoResponse200.json"))
+                );
+    }
+
+    @Test
+    public void testSyncRequestsAreSpacedOut() throws Exception {
+        final RateLimiter rateLimiter = RateLimiter.builder(10).withBurst(2).build();
+        final DefaultKrakenIoClient krakenIoClient = createClient(rateLimiter);
+        try {
+            final long start = System.nanoTime();
+            for (int i = 0; i < 5; i++) {
+                krakenIoClient.imageUrlUpload(createRequest());
+            }
+
+            // Two requests pass immediately, the remaining three are 100 ms apart
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(280L));
+            assertThat(rateLimiter.getAcquiredPermits(), is(5L));
+            assertThat(rateLimiter.getDelayedPermits(), greaterThan(0L));
+            assertThat(rateLimiter.getTotalWaitNanos(), greaterThan(0L));
+        } finally {
+            krakenIoClient.close();
+        }
+    }
+
+    @Test
+    public void testAsyncRequestsAreScheduled() throws Exception {
+        final RateLimiter rateLimiter = RateLimiter.builder(20).build();
+        final DefaultKrakenIoClient krakenIoClient = createClient(rateLimiter);
+        try {
+            final long start = System.nanoTime();
+            final List<ListenableFuture<SuccessfulUploadResponse>> futures = new ArrayList<ListenableFuture<SuccessfulUploadResponse>>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(krakenIoClient.imageUrlUploadAsync(createRequest()));
+            }
+            final long submitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertThat(Futures.allAsList(futures).get(5, TimeUnit.SECONDS), hasSize(5));
+            assertThat(submitMillis, lessThan(150L));
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(190L));
+        } finally {
+            krakenIoClient.close();
+        }
+    }
+
+    @Test
+    public void testRejectsWhenWaitExceedsMaxWait() throws Exception {
+        final RateLimiter rateLimiter = RateLimiter.builder(1).withMaxWait(10, TimeUnit.MILLISECONDS).build();
+        final DefaultKrakenIoClient krakenIoClient = createClient(rateLimiter);
+        try {
+            krakenIoClient.imageUrlUpload(createRequest());
+            try {
+                krakenIoClient.imageUrlUpload(createRequest());
+                fail("Expected RateLimitExceededException");
+            } catch (RateLimitExceededException e) {
+                assertThat(rateLimiter.getRejectedPermits(), is(1L));
+            }
+        } finally {
+            krakenIoClient.close();
+        }
+    }
+
+    @Test
+    public void testRegistrySharesLimiterPerApiKey() throws Exception {
+        final RateLimiterRegistry rateLimiterRegistry = new RateLimiterRegistry(RateLimiter.builder(5));
+
+        assertThat(rateLimiterRegistry.get("somekey"), sameInstance(rateLimiterRegistry.get("somekey")));
+        assertThat(rateLimiterRegistry.get("somekey"), not(sameInstance(rateLimiterRegistry.get("otherkey"))));
+    }
+
+    private DefaultKrakenIoClient createClient(RateLimiter rateLimiter) {
+        return DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withRateLimiter(rateLimiter)
+                .build();
+    }
+
+    private ImageUrlUploadRequest createRequest() throws IOException {
+        return ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build();
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(DefaultKrakenIoClientFunctionalTest.class, fileName), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.singleflight;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.exception.KrakenIoRequestException;
+import io.kraken.client.impl.DefaultKrakenIoClient;
+import io.kraken.client.model.request.DirectFileUploadRequest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+import io.kraken.client.model.response.SuccessfulUploadResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.Delay;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockserver.model.HttpRequest.request;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class SingleFlightFunctionalTest extends AbstractFunctionalTest {
+
+    private DefaultKrakenIoClient krakenIoClient;
+
+    @Before
+    public void setUp() throws Exception {
+        krakenIoClient = DefaultKrakenIoClient.builder("somekey", "somesecret")
+                .withBaseUrl("http://localhost:1080")
+                .withRequestCoalescing(true)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        krakenIoClient.close();
+    }
+
+    @Test
+    public void testConcurrentImageUrlUploadsShareOneRequest() throws Exception {
+        respondSlowlyWith("/v1/url", 200, loadFileString("krakenIoResponse200.json"), Times.unlimited());
+
+        final ListenableFuture<SuccessfulUploadResponse> first = krakenIoClient.imageUrlUploadAsync(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build());
+        final ListenableFuture<SuccessfulUploadResponse> second = krakenIoClient.imageUrlUploadAsync(ImageUrlUploadRequest.builder(new URL("HTTP://SomeHost:80/image#fragment")).build());
+        final ListenableFuture<SuccessfulUploadResponse> other = krakenIoClient.imageUrlUploadAsync(ImageUrlUploadRequest.builder(new URL("http://somehost/other")).build());
+
+        assertThat(second.get(5, TimeUnit.SECONDS), sameInstance(first.get(5, TimeUnit.SECONDS)));
+        assertThat(other.get(5, TimeUnit.SECONDS), not(sameInstance(first.get())));
+        getMockServerClient().verify(request().withPath("/v1/url"), VerificationTimes.exactly(2));
+    }
+
+    @Test
+    public void testConcurrentDirectUploadsShareOneRequest() throws Exception {
+        respondSlowlyWith("/v1/upload", 200, loadFileString("krakenIoResponse200.json"), Times.unlimited());
+
+        final File image = new File(Resources.getResource(DefaultKrakenIoClient.class, "test.jpg").toURI());
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<SuccessfulUploadResponse>> futures = new ArrayList<Future<SuccessfulUploadResponse>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executorService.submit(new Callable<SuccessfulUploadResponse>() {
+                    @Override
+                    public SuccessfulUploadResponse call() throws Exception {
+                        return krakenIoClient.directUpload(DirectFileUploadRequest.builder(image).build());
+                    }
+                }));
+            }
+            for (Future<SuccessfulUploadResponse> future : futures) {
+                assertThat(future.get(5, TimeUnit.SECONDS), sameInstance(futures.get(0).get()));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testFailureIsSharedAndNotRemembered() throws Exception {
+        respondSlowlyWith("/v1/url", 500, loadFileString("krakenIoResponse500.json"), Times.exactly(1));
+        respondSlowlyWith("/v1/url", 200, loadFileString("krakenIoResponse200.json"), Times.unlimited());
+
+        final ListenableFuture<SuccessfulUploadResponse> first = krakenIoClient.imageUrlUploadAsync(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build());
+        final ListenableFuture<SuccessfulUploadResponse> second = krakenIoClient.imageUrlUploadAsync(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build());
+        for (ListenableFuture<SuccessfulUploadResponse> future : new ListenableFuture[]{first, second}) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(KrakenIoRequestException.class));
+            }
+        }
+
+        assertThat(krakenIoClient.imageUrlUpload(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build()).getStatus(), is(200));
+        getMockServerClient().verify(request().withPath("/v1/url"), VerificationTimes.exactly(2));
+    }
+
+    @Test
+    public void testCallIsCancelledOnceEverySubscriberCancelled() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final SettableFuture<String> call = SettableFuture.create();
+        final AtomicInteger calls = new AtomicInteger();
+        final Supplier<ListenableFuture<String>> supplier = new Supplier<ListenableFuture<String>>() {
+            @Override
+            public ListenableFuture<String> get() {
+                calls.incrementAndGet();
+                return call;
+            }
+        };
+
+        final ListenableFuture<String> first = singleFlight.executeAsync("key", supplier);
+        final ListenableFuture<String> second = singleFlight.executeAsync("key", supplier);
+        first.cancel(true);
+        assertThat(call.isCancelled(), is(false));
+        assertThat(singleFlight.size(), is(1));
+
+        second.cancel(true);
+        assertThat(call.isCancelled(), is(true));
+        assertThat(singleFlight.size(), is(0));
+        assertThat(calls.get(), is(1));
+    }
+
+    private void respondSlowlyWith(String path, int statusCode, String body, Times times) {
+        getMockServerClient()
+                .when(
+                        request()
+                                .withPath(path),
+                        times
+                )
+                .respond(jsonResponse(statusCode, body).withDelay(new Delay(TimeUnit.MILLISECONDS, 300)));
+    }
+
+    private String loadFileString(String fileName) throws IOException {
+        return Resources.toString(Resources.getResource(DefaultKrakenIoClient.class, fileName), Charsets.UTF_8);
+    }
+}
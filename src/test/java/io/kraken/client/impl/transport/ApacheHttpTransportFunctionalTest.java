@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.kraken.client.AbstractFunctionalTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.model.Delay;
+import org.mockserver.verify.VerificationTimes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class ApacheHttpTransportFunctionalTest extends AbstractFunctionalTest {
+
+    private ApacheHttpTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = ApacheHttpTransport.builder()
+                .withMaxConnections(2)
+                .withMaxConnectionsPerRoute(2)
+                .withConnectionRequestTimeout(100, TimeUnit.MILLISECONDS)
+                .build();
+        getMockServerClient()
+                .when(request().withPath("/slow"))
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("ok")
+                                .withDelay(new Delay(TimeUnit.MILLISECONDS, 200))
+                );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+    }
+
+    @Test
+    public void testAsyncRequestsBeyondPoolSizeAreQueued() throws Exception {
+        final List<ListenableFuture<TransportResponse>> futures = new ArrayList<ListenableFuture<TransportResponse>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(transport.executeAsync(slowRequest()));
+        }
+        assertThat(transport.getQueuedAsyncRequests(), greaterThan(0));
+
+        for (ListenableFuture<TransportResponse> future : futures) {
+            final TransportResponse transportResponse = future.get(10, TimeUnit.SECONDS);
+            try {
+                assertThat(transportResponse.getStatus(), is(200));
+            } finally {
+                transportResponse.close();
+            }
+        }
+        assertThat(transport.getQueuedAsyncRequests(), is(0));
+        getMockServerClient().verify(request().withPath("/slow"), VerificationTimes.exactly(10));
+    }
+
+    @Test
+    public void testCancelledQueuedRequestIsNotSent() throws Exception {
+        final ListenableFuture<TransportResponse> first = transport.executeAsync(slowRequest());
+        final ListenableFuture<TransportResponse> second = transport.executeAsync(slowRequest());
+        final ListenableFuture<TransportResponse> queued = transport.executeAsync(slowRequest());
+        assertThat(queued.cancel(false), is(true));
+
+        first.get(10, TimeUnit.SECONDS).close();
+        second.get(10, TimeUnit.SECONDS).close();
+        transport.executeAsync(slowRequest()).get(10, TimeUnit.SECONDS).close();
+
+        getMockServerClient().verify(request().withPath("/slow"), VerificationTimes.exactly(3));
+    }
+
+    @Test
+    public void testCancelAbortsRunningRequest() throws Exception {
+        getMockServerClient()
+                .when(request().withPath("/stalled"))
+                .respond(response().withStatusCode(200).withDelay(new Delay(TimeUnit.SECONDS, 5)));
+        final ApacheHttpTransport singleConnectionTransport = ApacheHttpTransport.builder()
+                .withMaxConnections(1)
+                .withMaxConnectionsPerRoute(1)
+                .withReadTimeout(10, TimeUnit.SECONDS)
+                .build();
+        try {
+            final ListenableFuture<TransportResponse> stalled = singleConnectionTransport.executeAsync(
+                    TransportRequest.builder(TransportRequest.GET, "http://localhost:1080/stalled").build()
+            );
+            Thread.sleep(300);
+            assertThat(stalled.cancel(true), is(true));
+
+            // Only gets the slot and the connection once the stalled request has been aborted
+            final long start = System.nanoTime();
+            singleConnectionTransport.executeAsync(slowRequest()).get(10, TimeUnit.SECONDS).close();
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(2000L));
+        } finally {
+            singleConnectionTransport.close();
+        }
+    }
+
+    private TransportRequest slowRequest() {
+        return TransportRequest.builder(TransportRequest.GET, "http://localhost:1080/slow").build();
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.MultiPart;
+import org.glassfish.jersey.media.multipart.MultiPartFeature;
+import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.Random;
+
+/**
+ * Compares uploading a multipart file request through {@link MultipartRequestBody} on the transports with the
+ * {@link FileDataBodyPart} upload of the Jersey client the transports replaced. The requests are sent to a local HTTP
+ * server which drains the body, so the file goes through a socket like it does in production. Run with a file size in
+ * megabytes as first argument, the default is 8.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class FileUploadBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 50;
+
+    public static void main(String[] args) throws Exception {
+        final int sizeInMegabytes = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final File image = createImage(sizeInMegabytes);
+        final HttpServer httpServer = startServer();
+        final String url = "http://localhost:" + httpServer.getAddress().getPort() + "/v1/upload";
+
+        final Client client = ClientBuilder.newClient(new ClientConfig()).register(MultiPartFeature.class);
+        final ApacheHttpTransport apacheHttpTransport = ApacheHttpTransport.builder().build();
+        final JerseyTransport jerseyTransport = new JerseyTransport(3000, 30000);
+        try {
+            System.out.println("File size: " + sizeInMegabytes + " MB");
+            run("jersey FileDataBodyPart", new Upload() {
+                @Override
+                public void upload(File file) {
+                    final MultiPart multiPart = new MultiPart();
+                    multiPart.bodyPart(new FormDataBodyPart("data", "{}", MediaType.APPLICATION_JSON_TYPE));
+                    multiPart.bodyPart(new FileDataBodyPart("upload", file));
+                    final Response response = client.target(url).request().post(Entity.entity(multiPart, multiPart.getMediaType()));
+                    response.close();
+                }
+            }, image);
+            run("apache transport", new TransportUpload(apacheHttpTransport, url), image);
+            run("jersey transport", new TransportUpload(jerseyTransport, url), image);
+        } finally {
+            client.close();
+            apacheHttpTransport.close();
+            jerseyTransport.close();
+            httpServer.stop(0);
+            image.delete();
+        }
+    }
+
+    private static void run(String name, Upload upload, File image) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            upload.upload(image);
+        }
+
+        final long allocatedBefore = allocatedBytes();
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            upload.upload(image);
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long allocated = allocatedBytes() - allocatedBefore;
+
+        System.out.println(String.format("%-26s %8.2f ms/op %10d bytes allocated/op",
+                name, elapsed / 1e6 / ITERATIONS, allocated / ITERATIONS));
+    }
+
+    private static HttpServer startServer() throws IOException {
+        final HttpServer httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange httpExchange) throws IOException {
+                ByteStreams.copy(httpExchange.getRequestBody(), ByteStreams.nullOutputStream());
+                httpExchange.sendResponseHeaders(200, -1);
+                httpExchange.close();
+            }
+        });
+        httpServer.start();
+
+        return httpServer;
+    }
+
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static File createImage(int sizeInMegabytes) throws IOException {
+        final File image = File.createTempFile("kraken-benchmark", ".jpg");
+        image.deleteOnExit();
+
+        final byte[] buffer = new byte[1024 * 1024];
+        final Random random = new Random(42);
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(image, "rw");
+        try {
+            for (int i = 0; i < sizeInMegabytes; i++) {
+                random.nextBytes(buffer);
+                randomAccessFile.write(buffer);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+
+        return image;
+    }
+
+    private interface Upload {
+        void upload(File file) throws IOException;
+    }
+
+    private static class TransportUpload implements Upload {
+        private final Transport transport;
+        private final String url;
+
+        private TransportUpload(Transport transport, String url) {
+            this.transport = transport;
+            this.url = url;
+        }
+
+        @Override
+        public void upload(File file) throws IOException {
+            final MultipartRequestBody body = MultipartRequestBody.builder()
+                    .withBytes("data", "application/json", "{}".getBytes(Charsets.UTF_8))
+                    .withFile("upload", file)
+                    .build();
+            transport.execute(TransportRequest.builder(TransportRequest.POST, url).withBody(body).build()).close();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.impl.transport;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import io.kraken.client.AbstractFunctionalTest;
+import io.kraken.client.GeneratedInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Uploads {@link InputStream} parts over the pooled transport, subclasses run the tests over other transports.
+ * MockServer aggregates chunked requests and reports them with a Content-Length, so the requests are sent through a
+ * proxy which records the request head as it was sent.
+ *
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class StreamingUploadFunctionalTest extends AbstractFunctionalTest {
+
+    private RecordingProxy recordingProxy;
+    private Transport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        recordingProxy = new RecordingProxy(1080);
+        transport = createTransport();
+        getMockServerClient()
+                .when(request().withPath("/v1/upload"))
+                .respond(response().withStatusCode(200));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+        recordingProxy.close();
+    }
+
+    protected Transport createTransport() {
+        return ApacheHttpTransport.builder()
+                .withReadTimeout(30, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @Test
+    public void testStreamIsSentChunked() throws Exception {
+        final MultipartRequestBody body = MultipartRequestBody.builder()
+                .withBytes("data", "application/json", "{}".getBytes(Charsets.UTF_8))
+                .withStream("upload", "image.jpg", new ByteArrayInputStream(new byte[1024]))
+                .build();
+        upload(body);
+
+        final String requestHead = recordingProxy.getRequestHead().toLowerCase();
+        assertThat(requestHead, containsString("transfer-encoding: chunked"));
+        assertThat(requestHead, not(containsString("content-length")));
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testFileIsSentWithContentLength() throws Exception {
+        final MultipartRequestBody body = MultipartRequestBody.builder()
+                .withBytes("upload", "image.jpg", "application/octet-stream", new byte[1024])
+                .build();
+        upload(body);
+
+        final String requestHead = recordingProxy.getRequestHead().toLowerCase();
+        assertThat(requestHead, containsString("content-length: " + body.getContentLength()));
+        assertThat(requestHead, not(containsString("transfer-encoding")));
+    }
+
+    @Test
+    public void testLargeStreamCompletes() throws Exception {
+        final long size = 32 * 1024 * 1024;
+        final MultipartRequestBody body = MultipartRequestBody.builder()
+                .withStream("upload", "image.jpg", new GeneratedInputStream(size))
+                .build();
+        upload(body);
+
+        assertThat(recordingProxy.getRequestBytes(), greaterThan(size));
+        getMockServerClient().verify(request().withPath("/v1/upload"), VerificationTimes.exactly(1));
+    }
+
+    private void upload(MultipartRequestBody body) throws IOException {
+        final TransportRequest transportRequest = TransportRequest.builder(TransportRequest.POST, "http://localhost:" + recordingProxy.getPort() + "/v1/upload")
+                .withBody(body)
+                .build();
+        final TransportResponse transportResponse = transport.execute(transportRequest);
+        try {
+            assertThat(transportResponse.getStatus(), is(200));
+        } finally {
+            transportResponse.close();
+        }
+    }
+
+    /**
+     * Forwards connections to the target port, keeping the head of the first request and counting the request bytes.
+     */
+    private static class RecordingProxy implements Closeable {
+        private static final int MAX_HEAD_SIZE = 8192;
+
+        private final int targetPort;
+        private final ServerSocket serverSocket;
+        private final List<Socket> sockets = new ArrayList<Socket>();
+        private final ByteArrayOutputStream requestHead = new ByteArrayOutputStream();
+        private final AtomicLong requestBytes = new AtomicLong();
+
+        private RecordingProxy(int targetPort) throws IOException {
+            this.targetPort = targetPort;
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+            final Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    accept();
+                }
+            }, "recording-proxy");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        String getRequestHead() {
+            synchronized (requestHead) {
+                final String head = new String(requestHead.toByteArray(), Charsets.ISO_8859_1);
+                final int end = head.indexOf("\r\n\r\n");
+                return end < 0 ? head : head.substring(0, end);
+            }
+        }
+
+        long getRequestBytes() {
+            return requestBytes.get();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    final Socket client = serverSocket.accept();
+                    final Socket target = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                    synchronized (sockets) {
+                        sockets.add(client);
+                        sockets.add(target);
+                    }
+                    pump(client.getInputStream(), target.getOutputStream(), true);
+                    pump(target.getInputStream(), client.getOutputStream(), false);
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void pump(final InputStream inputStream, final OutputStream outputStream, final boolean record) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final byte[] buffer = new byte[8192];
+                    try {
+                        int read;
+                        while ((read = inputStream.read(buffer)) != -1) {
+                            if (record) {
+                                synchronized (requestHead) {
+                                    requestHead.write(buffer, 0, Math.max(0, Math.min(read, MAX_HEAD_SIZE - requestHead.size())));
+                                }
+                                requestBytes.addAndGet(read);
+                            }
+                            outputStream.write(buffer, 0, read);
+                        }
+                        outputStream.close();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }, "recording-proxy-pump");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015 Nekkra UG (oss@kraken.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kraken.client.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.kraken.client.model.request.DirectUploadRequest;
+import io.kraken.client.model.request.ImageUrlUploadCallbackUrlRequest;
+import io.kraken.client.model.request.ImageUrlUploadRequest;
+import io.kraken.client.model.resize.CropResize;
+import io.kraken.client.model.resize.FillResize;
+import io.kraken.client.model.resize.FitResize;
+import io.kraken.client.model.resize.SquareResize;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Emir Dizdarevic
+ * @since 1.1.1
+ */
+public class RequestFingerprintTest {
+
+    private static final String FINGERPRINT = "b7d79fabac5e35c5cfffd7ff61088a30";
+
+    @Test
+    public void testEqualOptionsHaveEqualFingerprints() throws Exception {
+        final ImageUrlUploadRequest first = ImageUrlUploadRequest.builder(new URL("http://somehost/image"))
+                .withQuality(80)
+                .withResize(new FillResize(100, 200, new RGBA(1, 2, 3, new BigDecimal("1"))))
+                .withPreserveMeta(Metadata.DATE)
+                .withPreserveMeta(Metadata.COPYRIGHT)
+                .withConvert(new Convert(ImageFormat.PNG, null, true))
+                .build();
+        final ImageUrlUploadRequest second = ImageUrlUploadRequest.builder(new URL("http://somehost/image"))
+                .withQuality(80)
+                .withResize(new FillResize(100, 200, new RGBA(1, 2, 3, new BigDecimal("1.00"))))
+                .withPreserveMeta(Metadata.COPYRIGHT)
+                .withPreserveMeta(Metadata.DATE)
+                .withConvert(new Convert(ImageFormat.PNG, null, true))
+                .build();
+
+        assertThat(second, is(first));
+        assertThat(second.hashCode(), is(first.hashCode()));
+        assertThat(second.getOptionsFingerprint(), is(first.getOptionsFingerprint()));
+        assertThat(first.getOptionsFingerprint().bits(), is(128));
+    }
+
+    @Test
+    public void testDifferentOptionsHaveDifferentFingerprints() throws Exception {
+        final Set<Object> fingerprints = new HashSet<Object>();
+        fingerprints.add(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build().getOptionsFingerprint());
+        fingerprints.add(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).withLossy(true).build().getOptionsFingerprint());
+        fingerprints.add(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).withQuality(80).build().getOptionsFingerprint());
+        fingerprints.add(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).withResize(new CropResize(10, 20)).build().getOptionsFingerprint());
+        fingerprints.add(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).withResize(new CropResize(20, 10)).build().getOptionsFingerprint());
+        fingerprints.add(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).withResize(new FitResize(10, 20)).build().getOptionsFingerprint());
+        fingerprints.add(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).withResize(new SquareResize(10)).build().getOptionsFingerprint());
+        fingerprints.add(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).withPreserveMeta(Metadata.GEOTAG).build().getOptionsFingerprint());
+        fingerprints.add(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).withConvert(new Convert(ImageFormat.GIF, null, null)).build().getOptionsFingerprint());
+
+        assertThat(fingerprints, hasSize(9));
+    }
+
+    @Test
+    public void testFingerprintIsStable() throws Exception {
+        final ImageUrlUploadRequest imageUrlUploadRequest = ImageUrlUploadRequest.builder(new URL("http://somehost/image"))
+                .withResize(new FitResize(100, 200))
+                .withPreserveMeta(Metadata.PROFILE)
+                .build();
+
+        // Persistent caches rely on the fingerprint, changing the encoding invalidates them
+        assertThat(imageUrlUploadRequest.getOptionsFingerprint().toString(), is(FINGERPRINT));
+    }
+
+    @Test
+    public void testImagesArePartOfEquality() throws Exception {
+        final InputStream image = new ByteArrayInputStream(new byte[0]);
+
+        assertThat(DirectUploadRequest.builder(image).build(), is(DirectUploadRequest.builder(image).build()));
+        assertThat(DirectUploadRequest.builder(image).build(), not(DirectUploadRequest.builder(new ByteArrayInputStream(new byte[0])).build()));
+        assertThat(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build(), not(ImageUrlUploadRequest.builder(new URL("http://somehost/other")).build()));
+        assertThat(ImageUrlUploadCallbackUrlRequest.builder(new URL("http://somehost/image"), new URL("http://callback/a")).build(),
+                not(ImageUrlUploadCallbackUrlRequest.builder(new URL("http://somehost/image"), new URL("http://callback/b")).build()));
+    }
+
+    @Test
+    public void testFingerprintIsNotSerialized() throws Exception {
+        final String json = new ObjectMapper().writeValueAsString(ImageUrlUploadRequest.builder(new URL("http://somehost/image")).build());
+
+        assertThat(json, not(containsString("ingerprint")));
+    }
+}